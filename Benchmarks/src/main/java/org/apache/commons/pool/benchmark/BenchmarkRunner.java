@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark of this package at 1, 2, 4, ... up to
+ * <code>maxThreads</code> threads and writes one JSON result file per thread
+ * count, named <code>pool-&lt;threads&gt;t.json</code>, so that runs can be
+ * archived and compared over time.
+ * <p>
+ * Usage: <code>BenchmarkRunner [maxThreads] [resultDir] [include regexp]</code>.
+ * <code>maxThreads</code> defaults to twice the number of processors,
+ * <code>resultDir</code> to the working directory.
+ * </p>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        final File resultDir = new File(args.length > 1 ? args[1] : ".");
+        final String include = args.length > 2 ? args[2]
+                : BenchmarkRunner.class.getPackage().getName() + ".*Benchmark";
+        if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create " + resultDir);
+        }
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(resultDir, "pool-" + threads + "t.json").getPath())
+                .shouldFailOnError(true)
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
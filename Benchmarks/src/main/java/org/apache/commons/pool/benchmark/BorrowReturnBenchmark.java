@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool.ObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Borrow/return throughput of the unkeyed pools.  The pools are unbounded and
+ * pre-filled, so borrowers never wait for an instance and the numbers reflect
+ * the cost of the pool's own bookkeeping and locking.  Run at increasing
+ * thread counts (<code>-t</code>, or {@link BenchmarkRunner}) to see how each
+ * pool behaves under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BorrowReturnBenchmark {
+
+    @Param({Pools.GENERIC_LIFO, Pools.GENERIC_FIFO, Pools.STACK, Pools.SOFT, Pools.CONCURRENT})
+    public String pool;
+
+    @Param({Factories.TRIVIAL, Factories.SLOW})
+    public String factory;
+
+    @Param({"false", "true"})
+    public boolean testOnBorrow;
+
+    /** CPU tokens consumed while an instance is borrowed */
+    @Param({"0", "100"})
+    public long work;
+
+    /** Instances created before measuring */
+    private static final int PREFILL = 64;
+
+    private ObjectPool<Object> _pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        _pool = Pools.create(pool, factory, -1, PREFILL, testOnBorrow);
+        for (int i = 0; i < PREFILL; i++) {
+            _pool.addObject();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Pools.close(_pool);
+    }
+
+    @Benchmark
+    public void borrowReturn(Blackhole bh) throws Exception {
+        final Object obj = _pool.borrowObject();
+        bh.consume(obj);
+        if (work > 0) {
+            Blackhole.consumeCPU(work);
+        }
+        _pool.returnObject(obj);
+    }
+}
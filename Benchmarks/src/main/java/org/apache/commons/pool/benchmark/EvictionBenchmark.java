@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Borrow/return throughput of a {@link GenericObjectPool} while its idle
+ * object evictor runs.  The evictor examines every idle instance on each run
+ * (<code>numTestsPerEvictionRun</code> equal to the idle count) and validates
+ * them with <code>testWhileIdle</code>, but never evicts, so the pool size is
+ * stable and the difference from <code>evictionMillis=0</code> (no evictor)
+ * is the interference of eviction with borrowers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvictionBenchmark {
+
+    /** Time between eviction runs, <code>0</code> for no evictor */
+    @Param({"0", "1", "10", "100"})
+    public long evictionMillis;
+
+    /** Number of idle instances the evictor examines */
+    @Param({"100", "1000"})
+    public int idle;
+
+    @Param({Factories.TRIVIAL, Factories.SLOW})
+    public String factory;
+
+    @Param({"true", "false"})
+    public boolean lifo;
+
+    private GenericObjectPool<Object> _pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final GenericObjectPool.Config config = new GenericObjectPool.Config();
+        config.maxActive = -1;
+        config.maxIdle = idle;
+        config.lifo = lifo;
+        config.testWhileIdle = true;
+        config.numTestsPerEvictionRun = idle;
+        config.minEvictableIdleTimeMillis = -1;
+        config.timeBetweenEvictionRunsMillis = evictionMillis > 0 ? evictionMillis : -1;
+        _pool = new GenericObjectPool<Object>(Factories.create(factory), config);
+        for (int i = 0; i < idle; i++) {
+            _pool.addObject();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Pools.close(_pool);
+    }
+
+    @Benchmark
+    public void borrowReturn(Blackhole bh) throws Exception {
+        final Object obj = _pool.borrowObject();
+        bh.consume(obj);
+        _pool.returnObject(obj);
+    }
+}
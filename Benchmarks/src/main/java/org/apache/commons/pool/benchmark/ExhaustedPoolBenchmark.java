@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool.ObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Latency of borrowing from an exhausted pool.  More threads than
+ * <code>maxActive</code> compete for the instances, each holding its instance
+ * for <code>hold</code> CPU tokens, so most borrows block until another thread
+ * returns.  The sampled distribution shows how fairly and how quickly waiting
+ * borrowers are served; only the bounded, blocking pools take part.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class ExhaustedPoolBenchmark {
+
+    @Param({Pools.GENERIC_LIFO, Pools.GENERIC_FIFO, Pools.CONCURRENT})
+    public String pool;
+
+    @Param({"1", "4"})
+    public int maxActive;
+
+    /** CPU tokens consumed while an instance is borrowed */
+    @Param({"1000"})
+    public long hold;
+
+    private ObjectPool<Object> _pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        _pool = Pools.create(pool, Factories.TRIVIAL, maxActive, maxActive, false);
+        for (int i = 0; i < maxActive; i++) {
+            _pool.addObject();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Pools.close(_pool);
+    }
+
+    @Benchmark
+    public void borrowBlocking(Blackhole bh) throws Exception {
+        final Object obj = _pool.borrowObject();
+        try {
+            bh.consume(obj);
+            Blackhole.consumeCPU(hold);
+        } finally {
+            _pool.returnObject(obj);
+        }
+    }
+}
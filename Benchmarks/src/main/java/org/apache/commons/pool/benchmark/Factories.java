@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+import org.apache.commons.pool.PoolableObjectFactory;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Factories plugged into the benchmarked pools.  The <code>trivial</code>
+ * factories do no work at all, so the benchmarks measure pool overhead alone;
+ * the <code>slow</code> factories burn CPU when creating, validating and
+ * destroying instances, approximating factories that open connections or
+ * sockets.
+ */
+final class Factories {
+
+    /** Factory that does no work */
+    static final String TRIVIAL = "trivial";
+
+    /** Factory that burns CPU in makeObject, validateObject and destroyObject */
+    static final String SLOW = "slow";
+
+    /** CPU tokens consumed by a slow makeObject */
+    static final long MAKE_TOKENS = 10000;
+
+    /** CPU tokens consumed by a slow validateObject */
+    static final long VALIDATE_TOKENS = 500;
+
+    /** CPU tokens consumed by a slow destroyObject */
+    static final long DESTROY_TOKENS = 1000;
+
+    private Factories() {
+    }
+
+    /**
+     * @param kind {@link #TRIVIAL} or {@link #SLOW}
+     * @return a new factory of the given kind
+     */
+    static PoolableObjectFactory<Object> create(String kind) {
+        if (TRIVIAL.equals(kind)) {
+            return new TrivialFactory();
+        } else if (SLOW.equals(kind)) {
+            return new SlowFactory();
+        }
+        throw new IllegalArgumentException("Unknown factory " + kind);
+    }
+
+    /**
+     * @param kind {@link #TRIVIAL} or {@link #SLOW}
+     * @return a new keyed factory of the given kind
+     */
+    static KeyedPoolableObjectFactory<Integer, Object> createKeyed(String kind) {
+        if (TRIVIAL.equals(kind)) {
+            return new TrivialKeyedFactory();
+        } else if (SLOW.equals(kind)) {
+            return new SlowKeyedFactory();
+        }
+        throw new IllegalArgumentException("Unknown factory " + kind);
+    }
+
+    static class TrivialFactory extends BasePoolableObjectFactory<Object> {
+        @Override
+        public Object makeObject() {
+            return new Object();
+        }
+    }
+
+    static class SlowFactory extends BasePoolableObjectFactory<Object> {
+        @Override
+        public Object makeObject() {
+            Blackhole.consumeCPU(MAKE_TOKENS);
+            return new Object();
+        }
+
+        @Override
+        public boolean validateObject(Object obj) {
+            Blackhole.consumeCPU(VALIDATE_TOKENS);
+            return true;
+        }
+
+        @Override
+        public void destroyObject(Object obj) {
+            Blackhole.consumeCPU(DESTROY_TOKENS);
+        }
+    }
+
+    static class TrivialKeyedFactory extends BaseKeyedPoolableObjectFactory<Integer, Object> {
+        @Override
+        public Object makeObject(Integer key) {
+            return new Object();
+        }
+    }
+
+    static class SlowKeyedFactory extends BaseKeyedPoolableObjectFactory<Integer, Object> {
+        @Override
+        public Object makeObject(Integer key) {
+            Blackhole.consumeCPU(MAKE_TOKENS);
+            return new Object();
+        }
+
+        @Override
+        public boolean validateObject(Integer key, Object obj) {
+            Blackhole.consumeCPU(VALIDATE_TOKENS);
+            return true;
+        }
+
+        @Override
+        public void destroyObject(Integer key, Object obj) {
+            Blackhole.consumeCPU(DESTROY_TOKENS);
+        }
+    }
+}
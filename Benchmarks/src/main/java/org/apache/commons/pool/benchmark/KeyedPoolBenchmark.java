@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool.KeyedObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Borrow/return throughput of the keyed pools as the number of keys grows.
+ * Each thread borrows under a uniformly chosen key, so with one key all
+ * threads contend on the same sub-pool and with many keys the cost of the
+ * pool-wide bookkeeping dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyedPoolBenchmark {
+
+    @Param({Pools.GENERIC_KEYED, Pools.STACK_KEYED, Pools.CONCURRENT_KEYED, Pools.CONCURRENT_STACK_KEYED})
+    public String pool;
+
+    @Param({"1", "16", "256"})
+    public int keys;
+
+    @Param({Factories.TRIVIAL, Factories.SLOW})
+    public String factory;
+
+    /** Instances created per key before measuring */
+    private static final int PREFILL = 8;
+
+    private KeyedObjectPool<Integer, Object> _pool;
+
+    private Integer[] _keys;
+
+    /**
+     * Per-thread key selection, so that choosing a key does not contend.
+     */
+    @State(Scope.Thread)
+    public static class KeyChooser {
+        private final Random _random = new Random();
+
+        int next(int bound) {
+            return _random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        _pool = Pools.createKeyed(pool, factory, -1, PREFILL, false);
+        _keys = new Integer[keys];
+        for (int i = 0; i < keys; i++) {
+            _keys[i] = Integer.valueOf(i);
+            for (int j = 0; j < PREFILL; j++) {
+                _pool.addObject(_keys[i]);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Pools.close(_pool);
+    }
+
+    @Benchmark
+    public void borrowReturn(KeyChooser chooser, Blackhole bh) throws Exception {
+        final Integer key = _keys[chooser.next(_keys.length)];
+        final Object obj = _pool.borrowObject(key);
+        bh.consume(obj);
+        _pool.returnObject(key, obj);
+    }
+}
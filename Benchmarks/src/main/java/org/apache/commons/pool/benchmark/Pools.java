@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.benchmark;
+
+import org.apache.commons.pool.KeyedObjectPool;
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.impl.ConcurrentKeyedObjectPool;
+import org.apache.commons.pool.impl.ConcurrentObjectPool;
+import org.apache.commons.pool.impl.ConcurrentStackKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.commons.pool.impl.SoftReferenceObjectPool;
+import org.apache.commons.pool.impl.StackKeyedObjectPool;
+import org.apache.commons.pool.impl.StackObjectPool;
+
+/**
+ * Creates the benchmarked pools by name.  Bounded pools block when exhausted;
+ * the stack (keyed or not) and soft reference pools have no bound and ignore
+ * <code>maxActive</code> and <code>testOnBorrow</code>.
+ */
+final class Pools {
+
+    static final String GENERIC_LIFO = "generic-lifo";
+    static final String GENERIC_FIFO = "generic-fifo";
+    static final String STACK = "stack";
+    static final String SOFT = "soft";
+    static final String CONCURRENT = "concurrent";
+
+    static final String GENERIC_KEYED = "generic-keyed";
+    static final String STACK_KEYED = "stack-keyed";
+    static final String CONCURRENT_KEYED = "concurrent-keyed";
+    static final String CONCURRENT_STACK_KEYED = "concurrent-stack-keyed";
+
+    private Pools() {
+    }
+
+    /**
+     * @param type the pool name
+     * @param factory the factory to use
+     * @param maxActive the maximum number of active instances, negative for no limit
+     * @param maxIdle the maximum number of idle instances
+     * @param testOnBorrow whether instances are validated when borrowed
+     * @return a new pool
+     */
+    static ObjectPool<Object> create(String type, String factory, int maxActive, int maxIdle, boolean testOnBorrow) {
+        if (STACK.equals(type)) {
+            return new StackObjectPool<Object>(Factories.create(factory), maxIdle);
+        } else if (SOFT.equals(type)) {
+            return new SoftReferenceObjectPool<Object>(Factories.create(factory));
+        }
+        final GenericObjectPool.Config config = config(type, maxActive, maxIdle, testOnBorrow);
+        if (CONCURRENT.equals(type)) {
+            return new ConcurrentObjectPool<Object>(Factories.create(factory), config);
+        }
+        return new GenericObjectPool<Object>(Factories.create(factory), config);
+    }
+
+    /**
+     * @param type the pool name
+     * @param factory the factory to use
+     * @param maxActive the maximum number of active instances per key, negative for no limit
+     * @param maxIdle the maximum number of idle instances per key
+     * @param testOnBorrow whether instances are validated when borrowed
+     * @return a new keyed pool
+     */
+    static KeyedObjectPool<Integer, Object> createKeyed(String type, String factory, int maxActive, int maxIdle,
+            boolean testOnBorrow) {
+        if (STACK_KEYED.equals(type)) {
+            return new StackKeyedObjectPool<Integer, Object>(Factories.createKeyed(factory), maxIdle);
+        } else if (CONCURRENT_STACK_KEYED.equals(type)) {
+            return new ConcurrentStackKeyedObjectPool<Integer, Object>(Factories.createKeyed(factory), maxIdle);
+        }
+        final GenericKeyedObjectPool.Config config = new GenericKeyedObjectPool.Config();
+        config.maxActive = maxActive;
+        config.maxIdle = maxIdle;
+        config.maxTotal = -1;
+        config.testOnBorrow = testOnBorrow;
+        config.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK;
+        if (GENERIC_KEYED.equals(type)) {
+            return new GenericKeyedObjectPool<Integer, Object>(Factories.createKeyed(factory), config);
+        } else if (CONCURRENT_KEYED.equals(type)) {
+            return new ConcurrentKeyedObjectPool<Integer, Object>(Factories.createKeyed(factory), config);
+        }
+        throw new IllegalArgumentException("Unknown keyed pool " + type);
+    }
+
+    private static GenericObjectPool.Config config(String type, int maxActive, int maxIdle, boolean testOnBorrow) {
+        final GenericObjectPool.Config config = new GenericObjectPool.Config();
+        if (GENERIC_LIFO.equals(type) || CONCURRENT.equals(type)) {
+            config.lifo = true;
+        } else if (GENERIC_FIFO.equals(type)) {
+            config.lifo = false;
+        } else {
+            throw new IllegalArgumentException("Unknown pool " + type);
+        }
+        config.maxActive = maxActive;
+        config.maxIdle = maxIdle;
+        config.testOnBorrow = testOnBorrow;
+        config.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+        return config;
+    }
+
+    /**
+     * Closes a pool, swallowing errors.
+     * @param pool the pool to close
+     */
+    static void close(ObjectPool<?> pool) {
+        try {
+            pool.close();
+        } catch (Exception e) {
+            // ignored
+        }
+    }
+
+    /**
+     * Closes a keyed pool, swallowing errors.
+     * @param pool the pool to close
+     */
+    static void close(KeyedObjectPool<?, ?> pool) {
+        try {
+            pool.close();
+        } catch (Exception e) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.apache.commons.pool.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+
+/**
+ * Runnable check for {@link ConcurrentKeyedObjectPool}: the per-key
+ * <i>maxActive</i> and pool-wide <i>maxTotal</i> bounds, making room under
+ * <i>maxTotal</i> by destroying another key's idle instance, keys that do not
+ * block one another, and the bounds under contention.
+ */
+public final class ConcurrentKeyedObjectPoolCheck {
+
+    private ConcurrentKeyedObjectPoolCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        perKeyBounds();
+        maxTotalMakesRoom();
+        keysDoNotBlockEachOther();
+        contention();
+        System.out.println("ok");
+    }
+
+    private static void perKeyBounds() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        ConcurrentKeyedObjectPool<String, Integer> pool = new ConcurrentKeyedObjectPool<String, Integer>(factory);
+        pool.setMaxActive(2);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL);
+        Integer a1 = pool.borrowObject("a");
+        pool.borrowObject("a");
+        try {
+            pool.borrowObject("a");
+            check(false, "key a is exhausted");
+        } catch (NoSuchElementException expected) {
+        }
+        pool.borrowObject("b");
+        check(pool.getNumActive("a") == 2 && pool.getNumActive("b") == 1, "per-key active counts");
+        check(pool.getNumActive() == 3, "total active count");
+        pool.returnObject("a", a1);
+        check(pool.getNumIdle("a") == 1 && pool.getNumIdle() == 1, "returned instance idle under its key");
+        check(pool.borrowObject("a").equals(a1), "idle instance reused");
+        pool.close();
+    }
+
+    private static void maxTotalMakesRoom() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        ConcurrentKeyedObjectPool<String, Integer> pool = new ConcurrentKeyedObjectPool<String, Integer>(factory);
+        pool.setMaxActive(3);
+        pool.setMaxTotal(4);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(100);
+        List<Integer> a = pool.borrowObjects("a", 3, 0);
+        try {
+            pool.borrowObjects("b", 2, 100);
+            check(false, "only one instance left under maxTotal");
+        } catch (NoSuchElementException expected) {
+        }
+        check(pool.getNumActive() == 3 && pool.getNumIdle() == 0, "failed batch leaves nothing behind");
+        pool.returnObjects("a", a);
+        List<Integer> b = pool.borrowObjects("b", 3, 0);
+        check(b.size() == 3, "idle instances of a destroyed to make room for b");
+        check(pool.getNumIdle("a") + pool.getNumActive() <= 4, "maxTotal held");
+        check(factory.destroyed.get() >= 2, "room made by destroying idle instances");
+        pool.close();
+    }
+
+    private static void keysDoNotBlockEachOther() throws Exception {
+        final ConcurrentKeyedObjectPool<String, Integer> pool = new ConcurrentKeyedObjectPool<String, Integer>(new CountingFactory());
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(5000);
+        pool.borrowObject("a");
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread blocked = new Thread() {
+            public void run() {
+                waiting.countDown();
+                try {
+                    pool.borrowObject("a");
+                } catch (Exception e) {
+                    // expected once the pool is closed or the wait times out
+                }
+            }
+        };
+        blocked.setDaemon(true);
+        blocked.start();
+        waiting.await();
+        Thread.sleep(50);
+        long start = System.currentTimeMillis();
+        Integer b = pool.borrowObject("b");
+        check(b != null && System.currentTimeMillis() - start < 1000, "key b served while a borrower waits on key a");
+        pool.close();
+    }
+
+    private static void contention() throws Exception {
+        final int maxActive = 3;
+        final int maxTotal = 8;
+        final String[] keys = {"a", "b", "c", "d", "e"};
+        final ConcurrentMap<String, AtomicInteger> inUse = new ConcurrentHashMap<String, AtomicInteger>();
+        for (String key : keys) {
+            inUse.put(key, new AtomicInteger());
+        }
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        CountingFactory factory = new CountingFactory();
+        final ConcurrentKeyedObjectPool<String, Integer> pool = new ConcurrentKeyedObjectPool<String, Integer>(factory);
+        pool.setMaxActive(maxActive);
+        pool.setMaxTotal(maxTotal);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(10000);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 16; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 2000; i++) {
+                            String key = keys[(seed + i) % keys.length];
+                            Integer obj = pool.borrowObject(key);
+                            if (inUse.get(key).incrementAndGet() > maxActive) {
+                                violations.incrementAndGet();
+                            }
+                            if (total.incrementAndGet() > maxTotal) {
+                                violations.incrementAndGet();
+                            }
+                            if (i % 5 == 0) {
+                                Thread.yield();
+                            }
+                            total.decrementAndGet();
+                            inUse.get(key).decrementAndGet();
+                            pool.returnObject(key, obj);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(errors.get() == 0, "no borrower failed");
+        check(violations.get() == 0, "maxActive or maxTotal exceeded " + violations.get() + " times");
+        check(pool.getNumActive() == 0, "everything returned");
+        check(pool.getNumIdle() == factory.made.get() - factory.destroyed.get(), "idle count matches the factory");
+        check(pool.getNumIdle() <= maxTotal, "idle instances within maxTotal");
+        pool.close();
+    }
+
+    private static class CountingFactory extends BaseKeyedPoolableObjectFactory<String, Integer> {
+        final AtomicInteger made = new AtomicInteger();
+        final AtomicInteger destroyed = new AtomicInteger();
+
+        public Integer makeObject(String key) {
+            return Integer.valueOf(made.getAndIncrement());
+        }
+
+        public void destroyObject(String key, Integer obj) {
+            destroyed.incrementAndGet();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.apache.commons.pool.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+
+/**
+ * Runnable check for {@link ConcurrentObjectPool}: borrow and return, the
+ * <i>maxActive</i> bound under contention, timed-out blocking, batch borrows
+ * and recovery from a failed activation.
+ */
+public final class ConcurrentObjectPoolCheck {
+
+    private ConcurrentObjectPoolCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        borrowAndReturn();
+        blockTimesOut();
+        batchBorrow();
+        failedActivation();
+        contention();
+        System.out.println("ok");
+    }
+
+    private static void borrowAndReturn() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Integer> pool = new ConcurrentObjectPool<Integer>(factory);
+        Integer a = pool.borrowObject();
+        Integer b = pool.borrowObject();
+        check(!a.equals(b), "distinct instances");
+        check(pool.getNumActive() == 2 && pool.getNumIdle() == 0, "two active");
+        pool.returnObject(a);
+        check(pool.getNumActive() == 1 && pool.getNumIdle() == 1, "one returned");
+        check(pool.borrowObject().equals(a), "idle instance reused");
+        check(factory.made.get() == 2, "no extra instance made");
+        pool.invalidateObject(b);
+        check(factory.destroyed.get() == 1, "invalidated instance destroyed");
+        pool.close();
+    }
+
+    private static void blockTimesOut() throws Exception {
+        final ConcurrentObjectPool<Integer> pool = new ConcurrentObjectPool<Integer>(new CountingFactory());
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(100);
+        Integer held = pool.borrowObject();
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrowObject();
+            check(false, "borrow from an exhausted pool must time out");
+        } catch (NoSuchElementException expected) {
+        }
+        check(System.currentTimeMillis() - start >= 90, "waited for maxWait");
+
+        final AtomicReference<Integer> got = new AtomicReference<Integer>();
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    got.set(pool.borrowObject());
+                } catch (Exception e) {
+                    // left null
+                }
+            }
+        };
+        pool.setMaxWait(5000);
+        waiter.start();
+        Thread.sleep(50);
+        pool.returnObject(held);
+        waiter.join();
+        check(held.equals(got.get()), "returned instance handed to the waiter");
+
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_FAIL);
+        try {
+            pool.borrowObject();
+            check(false, "WHEN_EXHAUSTED_FAIL must fail at once");
+        } catch (NoSuchElementException expected) {
+        }
+        pool.close();
+    }
+
+    private static void batchBorrow() throws Exception {
+        ConcurrentObjectPool<Integer> pool = new ConcurrentObjectPool<Integer>(new CountingFactory());
+        pool.setMaxActive(4);
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        List<Integer> three = pool.borrowObjects(3, 0);
+        check(three.size() == 3 && pool.getNumActive() == 3, "three borrowed");
+        try {
+            pool.borrowObjects(2, 50);
+            check(false, "only one slot left");
+        } catch (NoSuchElementException expected) {
+        }
+        check(pool.getNumActive() == 3 && pool.getNumIdle() == 0, "failed batch leaves nothing behind");
+        pool.returnObjects(three);
+        check(pool.borrowObjects(4, 0).size() == 4, "whole capacity in one batch");
+        try {
+            pool.borrowObjects(5, 0);
+            check(false, "a batch larger than maxActive can never succeed");
+        } catch (NoSuchElementException expected) {
+        }
+        pool.close();
+    }
+
+    private static void failedActivation() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(1);
+        CountingFactory factory = new CountingFactory() {
+            public void activateObject(Integer obj) throws Exception {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("activation failed");
+                }
+            }
+        };
+        ConcurrentObjectPool<Integer> pool = new ConcurrentObjectPool<Integer>(factory);
+        pool.setMaxActive(1);
+        pool.addObject();
+        Integer obj = pool.borrowObject();
+        check(obj != null, "borrow retried with a new instance");
+        check(factory.destroyed.get() == 1, "instance that failed activation destroyed");
+        check(pool.getNumActive() == 1 && pool.getNumIdle() == 0, "capacity released by the failure");
+        pool.close();
+    }
+
+    private static void contention() throws Exception {
+        final int maxActive = 4;
+        final AtomicInteger inUse = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        CountingFactory factory = new CountingFactory();
+        final ConcurrentObjectPool<Integer> pool = new ConcurrentObjectPool<Integer>(factory);
+        pool.setMaxActive(maxActive);
+        pool.setMaxIdle(maxActive);
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(10000);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 16; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 2000; i++) {
+                            Integer obj = pool.borrowObject();
+                            int n = inUse.incrementAndGet();
+                            int p;
+                            while (n > (p = peak.get()) && !peak.compareAndSet(p, n)) {
+                            }
+                            if (i % 7 == 0) {
+                                Thread.yield();
+                            }
+                            inUse.decrementAndGet();
+                            pool.returnObject(obj);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(errors.get() == 0, "no borrower failed");
+        check(peak.get() <= maxActive, "at most maxActive instances in use, saw " + peak.get());
+        check(factory.made.get() <= maxActive, "at most maxActive instances made, saw " + factory.made.get());
+        check(pool.getNumActive() == 0, "everything returned");
+        check(pool.getNumIdle() == factory.made.get() - factory.destroyed.get(), "idle count matches the factory");
+        pool.close();
+    }
+
+    private static class CountingFactory extends BasePoolableObjectFactory<Integer> {
+        final AtomicInteger made = new AtomicInteger();
+        final AtomicInteger destroyed = new AtomicInteger();
+
+        public Integer makeObject() {
+            return Integer.valueOf(made.getAndIncrement());
+        }
+
+        public void destroyObject(Integer obj) {
+            destroyed.incrementAndGet();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
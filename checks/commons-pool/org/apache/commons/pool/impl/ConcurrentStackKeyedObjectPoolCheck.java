@@ -0,0 +1,213 @@
+package org.apache.commons.pool.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+import org.apache.commons.pool.KeyedObjectPool;
+
+/**
+ * Runnable check for {@link ConcurrentStackKeyedObjectPool}: single threaded,
+ * it must hand out, keep and destroy exactly the instances a
+ * {@link StackKeyedObjectPool} does for the same sequence of calls; under
+ * contention, its counts must add up once every thread is done.
+ */
+public final class ConcurrentStackKeyedObjectPoolCheck {
+
+    private static final String[] KEYS = {"a", "b", "c"};
+
+    private ConcurrentStackKeyedObjectPoolCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (long seed = 0; seed < 50; seed++) {
+            sameAsStackKeyedObjectPool(seed);
+        }
+        withoutFactory();
+        addObjectToFullKey();
+        contention();
+        System.out.println("ok");
+    }
+
+    private static void sameAsStackKeyedObjectPool(long seed) throws Exception {
+        RecordingFactory expectedFactory = new RecordingFactory();
+        RecordingFactory actualFactory = new RecordingFactory();
+        KeyedObjectPool<String, Integer> expected = new StackKeyedObjectPool<String, Integer>(expectedFactory, 4);
+        KeyedObjectPool<String, Integer> actual = new ConcurrentStackKeyedObjectPool<String, Integer>(actualFactory, 4);
+        Map<String, List<Integer>> borrowed = new HashMap<String, List<Integer>>();
+        for (String key : KEYS) {
+            borrowed.put(key, new ArrayList<Integer>());
+        }
+        Random random = new Random(seed);
+        for (int step = 0; step < 500; step++) {
+            String key = KEYS[random.nextInt(KEYS.length)];
+            List<Integer> out = borrowed.get(key);
+            int op = random.nextInt(10);
+            String where = "seed " + seed + " step " + step + " op " + op + " key " + key;
+            if (op < 4) {
+                Object e = borrow(expected, key);
+                Object a = borrow(actual, key);
+                check(e.equals(a), where + ": borrowed " + a + ", expected " + e);
+                if (e instanceof Integer) {
+                    out.add((Integer) e);
+                }
+            } else if (op < 7 && !out.isEmpty()) {
+                Integer obj = out.remove(random.nextInt(out.size()));
+                expected.returnObject(key, obj);
+                actual.returnObject(key, obj);
+            } else if (op == 7 && !out.isEmpty()) {
+                Integer obj = out.remove(random.nextInt(out.size()));
+                expected.invalidateObject(key, obj);
+                actual.invalidateObject(key, obj);
+            } else if (op == 8 && expected.getNumIdle(key) < 4) {
+                // on a full key StackKeyedObjectPool destroys the oldest idle
+                // instance and drops the new one too; see addObjectToFullKey
+                expected.addObject(key);
+                actual.addObject(key);
+            } else if (op == 9 && random.nextInt(10) == 0) {
+                expected.clear(key);
+                actual.clear(key);
+                out.clear();
+            }
+            for (String k : KEYS) {
+                check(expected.getNumIdle(k) == actual.getNumIdle(k), where + ": idle count of " + k);
+                check(expected.getNumActive(k) == actual.getNumActive(k), where + ": active count of " + k);
+            }
+            check(expectedFactory.destroyed().equals(actualFactory.destroyed()), where + ": destroyed " + actualFactory.destroyed()
+                    + ", expected " + expectedFactory.destroyed());
+        }
+        check(expected.getNumIdle() == actual.getNumIdle() && expected.getNumActive() == actual.getNumActive(), "totals");
+        expected.close();
+        actual.close();
+        check(expectedFactory.destroyed().equals(actualFactory.destroyed()), "seed " + seed + ": destroyed on close");
+    }
+
+    private static Object borrow(KeyedObjectPool<String, Integer> pool, String key) throws Exception {
+        try {
+            return pool.borrowObject(key);
+        } catch (NoSuchElementException e) {
+            return "NoSuchElementException";
+        }
+    }
+
+    private static void withoutFactory() throws Exception {
+        ConcurrentStackKeyedObjectPool<String, Integer> pool = new ConcurrentStackKeyedObjectPool<String, Integer>(2);
+        try {
+            pool.borrowObject("a");
+            check(false, "a pool without a factory cannot make instances");
+        } catch (NoSuchElementException expected) {
+        }
+        pool.returnObject("a", Integer.valueOf(1));
+        pool.returnObject("a", Integer.valueOf(2));
+        pool.returnObject("a", Integer.valueOf(3));
+        check(pool.getNumIdle("a") == 2, "capped at maxSleeping");
+        check(pool.borrowObject("a").intValue() == 3, "last in first out");
+        check(pool.borrowObject("a").intValue() == 2, "oldest instance was dropped");
+        pool.close();
+    }
+
+    private static void addObjectToFullKey() throws Exception {
+        RecordingFactory factory = new RecordingFactory();
+        ConcurrentStackKeyedObjectPool<String, Integer> pool = new ConcurrentStackKeyedObjectPool<String, Integer>(factory, 2);
+        pool.addObject("a");
+        pool.addObject("a");
+        pool.addObject("a");
+        check(pool.getNumIdle("a") == 2, "capped at maxSleeping");
+        check(factory.destroyed.size() == 1 && factory.destroyed.get(0).intValue() == 0, "oldest instance destroyed");
+        check(pool.borrowObject("a").intValue() == 2, "added instance kept");
+        pool.close();
+    }
+
+    private static void contention() throws Exception {
+        final RecordingFactory factory = new RecordingFactory();
+        final ConcurrentStackKeyedObjectPool<String, Integer> pool = new ConcurrentStackKeyedObjectPool<String, Integer>(factory, 8);
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 16; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        List<Integer> held = new ArrayList<Integer>();
+                        for (int i = 0; i < 5000; i++) {
+                            String key = KEYS[(seed + i) % KEYS.length];
+                            held.clear();
+                            for (int n = 0; n <= i % 3; n++) {
+                                try {
+                                    held.add(pool.borrowObject(key));
+                                } catch (NoSuchElementException e) {
+                                    // a newly made instance that failed validation
+                                }
+                            }
+                            for (Integer obj : held) {
+                                pool.returnObject(key, obj);
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(errors.get() == 0, "no thread failed");
+        check(pool.getNumActive() == 0, "everything returned");
+        int idle = 0;
+        for (String key : KEYS) {
+            check(pool.getNumActive(key) == 0, "nothing active under " + key);
+            idle += pool.getNumIdle(key);
+        }
+        check(idle == pool.getNumIdle(), "per-key idle counts add up");
+        check(pool.getNumIdle() == factory.made.get() - factory.destroyed.size(), "idle count matches the factory");
+        pool.close();
+    }
+
+    /**
+     * Numbers its instances, fails validation of every eleventh one, and
+     * records the instances it destroys.  The order in which a cleared key's
+     * idle instances are destroyed is not part of the contract, so
+     * {@link #destroyed()} compares as a set.
+     */
+    private static class RecordingFactory extends BaseKeyedPoolableObjectFactory<String, Integer> {
+        final AtomicInteger made = new AtomicInteger();
+        final List<Integer> destroyed = Collections.synchronizedList(new ArrayList<Integer>());
+
+        public Integer makeObject(String key) {
+            return Integer.valueOf(made.getAndIncrement());
+        }
+
+        public boolean validateObject(String key, Integer obj) {
+            return obj.intValue() % 11 != 10;
+        }
+
+        public void destroyObject(String key, Integer obj) {
+            destroyed.add(obj);
+        }
+
+        Set<Integer> destroyed() {
+            return new TreeSet<Integer>(destroyed);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
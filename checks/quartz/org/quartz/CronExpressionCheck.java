@@ -0,0 +1,152 @@
+package org.quartz;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runnable check for {@link CronExpression}: compares it with
+ * {@link ReferenceCronExpression}, the evaluator it replaced, on 48,000
+ * random times (20 expressions in 6 time zones, 400 times each), and then
+ * again with several threads sharing the same expressions.
+ */
+public final class CronExpressionCheck {
+
+    private static final String[] EXPRESSIONS = {
+        "0 0 12 * * ?", "0 15 10 ? * *", "0 0/5 14,18 * * ?", "0 15 10 L * ?",
+        "0 15 10 L-2 * ?", "0 15 10 ? * 6L", "0 15 10 ? * 6#3", "0 0 12 1/5 * ?",
+        "0 11 11 11 11 ?", "0 0 0 15W * ?", "0 0 0 LW * ?", "0 30 2 * * ?",
+        "* * * * * ?", "0 0 0 29 2 ? *", "0 0 0 ? * MON-FRI 2030-2035", "59 59 23 31 12 ? 2099",
+        "0 0 1 ? * SUN#5", "0 0 0 1W * ?", "0 0/30 1-3 * * ?", "0 0 0 ? * 2L"
+    };
+
+    private static final String[] TIME_ZONES = {
+        "UTC", "America/New_York", "Europe/London", "Australia/Lord_Howe", "America/Sao_Paulo", "Asia/Kolkata"
+    };
+
+    private static final String[] INVALID = {
+        "0 0 12 * * *", "0 0 12 ? * ?", "0 60 * * * ?", "0 0 0 32 * ?", "0 0 0 ? * 8", "0 0 0 L-31 * ?",
+        "0 0 0 ? * 6#6", "0 0 0 W * ?", "0 0 0 ? * MON-FOO", "0 0 0 * * ? 1969"
+    };
+
+    private CronExpressionCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cases = compareAll(1L);
+        check(cases == 48000, "compared " + cases + " cases");
+        concurrently();
+        sameValidation();
+        System.out.println("ok");
+    }
+
+    /**
+     * Compares every expression in every time zone on 400 random times from
+     * 2001 to 2065, a quarter of them on a whole minute.
+     *
+     * @return the number of times compared
+     */
+    private static int compareAll(long seed) throws ParseException {
+        Random random = new Random(seed);
+        int cases = 0;
+        for (String expression : EXPRESSIONS) {
+            for (String timeZone : TIME_ZONES) {
+                CronExpression actual = new CronExpression(expression);
+                ReferenceCronExpression expected = new ReferenceCronExpression(expression);
+                actual.setTimeZone(TimeZone.getTimeZone(timeZone));
+                expected.setTimeZone(TimeZone.getTimeZone(timeZone));
+                for (int i = 0; i < 400; i++) {
+                    compare(actual, expected, randomTime(random, i), expression + " in " + timeZone);
+                    cases++;
+                }
+                check(actual.getExpressionSummary().equals(expected.getExpressionSummary()),
+                        expression + ": summary");
+            }
+        }
+        return cases;
+    }
+
+    private static long randomTime(Random random, int i) {
+        long t = 1000000000000L + (long) (random.nextDouble() * 2000000000000L);
+        return (i % 4 == 0) ? t - t % 60000L : t;
+    }
+
+    private static void compare(CronExpression actual, ReferenceCronExpression expected, long time, String what) {
+        Date date = new Date(time);
+        Date next = expected.getTimeAfter(date);
+        check(same(actual.getTimeAfter(date), next), what + ": time after " + time);
+        check(actual.isSatisfiedBy(date) == expected.isSatisfiedBy(date), what + ": satisfied by " + time);
+        if (next != null) {
+            check(actual.isSatisfiedBy(next), what + ": satisfied by its own fire time " + next.getTime());
+            List<Date> expectedTimes = new ArrayList<Date>();
+            for (Date d = next; d != null && expectedTimes.size() < 3; d = expected.getTimeAfter(d)) {
+                expectedTimes.add(d);
+            }
+            check(actual.getNextValidTimesAfter(date, 3).equals(expectedTimes), what + ": next three after " + time);
+        }
+    }
+
+    /**
+     * Runs the comparison on four threads that share one instance of each
+     * expression, as the triggers of a scheduler do.
+     */
+    private static void concurrently() throws Exception {
+        final CronExpression[] actual = new CronExpression[EXPRESSIONS.length];
+        final ReferenceCronExpression[] expected = new ReferenceCronExpression[EXPRESSIONS.length];
+        for (int e = 0; e < EXPRESSIONS.length; e++) {
+            actual[e] = new CronExpression(EXPRESSIONS[e]);
+            actual[e].setTimeZone(TimeZone.getTimeZone(TIME_ZONES[e % TIME_ZONES.length]));
+            expected[e] = new ReferenceCronExpression(EXPRESSIONS[e]);
+            expected[e].setTimeZone(TimeZone.getTimeZone(TIME_ZONES[e % TIME_ZONES.length]));
+        }
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final long seed = 100L + t;
+            Thread thread = new Thread() {
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 4000; i++) {
+                            int e = random.nextInt(EXPRESSIONS.length);
+                            compare(actual[e], expected[e], randomTime(random, i), EXPRESSIONS[e] + " (threaded)");
+                        }
+                    } catch (AssertionError e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(failures.get() == 0, "threads disagreed with the reference");
+    }
+
+    private static void sameValidation() {
+        for (String expression : EXPRESSIONS) {
+            check(CronExpression.isValidExpression(expression), expression + " is valid");
+        }
+        for (String expression : INVALID) {
+            check(CronExpression.isValidExpression(expression) == ReferenceCronExpression.isValidExpression(expression),
+                    expression + ": validity");
+        }
+    }
+
+    private static boolean same(Date a, Date b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package org.quartz.impl.calendar;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.quartz.Calendar;
+
+/**
+ * Runnable check for the calendars that answer from a {@link DayIndex}:
+ * <code>AnnualCalendar</code>, <code>DailyCalendar</code>,
+ * <code>HolidayCalendar</code>, <code>MonthlyCalendar</code> and
+ * <code>WeeklyCalendar</code> must include the same times and find the same
+ * next included times as their 2.2.1 versions, across time zones with
+ * daylight saving and skipped days, over years far enough apart to compile
+ * several index windows, with base calendars, and while their exclusions and
+ * time zones are changed between questions.
+ */
+public final class DayIndexCheck {
+
+    private static final String[] TIME_ZONES = {
+        "UTC", "America/New_York", "Europe/London", "Australia/Lord_Howe", "Pacific/Apia", "Asia/Kolkata"
+    };
+
+    // 1971 to 2100, the calendars only take positive times
+    private static final long FIRST = 31536000000L;
+    private static final long SPAN = 4102444800000L - FIRST;
+
+    private static final long DAY = 86400000L;
+
+    private DayIndexCheck() {
+    }
+
+    public static void main(String[] args) {
+        int cases = 0;
+        for (long seed = 0; seed < 12; seed++) {
+            cases += run(new WeeklyPair(), seed);
+            cases += run(new MonthlyPair(), seed);
+            cases += run(new AnnualPair(), seed);
+            cases += run(new HolidayPair(), seed);
+            cases += run(new DailyPair(), seed);
+            cases += run(new ChainedPair(), seed);
+        }
+        System.out.println("ok, " + cases + " cases");
+    }
+
+    /**
+     * Asks both calendars of the pair about random times, changing their
+     * exclusions or time zone now and then.
+     *
+     * @return the number of times asked about
+     */
+    private static int run(Pair pair, long seed) {
+        Random random = new Random(seed);
+        pair.configure(random);
+        int cases = 0;
+        long center = FIRST + (long) (random.nextDouble() * SPAN);
+        for (int step = 0; step < 3000; step++) {
+            if (step % 500 == 499) {
+                String timeZone = TIME_ZONES[random.nextInt(TIME_ZONES.length)];
+                pair.setTimeZone(TimeZone.getTimeZone(timeZone));
+            } else if (step % 100 == 99) {
+                pair.mutate(random);
+            }
+            if (random.nextInt(50) == 0) {
+                // move far enough away to need another window of the index
+                center = FIRST + (long) (random.nextDouble() * SPAN);
+            }
+            long time = Math.max(FIRST, center + (long) ((random.nextDouble() - 0.5) * 120 * DAY));
+            if (random.nextInt(4) == 0) {
+                time -= time % 60000L;
+            }
+            String where = pair + " seed " + seed + " step " + step + " at " + time + " (" + new Date(time) + ")";
+            check(pair.actual().isTimeIncluded(time) == pair.expected().isTimeIncluded(time), where + ": included");
+            long next = pair.actual().getNextIncludedTime(time);
+            long expectedNext = pair.expected().getNextIncludedTime(time);
+            check(next == expectedNext || isMidnightOf(next, expectedNext, pair.actual().getTimeZone()),
+                    where + ": next included " + next + ", expected " + expectedNext);
+            cases++;
+        }
+        return cases;
+    }
+
+    /**
+     * Whether <code>time</code> is the midnight of the day of
+     * <code>expected</code>, which is not a midnight itself.  The 2.2.1
+     * calendars step from day to day with <code>Calendar.add(DATE, 1)</code>,
+     * which keeps 24 hour steps across a change of a time zone's standard
+     * offset (Lord Howe Island went from +10:00 to +10:30 in 1981), so their
+     * "start of day" drifts off midnight after one.
+     */
+    private static boolean isMidnightOf(long time, long expected, TimeZone timeZone) {
+        java.util.Calendar day = java.util.Calendar.getInstance(timeZone);
+        day.setTimeInMillis(expected);
+        day.set(java.util.Calendar.HOUR_OF_DAY, 0);
+        day.set(java.util.Calendar.MINUTE, 0);
+        day.set(java.util.Calendar.SECOND, 0);
+        day.set(java.util.Calendar.MILLISECOND, 0);
+        return day.getTimeInMillis() == time && time != expected;
+    }
+
+    /**
+     * A calendar and its 2.2.1 version, configured alike.
+     */
+    private abstract static class Pair {
+
+        abstract BaseCalendar actual();
+
+        abstract BaseCalendar expected();
+
+        abstract void configure(Random random);
+
+        abstract void mutate(Random random);
+
+        void setTimeZone(TimeZone timeZone) {
+            actual().setTimeZone(timeZone);
+            expected().setTimeZone(timeZone);
+        }
+
+        @Override
+        public String toString() {
+            String name = actual().getClass().getSimpleName();
+            return name + " in " + actual().getTimeZone().getID();
+        }
+    }
+
+    private static class WeeklyPair extends Pair {
+        final WeeklyCalendar actual = new WeeklyCalendar();
+        final ReferenceWeeklyCalendar expected = new ReferenceWeeklyCalendar();
+
+        BaseCalendar actual() {
+            return actual;
+        }
+
+        BaseCalendar expected() {
+            return expected;
+        }
+
+        void configure(Random random) {
+            setTimeZone(TimeZone.getTimeZone(TIME_ZONES[random.nextInt(TIME_ZONES.length)]));
+            mutate(random);
+        }
+
+        void mutate(Random random) {
+            int wday = 1 + random.nextInt(7);
+            boolean exclude = random.nextBoolean();
+            if (random.nextBoolean()) {
+                actual.setDayExcluded(wday, exclude);
+                expected.setDayExcluded(wday, exclude);
+            } else {
+                // change the array handed out in place
+                actual.getDaysExcluded()[wday] = exclude;
+                expected.getDaysExcluded()[wday] = exclude;
+            }
+            if (actual.areAllDaysExcluded()) {
+                actual.setDayExcluded(wday, false);
+                expected.setDayExcluded(wday, false);
+            }
+        }
+    }
+
+    private static class MonthlyPair extends Pair {
+        final MonthlyCalendar actual = new MonthlyCalendar();
+        final ReferenceMonthlyCalendar expected = new ReferenceMonthlyCalendar();
+
+        BaseCalendar actual() {
+            return actual;
+        }
+
+        BaseCalendar expected() {
+            return expected;
+        }
+
+        void configure(Random random) {
+            setTimeZone(TimeZone.getTimeZone(TIME_ZONES[random.nextInt(TIME_ZONES.length)]));
+            for (int i = 0; i < 12; i++) {
+                mutate(random);
+            }
+        }
+
+        void mutate(Random random) {
+            int day = 1 + random.nextInt(31);
+            boolean exclude = random.nextInt(3) != 0;
+            if (random.nextBoolean()) {
+                actual.setDayExcluded(day, exclude);
+                expected.setDayExcluded(day, exclude);
+            } else {
+                actual.getDaysExcluded()[day - 1] = exclude;
+                expected.getDaysExcluded()[day - 1] = exclude;
+            }
+            if (actual.areAllDaysExcluded()) {
+                actual.setDayExcluded(day, false);
+                expected.setDayExcluded(day, false);
+            }
+        }
+    }
+
+    private static class AnnualPair extends Pair {
+        final AnnualCalendar actual = new AnnualCalendar();
+        final ReferenceAnnualCalendar expected = new ReferenceAnnualCalendar();
+
+        BaseCalendar actual() {
+            return actual;
+        }
+
+        BaseCalendar expected() {
+            return expected;
+        }
+
+        void configure(Random random) {
+            setTimeZone(TimeZone.getTimeZone(TIME_ZONES[random.nextInt(TIME_ZONES.length)]));
+            for (int i = 0; i < 60; i++) {
+                mutate(random);
+            }
+        }
+
+        void mutate(Random random) {
+            java.util.Calendar day = java.util.Calendar.getInstance(actual.getTimeZone());
+            day.clear();
+            day.set(2000, random.nextInt(12), 1);
+            day.set(java.util.Calendar.DAY_OF_MONTH, 1 + random.nextInt(day.getActualMaximum(java.util.Calendar.DAY_OF_MONTH)));
+            boolean exclude = random.nextInt(4) != 0;
+            actual.setDayExcluded((java.util.Calendar) day.clone(), exclude);
+            expected.setDayExcluded((java.util.Calendar) day.clone(), exclude);
+        }
+    }
+
+    private static class HolidayPair extends Pair {
+        final HolidayCalendar actual = new HolidayCalendar();
+        final ReferenceHolidayCalendar expected = new ReferenceHolidayCalendar();
+        long around;
+
+        BaseCalendar actual() {
+            return actual;
+        }
+
+        BaseCalendar expected() {
+            return expected;
+        }
+
+        void configure(Random random) {
+            setTimeZone(TimeZone.getTimeZone(TIME_ZONES[random.nextInt(TIME_ZONES.length)]));
+            for (int i = 0; i < 400; i++) {
+                around = FIRST + (long) (random.nextDouble() * SPAN);
+                for (int j = 0; j < 8; j++) {
+                    mutate(random);
+                }
+            }
+        }
+
+        void mutate(Random random) {
+            Date date = new Date(around + (long) ((random.nextDouble() - 0.5) * 60 * DAY));
+            if (random.nextInt(4) != 0) {
+                actual.addExcludedDate(date);
+                expected.addExcludedDate(date);
+            } else {
+                actual.removeExcludedDate(date);
+                expected.removeExcludedDate(date);
+            }
+        }
+    }
+
+    private static class DailyPair extends Pair {
+        DailyCalendar actual;
+        ReferenceDailyCalendar expected;
+
+        BaseCalendar actual() {
+            return actual;
+        }
+
+        BaseCalendar expected() {
+            return expected;
+        }
+
+        void configure(Random random) {
+            int start = random.nextInt(24 * 60 - 1);
+            int end = start + 1 + random.nextInt(24 * 60 - 1 - start);
+            String from = time(start, random);
+            String to = time(end, random);
+            actual = new DailyCalendar(from, to);
+            expected = new ReferenceDailyCalendar(from, to);
+            setTimeZone(TimeZone.getTimeZone(TIME_ZONES[random.nextInt(TIME_ZONES.length)]));
+            mutate(random);
+        }
+
+        private static String time(int minuteOfDay, Random random) {
+            return String.format("%02d:%02d:%02d:%03d", minuteOfDay / 60, minuteOfDay % 60,
+                    random.nextInt(60), random.nextInt(1000));
+        }
+
+        void mutate(Random random) {
+            boolean invert = random.nextBoolean();
+            actual.setInvertTimeRange(invert);
+            expected.setInvertTimeRange(invert);
+        }
+    }
+
+    /**
+     * A weekly calendar over a holiday calendar, to check that the base
+     * calendar is still consulted.
+     */
+    private static class ChainedPair extends Pair {
+        final HolidayPair holidays = new HolidayPair();
+        final WeeklyPair weekly = new WeeklyPair();
+
+        BaseCalendar actual() {
+            return weekly.actual;
+        }
+
+        BaseCalendar expected() {
+            return weekly.expected;
+        }
+
+        void configure(Random random) {
+            holidays.configure(random);
+            weekly.configure(random);
+            weekly.actual.setBaseCalendar(holidays.actual);
+            weekly.expected.setBaseCalendar(holidays.expected);
+        }
+
+        void mutate(Random random) {
+            if (random.nextBoolean()) {
+                holidays.mutate(random);
+            } else {
+                weekly.mutate(random);
+            }
+        }
+
+        @Override
+        void setTimeZone(TimeZone timeZone) {
+            holidays.setTimeZone(timeZone);
+            weekly.setTimeZone(timeZone);
+        }
+
+        @Override
+        public String toString() {
+            return "WeeklyCalendar over " + holidays;
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
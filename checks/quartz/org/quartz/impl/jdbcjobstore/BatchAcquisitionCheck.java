@@ -0,0 +1,340 @@
+package org.quartz.impl.jdbcjobstore;
+
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.quartz.CronTrigger;
+import org.quartz.JobKey;
+import org.quartz.SimpleTrigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.Execution;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.FiredRow;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.NoopJob;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.SerialJob;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.TriggerRow;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.simpl.SimpleClassLoadHelper;
+import org.quartz.spi.OperableTrigger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runnable check for the set-based acquisition of
+ * <code>acquireTriggersInBatch</code>, against {@link FakeDatabase}:
+ * {@link Util#forTriggerKeys} must select each of the given triggers; the
+ * delegate must load triggers of mixed types with one query for their rows
+ * and one per type and hundred triggers for their properties, skipping a
+ * trigger deleted meanwhile; and the job store must acquire the same
+ * triggers as trigger by trigger, with one batched update and one batched
+ * insert, also when the driver reports no batch update counts.
+ */
+public final class BatchAcquisitionCheck {
+
+    private static final String KEY_CONDITION = "TRIGGER_NAME = ? AND TRIGGER_GROUP = ?";
+
+    private BatchAcquisitionCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        forTriggerKeys();
+        loadsPropertiesPerType();
+        batchedStateUpdates();
+        acquiresLikeOneByOne();
+        unknownUpdateCounts();
+        System.out.println("ok");
+    }
+
+    private static void forTriggerKeys() {
+        String single = StdJDBCConstants.SELECT_CRON_TRIGGER;
+        String prefix = single.substring(0, single.length() - KEY_CONDITION.length());
+        check(Util.forTriggerKeys(single, 1).equals(prefix + "((" + KEY_CONDITION + "))"), "one key");
+        check(Util.forTriggerKeys(single, 3).equals(prefix + "((" + KEY_CONDITION + ") OR ("
+                + KEY_CONDITION + ") OR (" + KEY_CONDITION + "))"), Util.forTriggerKeys(single, 3));
+        rejected(single, 0);
+        rejected(StdJDBCConstants.SELECT_JOB_DETAIL, 2);
+    }
+
+    private static void rejected(String query, int count) {
+        try {
+            Util.forTriggerKeys(query, count);
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError("accepted " + count + " keys for " + query);
+    }
+
+    private static void loadsPropertiesPerType() throws Exception {
+        final TriggerKey deleted = new TriggerKey("s3");
+        FakeDatabase db = new FakeDatabase() {
+            @Override
+            protected List<Map<String, Object>> query(String sql, Object[] p) throws SQLException {
+                // another node deletes a trigger once its row has been read
+                if (sql.startsWith(sql(SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS)) && trigger(deleted) != null) {
+                    List<Map<String, Object>> rows = super.query(sql, p);
+                    removeTrigger(deleted);
+                    return rows;
+                }
+                return super.query(sql, p);
+            }
+        };
+        db.addJob("job", NoopJob.class);
+        db.addJob("serial", SerialJob.class);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 230; i++) {
+            TriggerRow row = db.addSimpleTrigger("s" + i, (i % 10 == 0) ? "serial" : "job", now + i);
+            row.repeatCount = i;
+            row.repeatInterval = 1000L + i;
+            row.timesTriggered = i % 7;
+        }
+        for (int i = 0; i < 40; i++) {
+            db.addCronTrigger("c" + i, "job", now + i, "0 0/" + (i + 1) + " * * * ?");
+        }
+        SimpleTriggerImpl blob = (SimpleTriggerImpl) newTrigger().withIdentity("b").forJob("job")
+                .withSchedule(simpleSchedule().withIntervalInSeconds(3).repeatForever()).build();
+        blob.setNextFireTime(new Date(now + 5));
+        db.addBlobTrigger(blob);
+
+        StdJDBCDelegate delegate = delegate();
+        Connection conn = db.connect();
+        Set<JobKey> nonConcurrentJobs = new HashSet<JobKey>();
+        List<OperableTrigger> triggers = delegate.selectTriggersToAcquire(conn, now + 1000, now - 60000, 500,
+                nonConcurrentJobs);
+
+        check(triggers.size() == 270, "all but the deleted trigger loaded: " + triggers.size());
+        check(nonConcurrentJobs.equals(Collections.singleton(new JobKey("serial"))), "non-concurrent jobs " + nonConcurrentJobs);
+        long previous = 0;
+        for (OperableTrigger trigger : triggers) {
+            String name = trigger.getKey().getName();
+            check(!trigger.getKey().equals(deleted), "deleted trigger skipped");
+            check(trigger.getNextFireTime().getTime() >= previous, "fire time order at " + name);
+            previous = trigger.getNextFireTime().getTime();
+            if (name.equals("b")) {
+                check(trigger instanceof SimpleTriggerImpl
+                        && ((SimpleTrigger) trigger).getRepeatInterval() == 3000L, "blob trigger read back");
+                continue;
+            }
+            int i = Integer.parseInt(name.substring(1));
+            check(trigger.getNextFireTime().getTime() == now + i, name + " fire time");
+            if (name.startsWith("s")) {
+                SimpleTrigger simple = (SimpleTrigger) trigger;
+                check(simple.getRepeatCount() == i && simple.getRepeatInterval() == 1000L + i
+                        && simple.getTimesTriggered() == i % 7, name + " simple properties");
+                check(trigger.getJobKey().getName().equals((i % 10 == 0) ? "serial" : "job"), name + " job");
+            } else {
+                CronTrigger cron = (CronTrigger) trigger;
+                check(cron.getCronExpression().equals("0 0/" + (i + 1) + " * * * ?")
+                        && cron.getTimeZone().getID().equals("UTC"), name + " cron properties");
+            }
+        }
+
+        // one query for the rows, one per type and hundred triggers, and the
+        // deleted trigger looked for on its own
+        check(db.executions(StdJDBCConstants.SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS).size() == 1, "one join");
+        check(parameterCounts(db.executionsForTriggerKeys(StdJDBCConstants.SELECT_SIMPLE_TRIGGER))
+                .equals(Arrays.asList(200, 200, 60, 2)), "simple properties queries");
+        check(parameterCounts(db.executionsForTriggerKeys(StdJDBCConstants.SELECT_CRON_TRIGGER))
+                .equals(Arrays.asList(80)), "cron properties query");
+        check(parameterCounts(db.executionsForTriggerKeys(StdJDBCConstants.SELECT_BLOB_TRIGGER))
+                .equals(Arrays.asList(2)), "blob query");
+        check(db.executions(StdJDBCConstants.SELECT_TRIGGER_EXISTENCE).size() == 1, "existence of the deleted trigger");
+        check(db.executions().size() == 8, "statements for 271 triggers: " + db.executions());
+
+        // maxCount bounds the triggers and their properties queries
+        db.clearExecutions();
+        triggers = delegate.selectTriggersToAcquire(conn, now + 1000, now - 60000, 10, new HashSet<JobKey>());
+        check(triggers.size() == 10, "maxCount triggers: " + triggers.size());
+        int keys = 0;
+        for (Execution execution : db.executions()) {
+            if (!execution.sql.equals(FakeDatabase.sql(StdJDBCConstants.SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS))) {
+                keys += execution.parameters.get(0).length / 2;
+            }
+        }
+        check(keys == 10, "properties of maxCount triggers loaded: " + keys);
+
+        // properties missing for a trigger that still exists are an error
+        TriggerRow broken = db.trigger(new TriggerKey("s4")).copy();
+        broken.propertiesMissing = true;
+        db.update(broken);
+        try {
+            delegate.selectTriggersToAcquire(conn, now + 1000, now - 60000, 500, new HashSet<JobKey>());
+            throw new AssertionError("missing properties of an existing trigger ignored");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static void batchedStateUpdates() throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        db.addJob("job", NoopJob.class);
+        long now = System.currentTimeMillis();
+        List<TriggerKey> keys = new ArrayList<TriggerKey>();
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>();
+        for (int i = 0; i < 5; i++) {
+            db.addSimpleTrigger("t" + i, "job", now + i);
+            keys.add(new TriggerKey("t" + i));
+            triggers.add(fired("t" + i, now + i));
+        }
+        TriggerRow paused = db.trigger(new TriggerKey("t2")).copy();
+        paused.state = Constants.STATE_PAUSED;
+        db.update(paused);
+
+        StdJDBCDelegate delegate = delegate();
+        Connection conn = db.connect();
+        int[] counts = delegate.updateTriggerStatesFromOtherState(conn, keys, Constants.STATE_ACQUIRED,
+                Constants.STATE_WAITING);
+        check(Arrays.equals(counts, new int[] { 1, 1, 0, 1, 1 }), "row counts " + Arrays.toString(counts));
+        check(db.trigger(new TriggerKey("t0")).state.equals(Constants.STATE_ACQUIRED)
+                && db.trigger(new TriggerKey("t2")).state.equals(Constants.STATE_PAUSED), "states updated");
+        List<Execution> updates = db.executions(StdJDBCConstants.UPDATE_TRIGGER_STATE_FROM_STATE);
+        check(updates.size() == 1 && updates.get(0).batch && updates.get(0).parameters.size() == 5, "one batch");
+        check(delegate.updateTriggerStatesFromOtherState(conn, new ArrayList<TriggerKey>(),
+                Constants.STATE_ACQUIRED, Constants.STATE_WAITING).length == 0
+                && db.executions().size() == 1, "nothing run for no triggers");
+
+        check(delegate.insertFiredTriggers(conn, triggers, Constants.STATE_ACQUIRED) == 5, "fired triggers inserted");
+        List<Execution> inserts = db.executions(StdJDBCConstants.INSERT_FIRED_TRIGGER);
+        check(inserts.size() == 1 && inserts.get(0).parameters.size() == 5, "one batch of inserts");
+        check(db.firedTriggers().keySet().equals(new HashSet<String>(Arrays.asList("f-t0", "f-t1", "f-t2", "f-t3", "f-t4"))),
+                "fired trigger rows " + db.firedTriggers().keySet());
+
+        // counts the driver does not report stay unknown, failures are not updates
+        FakeDatabase driver = new FakeDatabase() {
+            @Override
+            protected int[] batch(String sql, List<Object[]> entries) {
+                return new int[] { Statement.SUCCESS_NO_INFO, Statement.EXECUTE_FAILED, 1 };
+            }
+        };
+        conn = driver.connect();
+        counts = delegate.updateTriggerStatesFromOtherState(conn, keys.subList(0, 3), Constants.STATE_ACQUIRED,
+                Constants.STATE_WAITING);
+        check(Arrays.equals(counts, new int[] { Statement.SUCCESS_NO_INFO, 0, 1 }), "normalized " + Arrays.toString(counts));
+        check(delegate.insertFiredTriggers(conn, triggers.subList(0, 3), Constants.STATE_ACQUIRED) == 2,
+                "unreported inserts counted as done, failed ones not");
+    }
+
+    private static void acquiresLikeOneByOne() throws Exception {
+        long now = System.currentTimeMillis();
+        FakeDatabase oneByOne = acquisitionRows(now);
+        List<OperableTrigger> expected = oneByOne.newJobStore("n1", null)
+                .acquireNextTrigger(oneByOne.connect(), now + 1000, 20, 0L);
+
+        FakeDatabase batched = acquisitionRows(now);
+        JobStoreTX store = batched.newJobStore("n1", null);
+        store.setAcquireTriggersInBatch(true);
+        List<OperableTrigger> acquired = store.acquireNextTrigger(batched.connect(), now + 1000, 20, 0L);
+
+        // the four triggers of each of the two serial jobs yield one each
+        check(expected.size() == 14, "one by one acquired " + expected.size());
+        check(keys(acquired).equals(keys(expected)), "same triggers " + keys(acquired) + " vs " + keys(expected));
+        check(batched.executions().size() == 4, "join, properties, update and insert: " + batched.executions());
+        check(oneByOne.executions().size() > 3 * expected.size(), "one by one ran " + oneByOne.executions().size());
+        checkAcquired(batched, acquired, "n1");
+    }
+
+    private static void unknownUpdateCounts() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TriggerKey paused = new TriggerKey("t4");
+        FakeDatabase db = new FakeDatabase() {
+            @Override
+            protected List<Map<String, Object>> query(String sql, Object[] p) throws SQLException {
+                List<Map<String, Object>> rows = super.query(sql, p);
+                // a trigger is paused once the candidates have been read
+                if (sql.equals(sql(SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS))) {
+                    TriggerRow row = trigger(paused).copy();
+                    row.state = STATE_PAUSED;
+                    update(row);
+                }
+                return rows;
+            }
+        };
+        fillAcquisitionRows(db, now);
+        db.setBatchUpdateCounts(false);
+        JobStoreTX store = db.newJobStore("n1", null);
+        store.setAcquireTriggersInBatch(true);
+        List<OperableTrigger> acquired = store.acquireNextTrigger(db.connect(), now + 1000, 20, 0L);
+
+        check(acquired.size() == 13 && !keys(acquired).contains(paused), "paused trigger not acquired " + keys(acquired));
+        check(db.executions(StdJDBCConstants.SELECT_TRIGGER_STATE).size() == 14, "state of each update looked up");
+        check(db.trigger(paused).state.equals(Constants.STATE_PAUSED), "paused trigger left alone");
+        checkAcquired(db, acquired, "n1");
+    }
+
+    /** Twenty triggers, four of each of two jobs that disallow concurrent execution. */
+    private static FakeDatabase acquisitionRows(long now) {
+        FakeDatabase db = new FakeDatabase();
+        fillAcquisitionRows(db, now);
+        return db;
+    }
+
+    private static void fillAcquisitionRows(FakeDatabase db, long now) {
+        db.addJob("job", NoopJob.class);
+        db.addJob("serialA", SerialJob.class);
+        db.addJob("serialB", SerialJob.class);
+        for (int i = 0; i < 20; i++) {
+            String job = (i % 5 == 1) ? "serialA" : (i % 5 == 3) ? "serialB" : "job";
+            TriggerRow row = db.addSimpleTrigger("t" + i, job, now + (i / 2) * 10);
+            row.priority = i % 3;
+        }
+    }
+
+    static void checkAcquired(FakeDatabase db, List<OperableTrigger> acquired, String instanceId) {
+        Set<TriggerKey> keys = new HashSet<TriggerKey>(keys(acquired));
+        for (TriggerRow row : db.triggers()) {
+            boolean isAcquired = row.state.equals(Constants.STATE_ACQUIRED);
+            check(isAcquired == keys.contains(row.key), row.key + " in state " + row.state);
+        }
+        Map<String, FiredRow> fired = db.firedTriggers();
+        check(fired.size() == acquired.size(), "one fired trigger row each");
+        for (OperableTrigger trigger : acquired) {
+            FiredRow row = fired.get(trigger.getFireInstanceId());
+            check(row != null && row.triggerKey.equals(trigger.getKey()) && row.instanceId.equals(instanceId)
+                    && row.state.equals(Constants.STATE_ACQUIRED), "fired trigger row of " + trigger.getKey());
+        }
+    }
+
+    static List<TriggerKey> keys(List<OperableTrigger> triggers) {
+        List<TriggerKey> keys = new ArrayList<TriggerKey>();
+        for (OperableTrigger trigger : triggers) {
+            keys.add(trigger.getKey());
+        }
+        return keys;
+    }
+
+    private static List<Integer> parameterCounts(List<Execution> executions) {
+        List<Integer> counts = new ArrayList<Integer>();
+        for (Execution execution : executions) {
+            counts.add(execution.parameters.get(0).length);
+        }
+        return counts;
+    }
+
+    private static OperableTrigger fired(String name, long fireTime) {
+        SimpleTriggerImpl trigger = (SimpleTriggerImpl) newTrigger().withIdentity(name).forJob("job").build();
+        trigger.setNextFireTime(new Date(fireTime));
+        trigger.setFireInstanceId("f-" + name);
+        return trigger;
+    }
+
+    static StdJDBCDelegate delegate() throws Exception {
+        StdJDBCDelegate delegate = new StdJDBCDelegate();
+        delegate.initialize(LoggerFactory.getLogger(BatchAcquisitionCheck.class), FakeDatabase.TABLE_PREFIX,
+                FakeDatabase.SCHED_NAME, "instance", new SimpleClassLoadHelper(), false, null);
+        return delegate;
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.quartz.impl.jdbcjobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.quartz.JobDataMap;
+import org.quartz.simpl.SimpleClassLoadHelper;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runnable check for {@link CompactJobDataMapCodec} and the delegate's
+ * <code>compactJobData</code> setting: random maps of strings (including
+ * unpaired surrogates and characters outside the Basic Multilingual Plane),
+ * every primitive wrapper at its extremes, nulls and serialized values must
+ * read back equal, whether written compactly or not; rows written with Java
+ * serialization must stay readable; a null map must be written as before.
+ */
+public final class CompactJobDataMapCodecCheck {
+
+    private CompactJobDataMapCodecCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        StdJDBCDelegate compact = delegate("compactJobData=true");
+        StdJDBCDelegate plain = delegate(null);
+        check(compact.compactJobData && !plain.compactJobData, "init string read");
+
+        Random random = new Random(7);
+        int compactBytes = 0;
+        int plainBytes = 0;
+        for (int i = 0; i < 2000; i++) {
+            JobDataMap data = randomMap(random);
+            byte[] written = compact.serializeJobData(data).toByteArray();
+            byte[] legacy = plain.serializeJobData(data).toByteArray();
+            compactBytes += written.length;
+            plainBytes += legacy.length;
+            Object read = compact.deserializeObject(new ByteArrayInputStream(written));
+            checkSame(data, read, "compact " + i);
+            check(!((JobDataMap) read).isDirty(), "compact " + i + ": not dirty");
+            checkSame(data, compact.deserializeObject(new ByteArrayInputStream(legacy)), "legacy read by compact " + i);
+            checkSame(data, plain.deserializeObject(new ByteArrayInputStream(written)), "compact read by plain " + i);
+        }
+        check(compactBytes < plainBytes / 2, "compact encoding is smaller: " + compactBytes + " vs " + plainBytes);
+
+        unpairedSurrogates(compact);
+        nullMap(compact, plain);
+        notSerializable(compact);
+        System.out.println("ok");
+    }
+
+    private static void unpairedSurrogates(StdJDBCDelegate compact) throws Exception {
+        JobDataMap values = new JobDataMap();
+        values.put("high", "a\uD800b");
+        values.put("low", "\uDC00");
+        values.put("pair", "\uD83D\uDE00");
+        byte[] written = compact.serializeJobData(values).toByteArray();
+        check(CompactJobDataMapCodec.isEncoded(new ByteArrayInputStream(written)), "map encoded compactly");
+        checkSame(values, compact.deserializeObject(new ByteArrayInputStream(written)), "surrogate values");
+
+        JobDataMap keys = new JobDataMap();
+        keys.put("bad\uDBFFkey", Integer.valueOf(1));
+        keys.put("good", "value");
+        written = compact.serializeJobData(keys).toByteArray();
+        check(!CompactJobDataMapCodec.isEncoded(new ByteArrayInputStream(written)), "map with such a key serialized");
+        checkSame(keys, compact.deserializeObject(new ByteArrayInputStream(written)), "surrogate keys");
+    }
+
+    private static void nullMap(StdJDBCDelegate compact, StdJDBCDelegate plain) throws Exception {
+        byte[] written = compact.serializeJobData(null).toByteArray();
+        check(Arrays.equals(written, plain.serializeJobData(null).toByteArray()), "null map written as before");
+    }
+
+    private static void notSerializable(StdJDBCDelegate compact) throws Exception {
+        JobDataMap data = new JobDataMap();
+        data.put("fine", "value");
+        data.put("broken", new Object());
+        try {
+            compact.serializeJobData(data);
+            check(false, "a value that cannot be serialized must be refused");
+        } catch (NotSerializableException e) {
+            check(e.getMessage().contains("'broken'"), "the message names the key: " + e.getMessage());
+        }
+    }
+
+    private static JobDataMap randomMap(Random random) {
+        JobDataMap data = new JobDataMap();
+        int size = random.nextInt(12);
+        for (int i = 0; i < size; i++) {
+            data.put(randomString(random, false) + i, randomValue(random));
+        }
+        return data;
+    }
+
+    private static Object randomValue(Random random) {
+        switch (random.nextInt(16)) {
+        case 0:
+            return null;
+        case 1:
+        case 2:
+            return randomString(random, true);
+        case 3:
+            return Integer.valueOf(pick(random, new int[] {0, -1, 1, 63, -64, 64, Integer.MIN_VALUE, Integer.MAX_VALUE},
+                    random.nextInt()));
+        case 4:
+            long[] longs = {0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 35, -(1L << 35)};
+            return Long.valueOf(random.nextBoolean() ? longs[random.nextInt(longs.length)] : random.nextLong());
+        case 5:
+            return Boolean.valueOf(random.nextBoolean());
+        case 6:
+            double[] doubles = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE};
+            return Double.valueOf(random.nextBoolean() ? doubles[random.nextInt(doubles.length)] : random.nextGaussian());
+        case 7:
+            return Float.valueOf(random.nextBoolean() ? Float.NaN : random.nextFloat());
+        case 8:
+            return Short.valueOf((short) random.nextInt());
+        case 9:
+            return Byte.valueOf((byte) random.nextInt());
+        case 10:
+            return Character.valueOf((char) random.nextInt(0x10000));
+        case 11:
+            return new Date(random.nextLong());
+        case 12:
+            return new int[] {random.nextInt(), random.nextInt()};
+        case 13:
+            return new Payload(random.nextInt());
+        default:
+            return Integer.valueOf(random.nextInt(100));
+        }
+    }
+
+    private static int pick(Random random, int[] values, int otherwise) {
+        return random.nextBoolean() ? values[random.nextInt(values.length)] : otherwise;
+    }
+
+    /**
+     * A string of ASCII, Latin-1, CJK, supplementary and, for values, now and
+     * then unpaired surrogate characters.
+     */
+    private static String randomString(Random random, boolean unpaired) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(random.nextInt(10) == 0 ? 300 : 20);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(10)) {
+            case 0:
+                sb.append((char) (0xA0 + random.nextInt(0x60)));
+                break;
+            case 1:
+                sb.append((char) (0x4E00 + random.nextInt(0x5000)));
+                break;
+            case 2:
+                sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                break;
+            case 3:
+                if (unpaired && random.nextInt(20) == 0) {
+                    sb.append((char) (0xD800 + random.nextInt(0x800)));
+                    break;
+                }
+                // fall through
+            default:
+                sb.append((char) (0x20 + random.nextInt(0x5F)));
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void checkSame(JobDataMap expected, Object read, String what) {
+        check(read instanceof JobDataMap, what + ": read a JobDataMap");
+        JobDataMap actual = (JobDataMap) read;
+        check(new HashSet<String>(actual.keySet()).equals(new HashSet<String>(expected.keySet())), what + ": keys");
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            Object e = entry.getValue();
+            Object a = actual.get(entry.getKey());
+            boolean same = (e instanceof int[]) ? Arrays.equals((int[]) e, (int[]) a)
+                    : (e == null) ? a == null : e.equals(a) && e.getClass() == a.getClass();
+            check(same, what + ": value of " + entry.getKey() + " " + e + " read as " + a);
+        }
+    }
+
+    private static StdJDBCDelegate delegate(String initString) throws Exception {
+        StdJDBCDelegate delegate = new StdJDBCDelegate();
+        delegate.initialize(LoggerFactory.getLogger(CompactJobDataMapCodecCheck.class), "QRTZ_", "sched", "instance",
+                new SimpleClassLoadHelper(), false, initString);
+        return delegate;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static final class Payload implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        Payload(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Payload && ((Payload) obj).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+}
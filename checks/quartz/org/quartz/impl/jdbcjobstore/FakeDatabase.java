@@ -0,0 +1,832 @@
+package org.quartz.impl.jdbcjobstore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.rowset.serial.SerialBlob;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+import org.quartz.simpl.SimpleClassLoadHelper;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+import org.quartz.utils.ClassUtils;
+import org.quartz.utils.ConnectionProvider;
+import org.quartz.utils.DBConnectionManager;
+
+/**
+ * An in-memory stand-in for the database of a JDBC job store, reached
+ * through JDBC proxies, for the checks of the set-based and batched paths.
+ * It keeps the rows of the triggers, jobs, fired triggers and scheduler
+ * states, answers the statements of {@link StdJDBCDelegate} that read or
+ * change them, and records every statement executed.  Any other query finds
+ * no rows and any other update reports one row changed.  The changes made
+ * through a connection are undone when it rolls back, entirely or to a
+ * savepoint.  Every statement runs under the database's monitor, so that
+ * each one is atomic.
+ */
+class FakeDatabase implements StdJDBCConstants {
+
+    static final String TABLE_PREFIX = "QRTZ_";
+
+    static final String SCHED_NAME = "sched";
+
+    private static final String KEY_CONDITION = COL_TRIGGER_NAME + " = ? AND " + COL_TRIGGER_GROUP + " = ?";
+
+    /** A job that does nothing. */
+    public static class NoopJob implements Job {
+        public void execute(JobExecutionContext context) {
+        }
+    }
+
+    /** A job that does nothing and disallows concurrent execution. */
+    @DisallowConcurrentExecution
+    public static class SerialJob extends NoopJob {
+    }
+
+    /** A statement executed through one of the connections. */
+    static final class Execution {
+        final String sql;
+        /** The parameters, one array per entry of a batch. */
+        final List<Object[]> parameters;
+        final boolean batch;
+
+        Execution(String sql, List<Object[]> parameters, boolean batch) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.batch = batch;
+        }
+
+        @Override
+        public String toString() {
+            return (batch ? "batch of " + parameters.size() + ": " : "") + sql;
+        }
+    }
+
+    /** A row of the triggers table, with the columns of its type's own table. */
+    static final class TriggerRow implements Cloneable {
+        final TriggerKey key;
+        final JobKey jobKey;
+        final String type;
+        String state = STATE_WAITING;
+        long nextFireTime;
+        long prevFireTime = -1;
+        long startTime;
+        int priority = 5;
+        int misfireInstruction = 0;
+        int repeatCount = -1;
+        long repeatInterval = 60000L;
+        int timesTriggered = 0;
+        String cronExpression;
+        String timeZoneId;
+        byte[] blob;
+        /** Whether the row of the type's own table is gone. */
+        boolean propertiesMissing = false;
+
+        TriggerRow(TriggerKey key, JobKey jobKey, String type, long nextFireTime) {
+            this.key = key;
+            this.jobKey = jobKey;
+            this.type = type;
+            this.nextFireTime = nextFireTime;
+            this.startTime = nextFireTime;
+        }
+
+        TriggerRow copy() {
+            try {
+                return (TriggerRow) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /** A row of the fired triggers table. */
+    static final class FiredRow implements Cloneable {
+        final String entryId;
+        final TriggerKey triggerKey;
+        final String instanceId;
+        String state;
+
+        FiredRow(String entryId, TriggerKey triggerKey, String instanceId, String state) {
+            this.entryId = entryId;
+            this.triggerKey = triggerKey;
+            this.instanceId = instanceId;
+            this.state = state;
+        }
+
+        FiredRow copy() {
+            try {
+                return (FiredRow) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private final Map<TriggerKey, TriggerRow> triggers = new LinkedHashMap<TriggerKey, TriggerRow>();
+    private final Map<JobKey, Class<? extends Job>> jobs = new HashMap<JobKey, Class<? extends Job>>();
+    private final Map<String, FiredRow> firedTriggers = new LinkedHashMap<String, FiredRow>();
+    private final Map<String, Long> schedulerStates = new LinkedHashMap<String, Long>();
+
+    private final List<Execution> executions = new ArrayList<Execution>();
+    private int commits = 0;
+    private int rollbacks = 0;
+    private int savepointRollbacks = 0;
+    private boolean batchUpdateCounts = true;
+
+    // the connection whose statement is running, whose changes are recorded
+    private Session session = null;
+
+    /*
+     * The rows.
+     */
+
+    synchronized void addJob(String name, Class<? extends Job> jobClass) {
+        jobs.put(new JobKey(name), jobClass);
+    }
+
+    synchronized TriggerRow addSimpleTrigger(String name, String jobName, long nextFireTime) {
+        return add(new TriggerRow(new TriggerKey(name), new JobKey(jobName), TTYPE_SIMPLE, nextFireTime));
+    }
+
+    synchronized TriggerRow addCronTrigger(String name, String jobName, long nextFireTime, String cronExpression) {
+        TriggerRow row = new TriggerRow(new TriggerKey(name), new JobKey(jobName), TTYPE_CRON, nextFireTime);
+        row.cronExpression = cronExpression;
+        row.timeZoneId = "UTC";
+        return add(row);
+    }
+
+    synchronized TriggerRow addBlobTrigger(OperableTrigger trigger) throws IOException {
+        TriggerRow row = new TriggerRow(trigger.getKey(), trigger.getJobKey(), TTYPE_BLOB,
+                trigger.getNextFireTime().getTime());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(trigger);
+        out.close();
+        row.blob = bytes.toByteArray();
+        return add(row);
+    }
+
+    private TriggerRow add(TriggerRow row) {
+        if (!jobs.containsKey(row.jobKey)) {
+            throw new IllegalArgumentException("No job " + row.jobKey);
+        }
+        triggers.put(row.key, row);
+        return row;
+    }
+
+    /** Replace a trigger's row with the given changed copy of it. */
+    synchronized void update(TriggerRow row) {
+        put(triggers, row.key, row);
+    }
+
+    synchronized void removeTrigger(TriggerKey key) {
+        put(triggers, key, null);
+    }
+
+    synchronized TriggerRow trigger(TriggerKey key) {
+        return triggers.get(key);
+    }
+
+    synchronized List<TriggerRow> triggers() {
+        return new ArrayList<TriggerRow>(triggers.values());
+    }
+
+    synchronized Map<String, FiredRow> firedTriggers() {
+        return new LinkedHashMap<String, FiredRow>(firedTriggers);
+    }
+
+    synchronized void addSchedulerState(String instanceId, long checkinTime) {
+        schedulerStates.put(instanceId, checkinTime);
+    }
+
+    /*
+     * The record of what ran.
+     */
+
+    synchronized List<Execution> executions() {
+        return new ArrayList<Execution>(executions);
+    }
+
+    /** The executions of the given query, as the delegate writes it. */
+    synchronized List<Execution> executions(String query) {
+        String sql = sql(query);
+        List<Execution> found = new ArrayList<Execution>();
+        for (Execution execution : executions) {
+            if (execution.sql.equals(sql)) {
+                found.add(execution);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The executions of the given query that selects a single trigger, for
+     * one trigger or more.
+     */
+    synchronized List<Execution> executionsForTriggerKeys(String query) {
+        String prefix = keyedPrefix(query);
+        List<Execution> found = new ArrayList<Execution>();
+        for (Execution execution : executions) {
+            if (execution.sql.startsWith(prefix)) {
+                found.add(execution);
+            }
+        }
+        return found;
+    }
+
+    synchronized void clearExecutions() {
+        executions.clear();
+    }
+
+    synchronized int commits() {
+        return commits;
+    }
+
+    synchronized int rollbacks() {
+        return rollbacks;
+    }
+
+    synchronized int savepointRollbacks() {
+        return savepointRollbacks;
+    }
+
+    /**
+     * Whether batches report the row count of each statement, or
+     * <code>Statement.SUCCESS_NO_INFO</code> as some drivers do.
+     */
+    synchronized void setBatchUpdateCounts(boolean batchUpdateCounts) {
+        this.batchUpdateCounts = batchUpdateCounts;
+    }
+
+    /** The given query as the delegate writes it. */
+    static String sql(String query) {
+        return Util.rtp(query, TABLE_PREFIX, "'" + SCHED_NAME + "'");
+    }
+
+    private static String keyedPrefix(String query) {
+        String sql = sql(query);
+        return sql.substring(0, sql.length() - KEY_CONDITION.length());
+    }
+
+    static long longValue(Object value) {
+        return ((Number) value).longValue();
+    }
+
+    /*
+     * The statements, which the checks may override to step in.  They run
+     * under the database's monitor.
+     */
+
+    protected List<Map<String, Object>> query(String sql, Object[] p) throws SQLException {
+        if (sql.equals(sql(SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS))
+                || sql.equals(sql(SELECT_NEXT_TRIGGER_TO_ACQUIRE))) {
+            return triggersToAcquire((String) p[0], longValue(p[1]), longValue(p[2]));
+        }
+        if (sql.equals(sql(SELECT_TRIGGER)) || sql.equals(sql(SELECT_TRIGGER_EXISTENCE))) {
+            TriggerRow row = triggers.get(key(p, 0));
+            return row == null ? none() : one(triggerColumns(row));
+        }
+        if (sql.equals(sql(SELECT_TRIGGER_STATE))) {
+            TriggerRow row = triggers.get(key(p, 0));
+            return row == null ? none() : one(columns(COL_TRIGGER_STATE, row.state));
+        }
+        if (sql.equals(sql(SELECT_JOB_DETAIL))) {
+            Class<? extends Job> jobClass = jobs.get(new JobKey((String) p[0], (String) p[1]));
+            return jobClass == null ? none() : one(columns(COL_JOB_NAME, p[0], COL_JOB_GROUP, p[1],
+                    COL_DESCRIPTION, null, COL_JOB_CLASS, jobClass.getName(), COL_IS_DURABLE, Boolean.TRUE,
+                    COL_IS_NONCONCURRENT, isNonConcurrent(jobClass), COL_REQUESTS_RECOVERY, Boolean.FALSE,
+                    COL_JOB_DATAMAP, null));
+        }
+        if (sql.equals(sql(SELECT_SCHEDULER_STATES))) {
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+            for (Map.Entry<String, Long> state : schedulerStates.entrySet()) {
+                rows.add(columns(COL_INSTANCE_NAME, state.getKey(), COL_LAST_CHECKIN_TIME, state.getValue(),
+                        COL_CHECKIN_INTERVAL, Long.valueOf(7500L)));
+            }
+            return rows;
+        }
+        if (sql.startsWith(keyedPrefix(SELECT_SIMPLE_TRIGGER))) {
+            return properties(TTYPE_SIMPLE, p);
+        }
+        if (sql.startsWith(keyedPrefix(SELECT_CRON_TRIGGER))) {
+            return properties(TTYPE_CRON, p);
+        }
+        if (sql.startsWith(keyedPrefix(SELECT_BLOB_TRIGGER))) {
+            return properties(TTYPE_BLOB, p);
+        }
+        return none();
+    }
+
+    protected int update(String sql, Object[] p) throws SQLException {
+        if (sql.equals(sql(UPDATE_TRIGGER_STATE_FROM_STATE))) {
+            return updateState(key(p, 1), (String) p[3], null, (String) p[0]);
+        }
+        if (sql.equals(sql(UPDATE_TRIGGER_STATE_FROM_STATE_AND_FIRE_TIME))) {
+            return updateState(key(p, 1), (String) p[3], longValue(p[4]), (String) p[0]);
+        }
+        if (sql.equals(sql(UPDATE_JOB_TRIGGER_STATES_FROM_OTHER_STATE))) {
+            JobKey jobKey = new JobKey((String) p[1], (String) p[2]);
+            int count = 0;
+            for (TriggerRow row : new ArrayList<TriggerRow>(triggers.values())) {
+                if (row.jobKey.equals(jobKey)) {
+                    count += updateState(row.key, (String) p[3], null, (String) p[0]);
+                }
+            }
+            return count;
+        }
+        if (sql.equals(sql(UPDATE_TRIGGER)) || sql.equals(sql(UPDATE_TRIGGER_SKIP_DATA))) {
+            TriggerRow row = triggers.get(key(p, p.length - 2));
+            if (row == null) {
+                return 0;
+            }
+            row = row.copy();
+            row.nextFireTime = longValue(p[3]);
+            row.prevFireTime = longValue(p[4]);
+            row.state = (String) p[5];
+            put(triggers, row.key, row);
+            return 1;
+        }
+        if (sql.equals(sql(INSERT_FIRED_TRIGGER))) {
+            if (firedTriggers.containsKey(p[0])) {
+                throw new SQLException("Duplicate fired trigger entry " + p[0]);
+            }
+            put(firedTriggers, (String) p[0], new FiredRow((String) p[0], key(p, 1), (String) p[3], (String) p[6]));
+            return 1;
+        }
+        if (sql.equals(sql(UPDATE_FIRED_TRIGGER))) {
+            FiredRow row = firedTriggers.get(p[8]);
+            if (row == null) {
+                return 0;
+            }
+            row = row.copy();
+            row.state = (String) p[3];
+            put(firedTriggers, row.entryId, row);
+            return 1;
+        }
+        if (sql.equals(sql(DELETE_FIRED_TRIGGER))) {
+            return put(firedTriggers, (String) p[0], null) == null ? 0 : 1;
+        }
+        if (sql.equals(sql(UPDATE_SCHEDULER_STATE))) {
+            if (!schedulerStates.containsKey(p[1])) {
+                return 0;
+            }
+            put(schedulerStates, (String) p[1], longValue(p[0]));
+            return 1;
+        }
+        if (sql.equals(sql(INSERT_SCHEDULER_STATE))) {
+            put(schedulerStates, (String) p[0], longValue(p[1]));
+            return 1;
+        }
+        return 1;
+    }
+
+    protected int[] batch(String sql, List<Object[]> entries) throws SQLException {
+        int[] counts = new int[entries.size()];
+        for (int i = 0; i < counts.length; i++) {
+            int count = update(sql, entries.get(i));
+            counts[i] = batchUpdateCounts ? count : Statement.SUCCESS_NO_INFO;
+        }
+        return counts;
+    }
+
+    /**
+     * Called, without the monitor, with the statements of each transaction
+     * that commits.
+     */
+    protected void committed(List<Execution> transaction) {
+    }
+
+    private List<Map<String, Object>> triggersToAcquire(String state, long noLaterThan, long noEarlierThan) {
+        List<TriggerRow> rows = new ArrayList<TriggerRow>();
+        for (TriggerRow row : triggers.values()) {
+            if (row.state.equals(state) && row.nextFireTime >= 0 && row.nextFireTime <= noLaterThan
+                    && (row.misfireInstruction == -1 || row.nextFireTime >= noEarlierThan)) {
+                rows.add(row);
+            }
+        }
+        Collections.sort(rows, new Comparator<TriggerRow>() {
+            public int compare(TriggerRow a, TriggerRow b) {
+                if (a.nextFireTime != b.nextFireTime) {
+                    return a.nextFireTime < b.nextFireTime ? -1 : 1;
+                }
+                return b.priority - a.priority;
+            }
+        });
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        for (TriggerRow row : rows) {
+            Map<String, Object> columns = triggerColumns(row);
+            columns.put(COL_IS_NONCONCURRENT, isNonConcurrent(jobs.get(row.jobKey)));
+            result.add(columns);
+        }
+        return result;
+    }
+
+    private List<Map<String, Object>> properties(String type, Object[] p) {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < p.length; i += 2) {
+            TriggerRow row = triggers.get(key(p, i));
+            if (row == null || !row.type.equals(type) || row.propertiesMissing) {
+                continue;
+            }
+            Map<String, Object> columns = columns(COL_TRIGGER_NAME, row.key.getName(),
+                    COL_TRIGGER_GROUP, row.key.getGroup());
+            if (type.equals(TTYPE_SIMPLE)) {
+                columns.put(COL_REPEAT_COUNT, row.repeatCount);
+                columns.put(COL_REPEAT_INTERVAL, row.repeatInterval);
+                columns.put(COL_TIMES_TRIGGERED, row.timesTriggered);
+            } else if (type.equals(TTYPE_CRON)) {
+                columns.put(COL_CRON_EXPRESSION, row.cronExpression);
+                columns.put(COL_TIME_ZONE_ID, row.timeZoneId);
+            } else {
+                columns.put(COL_BLOB, row.blob);
+            }
+            rows.add(columns);
+        }
+        return rows;
+    }
+
+    private Map<String, Object> triggerColumns(TriggerRow row) {
+        return columns(COL_TRIGGER_NAME, row.key.getName(), COL_TRIGGER_GROUP, row.key.getGroup(),
+                COL_JOB_NAME, row.jobKey.getName(), COL_JOB_GROUP, row.jobKey.getGroup(),
+                COL_DESCRIPTION, null, COL_NEXT_FIRE_TIME, row.nextFireTime,
+                COL_PREV_FIRE_TIME, row.prevFireTime, COL_PRIORITY, row.priority,
+                COL_TRIGGER_STATE, row.state, COL_TRIGGER_TYPE, row.type,
+                COL_START_TIME, row.startTime, COL_END_TIME, Long.valueOf(0L),
+                COL_CALENDAR_NAME, null, COL_MISFIRE_INSTRUCTION, row.misfireInstruction,
+                COL_JOB_DATAMAP, null);
+    }
+
+    private int updateState(TriggerKey key, String oldState, Long nextFireTime, String newState) {
+        TriggerRow row = triggers.get(key);
+        if (row == null || !row.state.equals(oldState)
+                || (nextFireTime != null && row.nextFireTime != nextFireTime.longValue())) {
+            return 0;
+        }
+        row = row.copy();
+        row.state = newState;
+        put(triggers, key, row);
+        return 1;
+    }
+
+    private static boolean isNonConcurrent(Class<? extends Job> jobClass) {
+        return ClassUtils.isAnnotationPresent(jobClass, DisallowConcurrentExecution.class);
+    }
+
+    private static TriggerKey key(Object[] p, int index) {
+        return new TriggerKey((String) p[index], (String) p[index + 1]);
+    }
+
+    private static List<Map<String, Object>> none() {
+        return new ArrayList<Map<String, Object>>();
+    }
+
+    private static List<Map<String, Object>> one(Map<String, Object> row) {
+        List<Map<String, Object>> rows = none();
+        rows.add(row);
+        return rows;
+    }
+
+    private static Map<String, Object> columns(Object... namesAndValues) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            row.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return row;
+    }
+
+    /*
+     * Transactions.
+     */
+
+    /** A change of a map entry, undone on rollback. */
+    private static final class Change<K, V> {
+        private final Map<K, V> map;
+        private final K key;
+        private final V previous;
+
+        Change(Map<K, V> map, K key, V previous) {
+            this.map = map;
+            this.key = key;
+            this.previous = previous;
+        }
+
+        void undo() {
+            if (previous == null) {
+                map.remove(key);
+            } else {
+                map.put(key, previous);
+            }
+        }
+    }
+
+    /** Put, or remove if the value is null, recording the change. */
+    private <K, V> V put(Map<K, V> map, K key, V value) {
+        V previous = (value == null) ? map.remove(key) : map.put(key, value);
+        if (session != null) {
+            session.changes.add(new Change<K, V>(map, key, previous));
+        }
+        return previous;
+    }
+
+    private static final class Mark implements Savepoint {
+        final int changes;
+        final int executions;
+
+        Mark(int changes, int executions) {
+            this.changes = changes;
+            this.executions = executions;
+        }
+
+        public int getSavepointId() {
+            return changes;
+        }
+
+        public String getSavepointName() {
+            return "mark" + changes;
+        }
+    }
+
+    private synchronized void undo(Session s, Mark mark) {
+        for (int i = s.changes.size() - 1; i >= mark.changes; i--) {
+            s.changes.remove(i).undo();
+        }
+        while (s.executions.size() > mark.executions) {
+            s.executions.remove(s.executions.size() - 1);
+        }
+    }
+
+    private void commit(Session s) {
+        List<Execution> transaction;
+        synchronized (this) {
+            s.changes.clear();
+            transaction = new ArrayList<Execution>(s.executions);
+            s.executions.clear();
+            commits++;
+        }
+        committed(transaction);
+    }
+
+    private synchronized void rollback(Session s, Mark mark) {
+        undo(s, mark == null ? new Mark(0, 0) : mark);
+        if (mark == null) {
+            rollbacks++;
+        } else {
+            savepointRollbacks++;
+        }
+    }
+
+    private synchronized List<Map<String, Object>> runQuery(Session s, String sql, Object[] p, int maxRows)
+        throws SQLException {
+        record(s, new Execution(sql, Collections.singletonList(p), false));
+        session = s;
+        try {
+            List<Map<String, Object>> rows = query(sql, p);
+            return (maxRows > 0 && rows.size() > maxRows) ? rows.subList(0, maxRows) : rows;
+        } finally {
+            session = null;
+        }
+    }
+
+    private synchronized int runUpdate(Session s, String sql, Object[] p) throws SQLException {
+        record(s, new Execution(sql, Collections.singletonList(p), false));
+        session = s;
+        try {
+            return update(sql, p);
+        } finally {
+            session = null;
+        }
+    }
+
+    private synchronized int[] runBatch(Session s, String sql, List<Object[]> entries) throws SQLException {
+        record(s, new Execution(sql, entries, true));
+        session = s;
+        try {
+            return batch(sql, entries);
+        } finally {
+            session = null;
+        }
+    }
+
+    private void record(Session s, Execution execution) {
+        executions.add(execution);
+        s.executions.add(execution);
+    }
+
+    /*
+     * JDBC.
+     */
+
+    Connection connect() {
+        return (Connection) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(),
+                new Class[] { Connection.class }, new Session());
+    }
+
+    /** The state of a connection. */
+    private final class Session implements InvocationHandler {
+        final List<Change<?, ?>> changes = new ArrayList<Change<?, ?>>();
+        final List<Execution> executions = new ArrayList<Execution>();
+        boolean autoCommit = true;
+        int isolation = Connection.TRANSACTION_READ_COMMITTED;
+        boolean closed = false;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("prepareStatement")) {
+                return Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(),
+                        new Class[] { PreparedStatement.class }, new StatementHandler(this, (String) args[0]));
+            } else if (name.equals("commit")) {
+                commit(this);
+            } else if (name.equals("rollback")) {
+                rollback(this, (args == null) ? null : (Mark) args[0]);
+            } else if (name.equals("setSavepoint")) {
+                synchronized (FakeDatabase.this) {
+                    return new Mark(changes.size(), executions.size());
+                }
+            } else if (name.equals("releaseSavepoint")) {
+                // nothing to release
+            } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean) args[0];
+            } else if (name.equals("getTransactionIsolation")) {
+                return isolation;
+            } else if (name.equals("setTransactionIsolation")) {
+                isolation = (Integer) args[0];
+            } else if (name.equals("close")) {
+                // what was neither committed nor rolled back is lost
+                undo(this, new Mark(0, 0));
+                closed = true;
+            } else if (name.equals("isClosed")) {
+                return closed;
+            } else {
+                return objectMethod(proxy, method, args, "connection");
+            }
+            return null;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Session session;
+        private final String sql;
+        private final List<Object> parameters = new ArrayList<Object>();
+        private final List<Object[]> entries = new ArrayList<Object[]>();
+        private int maxRows = 0;
+
+        StatementHandler(Session session, String sql) {
+            this.session = session;
+            this.sql = sql;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0];
+                while (parameters.size() < index) {
+                    parameters.add(null);
+                }
+                parameters.set(index - 1, name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("setMaxRows")) {
+                maxRows = (Integer) args[0];
+            } else if (name.equals("setFetchSize") || name.equals("close")) {
+                // nothing to do
+            } else if (name.equals("addBatch")) {
+                entries.add(parameters.toArray());
+            } else if (name.equals("executeQuery")) {
+                return Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class[] { ResultSet.class },
+                        new RowsHandler(runQuery(session, sql, parameters.toArray(), maxRows)));
+            } else if (name.equals("executeUpdate")) {
+                return runUpdate(session, sql, parameters.toArray());
+            } else if (name.equals("executeBatch")) {
+                List<Object[]> batch = new ArrayList<Object[]>(entries);
+                entries.clear();
+                return runBatch(session, sql, batch);
+            } else {
+                return objectMethod(proxy, method, args, sql);
+            }
+            return null;
+        }
+    }
+
+    private static final class RowsHandler implements InvocationHandler {
+        private final List<Map<String, Object>> rows;
+        private int position = -1;
+        private boolean wasNull = false;
+
+        RowsHandler(List<Map<String, Object>> rows) {
+            this.rows = rows;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                return ++position < rows.size();
+            } else if (name.equals("close")) {
+                return null;
+            } else if (name.equals("wasNull")) {
+                return wasNull;
+            } else if (name.startsWith("get") && args != null && args.length == 1) {
+                Object value = column(args[0]);
+                wasNull = (value == null);
+                if (name.equals("getString")) {
+                    return (value == null) ? null : value.toString();
+                } else if (name.equals("getLong")) {
+                    return (value == null) ? 0L : longValue(value);
+                } else if (name.equals("getInt")) {
+                    return (value == null) ? 0 : ((Number) value).intValue();
+                } else if (name.equals("getBigDecimal")) {
+                    return (value == null) ? null : new BigDecimal(value.toString());
+                } else if (name.equals("getBoolean")) {
+                    return (value instanceof Boolean) ? value : (value != null && ((Number) value).intValue() != 0);
+                } else if (name.equals("getBlob")) {
+                    return (value == null) ? null : new SerialBlob((byte[]) value);
+                } else if (name.equals("getObject") || name.equals("getBytes")) {
+                    return value;
+                }
+            }
+            return objectMethod(proxy, method, args, "result set");
+        }
+
+        private Object column(Object column) throws SQLException {
+            Map<String, Object> row = rows.get(position);
+            if (column instanceof Integer) {
+                return new ArrayList<Object>(row.values()).get((Integer) column - 1);
+            }
+            String name = ((String) column).toUpperCase();
+            if (!row.containsKey(name)) {
+                throw new SQLException("No column " + name + " in " + row.keySet());
+            }
+            return row.get(name);
+        }
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args, String what) {
+        String name = method.getName();
+        if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("toString")) {
+            return "fake " + what;
+        }
+        throw new UnsupportedOperationException(method.getName() + " on fake " + what);
+    }
+
+    /*
+     * Job stores.
+     */
+
+    /**
+     * Create a job store whose data source is this database, initialized
+     * with the given lock handler.
+     */
+    JobStoreTX newJobStore(String instanceId, Semaphore lockHandler) throws Exception {
+        String dataSource = "fake-" + System.identityHashCode(this);
+        DBConnectionManager.getInstance().addConnectionProvider(dataSource, new ConnectionProvider() {
+            public Connection getConnection() {
+                return connect();
+            }
+
+            public void shutdown() {
+            }
+
+            public void initialize() {
+            }
+        });
+        JobStoreTX store = new JobStoreTX();
+        store.setDataSource(dataSource);
+        store.setTablePrefix(TABLE_PREFIX);
+        store.setInstanceName(SCHED_NAME);
+        store.setInstanceId(instanceId);
+        store.setLockHandler(lockHandler);
+        store.initialize(new SimpleClassLoadHelper(), (SchedulerSignaler) Proxy.newProxyInstance(
+                FakeDatabase.class.getClassLoader(), new Class[] { SchedulerSignaler.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                }));
+        return store;
+    }
+}
@@ -0,0 +1,305 @@
+package org.quartz.impl.jdbcjobstore;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.quartz.JobDetail;
+import org.quartz.JobPersistenceException;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerKey;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.Execution;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.FiredRow;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.NoopJob;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.SerialJob;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.TriggerRow;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.TriggerFiredBundle;
+import org.quartz.spi.TriggerFiredResult;
+
+/**
+ * Runnable check for <code>batchFiredTriggerWrites</code>, against
+ * {@link FakeDatabase}: firing a batch of acquired triggers must leave the
+ * same rows as firing them one by one, with one batched update of their
+ * fired trigger records; a second trigger of a job that disallows concurrent
+ * execution must be released before that update; a trigger whose record
+ * can't be updated must fail on its own; and completions finishing
+ * together must be committed in shared transactions, each exactly once and
+ * before <code>triggeredJobComplete</code> returns, also when a batch fails.
+ */
+public final class FiredTriggerBatchCheck {
+
+    private FiredTriggerBatchCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        firesLikeOneByOne();
+        releasesSecondSerialFiring();
+        failsFiringsOnTheirOwn();
+        groupsCompletions(false);
+        groupsCompletions(true);
+        System.out.println("ok");
+    }
+
+    private static void firesLikeOneByOne() throws Exception {
+        long now = System.currentTimeMillis();
+        FakeDatabase oneByOne = firingRows(new FakeDatabase(), now, false);
+        fire(oneByOne, false);
+        FakeDatabase batched = firingRows(new FakeDatabase(), now, false);
+        batched.clearExecutions();
+        List<TriggerFiredResult> results = fire(batched, true);
+
+        for (TriggerFiredResult result : results) {
+            check(result.getException() == null && result.getTriggerFiredBundle() != null, "fired");
+        }
+        for (TriggerRow expected : oneByOne.triggers()) {
+            TriggerRow row = batched.trigger(expected.key);
+            check(row.state.equals(expected.state) && row.nextFireTime == expected.nextFireTime
+                    && row.prevFireTime == expected.prevFireTime, expected.key + " stored as one by one: "
+                    + row.state + " " + row.nextFireTime + " vs " + expected.state + " " + expected.nextFireTime);
+        }
+        check(firedStates(batched).equals(firedStates(oneByOne)), "fired trigger rows " + firedStates(batched));
+        List<Execution> updates = batched.executions(StdJDBCConstants.UPDATE_FIRED_TRIGGER);
+        check(updates.size() == 1 && updates.get(0).batch && updates.get(0).parameters.size() == 11,
+                "one batch of fired trigger updates: " + updates);
+        check(oneByOne.executions(StdJDBCConstants.UPDATE_FIRED_TRIGGER).size() == 11, "one update each one by one");
+    }
+
+    private static void releasesSecondSerialFiring() throws Exception {
+        long now = System.currentTimeMillis();
+        FakeDatabase db = firingRows(new FakeDatabase(), now, true);
+        JobStoreTX store = db.newJobStore("n1", null);
+        store.setAcquireTriggersInBatch(true);
+        store.setBatchFiredTriggerWrites(true);
+        // the serial job's second trigger is only acquired by the next call
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>(store.acquireNextTriggers(now + 1000, 20, 0L));
+        triggers.addAll(store.acquireNextTriggers(now + 1000, 20, 0L));
+        check(triggers.size() == 12, "acquired " + BatchAcquisitionCheck.keys(triggers));
+        OperableTrigger second = triggers.get(11);
+        check(second.getKey().getName().equals("u1"), "second serial trigger last: " + second.getKey());
+
+        db.clearExecutions();
+        int commits = db.commits();
+        List<TriggerFiredResult> results = store.triggersFired(triggers);
+
+        check(results.size() == 12 && db.commits() == commits + 1, "one transaction");
+        for (int i = 0; i < 11; i++) {
+            TriggerFiredBundle bundle = results.get(i).getTriggerFiredBundle();
+            check(bundle != null && bundle.getTrigger().getKey().equals(triggers.get(i).getKey())
+                    && bundle.getJobDetail().getKey().equals(triggers.get(i).getJobKey()), "fired " + triggers.get(i).getKey());
+        }
+        check(results.get(11).getTriggerFiredBundle() == null && results.get(11).getException() == null,
+                "second serial trigger not fired");
+        check(!db.firedTriggers().containsKey(second.getFireInstanceId()), "its fired trigger record deleted");
+        check(db.trigger(second.getKey()).state.equals(Constants.STATE_BLOCKED)
+                && db.trigger(new TriggerKey("u0")).state.equals(Constants.STATE_BLOCKED), "serial job's triggers blocked");
+
+        List<Execution> executions = db.executions();
+        int released = executions.indexOf(db.executions(StdJDBCConstants.DELETE_FIRED_TRIGGER).get(0));
+        List<Execution> updates = db.executions(StdJDBCConstants.UPDATE_FIRED_TRIGGER);
+        check(updates.size() == 1 && updates.get(0).parameters.size() == 11, "one batch without the released trigger");
+        check(released < executions.indexOf(updates.get(0)), "released before the batch");
+        Set<Object> updated = new HashSet<Object>();
+        for (Object[] p : updates.get(0).parameters) {
+            updated.add(p[8]);
+        }
+        for (int i = 0; i < 11; i++) {
+            check(updated.contains(triggers.get(i).getFireInstanceId()), "record of " + triggers.get(i).getKey() + " updated");
+            check(db.firedTriggers().get(triggers.get(i).getFireInstanceId()).state.equals(Constants.STATE_EXECUTING),
+                    "record of " + triggers.get(i).getKey() + " executing");
+        }
+    }
+
+    private static void failsFiringsOnTheirOwn() throws Exception {
+        final AtomicReference<Object> failing = new AtomicReference<Object>();
+        FakeDatabase db = new FakeDatabase() {
+            @Override
+            protected int update(String sql, Object[] p) throws SQLException {
+                if (sql.equals(sql(UPDATE_FIRED_TRIGGER)) && p[8].equals(failing.get())) {
+                    throw new SQLException("row locked");
+                }
+                return super.update(sql, p);
+            }
+
+            @Override
+            protected int[] batch(String sql, List<Object[]> entries) throws SQLException {
+                // the statements before the failing one are run
+                int[] counts = new int[entries.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    try {
+                        counts[i] = update(sql, entries.get(i));
+                    } catch (SQLException e) {
+                        throw new BatchUpdateException(e.getMessage(), counts);
+                    }
+                }
+                return counts;
+            }
+        };
+        long now = System.currentTimeMillis();
+        firingRows(db, now, false);
+        JobStoreTX store = db.newJobStore("n1", null);
+        store.setAcquireTriggersInBatch(true);
+        store.setBatchFiredTriggerWrites(true);
+        List<OperableTrigger> triggers = store.acquireNextTriggers(now + 1000, 20, 0L);
+        OperableTrigger failed = triggers.get(5);
+        failing.set(failed.getFireInstanceId());
+        long nextFireTime = db.trigger(failed.getKey()).nextFireTime;
+
+        db.clearExecutions();
+        List<TriggerFiredResult> results = store.triggersFired(triggers);
+
+        check(db.savepointRollbacks() == 1, "failed batch rolled back to its savepoint");
+        check(db.executions(StdJDBCConstants.UPDATE_FIRED_TRIGGER).size() == 12, "batch, then one by one");
+        for (int i = 0; i < triggers.size(); i++) {
+            OperableTrigger trigger = triggers.get(i);
+            FiredRow fired = db.firedTriggers().get(trigger.getFireInstanceId());
+            if (trigger == failed) {
+                check(results.get(i).getException() instanceof JobPersistenceException, "failure reported");
+                check(fired.state.equals(Constants.STATE_ACQUIRED) && db.trigger(trigger.getKey()).state.equals(Constants.STATE_ACQUIRED)
+                        && db.trigger(trigger.getKey()).nextFireTime == nextFireTime, "failed trigger left as it was");
+            } else {
+                check(results.get(i).getTriggerFiredBundle() != null, trigger.getKey() + " fired");
+                check(fired.state.equals(Constants.STATE_EXECUTING), trigger.getKey() + " executing");
+            }
+        }
+    }
+
+    private static void groupsCompletions(final boolean failures) throws Exception {
+        final int threads = 16;
+        final int perThread = 50;
+        final Set<String> failOnce = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> completed = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        FakeDatabase db = new FakeDatabase() {
+            @Override
+            protected int update(String sql, Object[] p) throws SQLException {
+                if (sql.equals(sql(DELETE_FIRED_TRIGGER)) && failOnce.remove(p[0])) {
+                    throw new SQLException("deadlock, try again");
+                }
+                return super.update(sql, p);
+            }
+
+            @Override
+            protected void committed(List<Execution> transaction) {
+                try {
+                    Thread.sleep(2); // a slow commit, while completions queue up
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (Execution execution : transaction) {
+                    if (execution.sql.equals(sql(DELETE_FIRED_TRIGGER)) && !completed.add((String) execution.parameters.get(0)[0])) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }
+        };
+        db.addJob("job", NoopJob.class);
+        if (failures) {
+            for (int i = 0; i < 40; i++) {
+                failOnce.add(fireInstanceId(i % threads, i * 7 % perThread));
+            }
+        }
+        final JobStoreTX store = db.newJobStore("n1", null);
+        store.setBatchFiredTriggerWrites(true);
+        store.setDbRetryInterval(5L);
+        final JobDetail job = newJob(NoopJob.class).withIdentity("job").build();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            OperableTrigger trigger = (OperableTrigger) newTrigger().withIdentity("t" + thread)
+                                    .forJob(job).build();
+                            trigger.setFireInstanceId(fireInstanceId(thread, i));
+                            store.triggeredJobComplete(trigger, job, CompletedExecutionInstruction.NOOP);
+                            check(completed.contains(trigger.getFireInstanceId()),
+                                    trigger.getFireInstanceId() + " committed before returning");
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(60000);
+            check(!worker.isAlive(), "completions stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        int total = threads * perThread;
+        check(completed.size() == total && duplicates.get() == 0, "each completion committed once: "
+                + completed.size() + " of " + total + ", " + duplicates.get() + " twice");
+        check(failOnce.isEmpty() && (db.rollbacks() > 0) == failures, "failures hit: " + db.rollbacks() + " rollbacks");
+        if (!failures) {
+            check(db.commits() < total / 2, "completions grouped: " + db.commits() + " commits for " + total);
+        }
+    }
+
+    /**
+     * Ten triggers of a job and one of a job that disallows concurrent
+     * execution, all due, plus, if asked, another of the latter.
+     */
+    private static FakeDatabase firingRows(FakeDatabase db, long now, boolean secondSerial) {
+        db.addJob("job", NoopJob.class);
+        db.addJob("serial", SerialJob.class);
+        for (int i = 0; i < 10; i++) {
+            db.addSimpleTrigger("t" + i, "job", now - 100 + i).repeatInterval = 1000L * (i + 1);
+        }
+        db.addSimpleTrigger("u0", "serial", now - 50);
+        if (secondSerial) {
+            db.addSimpleTrigger("u1", "serial", now - 40);
+        }
+        return db;
+    }
+
+    private static List<TriggerFiredResult> fire(FakeDatabase db, boolean batched) throws Exception {
+        JobStoreTX store = db.newJobStore("n1", null);
+        store.setAcquireTriggersInBatch(true);
+        store.setBatchFiredTriggerWrites(batched);
+        List<OperableTrigger> triggers = store.acquireNextTriggers(System.currentTimeMillis() + 1000, 20, 0L);
+        check(triggers.size() == 11, "acquired " + triggers.size());
+        return store.triggersFired(triggers);
+    }
+
+    private static Map<TriggerKey, String> firedStates(FakeDatabase db) {
+        Map<TriggerKey, String> states = new HashMap<TriggerKey, String>();
+        for (FiredRow row : db.firedTriggers().values()) {
+            states.put(row.triggerKey, row.state);
+        }
+        return states;
+    }
+
+    private static String fireInstanceId(int thread, int i) {
+        return "c-" + thread + "-" + i;
+    }
+
+    private static void check(boolean condition, String message) {
+        BatchAcquisitionCheck.check(condition, message);
+    }
+}
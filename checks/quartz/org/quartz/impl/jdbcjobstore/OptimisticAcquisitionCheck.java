@@ -0,0 +1,329 @@
+package org.quartz.impl.jdbcjobstore;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.quartz.JobPersistenceException;
+import org.quartz.TriggerKey;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.Execution;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.FiredRow;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.NoopJob;
+import org.quartz.impl.jdbcjobstore.FakeDatabase.TriggerRow;
+import org.quartz.spi.OperableTrigger;
+
+/**
+ * Runnable check for <code>acquireTriggersOptimistically</code> and
+ * <code>partitionTriggersAcrossCluster</code>, against {@link FakeDatabase}:
+ * batches are acquired without the TRIGGER_ACCESS lock only once the driver
+ * has shown that it reports batch update counts; a trigger rescheduled
+ * since it was read is not claimed; nodes racing for the same triggers
+ * claim each exactly once; and clustered nodes acquire their own shares of
+ * the triggers, a failed node's share being taken over by the others.
+ */
+public final class OptimisticAcquisitionCheck {
+
+    private OptimisticAcquisitionCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        locksUntilCountsAreKnown();
+        locksOneByOne();
+        skipsRescheduledTriggers(true);
+        skipsRescheduledTriggers(false);
+        nodesRaceForTriggers();
+        partitionsAcrossCluster(true);
+        partitionsAcrossCluster(false);
+        System.out.println("ok");
+    }
+
+    private static void locksUntilCountsAreKnown() throws Exception {
+        long now = System.currentTimeMillis();
+        FakeDatabase db = dueTriggers(new FakeDatabase(), "t", 40, now);
+        RecordingSemaphore lock = new RecordingSemaphore();
+        JobStoreTX store = db.newJobStore("n1", lock);
+        store.setAcquireTriggersInBatch(true);
+        store.setAcquireTriggersOptimistically(true);
+
+        check(store.acquireNextTriggers(now + 1000, 5, 0L).size() == 5 && lock.obtained() == 1,
+                "first batch within the lock");
+        check(store.acquireNextTriggers(now + 1000, 5, 0L).size() == 5 && lock.obtained() == 1,
+                "then without it");
+        List<Execution> updates = db.executions(StdJDBCConstants.UPDATE_TRIGGER_STATE_FROM_STATE_AND_FIRE_TIME);
+        check(updates.size() == 2 && updates.get(1).batch && updates.get(1).parameters.size() == 5,
+                "claimed by fire time in a batch");
+
+        // a driver that stops reporting the counts makes the lock-free batch fail
+        db.setBatchUpdateCounts(false);
+        int rollbacks = db.rollbacks();
+        try {
+            store.acquireNextTriggers(now + 1000, 5, 0L);
+            throw new AssertionError("acquired without knowing which triggers were claimed");
+        } catch (JobPersistenceException expected) {
+            // rolled back
+        }
+        check(lock.obtained() == 1 && db.rollbacks() == rollbacks + 1, "lock-free attempt rolled back");
+        check(acquiredCount(db) == 10 && db.firedTriggers().size() == 10, "nothing claimed by the failed attempt");
+
+        db.clearExecutions();
+        check(store.acquireNextTriggers(now + 1000, 5, 0L).size() == 5 && lock.obtained() == 2,
+                "next batch within the lock");
+        check(db.executions(StdJDBCConstants.SELECT_TRIGGER_STATE).size() == 5, "state of each update looked up");
+        check(acquiredCount(db) == 15 && lock.released() == lock.obtained(), "acquired, lock released");
+    }
+
+    private static void locksOneByOne() throws Exception {
+        long now = System.currentTimeMillis();
+        FakeDatabase db = dueTriggers(new FakeDatabase(), "t", 40, now);
+        RecordingSemaphore lock = new RecordingSemaphore();
+        JobStoreTX store = db.newJobStore("n1", lock);
+
+        check(store.acquireNextTriggers(now + 1000, 1, 0L).size() == 1 && lock.obtained() == 0,
+                "a single trigger without the lock");
+        check(store.acquireNextTriggers(now + 1000, 5, 0L).size() == 5 && lock.obtained() == 1,
+                "several within the lock");
+        store.setAcquireTriggersOptimistically(true);
+        db.clearExecutions();
+        check(store.acquireNextTriggers(now + 1000, 5, 0L).size() == 5 && lock.obtained() == 1,
+                "several without the lock when optimistic");
+        List<Execution> updates = db.executions(StdJDBCConstants.UPDATE_TRIGGER_STATE_FROM_STATE_AND_FIRE_TIME);
+        check(updates.size() == 5 && db.executions(StdJDBCConstants.UPDATE_TRIGGER_STATE_FROM_STATE).isEmpty(),
+                "claimed by fire time");
+        store.setAcquireTriggersWithinLock(true);
+        check(store.acquireNextTriggers(now + 1000, 5, 0L).size() == 5 && lock.obtained() == 2,
+                "within the lock when asked to");
+    }
+
+    private static void skipsRescheduledTriggers(final boolean inBatch) throws Exception {
+        final long now = System.currentTimeMillis();
+        final TriggerKey rescheduled = new TriggerKey("t2");
+        final String readQuery = inBatch ? StdJDBCConstants.SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS
+                : StdJDBCConstants.SELECT_TRIGGER;
+        for (boolean optimistic : new boolean[] { true, false }) {
+            final AtomicInteger moved = new AtomicInteger();
+            FakeDatabase db = new FakeDatabase() {
+                @Override
+                protected List<Map<String, Object>> query(String sql, Object[] p) throws SQLException {
+                    List<Map<String, Object>> rows = super.query(sql, p);
+                    // another node fires the trigger once it has been read
+                    if (sql.equals(sql(readQuery)) && (inBatch || p[0].equals(rescheduled.getName()))
+                            && moved.getAndIncrement() == 0) {
+                        TriggerRow row = trigger(rescheduled).copy();
+                        row.nextFireTime = now + 500;
+                        update(row);
+                    }
+                    return rows;
+                }
+            };
+            dueTriggers(db, "t", 5, now);
+            JobStoreTX store = db.newJobStore("n1", null);
+            store.setAcquireTriggersInBatch(inBatch);
+            store.setAcquireTriggersOptimistically(optimistic);
+            List<OperableTrigger> acquired = store.acquireNextTriggers(now + 1000, 5, 0L);
+
+            check(moved.get() > 0, "trigger rescheduled");
+            check(BatchAcquisitionCheck.keys(acquired).contains(rescheduled) != optimistic,
+                    (optimistic ? "rescheduled trigger claimed: " : "plain claim missed: ") + BatchAcquisitionCheck.keys(acquired));
+            check(acquired.size() == (optimistic ? 4 : 5), "the others claimed");
+            check(db.trigger(rescheduled).state.equals(optimistic ? Constants.STATE_WAITING : Constants.STATE_ACQUIRED),
+                    "rescheduled trigger in state " + db.trigger(rescheduled).state);
+            BatchAcquisitionCheck.checkAcquired(db, acquired, "n1");
+        }
+    }
+
+    private static void nodesRaceForTriggers() throws Exception {
+        final int nodes = 3;
+        final int threadsPerNode = 4;
+        final int triggerCount = 600;
+        final long now = System.currentTimeMillis();
+        final FakeDatabase db = dueTriggers(new FakeDatabase(), "t", triggerCount, now);
+        final List<OperableTrigger> acquired = Collections.synchronizedList(new ArrayList<OperableTrigger>());
+        final Map<TriggerKey, String> acquiredBy = Collections.synchronizedMap(new HashMap<TriggerKey, String>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<RecordingSemaphore> locks = new ArrayList<RecordingSemaphore>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int n = 0; n < nodes; n++) {
+            RecordingSemaphore lock = new RecordingSemaphore();
+            locks.add(lock);
+            final String instanceId = "n" + n;
+            final JobStoreTX store = db.newJobStore(instanceId, lock);
+            store.setAcquireTriggersInBatch(true);
+            store.setAcquireTriggersOptimistically(true);
+            for (int t = 0; t < threadsPerNode; t++) {
+                Thread worker = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            while (true) {
+                                List<OperableTrigger> batch = store.acquireNextTriggers(now + 1000, 10, 0L);
+                                if (batch.isEmpty() && waitingCount(db) == 0) {
+                                    return;
+                                }
+                                acquired.addAll(batch);
+                                for (OperableTrigger trigger : batch) {
+                                    String previous = acquiredBy.put(trigger.getKey(), instanceId);
+                                    check(previous == null, trigger.getKey() + " claimed by " + previous + " and " + instanceId);
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                };
+                worker.start();
+                workers.add(worker);
+            }
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(60000);
+            check(!worker.isAlive(), "acquisition stuck");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        check(acquired.size() == triggerCount && acquiredBy.size() == triggerCount,
+                "each trigger claimed once: " + acquired.size() + " claims of " + acquiredBy.size());
+        check(acquiredCount(db) == triggerCount, "all triggers acquired");
+        Map<String, FiredRow> fired = db.firedTriggers();
+        check(fired.size() == triggerCount, "one fired trigger row each");
+        for (FiredRow row : fired.values()) {
+            check(row.instanceId.equals(acquiredBy.get(row.triggerKey)), "fired trigger row of " + row.triggerKey);
+        }
+        for (RecordingSemaphore lock : locks) {
+            check(lock.obtained() <= threadsPerNode, "only first batches within the lock: " + lock.obtained());
+        }
+    }
+
+    private static void partitionsAcrossCluster(boolean inBatch) throws Exception {
+        long now = System.currentTimeMillis();
+        FakeDatabase db = dueTriggers(new FakeDatabase(), "t", 300, now);
+        List<JobStoreTX> stores = new ArrayList<JobStoreTX>();
+        for (int n = 1; n <= 3; n++) {
+            JobStoreTX store = db.newJobStore("n" + n, null);
+            store.setIsClustered(true);
+            store.setPartitionTriggersAcrossCluster(true);
+            store.setAcquireTriggersInBatch(inBatch);
+            store.setAcquireTriggersOptimistically(true);
+            stores.add(store);
+        }
+        // the second round sees all three nodes
+        checkIn(db, stores);
+        checkIn(db, stores);
+        checkShares(db, stores, "t", now);
+
+        // the third node stops checking in, the others take over its share
+        db.addSchedulerState("n3", now - 60000);
+        stores.remove(2);
+        checkIn(db, stores);
+        dueTriggers(db, "u", 200, now);
+        checkShares(db, stores, "u", now);
+    }
+
+    private static void checkIn(FakeDatabase db, List<JobStoreTX> stores) throws Exception {
+        for (JobStoreTX store : stores) {
+            Connection conn = db.connect();
+            store.clusterCheckIn(conn);
+            conn.commit();
+            conn.close();
+        }
+    }
+
+    /**
+     * Check that the stores, each asking for all of the due triggers named
+     * with the prefix, each get exactly their own share of them.
+     */
+    private static void checkShares(FakeDatabase db, List<JobStoreTX> stores, String prefix, long now) throws Exception {
+        Set<TriggerKey> due = new HashSet<TriggerKey>();
+        for (TriggerRow row : db.triggers()) {
+            if (row.key.getName().startsWith(prefix)) {
+                due.add(row.key);
+            }
+        }
+        Set<TriggerKey> claimed = new HashSet<TriggerKey>();
+        for (int i = 0; i < stores.size(); i++) {
+            List<OperableTrigger> acquired = stores.get(i).acquireNextTriggers(now + 1000, due.size(), 0L);
+            for (OperableTrigger trigger : acquired) {
+                TriggerKey key = trigger.getKey();
+                check((key.hashCode() & Integer.MAX_VALUE) % stores.size() == i,
+                        key + " claimed outside the share of node " + i + " of " + stores.size());
+                check(due.contains(key) && claimed.add(key), key + " claimed twice");
+            }
+            check(!acquired.isEmpty(), "node " + i + " claimed nothing");
+        }
+        check(claimed.equals(due), "shares cover all triggers: " + claimed.size() + " of " + due.size());
+    }
+
+    /** Due triggers of one job, named with the prefix. */
+    private static FakeDatabase dueTriggers(FakeDatabase db, String prefix, int count, long now) {
+        db.addJob("job", NoopJob.class);
+        for (int i = 0; i < count; i++) {
+            db.addSimpleTrigger(prefix + i, "job", now - count + i);
+        }
+        return db;
+    }
+
+    private static int acquiredCount(FakeDatabase db) {
+        return stateCount(db, Constants.STATE_ACQUIRED);
+    }
+
+    private static int waitingCount(FakeDatabase db) {
+        return stateCount(db, Constants.STATE_WAITING);
+    }
+
+    private static int stateCount(FakeDatabase db, String state) {
+        int count = 0;
+        for (TriggerRow row : db.triggers()) {
+            if (row.state.equals(state)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void check(boolean condition, String message) {
+        BatchAcquisitionCheck.check(condition, message);
+    }
+
+    /**
+     * A lock handler that counts the locks it grants, without excluding
+     * anyone.
+     */
+    private static final class RecordingSemaphore implements Semaphore {
+        private final AtomicInteger obtained = new AtomicInteger();
+        private final AtomicInteger released = new AtomicInteger();
+
+        public boolean obtainLock(Connection conn, String lockName) {
+            obtained.incrementAndGet();
+            return true;
+        }
+
+        public void releaseLock(String lockName) {
+            released.incrementAndGet();
+        }
+
+        public boolean requiresConnection() {
+            return false;
+        }
+
+        int obtained() {
+            return obtained.get();
+        }
+
+        int released() {
+            return released.get();
+        }
+    }
+}
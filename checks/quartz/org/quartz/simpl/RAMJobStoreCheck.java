@@ -0,0 +1,331 @@
+package org.quartz.simpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+import org.quartz.impl.calendar.BaseCalendar;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+import org.quartz.spi.TriggerFiredResult;
+
+/**
+ * Runnable check for the {@link RAMJobStore} indexes: drives a store through
+ * random sequences of storing, replacing, removing, pausing, resuming,
+ * acquiring, firing and completing, and after every call compares the job,
+ * calendar, state and group indexes and the set of waiting triggers with
+ * what a scan of every stored trigger gives.
+ */
+public final class RAMJobStoreCheck {
+
+    private static final int JOBS = 6;
+    private static final int TRIGGERS = 24;
+    private static final String[] CALENDARS = {"cal0", "cal1"};
+    private static final CompletedExecutionInstruction[] INSTRUCTIONS = {
+        CompletedExecutionInstruction.NOOP,
+        CompletedExecutionInstruction.NOOP,
+        CompletedExecutionInstruction.SET_TRIGGER_COMPLETE,
+        CompletedExecutionInstruction.DELETE_TRIGGER,
+        CompletedExecutionInstruction.SET_TRIGGER_ERROR,
+        CompletedExecutionInstruction.SET_ALL_JOB_TRIGGERS_COMPLETE
+    };
+
+    private RAMJobStoreCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (long seed = 0; seed < 40; seed++) {
+            run(seed, false);
+            run(seed, true);
+        }
+        System.out.println("ok");
+    }
+
+    private static void run(long seed, boolean useTimingWheel) throws Exception {
+        RAMJobStore store = new RAMJobStore();
+        store.setUseTimingWheel(useTimingWheel);
+        store.initialize(null, new NoopSignaler());
+        Random random = new Random(seed);
+        long now = System.currentTimeMillis();
+        for (int step = 0; step < 400; step++) {
+            int op = random.nextInt(16);
+            String where = "seed " + seed + (useTimingWheel ? " (wheel)" : "") + " step " + step + " op " + op;
+            try {
+                apply(store, op, random, now);
+            } catch (JobPersistenceException e) {
+                // e.g. a trigger for a job that is not stored, or a calendar still in use
+            }
+            verify(store, where);
+        }
+    }
+
+    private static void apply(RAMJobStore store, int op, Random random, long now) throws JobPersistenceException {
+        switch (op) {
+        case 0:
+        case 1:
+            store.storeJob(job(random.nextInt(JOBS)), true);
+            break;
+        case 2:
+        case 3:
+        case 4:
+            store.storeTrigger(trigger(random, now), true);
+            break;
+        case 5:
+            store.removeTrigger(triggerKey(random.nextInt(TRIGGERS)));
+            break;
+        case 6:
+            store.removeJob(jobKey(random.nextInt(JOBS)));
+            break;
+        case 7:
+            store.replaceTrigger(triggerKey(random.nextInt(TRIGGERS)), trigger(random, now));
+            break;
+        case 8:
+            if (random.nextBoolean()) {
+                store.pauseTrigger(triggerKey(random.nextInt(TRIGGERS)));
+            } else {
+                store.resumeTrigger(triggerKey(random.nextInt(TRIGGERS)));
+            }
+            break;
+        case 9:
+            if (random.nextBoolean()) {
+                store.pauseJob(jobKey(random.nextInt(JOBS)));
+            } else {
+                store.resumeJob(jobKey(random.nextInt(JOBS)));
+            }
+            break;
+        case 10:
+            String group = "tg" + random.nextInt(2);
+            if (random.nextBoolean()) {
+                store.pauseTriggers(GroupMatcher.triggerGroupEquals(group));
+            } else {
+                store.resumeTriggers(GroupMatcher.triggerGroupEquals(group));
+            }
+            break;
+        case 11:
+            if (random.nextInt(4) == 0) {
+                if (random.nextBoolean()) {
+                    store.pauseAll();
+                } else {
+                    store.resumeAll();
+                }
+            }
+            break;
+        case 12:
+            store.storeCalendar(CALENDARS[random.nextInt(CALENDARS.length)], new BaseCalendar(), true, true);
+            break;
+        case 13:
+            store.removeCalendar(CALENDARS[random.nextInt(CALENDARS.length)]);
+            break;
+        default:
+            fire(store, random, now);
+            break;
+        }
+    }
+
+    /**
+     * Acquires a few triggers, fires some, releases the others and completes
+     * the fired ones with a random instruction.
+     */
+    private static void fire(RAMJobStore store, Random random, long now) throws JobPersistenceException {
+        List<OperableTrigger> acquired = store.acquireNextTriggers(now + 3600000L, 1 + random.nextInt(4), 0L);
+        List<OperableTrigger> toFire = new ArrayList<OperableTrigger>();
+        for (OperableTrigger trigger : acquired) {
+            if (random.nextInt(4) == 0) {
+                store.releaseAcquiredTrigger(trigger);
+            } else {
+                toFire.add(trigger);
+            }
+        }
+        for (TriggerFiredResult result : store.triggersFired(toFire)) {
+            if (result.getTriggerFiredBundle() != null) {
+                store.triggeredJobComplete(result.getTriggerFiredBundle().getTrigger(),
+                        result.getTriggerFiredBundle().getJobDetail(),
+                        INSTRUCTIONS[random.nextInt(INSTRUCTIONS.length)]);
+            }
+        }
+    }
+
+    private static void verify(RAMJobStore store, String where) {
+        Map<JobKey, Set<TriggerWrapper>> byJob = new HashMap<JobKey, Set<TriggerWrapper>>();
+        Map<String, Set<TriggerWrapper>> byCalendar = new HashMap<String, Set<TriggerWrapper>>();
+        Map<Integer, Set<TriggerWrapper>> byState = new HashMap<Integer, Set<TriggerWrapper>>();
+        Map<String, Set<TriggerKey>> byGroup = new HashMap<String, Set<TriggerKey>>();
+        for (Map.Entry<TriggerKey, TriggerWrapper> entry : store.triggersByKey.entrySet()) {
+            TriggerWrapper tw = entry.getValue();
+            check(tw.key.equals(entry.getKey()), where + ": trigger stored under its key");
+            check(store.jobsByKey.containsKey(tw.jobKey), where + ": trigger " + tw.key + " of a stored job");
+            add(byJob, tw.jobKey, tw);
+            if (tw.trigger.getCalendarName() != null) {
+                add(byCalendar, tw.trigger.getCalendarName(), tw);
+            }
+            add(byState, tw.getState(), tw);
+            add(byGroup, tw.key.getGroup(), tw.key);
+
+            boolean waiting = tw.getState() == TriggerWrapper.STATE_WAITING && tw.trigger.getNextFireTime() != null;
+            check(!waiting || store.timeTriggers.contains(tw), where + ": waiting trigger " + tw.key + " is due to fire");
+        }
+        check(sameIndex(byJob, store.triggersByJob), where + ": job index");
+        check(sameIndex(byCalendar, store.triggersByCalendar), where + ": calendar index");
+        check(sameIndex(byState, store.triggersByState), where + ": state index");
+
+        Map<String, Set<TriggerKey>> groups = new HashMap<String, Set<TriggerKey>>();
+        for (Map.Entry<String, Map<TriggerKey, TriggerWrapper>> entry : store.triggersByGroup.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                groups.put(entry.getKey(), new HashSet<TriggerKey>(entry.getValue().keySet()));
+            }
+        }
+        check(groups.equals(byGroup), where + ": trigger group index");
+
+        Map<String, Set<JobKey>> jobGroups = new HashMap<String, Set<JobKey>>();
+        for (JobKey jobKey : store.jobsByKey.keySet()) {
+            add(jobGroups, jobKey.getGroup(), jobKey);
+        }
+        Map<String, Set<JobKey>> storedJobGroups = new HashMap<String, Set<JobKey>>();
+        for (Map.Entry<String, Map<JobKey, JobWrapper>> entry : store.jobsByGroup.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                storedJobGroups.put(entry.getKey(), new HashSet<JobKey>(entry.getValue().keySet()));
+            }
+        }
+        check(storedJobGroups.equals(jobGroups), where + ": job group index");
+
+        for (TriggerWrapper tw : store.timeTriggers) {
+            check(store.triggersByKey.get(tw.key) == tw, where + ": due trigger " + tw.key + " is stored");
+            check(tw.getState() == TriggerWrapper.STATE_WAITING || tw.getState() == TriggerWrapper.STATE_ERROR,
+                    where + ": due trigger " + tw.key + " in state " + tw.getState());
+        }
+
+        for (int j = 0; j < JOBS; j++) {
+            Set<TriggerKey> expected = new HashSet<TriggerKey>();
+            if (byJob.containsKey(jobKey(j))) {
+                for (TriggerWrapper tw : byJob.get(jobKey(j))) {
+                    expected.add(tw.key);
+                }
+            }
+            Set<TriggerKey> actual = new HashSet<TriggerKey>();
+            for (OperableTrigger trigger : store.getTriggersForJob(jobKey(j))) {
+                actual.add(trigger.getKey());
+            }
+            check(expected.equals(actual), where + ": triggers of job " + j);
+        }
+    }
+
+    /**
+     * Whether an index holds exactly the expected wrappers, the very
+     * instances stored, and no empty entries.
+     */
+    private static <K> boolean sameIndex(Map<K, Set<TriggerWrapper>> expected, Map<K, Set<TriggerWrapper>> index) {
+        if (!expected.keySet().equals(index.keySet())) {
+            return false;
+        }
+        for (Map.Entry<K, Set<TriggerWrapper>> entry : index.entrySet()) {
+            Set<TriggerWrapper> tws = entry.getValue();
+            if (!tws.equals(expected.get(entry.getKey()))) {
+                return false;
+            }
+            for (TriggerWrapper tw : tws) {
+                if (!expected.get(entry.getKey()).contains(tw)) {
+                    return false;
+                }
+                boolean same = false;
+                for (TriggerWrapper e : expected.get(entry.getKey())) {
+                    same |= e == tw;
+                }
+                if (!same) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static <K, V> void add(Map<K, Set<V>> map, K key, V value) {
+        Set<V> values = map.get(key);
+        if (values == null) {
+            values = new HashSet<V>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static JobKey jobKey(int j) {
+        return new JobKey("job" + j, "jg" + (j % 2));
+    }
+
+    private static TriggerKey triggerKey(int t) {
+        return new TriggerKey("trigger" + t, "tg" + (t % 2));
+    }
+
+    private static JobDetail job(int j) {
+        Class<? extends Job> jobClass = (j % 3 == 0) ? SerialJob.class : NoopJob.class;
+        return JobBuilder.newJob(jobClass).withIdentity(jobKey(j)).storeDurably().build();
+    }
+
+    private static OperableTrigger trigger(Random random, long now) {
+        TriggerBuilder<Trigger> builder = TriggerBuilder.newTrigger()
+                .withIdentity(triggerKey(random.nextInt(TRIGGERS)))
+                .forJob(jobKey(random.nextInt(JOBS)))
+                .startAt(new Date(now + 1000L * random.nextInt(600)));
+        int calendar = random.nextInt(CALENDARS.length + 1);
+        if (calendar < CALENDARS.length) {
+            builder.modifiedByCalendar(CALENDARS[calendar]);
+        }
+        OperableTrigger trigger = (OperableTrigger) builder
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                        .withIntervalInSeconds(1 + random.nextInt(300))
+                        .withRepeatCount(random.nextInt(4)))
+                .build();
+        trigger.computeFirstFireTime(null);
+        return trigger;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    public static class NoopJob implements Job {
+        public void execute(JobExecutionContext context) {
+        }
+    }
+
+    @DisallowConcurrentExecution
+    public static class SerialJob extends NoopJob {
+    }
+
+    static class NoopSignaler implements SchedulerSignaler {
+        public void notifyTriggerListenersMisfired(Trigger trigger) {
+        }
+
+        public void notifySchedulerListenersFinalized(Trigger trigger) {
+        }
+
+        public void notifySchedulerListenersJobDeleted(JobKey jobKey) {
+        }
+
+        public void signalSchedulingChange(long candidateNewNextFireTime) {
+        }
+
+        public void notifySchedulerListenersError(String string, SchedulerException jpe) {
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.quartz.simpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.spi.OperableTrigger;
+
+/**
+ * Runnable check for the striped job storage of {@link RAMJobStore}: racing
+ * <code>storeJob</code> and <code>storeJobsAndTriggers</code> calls over the
+ * same keys store each job exactly once, lock-free lookups never miss a job
+ * that is being replaced, and mixing every kind of call across threads
+ * neither deadlocks nor leaves the group index out of step.
+ */
+public final class RAMJobStoreConcurrencyCheck {
+
+    private static final int THREADS = 8;
+
+    private RAMJobStoreConcurrencyCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 20; round++) {
+            oneWinnerPerKey(round);
+        }
+        lookupsDuringReplace();
+        mixedLoad();
+        System.out.println("ok");
+    }
+
+    /**
+     * Every thread tries to store the same jobs, alone or in batches, without
+     * replacing; each job must be won by exactly one call.
+     */
+    private static void oneWinnerPerKey(final int round) throws Exception {
+        final RAMJobStore store = newStore();
+        final int keys = 64;
+        final ConcurrentHashMap<JobKey, AtomicInteger> winners = new ConcurrentHashMap<JobKey, AtomicInteger>();
+        for (int k = 0; k < keys; k++) {
+            winners.put(jobKey(k), new AtomicInteger());
+        }
+        final AtomicInteger errors = new AtomicInteger();
+        run(new Body() {
+            public void run(int t) throws Exception {
+                for (int k = 0; k < keys; k++) {
+                    int first = (k * 7 + t * 13 + round) % keys;
+                    if ((t + k) % 3 == 0) {
+                        Map<JobDetail, Set<? extends Trigger>> batch = new HashMap<JobDetail, Set<? extends Trigger>>();
+                        List<JobKey> batchKeys = new ArrayList<JobKey>();
+                        for (int b = 0; b < 3; b++) {
+                            JobKey key = jobKey((first + b * 11) % keys);
+                            batch.put(job(key), Collections.singleton(trigger(key, "t" + key.getName())));
+                            batchKeys.add(key);
+                        }
+                        try {
+                            store.storeJobsAndTriggers(batch, false);
+                            for (JobKey key : batchKeys) {
+                                winners.get(key).incrementAndGet();
+                            }
+                        } catch (ObjectAlreadyExistsException expected) {
+                        }
+                    } else {
+                        JobKey key = jobKey(first);
+                        try {
+                            store.storeJob(job(key), false);
+                            winners.get(key).incrementAndGet();
+                        } catch (ObjectAlreadyExistsException expected) {
+                        }
+                    }
+                }
+            }
+        }, errors);
+        check(errors.get() == 0, "no call failed unexpectedly");
+        for (Map.Entry<JobKey, AtomicInteger> entry : winners.entrySet()) {
+            int won = entry.getValue().get();
+            check(won == 1, "round " + round + ": " + entry.getKey() + " stored " + won + " times");
+        }
+        verifyGroups(store, "round " + round);
+    }
+
+    /**
+     * Readers look jobs up while writers keep replacing them; a replaced job
+     * must never appear to be missing.
+     */
+    private static void lookupsDuringReplace() throws Exception {
+        final RAMJobStore store = newStore();
+        final int keys = 32;
+        for (int k = 0; k < keys; k++) {
+            store.storeJob(job(jobKey(k)), false);
+        }
+        final AtomicInteger misses = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        run(new Body() {
+            public void run(int t) throws Exception {
+                for (int i = 0; i < 20000; i++) {
+                    JobKey key = jobKey((i * 31 + t) % keys);
+                    if (t % 2 == 0) {
+                        store.storeJob(job(key), true);
+                    } else if (store.retrieveJob(key) == null || !store.checkExists(key)) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        }, errors);
+        check(errors.get() == 0, "no call failed");
+        check(misses.get() == 0, "replaced jobs went missing " + misses.get() + " times");
+        check(store.getNumberOfJobs() == keys, "job count unchanged");
+        verifyGroups(store, "replace");
+    }
+
+    /**
+     * Stores, replaces and removes jobs and triggers, acquires and fires
+     * triggers, and reads, all at once; must finish and leave the indexes
+     * consistent.
+     */
+    private static void mixedLoad() throws Exception {
+        final RAMJobStore store = newStore();
+        final int keys = 40;
+        final long now = System.currentTimeMillis();
+        final AtomicInteger errors = new AtomicInteger();
+        run(new Body() {
+            public void run(int t) throws Exception {
+                for (int i = 0; i < 3000; i++) {
+                    JobKey key = jobKey((i * 17 + t * 5) % keys);
+                    switch ((i + t) % 8) {
+                    case 0:
+                        store.storeJob(job(key), true);
+                        break;
+                    case 1:
+                        Map<JobDetail, Set<? extends Trigger>> batch = new HashMap<JobDetail, Set<? extends Trigger>>();
+                        batch.put(job(key), Collections.singleton(trigger(key, "t" + i % 10, now)));
+                        JobKey other = jobKey((key.hashCode() & 0xffff) % keys);
+                        if (!other.equals(key)) {
+                            batch.put(job(other), Collections.<Trigger>emptySet());
+                        }
+                        store.storeJobsAndTriggers(batch, true);
+                        break;
+                    case 2:
+                        store.removeJob(key);
+                        break;
+                    case 3:
+                        if (store.checkExists(key)) {
+                            try {
+                                store.storeTrigger(trigger(key, "t" + i % 10, now), true);
+                            } catch (org.quartz.JobPersistenceException e) {
+                                // the job was removed meanwhile
+                            }
+                        }
+                        break;
+                    case 4:
+                        List<OperableTrigger> acquired = store.acquireNextTriggers(now + 3600000L, 3, 0L);
+                        if (i % 2 == 0) {
+                            store.triggersFired(acquired);
+                        } else {
+                            for (OperableTrigger trigger : acquired) {
+                                store.releaseAcquiredTrigger(trigger);
+                            }
+                        }
+                        break;
+                    case 5:
+                        store.getJobKeys(GroupMatcher.jobGroupEquals(key.getGroup()));
+                        store.getTriggersForJob(key);
+                        break;
+                    case 6:
+                        store.pauseJob(key);
+                        break;
+                    default:
+                        store.resumeJob(key);
+                        break;
+                    }
+                }
+            }
+        }, errors);
+        check(errors.get() == 0, "no call failed");
+        verifyGroups(store, "mixed");
+        for (TriggerWrapper tw : store.triggersByKey.values()) {
+            check(store.jobsByKey.containsKey(tw.jobKey), "trigger " + tw.key + " of a stored job");
+        }
+    }
+
+    private static void verifyGroups(RAMJobStore store, String where) {
+        Map<String, Set<JobKey>> expected = new HashMap<String, Set<JobKey>>();
+        for (JobKey key : store.jobsByKey.keySet()) {
+            Set<JobKey> group = expected.get(key.getGroup());
+            if (group == null) {
+                group = new HashSet<JobKey>();
+                expected.put(key.getGroup(), group);
+            }
+            group.add(key);
+        }
+        Map<String, Set<JobKey>> actual = new HashMap<String, Set<JobKey>>();
+        for (Map.Entry<String, Map<JobKey, JobWrapper>> entry : store.jobsByGroup.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                actual.put(entry.getKey(), new HashSet<JobKey>(entry.getValue().keySet()));
+            }
+            for (Map.Entry<JobKey, JobWrapper> job : entry.getValue().entrySet()) {
+                check(store.jobsByKey.get(job.getKey()) == job.getValue(), where + ": " + job.getKey() + " wrapped once");
+            }
+        }
+        check(expected.equals(actual), where + ": job group index");
+    }
+
+    private interface Body {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs the body on {@link #THREADS} threads at once and fails if they do
+     * not all finish within a minute.
+     */
+    private static void run(final Body body, final AtomicInteger errors) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        body.run(thread);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            threads.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        long deadline = System.currentTimeMillis() + 60000L;
+        for (Thread worker : threads) {
+            worker.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            check(!worker.isAlive(), "threads still running after a minute, deadlocked?");
+        }
+    }
+
+    private static RAMJobStore newStore() {
+        RAMJobStore store = new RAMJobStore();
+        store.initialize(null, new RAMJobStoreCheck.NoopSignaler());
+        return store;
+    }
+
+    private static JobKey jobKey(int k) {
+        return new JobKey("job" + k, "group" + (k % 5));
+    }
+
+    private static JobDetail job(JobKey key) {
+        return JobBuilder.newJob(RAMJobStoreCheck.NoopJob.class).withIdentity(key).storeDurably().build();
+    }
+
+    private static OperableTrigger trigger(JobKey jobKey, String name) {
+        return trigger(jobKey, name, System.currentTimeMillis());
+    }
+
+    private static OperableTrigger trigger(JobKey jobKey, String name, long now) {
+        OperableTrigger trigger = (OperableTrigger) TriggerBuilder.newTrigger()
+                .withIdentity(name + "-" + jobKey.getName(), jobKey.getGroup())
+                .forJob(jobKey)
+                .startAt(new Date(now + 1000L))
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withIntervalInSeconds(10).withRepeatCount(3))
+                .build();
+        trigger.computeFirstFireTime(null);
+        return trigger;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
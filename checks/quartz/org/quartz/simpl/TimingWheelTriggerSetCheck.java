@@ -0,0 +1,191 @@
+package org.quartz.simpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+
+/**
+ * Runnable check for {@link TimingWheelTriggerSet}: random sequences of
+ * adds, removes, polls of due triggers and operations on the sorted-set
+ * views must give the same answers as the <code>TreeSet</code> that
+ * <code>RAMJobStore</code> uses by default, for fire times in every level of
+ * the wheel, before its base tick, beyond its span, and missing.
+ */
+public final class TimingWheelTriggerSetCheck {
+
+    private static final TriggerWrapperComparator COMPARATOR = new TriggerWrapperComparator();
+
+    private static final long[] TICKS = {1L, 7L, 1000L};
+
+    private TimingWheelTriggerSetCheck() {
+    }
+
+    public static void main(String[] args) {
+        for (long tick : TICKS) {
+            for (long seed = 0; seed < 30; seed++) {
+                run(seed, tick);
+            }
+        }
+        System.out.println("ok");
+    }
+
+    private static void run(long seed, long tickMillis) {
+        Random random = new Random(seed);
+        TimingWheelTriggerSet wheel = new TimingWheelTriggerSet(COMPARATOR, tickMillis);
+        TreeSet<TriggerWrapper> expected = new TreeSet<TriggerWrapper>(COMPARATOR);
+        List<TriggerWrapper> known = new ArrayList<TriggerWrapper>();
+        long now = System.currentTimeMillis();
+        int ids = 0;
+        for (int step = 0; step < 3000; step++) {
+            String where = "seed " + seed + " tick " + tickMillis + " step " + step;
+            int op = random.nextInt(20);
+            if (op < 8) {
+                TriggerWrapper tw = wrapper(ids++, fireTime(random, now), random.nextInt(3));
+                known.add(tw);
+                check(wheel.add(tw) == expected.add(tw), where + ": add");
+            } else if (op < 10 && !known.isEmpty()) {
+                TriggerWrapper tw = known.get(random.nextInt(known.size()));
+                check(wheel.add(tw) == expected.add(tw), where + ": add again");
+            } else if (op < 13 && !known.isEmpty()) {
+                TriggerWrapper tw = known.get(random.nextInt(known.size()));
+                check(wheel.remove(tw) == expected.remove(tw), where + ": remove");
+            } else if (op < 16) {
+                // time moves on, and the due triggers are drained
+                now += (long) Math.pow(10, random.nextInt(9));
+                int max = 1 + random.nextInt(20);
+                List<TriggerWrapper> polled = wheel.pollDue(now, max);
+                List<TriggerWrapper> due = new ArrayList<TriggerWrapper>();
+                while (due.size() < max && !expected.isEmpty()
+                        && expected.first().trigger.getNextFireTime() != null
+                        && expected.first().trigger.getNextFireTime().getTime() <= now) {
+                    due.add(expected.pollFirst());
+                }
+                check(polled.equals(due), where + ": pollDue " + polled.size() + " vs " + due.size());
+            } else if (op == 16 && !known.isEmpty()) {
+                TriggerWrapper from = known.get(random.nextInt(known.size()));
+                TriggerWrapper to = known.get(random.nextInt(known.size()));
+                if (COMPARATOR.compare(from, to) > 0) {
+                    TriggerWrapper swap = from;
+                    from = to;
+                    to = swap;
+                }
+                checkView(wheel.subSet(from, to), expected.subSet(from, to), known, random, where + ": subSet");
+                checkView(wheel.headSet(to), expected.headSet(to), known, random, where + ": headSet");
+                checkView(wheel.tailSet(from), expected.tailSet(from), known, random, where + ": tailSet");
+            } else if (op == 17 && !wheel.isEmpty()) {
+                // remove through the iterator
+                int skip = random.nextInt(wheel.size());
+                Iterator<TriggerWrapper> it = wheel.iterator();
+                for (int i = 0; i < skip; i++) {
+                    it.next();
+                }
+                TriggerWrapper tw = it.next();
+                it.remove();
+                check(expected.remove(tw), where + ": iterator remove");
+            } else if (op == 18 && random.nextInt(20) == 0) {
+                wheel.clear();
+                expected.clear();
+            }
+            compare(wheel, expected, where);
+        }
+    }
+
+    private static void compare(SortedSet<TriggerWrapper> actual, SortedSet<TriggerWrapper> expected, String where) {
+        check(actual.size() == expected.size(), where + ": size " + actual.size() + " vs " + expected.size());
+        check(actual.isEmpty() == expected.isEmpty(), where + ": isEmpty");
+        check(new ArrayList<TriggerWrapper>(actual).equals(new ArrayList<TriggerWrapper>(expected)), where + ": order");
+        if (expected.isEmpty()) {
+            check(throwsNoSuchElement(actual, true) && throwsNoSuchElement(actual, false), where + ": empty first/last");
+        } else {
+            check(actual.first() == expected.first(), where + ": first");
+            check(actual.last() == expected.last(), where + ": last");
+        }
+    }
+
+    private static void checkView(SortedSet<TriggerWrapper> actual, SortedSet<TriggerWrapper> expected,
+            List<TriggerWrapper> known, Random random, String where) {
+        compare(actual, expected, where);
+        for (int i = 0; i < 5; i++) {
+            TriggerWrapper tw = known.get(random.nextInt(known.size()));
+            check(actual.contains(tw) == expected.contains(tw), where + ": contains");
+        }
+        TriggerWrapper tw = known.get(random.nextInt(known.size()));
+        boolean expectedThrew = false;
+        boolean expectedChanged = false;
+        try {
+            expectedChanged = random.nextBoolean() ? expected.remove(tw) : expected.add(tw);
+        } catch (IllegalArgumentException e) {
+            expectedThrew = true;
+        }
+        if (expectedThrew) {
+            try {
+                actual.add(tw);
+                check(false, where + ": adding out of range must throw");
+            } catch (IllegalArgumentException e) {
+                // as expected
+            }
+        } else {
+            // redo the same change on the wheel's view
+            boolean actualChanged = expected.contains(tw) ? actual.add(tw) : actual.remove(tw);
+            check(actualChanged == expectedChanged, where + ": view update");
+        }
+        compare(actual, expected, where + " after update");
+    }
+
+    private static boolean throwsNoSuchElement(SortedSet<TriggerWrapper> set, boolean first) {
+        try {
+            if (first) {
+                set.first();
+            } else {
+                set.last();
+            }
+            return false;
+        } catch (NoSuchElementException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Picks a fire time in one of the wheel's levels, before its base tick,
+     * beyond its span, or none at all.
+     */
+    private static Date fireTime(Random random, long now) {
+        int scale = random.nextInt(14);
+        if (scale == 13) {
+            return null;
+        }
+        if (scale == 12) {
+            return new Date(now - 1 - (long) (random.nextDouble() * 1e9));
+        }
+        if (scale == 11) {
+            // beyond the 2^36 ticks the wheel spans
+            return new Date(now + (1L << 36) * 1000L + (long) (random.nextDouble() * 1e12));
+        }
+        long range = 1L << (3 * scale + 2);
+        return new Date(now + (long) (random.nextDouble() * range));
+    }
+
+    private static TriggerWrapper wrapper(int id, Date nextFireTime, int priority) {
+        SimpleTriggerImpl trigger = new SimpleTriggerImpl();
+        trigger.setKey(new TriggerKey("trigger" + id));
+        trigger.setJobKey(new JobKey("job"));
+        trigger.setNextFireTime(nextFireTime);
+        trigger.setPriority(priority);
+        return new TriggerWrapper(trigger);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
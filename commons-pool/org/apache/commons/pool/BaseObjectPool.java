@@ -17,6 +17,12 @@
 
 package org.apache.commons.pool;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
 /**
  * A simple base implementation of {@link ObjectPool}.
  * Optional operations are implemented to either do nothing, return a value
@@ -59,6 +65,105 @@ public abstract class BaseObjectPool<T> implements ObjectPool<T> {
      */
     public abstract void invalidateObject(T obj) throws Exception;
 
+    /**
+     * <p>Borrows one instance for {@link #borrowObjects}, waiting no longer than
+     * <code>maxWait</code> milliseconds.  This base implementation ignores the
+     * limit and calls {@link #borrowObject()}; subclasses able to bound a single
+     * borrow should override it.</p>
+     *
+     * @param maxWait the maximum number of milliseconds to wait, zero or less for no limit
+     * @return an instance from the pool
+     * @throws Exception if an instance cannot be obtained from the pool
+     * @since Pool 1.6
+     */
+    protected T borrowObject(long maxWait) throws Exception {
+        return borrowObject();
+    }
+
+    /**
+     * <p>Obtains <code>n</code> instances from this pool, all or nothing.  If the
+     * pool cannot supply all <code>n</code> instances, any instance already
+     * obtained for the batch is returned to the pool before the exception is
+     * thrown.  Clients <strong>must</strong> return each instance using
+     * {@link #returnObject returnObject}, {@link #returnObjects returnObjects} or
+     * {@link #invalidateObject invalidateObject}.</p>
+     *
+     * <p>This is not part of {@link ObjectPool}, so that existing implementations
+     * of that interface are not broken by it.</p>
+     *
+     * <p>Borrows the instances one at a time with {@link #borrowObject(long)},
+     * passing each borrow the part of <code>maxWait</code> that is left.  If a
+     * borrow fails, or <code>maxWait</code> milliseconds have elapsed before the
+     * batch is complete, the instances obtained so far are handed back with
+     * {@link #returnObjects} and the exception is rethrown.</p>
+     *
+     * <p>The instances obtained so far are held while the next one is waited
+     * for, so concurrent batches can exhaust a bounded pool between them.
+     * Subclasses able to reserve the whole batch at once should override this
+     * method.</p>
+     *
+     * @param n the number of instances to borrow
+     * @param maxWait the maximum number of milliseconds to spend on the batch, zero or less for no limit
+     * @return a list holding <code>n</code> instances from the pool
+     * @throws IllegalArgumentException if <code>n</code> is negative
+     * @throws Exception if the batch cannot be obtained
+     * @since Pool 1.6
+     */
+    public List<T> borrowObjects(int n, long maxWait) throws Exception {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot borrow a negative number of objects: " + n);
+        }
+        final long starttime = System.currentTimeMillis();
+        final List<T> objs = new ArrayList<T>(n);
+        try {
+            while (objs.size() < n) {
+                long remaining = 0;
+                if (maxWait > 0) {
+                    remaining = maxWait - (System.currentTimeMillis() - starttime);
+                    if (remaining <= 0) {
+                        throw new NoSuchElementException("Timeout waiting for " + n + " objects");
+                    }
+                }
+                objs.add(borrowObject(remaining));
+            }
+        } catch (Exception e) {
+            try {
+                returnObjects(objs);
+            } catch (Exception e2) {
+                // swallowed
+            }
+            throw e;
+        }
+        return objs;
+    }
+
+    /**
+     * Returns several instances to the pool.  Each instance <strong>must</strong>
+     * have been obtained using {@link #borrowObject() borrowObject} or
+     * {@link #borrowObjects borrowObjects}.  Every instance is returned (or
+     * destroyed) even if returning one of them fails.  This base implementation
+     * returns the instances one at a time with {@link #returnObject}.
+     *
+     * @param objs borrowed instances to be returned
+     * @throws Exception the first exception thrown by <code>returnObject</code>
+     * @since Pool 1.6
+     */
+    public void returnObjects(Collection<? extends T> objs) throws Exception {
+        Exception failure = null;
+        for (Iterator<? extends T> it = objs.iterator(); it.hasNext();) {
+            try {
+                returnObject(it.next());
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * Not supported in this base implementation.
      * @return a negative value.
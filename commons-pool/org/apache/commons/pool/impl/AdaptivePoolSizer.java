@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * <p>
+ * Adjusts the sizing of a {@link GenericObjectPool} or
+ * {@link GenericKeyedObjectPool} to its load.  Each period the controller reads
+ * the pool's {@link PoolMetrics}, whose counters are updated without taking the
+ * pool's lock, and from the borrows made since the previous period works out
+ * </p>
+ * <ul>
+ *  <li>how many borrowers were <i>starved</i>: they failed because the pool was
+ *      exhausted, timed out, or waited longer than the
+ *      {@link #setWaitThresholdMillis wait threshold};</li>
+ *  <li>the <i>idle churn</i>: instances destroyed while others had to be
+ *      created in the same period, a sign that idle instances are discarded
+ *      too eagerly;</li>
+ *  <li>the <i>demand</i>: a smoothed count of borrowed instances (for a keyed
+ *      pool, the count of the busiest key).</li>
+ * </ul>
+ * <p>
+ * Starvation raises <i>minIdle</i> to at least the current demand and grows
+ * <i>maxIdle</i>, by half at a time; idle churn grows <i>maxIdle</i> by the
+ * churn.  Both halve <i>numTestsPerEvictionRun</i>, making the evictor less
+ * aggressive.  After {@link #setQuietPeriods a number of} periods with neither,
+ * the controller shrinks <i>minIdle</i> and <i>maxIdle</i> by a quarter each
+ * period, down to the demand, and raises <i>numTestsPerEvictionRun</i> by half.
+ * </p>
+ * <p>
+ * Every property is kept within a range that defaults to the value the pool
+ * had when the controller was created, so a property is only adjusted once its
+ * range has been widened, for instance with {@link #setMaxIdleRange(int, int)}.
+ * <i>maxActive</i> and <i>maxTotal</i> are never changed.
+ * </p>
+ * <p>
+ * {@link #start(long)} runs the controller on the scheduler shared by the idle
+ * object evictors; alternatively {@link #adjust()} may be called by the
+ * application.  A started controller stops when it finds its pool closed.
+ * </p>
+ *
+ * @see PoolMetrics
+ * @since Pool 1.6
+ */
+public class AdaptivePoolSizer {
+
+    /**
+     * The default wait threshold.
+     * @see #setWaitThresholdMillis
+     */
+    public static final long DEFAULT_WAIT_THRESHOLD_MILLIS = 10L;
+
+    /**
+     * The default number of quiet periods before shrinking.
+     * @see #setQuietPeriods
+     */
+    public static final int DEFAULT_QUIET_PERIODS = 3;
+
+    /** Weight of the latest sample in the smoothed demand */
+    private static final double SMOOTHING = 0.3;
+
+    /** The adjusted pool */
+    private final Target _target;
+
+    private int _minIdleLower;
+    private int _minIdleUpper;
+    private int _maxIdleLower;
+    private int _maxIdleUpper;
+    private int _numTestsLower;
+    private int _numTestsUpper;
+
+    /** Whether {@link #setMaxIdleRange} has been called */
+    private boolean _maxIdleRangeSet = false;
+
+    /** Whether {@link #setNumTestsPerEvictionRunRange} has been called */
+    private boolean _numTestsRangeSet = false;
+
+    /** @see #setWaitThresholdMillis */
+    private long _waitThresholdMillis = DEFAULT_WAIT_THRESHOLD_MILLIS;
+
+    /** @see #setQuietPeriods */
+    private int _quietPeriods = DEFAULT_QUIET_PERIODS;
+
+    //--- state of the previous period, @GuardedBy("this") ------------
+
+    private boolean _sampled = false;
+    private long _lastBorrowed;
+    private long _lastStarved;
+    private long _lastCreated;
+    private long _lastDestroyed;
+    private long[] _lastWaits;
+
+    /** Smoothed number of borrowed instances */
+    private double _demand;
+
+    /** Number of consecutive periods without starvation or churn */
+    private int _quietCount = 0;
+
+    /** The scheduled task, if started */
+    private ScheduledFuture<?> _task = null;
+
+    /**
+     * Create a controller for the given pool, enabling the pool's
+     * {@link GenericObjectPool#setMetricsEnabled metrics}.
+     * @param pool the pool to adjust
+     */
+    public AdaptivePoolSizer(final GenericObjectPool<?> pool) {
+        this(new Target() {
+            void enableMetrics() { pool.setMetricsEnabled(true); }
+            PoolMetrics getMetrics() { return pool.getMetrics(); }
+            boolean isClosed() { return pool.isClosed(); }
+            int getDemand() { return pool.getNumActive(); }
+            int getMinIdle() { return pool.getMinIdle(); }
+            void setMinIdle(int minIdle) { pool.setMinIdle(minIdle); }
+            int getMaxIdle() { return pool.getMaxIdle(); }
+            void setMaxIdle(int maxIdle) { pool.setMaxIdle(maxIdle); }
+            int getNumTests() { return pool.getNumTestsPerEvictionRun(); }
+            void setNumTests(int numTests) { pool.setNumTestsPerEvictionRun(numTests); }
+        });
+    }
+
+    /**
+     * Create a controller for the given keyed pool.  <i>minIdle</i> and
+     * <i>maxIdle</i> apply to each key and follow the demand of the busiest key.
+     * The pool's {@link GenericKeyedObjectPool#setMetricsEnabled metrics} are enabled.
+     * @param pool the pool to adjust
+     */
+    public AdaptivePoolSizer(final GenericKeyedObjectPool<?, ?> pool) {
+        this(new Target() {
+            void enableMetrics() { pool.setMetricsEnabled(true); }
+            PoolMetrics getMetrics() { return pool.getMetrics(); }
+            boolean isClosed() { return pool.isPoolClosed(); }
+            int getDemand() {
+                int max = 0;
+                for (Iterator<Integer> it = pool.getMetrics().getNumActivePerKey().values().iterator(); it.hasNext();) {
+                    max = Math.max(max, it.next().intValue());
+                }
+                return max;
+            }
+            int getMinIdle() { return pool.getMinIdle(); }
+            void setMinIdle(int minIdle) { pool.setMinIdle(minIdle); }
+            int getMaxIdle() { return pool.getMaxIdle(); }
+            void setMaxIdle(int maxIdle) { pool.setMaxIdle(maxIdle); }
+            int getNumTests() { return pool.getNumTestsPerEvictionRun(); }
+            void setNumTests(int numTests) { pool.setNumTestsPerEvictionRun(numTests); }
+        });
+    }
+
+    /**
+     * Create a controller for the given target, with ranges fixed at its current values.
+     * @param target the pool to adjust
+     */
+    private AdaptivePoolSizer(Target target) {
+        _target = target;
+        target.enableMetrics();
+        _minIdleLower = _minIdleUpper = target.getMinIdle();
+        _maxIdleLower = _maxIdleUpper = target.getMaxIdle();
+        _numTestsLower = _numTestsUpper = target.getNumTests();
+    }
+
+    //--- configuration ------------------------------------------------
+
+    /**
+     * Sets the range <i>minIdle</i> is kept in.
+     * @param lower the smallest value
+     * @param upper the largest value
+     * @throws IllegalArgumentException if <code>lower &gt; upper</code>
+     */
+    public synchronized void setMinIdleRange(int lower, int upper) {
+        checkRange(lower, upper);
+        _minIdleLower = lower;
+        _minIdleUpper = upper;
+    }
+
+    /**
+     * Sets the range <i>maxIdle</i> is kept in.  A negative <i>maxIdle</i>
+     * means no limit and cannot be part of a range.  Once a range is set, a pool
+     * whose <i>maxIdle</i> is negative is treated as being at the top of the
+     * range and brought into it; until then it keeps its negative value.
+     * @param lower the smallest value
+     * @param upper the largest value
+     * @throws IllegalArgumentException if <code>lower &gt; upper</code> or
+     * <code>lower</code> is negative
+     */
+    public synchronized void setMaxIdleRange(int lower, int upper) {
+        checkRange(lower, upper);
+        checkNotNegative("maxIdle", lower);
+        _maxIdleLower = lower;
+        _maxIdleUpper = upper;
+        _maxIdleRangeSet = true;
+    }
+
+    /**
+     * Sets the range <i>numTestsPerEvictionRun</i> is kept in.  The controller
+     * treats the value as a number of instances, so the bounds cannot be
+     * negative.  Once a range is set, a pool whose <i>numTestsPerEvictionRun</i>
+     * is negative, meaning a fraction of the idle instances, is treated as testing
+     * that fraction of its current idle instances and brought into the range;
+     * until then it keeps its negative value.
+     * @param lower the smallest value
+     * @param upper the largest value
+     * @throws IllegalArgumentException if <code>lower &gt; upper</code> or
+     * <code>lower</code> is negative
+     */
+    public synchronized void setNumTestsPerEvictionRunRange(int lower, int upper) {
+        checkRange(lower, upper);
+        checkNotNegative("numTestsPerEvictionRun", lower);
+        _numTestsLower = lower;
+        _numTestsUpper = upper;
+        _numTestsRangeSet = true;
+    }
+
+    /**
+     * @return the longest time a borrower may wait before counting as starved
+     * @see #setWaitThresholdMillis
+     */
+    public synchronized long getWaitThresholdMillis() {
+        return _waitThresholdMillis;
+    }
+
+    /**
+     * Sets the longest time a borrower may wait for an instance before it
+     * counts as starved.  Defaults to {@link #DEFAULT_WAIT_THRESHOLD_MILLIS}.
+     * @param waitThresholdMillis the wait threshold in milliseconds
+     */
+    public synchronized void setWaitThresholdMillis(long waitThresholdMillis) {
+        _waitThresholdMillis = waitThresholdMillis;
+    }
+
+    /**
+     * @return the number of quiet periods before the pool is shrunk
+     * @see #setQuietPeriods
+     */
+    public synchronized int getQuietPeriods() {
+        return _quietPeriods;
+    }
+
+    /**
+     * Sets the number of consecutive periods without starvation or idle churn
+     * after which the controller starts shrinking the pool.  Defaults to
+     * {@link #DEFAULT_QUIET_PERIODS}.
+     * @param quietPeriods the number of quiet periods
+     */
+    public synchronized void setQuietPeriods(int quietPeriods) {
+        _quietPeriods = quietPeriods;
+    }
+
+    /**
+     * @return the smoothed number of borrowed instances the controller sizes for
+     */
+    public synchronized double getDemand() {
+        return _demand;
+    }
+
+    //--- control ------------------------------------------------------
+
+    /**
+     * Runs {@link #adjust()} every <code>periodMillis</code> milliseconds on the
+     * scheduler shared by the idle object evictors, replacing any previous
+     * schedule.
+     * @param periodMillis the period in milliseconds
+     * @throws IllegalArgumentException if <code>periodMillis</code> is not positive
+     */
+    public synchronized void start(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive: " + periodMillis);
+        }
+        stop();
+        _task = EvictionTimer.schedule(new Runnable() {
+            public void run() {
+                if (_target.isClosed()) {
+                    stop();
+                } else {
+                    adjust();
+                }
+            }
+        }, periodMillis, periodMillis, null);
+    }
+
+    /**
+     * Stops running the controller, if it was started.
+     */
+    public synchronized void stop() {
+        if (_task != null) {
+            EvictionTimer.cancel(_task, null);
+            _task = null;
+        }
+    }
+
+    /**
+     * Observes the pool's activity since the previous call and adjusts its
+     * sizing.  The first call only takes the initial readings.
+     */
+    public synchronized void adjust() {
+        final PoolMetrics metrics = _target.getMetrics();
+        final long borrowed = metrics.getBorrowedCount();
+        final long starved = metrics.getExhaustedCount() + metrics.getTimeoutCount();
+        final long created = metrics.getCreatedCount();
+        final long destroyed = metrics.getDestroyedCount();
+        final long[] waits = metrics.getBorrowWaitTime().getBucketCounts();
+        final int demand = _target.getDemand();
+
+        if (!_sampled || borrowed < _lastBorrowed) {
+            // first reading, or the metrics have been reset
+            _sampled = true;
+            _demand = demand;
+        } else {
+            long slow = 0;
+            for (int i = firstSlowBucket(waits.length); i < waits.length; i++) {
+                slow += waits[i] - _lastWaits[i];
+            }
+            final long churn = Math.min(created - _lastCreated, destroyed - _lastDestroyed);
+            _demand += SMOOTHING * (demand - _demand);
+            resize(starved - _lastStarved + slow, Math.max(0L, churn), demand, (int) Math.round(_demand));
+        }
+        _lastBorrowed = borrowed;
+        _lastStarved = starved;
+        _lastCreated = created;
+        _lastDestroyed = destroyed;
+        _lastWaits = waits;
+    }
+
+    /**
+     * Applies one control step.
+     * @param starved the number of starved borrowers in the period
+     * @param churn the idle churn in the period
+     * @param demand the current demand
+     * @param smoothedDemand the smoothed demand
+     */
+    private void resize(long starved, long churn, int demand, int smoothedDemand) {
+        final int minIdle = _target.getMinIdle();
+        final int currentMaxIdle = _target.getMaxIdle();
+        final int currentNumTests = _target.getNumTests();
+        // Without a configured range, the negative encodings are kept below;
+        // with one, they are read as the counts they stand for and clamped
+        final int maxIdle = currentMaxIdle < 0 && _maxIdleRangeSet ? _maxIdleUpper : currentMaxIdle;
+        final int numTests = currentNumTests < 0 && _numTestsRangeSet ?
+                (int) Math.ceil(_target.getMetrics().getNumIdle() / Math.abs((double) currentNumTests)) :
+                currentNumTests;
+        int newMinIdle = minIdle;
+        int newMaxIdle = maxIdle;
+        int newNumTests = numTests;
+        if (starved > 0) {
+            _quietCount = 0;
+            newMinIdle = Math.max(minIdle + half(minIdle), Math.max(demand, smoothedDemand));
+            newMaxIdle = maxIdle + half(maxIdle);
+            newNumTests = numTests / 2;
+        } else if (churn > 0) {
+            _quietCount = 0;
+            newMaxIdle = (int) Math.min(Integer.MAX_VALUE, maxIdle + churn);
+            newNumTests = numTests / 2;
+        } else if (++_quietCount >= _quietPeriods) {
+            newMinIdle = Math.max(minIdle - quarter(minIdle), smoothedDemand);
+            newMaxIdle = Math.max(maxIdle - quarter(maxIdle), smoothedDemand);
+            newNumTests = numTests + half(numTests);
+        }
+        newMinIdle = clamp(newMinIdle, _minIdleLower, _minIdleUpper);
+        newMaxIdle = Math.max(clamp(newMaxIdle, _maxIdleLower, _maxIdleUpper),
+                Math.min(newMinIdle, _maxIdleUpper));
+        newNumTests = clamp(newNumTests, _numTestsLower, _numTestsUpper);
+        if (maxIdle < 0) {
+            // unbounded
+            newMaxIdle = maxIdle;
+        }
+        if (numTests < 0) {
+            // a fraction of the idle instances, not a count
+            newNumTests = numTests;
+        }
+
+        if (newMaxIdle != currentMaxIdle) {
+            _target.setMaxIdle(newMaxIdle);
+        }
+        if (newMinIdle != minIdle) {
+            _target.setMinIdle(newMinIdle);
+        }
+        if (newNumTests != currentNumTests) {
+            _target.setNumTests(newNumTests);
+        }
+    }
+
+    /**
+     * Returns the first bucket of the borrow wait histogram whose durations
+     * all exceed the wait threshold.
+     */
+    private int firstSlowBucket(int buckets) {
+        final long thresholdMicros = _waitThresholdMillis * 1000L;
+        int i = 1;
+        while (i < buckets && (1L << (i - 1)) < thresholdMicros) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int half(int value) {
+        return Math.max(1, value / 2);
+    }
+
+    private static int quarter(int value) {
+        return Math.max(1, value / 4);
+    }
+
+    private static int clamp(int value, int lower, int upper) {
+        return Math.max(lower, Math.min(upper, value));
+    }
+
+    private static void checkRange(int lower, int upper) {
+        if (lower > upper) {
+            throw new IllegalArgumentException("Empty range: " + lower + " > " + upper);
+        }
+    }
+
+    private static void checkNotNegative(String property, int lower) {
+        if (lower < 0) {
+            throw new IllegalArgumentException(property + " range must not be negative: " + lower);
+        }
+    }
+
+    /**
+     * Read and write access to the sized properties of a pool.
+     */
+    private abstract static class Target {
+        abstract void enableMetrics();
+        abstract PoolMetrics getMetrics();
+        abstract boolean isClosed();
+        abstract int getDemand();
+        abstract int getMinIdle();
+        abstract void setMinIdle(int minIdle);
+        abstract int getMaxIdle();
+        abstract void setMaxIdle(int maxIdle);
+        abstract int getNumTests();
+        abstract void setNumTests(int numTests);
+    }
+}
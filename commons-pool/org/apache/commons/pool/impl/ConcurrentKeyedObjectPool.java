@@ -0,0 +1,1702 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool.BaseKeyedObjectPool;
+import org.apache.commons.pool.KeyedObjectPool;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+import org.apache.commons.pool.PoolUtils;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool.ObjectTimestampPair;
+
+/**
+ * A configurable {@link KeyedObjectPool} implementation with per-key locking.
+ * <p>
+ * <tt>ConcurrentKeyedObjectPool</tt> accepts the same configuration as
+ * {@link GenericKeyedObjectPool} (see {@link GenericKeyedObjectPool.Config}) and honours
+ * <i>maxActive</i>, <i>maxTotal</i>, <i>maxIdle</i>, <i>minIdle</i>,
+ * <i>whenExhaustedAction</i>, <i>maxWait</i>, <i>lifo</i> and the idle object eviction
+ * settings in the same way.  The difference lies in how the pool is locked:
+ * <ul>
+ *  <li>
+ *    Each key has its own idle instance list, counters and queue of waiting
+ *    borrowers, all guarded by a lock private to that key.  Borrowing, returning
+ *    and evicting instances of one key never waits for another key, so throughput
+ *    scales with the number of keys.
+ *  </li>
+ *  <li>
+ *    <i>maxTotal</i> is enforced with an atomic counter shared by all keys rather
+ *    than the pool monitor.  When a key cannot create an instance because
+ *    <i>maxTotal</i> has been reached, the oldest idle instance of another key is
+ *    destroyed to make room, and the key is served as soon as capacity is released
+ *    anywhere in the pool.
+ *  </li>
+ * </ul>
+ * <p>
+ * Within a key, borrowers are served in request arrival order.  Unlike
+ * <tt>GenericKeyedObjectPool</tt>, <i>maxActive</i> bounds the number of
+ * instances managed for a key (checked out, idle, or being created), which is the
+ * documented meaning of the property.  No factory method is ever invoked while a
+ * lock is held.
+ *
+ * @param <K> the type of keys in this pool
+ * @param <V> the type of objects held in this pool
+ *
+ * @see GenericKeyedObjectPool
+ * @see ConcurrentObjectPool
+ * @since Pool 1.6
+ */
+public class ConcurrentKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> implements KeyedObjectPool<K, V> {
+
+    //--- constructors -----------------------------------------------
+
+    /**
+     * Create a new <tt>ConcurrentKeyedObjectPool</tt> using the specified factory and
+     * the {@link GenericKeyedObjectPool} default configuration.
+     * @param factory the KeyedPoolableObjectFactory to use to create, validate and destroy objects
+     */
+    public ConcurrentKeyedObjectPool(KeyedPoolableObjectFactory<K, V> factory) {
+        this(factory, new GenericKeyedObjectPool.Config());
+    }
+
+    /**
+     * Create a new <tt>ConcurrentKeyedObjectPool</tt> using the specified values.
+     * @param factory the KeyedPoolableObjectFactory to use to create, validate and destroy objects
+     * @param config a non-<tt>null</tt> {@link GenericKeyedObjectPool.Config} describing my configuration
+     */
+    public ConcurrentKeyedObjectPool(KeyedPoolableObjectFactory<K, V> factory, GenericKeyedObjectPool.Config config) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        _factory = factory;
+        _maxActive = config.maxActive;
+        _maxTotal = config.maxTotal;
+        _maxIdle = config.maxIdle;
+        _minIdle = config.minIdle;
+        _maxWait = config.maxWait;
+        _whenExhaustedAction = checkWhenExhaustedAction(config.whenExhaustedAction);
+        _testOnBorrow = config.testOnBorrow;
+        _testOnReturn = config.testOnReturn;
+        _testWhileIdle = config.testWhileIdle;
+        _numTestsPerEvictionRun = config.numTestsPerEvictionRun;
+        _minEvictableIdleTimeMillis = config.minEvictableIdleTimeMillis;
+        _lifo = config.lifo;
+        _timeBetweenEvictionRunsMillis = config.timeBetweenEvictionRunsMillis;
+        startEvictor(_timeBetweenEvictionRunsMillis);
+    }
+
+    //--- configuration methods --------------------------------------
+
+    /**
+     * Returns the cap on the number of instances managed for each key.
+     * @return the per-key cap, negative meaning no limit
+     * @see #setMaxActive
+     */
+    public int getMaxActive() {
+        return _maxActive;
+    }
+
+    /**
+     * Sets the cap on the number of instances managed for each key.
+     * @param maxActive the new per-key cap, negative meaning no limit
+     * @see #getMaxActive
+     */
+    public void setMaxActive(int maxActive) {
+        _maxActive = maxActive;
+        allocateAll();
+    }
+
+    /**
+     * Returns the cap on the total number of instances managed by the pool.
+     * @return the total cap, non-positive meaning no limit
+     * @see #setMaxTotal
+     */
+    public int getMaxTotal() {
+        return _maxTotal;
+    }
+
+    /**
+     * Sets the cap on the total number of instances managed by the pool, across all keys.
+     * @param maxTotal the new total cap, non-positive meaning no limit
+     * @see #getMaxTotal
+     */
+    public void setMaxTotal(int maxTotal) {
+        _maxTotal = maxTotal;
+        allocateAll();
+    }
+
+    /**
+     * Returns the action to take when {@link #borrowObject} is invoked on an exhausted key.
+     * @return one of {@link GenericKeyedObjectPool#WHEN_EXHAUSTED_BLOCK},
+     * {@link GenericKeyedObjectPool#WHEN_EXHAUSTED_FAIL} or {@link GenericKeyedObjectPool#WHEN_EXHAUSTED_GROW}
+     * @see #setWhenExhaustedAction
+     */
+    public byte getWhenExhaustedAction() {
+        return _whenExhaustedAction;
+    }
+
+    /**
+     * Sets the action to take when {@link #borrowObject} is invoked on an exhausted key.
+     * @param whenExhaustedAction the action code
+     * @see #getWhenExhaustedAction
+     */
+    public void setWhenExhaustedAction(byte whenExhaustedAction) {
+        _whenExhaustedAction = checkWhenExhaustedAction(whenExhaustedAction);
+    }
+
+    /**
+     * Returns the maximum amount of time (in milliseconds) {@link #borrowObject} blocks
+     * when a key is exhausted and the "when exhausted" action is
+     * {@link GenericKeyedObjectPool#WHEN_EXHAUSTED_BLOCK}.
+     * @return the maximum wait in milliseconds, non-positive meaning indefinitely
+     * @see #setMaxWait
+     */
+    public long getMaxWait() {
+        return _maxWait;
+    }
+
+    /**
+     * Sets the maximum amount of time (in milliseconds) {@link #borrowObject} blocks.
+     * @param maxWait the maximum wait in milliseconds, non-positive meaning indefinitely
+     * @see #getMaxWait
+     */
+    public void setMaxWait(long maxWait) {
+        _maxWait = maxWait;
+    }
+
+    /**
+     * Returns the cap on the number of idle instances per key.
+     * @return the cap, negative meaning no limit
+     * @see #setMaxIdle
+     */
+    public int getMaxIdle() {
+        return _maxIdle;
+    }
+
+    /**
+     * Sets the cap on the number of idle instances per key.
+     * @param maxIdle the cap, negative meaning no limit
+     * @see #getMaxIdle
+     */
+    public void setMaxIdle(int maxIdle) {
+        _maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns the minimum number of idle instances per key the evictor tries to maintain.
+     * @return the minimum number of idle instances per key
+     * @see #setMinIdle
+     */
+    public int getMinIdle() {
+        return _minIdle;
+    }
+
+    /**
+     * Sets the minimum number of idle instances per key the evictor tries to maintain.
+     * Only keys already known to the pool are replenished.
+     * @param minIdle the minimum number of idle instances per key
+     * @see #getMinIdle
+     */
+    public void setMinIdle(int minIdle) {
+        _minIdle = minIdle;
+    }
+
+    /**
+     * @return whether objects are validated before being returned by {@link #borrowObject}
+     */
+    public boolean getTestOnBorrow() {
+        return _testOnBorrow;
+    }
+
+    /**
+     * @param testOnBorrow whether objects are validated before being returned by {@link #borrowObject}
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        _testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * @return whether objects are validated when passed to {@link #returnObject}
+     */
+    public boolean getTestOnReturn() {
+        return _testOnReturn;
+    }
+
+    /**
+     * @param testOnReturn whether objects are validated when passed to {@link #returnObject}
+     */
+    public void setTestOnReturn(boolean testOnReturn) {
+        _testOnReturn = testOnReturn;
+    }
+
+    /**
+     * @return whether idle objects are validated by the idle object evictor
+     */
+    public boolean getTestWhileIdle() {
+        return _testWhileIdle;
+    }
+
+    /**
+     * @param testWhileIdle whether idle objects are validated by the idle object evictor
+     */
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        _testWhileIdle = testWhileIdle;
+    }
+
+    /**
+     * Returns the number of milliseconds to sleep between runs of the idle object evictor.
+     * @return the number of milliseconds to sleep between runs of the idle object evictor
+     */
+    public long getTimeBetweenEvictionRunsMillis() {
+        return _timeBetweenEvictionRunsMillis;
+    }
+
+    /**
+     * Sets the number of milliseconds to sleep between runs of the idle object evictor.
+     * When non-positive, no idle object evictor will be run.
+     * @param timeBetweenEvictionRunsMillis milliseconds between evictor runs
+     */
+    public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+        _timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+        startEvictor(_timeBetweenEvictionRunsMillis);
+    }
+
+    /**
+     * @return the number of objects examined per eviction run
+     * @see GenericKeyedObjectPool#setNumTestsPerEvictionRun
+     */
+    public int getNumTestsPerEvictionRun() {
+        return _numTestsPerEvictionRun;
+    }
+
+    /**
+     * @param numTestsPerEvictionRun the number of objects examined per eviction run
+     * @see GenericKeyedObjectPool#setNumTestsPerEvictionRun
+     */
+    public void setNumTestsPerEvictionRun(int numTestsPerEvictionRun) {
+        _numTestsPerEvictionRun = numTestsPerEvictionRun;
+    }
+
+    /**
+     * @return the minimum idle time before an object is eligible for eviction
+     */
+    public long getMinEvictableIdleTimeMillis() {
+        return _minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @param minEvictableIdleTimeMillis the minimum idle time before an object is eligible for eviction
+     */
+    public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+        _minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @return whether the pool hands out idle objects in last-in-first-out order
+     */
+    public boolean getLifo() {
+        return _lifo;
+    }
+
+    /**
+     * @param lifo whether the pool hands out idle objects in last-in-first-out order
+     */
+    public void setLifo(boolean lifo) {
+        _lifo = lifo;
+    }
+
+    /**
+     * @return the executor the idle object evictor runs on, or <code>null</code>
+     * for the scheduler shared by all pools
+     * @see GenericKeyedObjectPool#setEvictionExecutor
+     */
+    public synchronized ScheduledExecutorService getEvictionExecutor() {
+        return _evictionExecutor;
+    }
+
+    /**
+     * @param evictionExecutor the executor the idle object evictor runs on, or
+     * <code>null</code> for the scheduler shared by all pools
+     * @see GenericKeyedObjectPool#setEvictionExecutor
+     */
+    public synchronized void setEvictionExecutor(ScheduledExecutorService evictionExecutor) {
+        startEvictor(-1L);
+        _evictionExecutor = evictionExecutor;
+        if (!isClosed()) {
+            startEvictor(_timeBetweenEvictionRunsMillis);
+        }
+    }
+
+    //-- KeyedObjectPool methods ------------------------------------------
+
+    /**
+     * <p>Borrows an object from the keyed pool associated with the given key.</p>
+     *
+     * <p>When no other borrower is waiting for the key, an idle instance is taken from
+     * the key's idle list, or, if there is none and both <i>maxActive</i> and
+     * <i>maxTotal</i> permit, a new instance is created.  Otherwise the request is
+     * queued behind the key's other borrowers and served in arrival order, subject to
+     * <i>whenExhaustedAction</i> and <i>maxWait</i> as described for
+     * {@link GenericKeyedObjectPool#borrowObject(Object)}.  Only the key's own lock is
+     * ever taken.</p>
+     *
+     * @param key pool key
+     * @return object instance from the keyed pool
+     * @throws NoSuchElementException if a keyed object instance cannot be returned.
+     */
+    @Override
+    public V borrowObject(K key) throws Exception {
+        assertOpen();
+        final long starttime = System.currentTimeMillis();
+        final byte whenExhaustedAction = _whenExhaustedAction;
+        final long maxWait = _maxWait;
+        boolean retry = false;
+
+        for (;;) {
+            final ObjectQueue queue = queueFor(key);
+            ObjectTimestampPair<V> pair = null;
+            boolean mayCreate = false;
+
+            synchronized (queue) {
+                if (queue.removed) {
+                    continue;
+                }
+                // Fast path: nobody is queued ahead of us, or we are retrying after a
+                // failed activation and so were at the head of the queue
+                if (retry || queue.allocationQueue.isEmpty()) {
+                    pair = queue.pollIdle();
+                    if (pair == null) {
+                        mayCreate = queue.reserve();
+                    }
+                }
+            }
+
+            if (pair == null && !mayCreate) {
+                switch (whenExhaustedAction) {
+                    case GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW:
+                        if (!queue.grow()) {
+                            continue;
+                        }
+                        mayCreate = true;
+                        break;
+                    case GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL:
+                    case GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK:
+                        Latch<V> latch = await(queue, new Latch<V>(1), starttime, maxWait, retry,
+                                whenExhaustedAction == GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL);
+                        if (latch == null) {
+                            continue;
+                        }
+                        pair = latch.getPair();
+                        mayCreate = pair == null;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("WhenExhaustedAction property " + whenExhaustedAction +
+                                " not recognized.");
+                }
+            }
+
+            boolean newlyCreated = false;
+            if (pair == null) {
+                try {
+                    V obj = _factory.makeObject(key);
+                    pair = new ObjectTimestampPair<V>(obj);
+                    newlyCreated = true;
+                } finally {
+                    if (!newlyCreated) {
+                        // object cannot be created
+                        queue.release();
+                    }
+                }
+            }
+
+            // activate & validate the object
+            try {
+                _factory.activateObject(key, pair.getValue());
+                if (_testOnBorrow && !_factory.validateObject(key, pair.getValue())) {
+                    throw new Exception("ValidateObject failed");
+                }
+                synchronized (queue) {
+                    queue.activeCount++;
+                }
+                _numActive.incrementAndGet();
+                return pair.getValue();
+            } catch (Throwable e) {
+                PoolUtils.checkRethrow(e);
+                // object cannot be activated or is invalid
+                try {
+                    _factory.destroyObject(key, pair.getValue());
+                } catch (Throwable e2) {
+                    PoolUtils.checkRethrow(e2);
+                    // cannot destroy broken object
+                }
+                queue.release();
+                if (newlyCreated) {
+                    throw new NoSuchElementException("Could not create a validated object, cause: " + e.getMessage());
+                }
+                // keep looping, at the head of the queue if we were queued
+                retry = true;
+            }
+        }
+    }
+
+    /**
+     * <p>Borrows <code>n</code> instances with a key at once.  Room for the whole
+     * batch is reserved in a single step under the key's lock: the key's idle
+     * instances are taken first and the remainder is reserved against
+     * <i>maxActive</i> and <i>maxTotal</i> in the same step, so a batch never holds
+     * part of the pool while it waits for the rest.  The instances are then
+     * activated and validated (if <i>testOnBorrow</i> is set), or created; an idle
+     * instance failing activation or validation is destroyed and replaced by a new
+     * one.</p>
+     *
+     * <p>When <code>n</code> instances cannot be reserved, the
+     * <i>whenExhaustedAction</i> applies to the batch as a whole.  With
+     * {@link GenericKeyedObjectPool#WHEN_EXHAUSTED_BLOCK} the batch joins the key's
+     * allocation queue and waits up to <code>maxWait</code> milliseconds (or the
+     * pool's <i>maxWait</i> if <code>maxWait</code> is zero or less) until it
+     * reaches the head of the queue and the whole batch fits.  A batch larger than
+     * <i>maxActive</i> or <i>maxTotal</i> fails immediately.</p>
+     *
+     * <p>If creating, activating or validating an instance fails, the reservation
+     * is released, the instances obtained so far are returned to the pool and the
+     * exception is rethrown.</p>
+     *
+     * @param key pool key
+     * @param n the number of instances to borrow
+     * @param maxWait the maximum number of milliseconds to wait for the batch
+     * @return a list holding <code>n</code> instances
+     * @throws NoSuchElementException if the batch cannot be reserved
+     */
+    @Override
+    public List<V> borrowObjects(K key, int n, long maxWait) throws Exception {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot borrow a negative number of objects: " + n);
+        }
+        assertOpen();
+        final long starttime = System.currentTimeMillis();
+        if (maxWait <= 0) {
+            maxWait = _maxWait;
+        }
+        final List<V> objs = new ArrayList<V>(n);
+        if (n == 0) {
+            return objs;
+        }
+        final byte whenExhaustedAction = _whenExhaustedAction;
+        if (whenExhaustedAction != GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW) {
+            final int maxActive = _maxActive;
+            if (maxActive >= 0 && n > maxActive) {
+                throw new NoSuchElementException("Cannot borrow " + n + " objects, maxActive is " + maxActive);
+            }
+            final int maxTotal = _maxTotal;
+            if (maxTotal > 0 && n > maxTotal) {
+                throw new NoSuchElementException("Cannot borrow " + n + " objects, maxTotal is " + maxTotal);
+            }
+        }
+
+        ObjectQueue queue;
+        Latch<V> latch;
+        for (;;) {
+            queue = queueFor(key);
+            latch = new Latch<V>(n);
+            boolean served;
+            synchronized (queue) {
+                if (queue.removed) {
+                    continue;
+                }
+                // Fast path: nobody is queued ahead of us
+                served = queue.allocationQueue.isEmpty() && queue.reserve(latch);
+            }
+            if (served) {
+                break;
+            }
+            switch (whenExhaustedAction) {
+                case GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW:
+                    served = queue.grow(latch);
+                    break;
+                case GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL:
+                case GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK:
+                    latch = await(queue, latch, starttime, maxWait, false,
+                            whenExhaustedAction == GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL);
+                    served = latch != null;
+                    break;
+                default:
+                    throw new IllegalArgumentException("WhenExhaustedAction property " + whenExhaustedAction +
+                            " not recognized.");
+            }
+            if (served) {
+                break;
+            }
+        }
+
+        final List<ObjectTimestampPair<V>> pairs = latch.getPairs();
+        int permits = latch.getPermits();
+        int next = 0;
+        try {
+            while (objs.size() < n) {
+                if (next < pairs.size()) {
+                    objs.add(activateForBatch(queue, pairs.get(next++)));
+                } else {
+                    // the permit is used up, activateForBatch releases it on failure
+                    permits--;
+                    objs.add(activateForBatch(queue, null));
+                }
+            }
+        } catch (Exception e) {
+            // give back the part of the reservation that was not used
+            while (next < pairs.size()) {
+                final ObjectTimestampPair<V> pair = pairs.get(next++);
+                if (!queue.addIdle(pair, true)) {
+                    destroy(queue, pair.getValue());
+                }
+            }
+            for (; permits > 0; permits--) {
+                queue.release();
+            }
+            try {
+                returnObjects(key, objs);
+            } catch (Exception e2) {
+                // swallowed
+            }
+            throw e;
+        }
+        return objs;
+    }
+
+    /**
+     * Activates and validates an instance reserved for a batch borrow, replacing
+     * an idle instance with a new one if it fails.  The capacity held by the
+     * instance is released if a new instance cannot be created, activated or
+     * validated.
+     *
+     * @param queue the key's queue
+     * @param pair the reserved idle instance, or <code>null</code> to create one
+     * @return an activated (and if applicable validated) instance
+     * @throws Exception if a new instance cannot be created, activated or validated
+     */
+    private V activateForBatch(ObjectQueue queue, ObjectTimestampPair<V> pair) throws Exception {
+        final K key = queue.key;
+        V obj = null;
+        if (pair != null) {
+            try {
+                _factory.activateObject(key, pair.getValue());
+                if (!_testOnBorrow || _factory.validateObject(key, pair.getValue())) {
+                    obj = pair.getValue();
+                }
+            } catch (Exception e) {
+                // replaced below
+            }
+            if (obj == null) {
+                try {
+                    _factory.destroyObject(key, pair.getValue());
+                } catch (Exception e) {
+                    // ignored
+                }
+            }
+        }
+        if (obj == null) {
+            boolean created = false;
+            try {
+                obj = _factory.makeObject(key);
+                created = true;
+            } finally {
+                if (!created) {
+                    // object cannot be created
+                    queue.release();
+                }
+            }
+            try {
+                _factory.activateObject(key, obj);
+                if (_testOnBorrow && !_factory.validateObject(key, obj)) {
+                    throw new NoSuchElementException("Could not create a validated object");
+                }
+            } catch (Exception e) {
+                destroy(queue, obj);
+                throw e;
+            }
+        }
+        synchronized (queue) {
+            queue.activeCount++;
+        }
+        _numActive.incrementAndGet();
+        return obj;
+    }
+
+    /**
+     * Queues a borrow request with a key and waits until idle instances or
+     * creation permits for the whole request have been allocated to it.
+     *
+     * @param queue the key's queue
+     * @param latch the unserved latch describing the request
+     * @param starttime time at which the borrow started
+     * @param maxWait maximum time to wait, non-positive meaning indefinitely
+     * @param first whether to queue at the head (used when retrying after a failed activation)
+     * @param failFast whether to give up instead of waiting if nothing is allocated immediately
+     * @return the served latch, holding pairs and creation permits for the whole request, or
+     * <code>null</code> if the key's queue has been discarded and the borrow must be retried
+     * @throws Exception if the wait times out, is interrupted or the pool is closed
+     */
+    private Latch<V> await(ObjectQueue queue, Latch<V> latch, long starttime, long maxWait, boolean first,
+            boolean failFast) throws Exception {
+        synchronized (queue) {
+            if (queue.removed) {
+                return null;
+            }
+            if (first) {
+                queue.allocationQueue.addFirst(latch);
+            } else {
+                queue.allocationQueue.addLast(latch);
+            }
+        }
+        // Work the allocation queue - an instance may have been returned or
+        // capacity released after our fast path check
+        queue.allocate();
+
+        for (;;) {
+            try {
+                synchronized (latch) {
+                    // Before we wait, make sure another thread didn't allocate us an object
+                    // or permit a new object to be created
+                    if (!latch.isServed() && !failFast) {
+                        if (maxWait <= 0) {
+                            latch.wait();
+                        } else {
+                            final long waitTime = maxWait - (System.currentTimeMillis() - starttime);
+                            if (waitTime > 0) {
+                                latch.wait(waitTime);
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!queue.cancel(latch)) {
+                    // Something has been allocated to us, give it back
+                    final List<ObjectTimestampPair<V>> pairs = latch.getPairs();
+                    for (int i = 0; i < pairs.size(); i++) {
+                        if (!queue.addIdle(pairs.get(i), true)) {
+                            destroy(queue, pairs.get(i).getValue());
+                        }
+                    }
+                    for (int i = latch.getPermits(); i > 0; i--) {
+                        queue.release();
+                    }
+                }
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            if (latch.isServed()) {
+                return latch;
+            }
+            // see if we were awakened by a closing pool
+            if (isClosed()) {
+                queue.cancel(latch);
+                throw new IllegalStateException("Pool closed");
+            }
+            if (failFast || (maxWait > 0 && ((System.currentTimeMillis() - starttime) >= maxWait))) {
+                if (queue.cancel(latch)) {
+                    if (failFast) {
+                        throw new NoSuchElementException("Pool exhausted");
+                    }
+                    throw new NoSuchElementException(latch.getSize() == 1 ? "Timeout waiting for idle object" :
+                            "Timeout waiting for " + latch.getSize() + " idle objects");
+                }
+                return latch;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Activation of this method decrements the active count associated with
+     * the given keyed pool and attempts to destroy <code>obj.</code></p>
+     *
+     * @param key pool key
+     * @param obj instance to invalidate
+     * @throws Exception if an exception occurs destroying the object
+     */
+    @Override
+    public void invalidateObject(K key, V obj) throws Exception {
+        final ObjectQueue queue = _queues.get(key);
+        try {
+            _factory.destroyObject(key, obj);
+        } finally {
+            if (queue != null) {
+                queue.deactivate();
+                queue.release();
+            }
+        }
+    }
+
+    /**
+     * <p>Returns an object to a keyed pool.</p>
+     *
+     * <p>If {@link #getTestOnReturn() testOnReturn} is set the instance is validated first.  If a borrower is
+     * waiting for the key, the instance is handed to the longest waiting borrower; otherwise it is added to the
+     * key's idle list, or destroyed if {@link #getMaxIdle() maxIdle} instances of the key are already idle.</p>
+     *
+     * @param key pool key
+     * @param obj instance to return to the keyed pool
+     * @throws Exception
+     */
+    @Override
+    public void returnObject(K key, V obj) throws Exception {
+        final ObjectQueue queue = _queues.get(key);
+        if (queue == null) {
+            // not borrowed from this pool
+            try {
+                _factory.destroyObject(key, obj);
+            } catch (Exception e) {
+                // ignored
+            }
+            return;
+        }
+        boolean success = true;
+        try {
+            if (_testOnReturn && !_factory.validateObject(key, obj)) {
+                success = false;
+            } else {
+                _factory.passivateObject(key, obj);
+            }
+        } catch (Exception e) {
+            success = false;
+        }
+        queue.deactivate();
+        if (!success || !queue.addIdle(new ObjectTimestampPair<V>(obj), false)) {
+            destroy(queue, obj);
+        }
+    }
+
+    /**
+     * Create an object using the {@link KeyedPoolableObjectFactory#makeObject factory},
+     * passivate it, and then place it in the idle object pool.
+     * <code>addObject</code> is useful for "pre-loading" a pool with idle objects.
+     *
+     * @param key the key a new instance should be added to
+     * @throws Exception when {@link KeyedPoolableObjectFactory#makeObject} fails.
+     */
+    @Override
+    public void addObject(K key) throws Exception {
+        assertOpen();
+        ObjectQueue queue = queueFor(key);
+        while (!queue.grow()) {
+            queue = queueFor(key);
+        }
+        V obj;
+        boolean created = false;
+        try {
+            obj = _factory.makeObject(key);
+            created = true;
+        } finally {
+            if (!created) {
+                queue.release();
+            }
+        }
+        try {
+            _factory.passivateObject(key, obj);
+        } catch (Exception e) {
+            destroy(queue, obj);
+            throw e;
+        }
+        if (!queue.addIdle(new ObjectTimestampPair<V>(obj), false)) {
+            destroy(queue, obj);
+            assertOpen();
+        }
+    }
+
+    /**
+     * Clears any objects sitting idle in the pool by removing them from the
+     * idle lists of all keys and then invoking the configured
+     * {@link KeyedPoolableObjectFactory#destroyObject(Object, Object)} method on each
+     * idle instance.  Exceptions encountered destroying idle instances are swallowed.
+     */
+    @Override
+    public void clear() {
+        for (Iterator<ObjectQueue> it = _queues.values().iterator(); it.hasNext();) {
+            it.next().clear();
+        }
+    }
+
+    /**
+     * Clears the specified key, destroying any idle instances of it.
+     *
+     * @param key the key to clear
+     */
+    @Override
+    public void clear(K key) {
+        final ObjectQueue queue = _queues.get(key);
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Returns the total number of instances currently borrowed from this pool.
+     *
+     * @return the total number of instances currently borrowed from this pool
+     */
+    @Override
+    public int getNumActive() {
+        return _numActive.get();
+    }
+
+    /**
+     * Returns the total number of instances currently idle in this pool.
+     *
+     * @return the total number of instances currently idle in this pool
+     */
+    @Override
+    public int getNumIdle() {
+        return _numIdle.get();
+    }
+
+    /**
+     * Returns the number of instances currently borrowed from but not yet returned
+     * to the pool corresponding to the given <code>key</code>.
+     *
+     * @param key the key to query
+     * @return the number of instances corresponding to the given <code>key</code> currently borrowed in this pool
+     */
+    @Override
+    public int getNumActive(K key) {
+        final ObjectQueue queue = _queues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.activeCount;
+        }
+    }
+
+    /**
+     * Returns the number of instances corresponding to the given <code>key</code> currently idle in this pool.
+     *
+     * @param key the key to query
+     * @return the number of instances corresponding to the given <code>key</code> currently idle in this pool
+     */
+    @Override
+    public int getNumIdle(K key) {
+        final ObjectQueue queue = _queues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.queue.size();
+        }
+    }
+
+    /**
+     * <p>Closes the keyed object pool.  Once the pool is closed, {@link #borrowObject(Object)}
+     * will fail with IllegalStateException, but {@link #returnObject(Object, Object)} and
+     * {@link #invalidateObject(Object, Object)} will continue to work, with returned objects
+     * destroyed on return.</p>
+     *
+     * @throws Exception
+     */
+    @Override
+    public void close() throws Exception {
+        super.close();
+        clear();
+        startEvictor(-1L);
+        for (Iterator<ObjectQueue> it = _queues.values().iterator(); it.hasNext();) {
+            final ObjectQueue queue = it.next();
+            synchronized (queue) {
+                while (!queue.allocationQueue.isEmpty()) {
+                    Latch<V> l = queue.allocationQueue.removeFirst();
+                    synchronized (l) {
+                        // notify the waiting thread
+                        l.notify();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Perform <code>numTests</code> idle object eviction tests, evicting
+     * examined objects that meet the criteria for eviction, as described for
+     * {@link GenericKeyedObjectPool#evict()}.</p>
+     *
+     * <p>Successive runs cycle through the keys, examining the instances of each
+     * key in oldest-to-youngest order.  Each examined instance is claimed from its
+     * key's idle list under that key's lock and tested without holding any lock,
+     * so a borrower can never receive an instance the evictor is working on and
+     * borrowers are never blocked by an eviction run.</p>
+     *
+     * @throws Exception if the pool is closed or eviction fails.
+     */
+    public void evict() throws Exception {
+        assertOpen();
+        synchronized (_evictionLock) {
+            final boolean lifo = _lifo;
+            final List<K> keys = new ArrayList<K>(_queues.keySet());
+            if (keys.isEmpty()) {
+                return;
+            }
+            int k = Math.max(0, keys.indexOf(_evictionKey));
+            for (int i = 0, m = getNumTests(), visited = 0; i < m && visited <= keys.size();) {
+                final K key = keys.get(k);
+                final ObjectQueue queue = _queues.get(key);
+                final ObjectTimestampPair<V> pair = queue == null ? null : queue.claimForEviction(lifo);
+                if (pair == null) {
+                    // Done with this key for now, move on to the next one
+                    k = (k + 1) % keys.size();
+                    visited++;
+                    _evictionKey = keys.get(k);
+                    continue;
+                }
+                i++;
+
+                boolean removeObject = false;
+                if ((_minEvictableIdleTimeMillis > 0) &&
+                        (System.currentTimeMillis() - pair.getTstamp() > _minEvictableIdleTimeMillis)) {
+                    removeObject = true;
+                }
+                if (_testWhileIdle && !removeObject) {
+                    boolean active = false;
+                    try {
+                        _factory.activateObject(key, pair.getValue());
+                        active = true;
+                    } catch (Exception e) {
+                        removeObject = true;
+                    }
+                    if (active) {
+                        if (!_factory.validateObject(key, pair.getValue())) {
+                            removeObject = true;
+                        } else {
+                            try {
+                                _factory.passivateObject(key, pair.getValue());
+                            } catch (Exception e) {
+                                removeObject = true;
+                            }
+                        }
+                    }
+                }
+
+                if (removeObject) {
+                    destroy(queue, pair.getValue());
+                } else {
+                    queue.restoreAfterEviction(pair, lifo);
+                }
+            }
+        }
+    }
+
+    //--- non-public methods ----------------------------------------
+
+    /**
+     * Returns the queue of the given key, creating it if needed.  The returned queue
+     * may be discarded concurrently, which callers detect through its
+     * {@link ObjectQueue#removed removed} flag.
+     *
+     * @param key the key
+     * @return the key's queue
+     */
+    private ObjectQueue queueFor(K key) {
+        ObjectQueue queue = _queues.get(key);
+        if (queue == null) {
+            final ObjectQueue created = new ObjectQueue(key);
+            queue = _queues.putIfAbsent(key, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Reserves room for <code>count</code> new instances if <i>maxTotal</i> permits
+     * all of them.
+     * @param count the number of instances to reserve room for
+     * @return <code>true</code> if the caller may create <code>count</code> instances
+     */
+    private boolean reserveTotal(int count) {
+        for (;;) {
+            final int maxTotal = _maxTotal;
+            final int total = _numTotal.get();
+            if (maxTotal > 0 && total + count > maxTotal) {
+                return false;
+            }
+            if (_numTotal.compareAndSet(total, total + count)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases room previously reserved for, or taken by, one instance and lets
+     * keys waiting for <i>maxTotal</i> capacity use it.
+     */
+    private void releaseTotal() {
+        _numTotal.decrementAndGet();
+        ObjectQueue starved;
+        while (hasTotalCapacity() && (starved = _starved.poll()) != null) {
+            starved.wake();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if <i>maxTotal</i> currently permits another instance
+     */
+    private boolean hasTotalCapacity() {
+        return hasTotalCapacity(1);
+    }
+
+    /**
+     * @param count the number of instances
+     * @return <code>true</code> if <i>maxTotal</i> currently permits <code>count</code> more instances
+     */
+    private boolean hasTotalCapacity(int count) {
+        final int maxTotal = _maxTotal;
+        return maxTotal <= 0 || _numTotal.get() + count <= maxTotal;
+    }
+
+    /**
+     * Works the allocation queues of all keys, for instance after a limit was raised.
+     */
+    private void allocateAll() {
+        for (Iterator<ObjectQueue> it = _queues.values().iterator(); it.hasNext();) {
+            it.next().allocate();
+        }
+    }
+
+    /**
+     * Destroys the oldest idle instance of any other key, to make room under
+     * <i>maxTotal</i> for a key whose borrowers are waiting.
+     * @param requester the queue of the key whose borrowers are waiting
+     */
+    private void destroyOldestIdle(ObjectQueue requester) {
+        ObjectQueue oldest = null;
+        long oldestTstamp = Long.MAX_VALUE;
+        for (Iterator<ObjectQueue> it = _queues.values().iterator(); it.hasNext();) {
+            final ObjectQueue queue = it.next();
+            if (queue == requester) {
+                continue;
+            }
+            synchronized (queue) {
+                if (!queue.queue.isEmpty()) {
+                    final ObjectTimestampPair<V> pair = _lifo ? queue.queue.getLast() : queue.queue.getFirst();
+                    if (pair.getTstamp() < oldestTstamp) {
+                        oldest = queue;
+                        oldestTstamp = pair.getTstamp();
+                    }
+                }
+            }
+        }
+        if (oldest != null) {
+            final ObjectTimestampPair<V> pair;
+            synchronized (oldest) {
+                if (oldest.queue.isEmpty()) {
+                    return;
+                }
+                pair = _lifo ? oldest.queue.removeLast() : oldest.queue.removeFirst();
+                _numIdle.decrementAndGet();
+            }
+            destroy(oldest, pair.getValue());
+        }
+    }
+
+    /**
+     * Destroys an instance that has already been removed from the pool, swallowing
+     * any exception, and releases its capacity.
+     * @param queue the queue of the instance's key
+     * @param obj instance to destroy
+     */
+    private void destroy(ObjectQueue queue, V obj) {
+        try {
+            _factory.destroyObject(queue.key, obj);
+        } catch (Exception e) {
+            // ignored
+        } finally {
+            queue.release();
+        }
+    }
+
+    /**
+     * Iterates through all the known keys and creates any necessary objects to maintain
+     * the minimum level of pooled objects.
+     *
+     * @throws Exception when the factory fails to create an object
+     */
+    private void ensureMinIdle() throws Exception {
+        final int minIdle = _minIdle;
+        if (minIdle <= 0) {
+            return;
+        }
+        for (Iterator<ObjectQueue> it = _queues.values().iterator(); it.hasNext() && !isClosed();) {
+            final ObjectQueue queue = it.next();
+            while (!isClosed() && queue.reserveForMinIdle(minIdle)) {
+                V obj;
+                boolean created = false;
+                try {
+                    obj = _factory.makeObject(queue.key);
+                    created = true;
+                } finally {
+                    if (!created) {
+                        queue.release();
+                    }
+                }
+                try {
+                    _factory.passivateObject(queue.key, obj);
+                } catch (Exception e) {
+                    destroy(queue, obj);
+                    throw e;
+                }
+                if (!queue.addIdle(new ObjectTimestampPair<V>(obj), false)) {
+                    destroy(queue, obj);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the eviction thread or service, or when
+     * <i>delay</i> is non-positive, stop it
+     * if it is already running.
+     *
+     * @param delay milliseconds between evictor runs.
+     */
+    protected synchronized void startEvictor(long delay) {
+        if (null != _evictor) {
+            EvictionTimer.cancel(_evictor, _evictionExecutor);
+            _evictor = null;
+        }
+        if (delay > 0) {
+            _evictor = EvictionTimer.schedule(new Evictor(), delay, delay, _evictionExecutor);
+        }
+    }
+
+    /**
+     * Returns the number of tests to be performed in an Evictor run,
+     * based on the current value of <code>numTestsPerEvictionRun</code>
+     * and the number of idle instances in the pool.
+     *
+     * @return the number of tests for the Evictor to run
+     */
+    private int getNumTests() {
+        final int numTests = _numTestsPerEvictionRun;
+        final int idle = _numIdle.get();
+        if (numTests >= 0) {
+            return Math.min(numTests, idle);
+        } else {
+            return (int) (Math.ceil(idle / Math.abs((double) numTests)));
+        }
+    }
+
+    private static byte checkWhenExhaustedAction(byte whenExhaustedAction) {
+        switch (whenExhaustedAction) {
+            case GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK:
+            case GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL:
+            case GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW:
+                return whenExhaustedAction;
+            default:
+                throw new IllegalArgumentException("whenExhaustedAction " + whenExhaustedAction + " not recognized.");
+        }
+    }
+
+    //--- inner classes ----------------------------------------------
+
+    /**
+     * The idle instances, counters and waiting borrowers of one key, all guarded
+     * by the queue's own monitor.  No method acquires the monitor of another
+     * queue while holding this one.
+     */
+    private final class ObjectQueue {
+
+        /** The key */
+        private final K key;
+
+        /** Idle instances; borrowers always take the first element */
+        private final CursorableLinkedList<ObjectTimestampPair<V>> queue =
+            new CursorableLinkedList<ObjectTimestampPair<V>>();
+
+        /** Borrowers waiting for an instance of this key, in request arrival order */
+        private final LinkedList<Latch<V>> allocationQueue = new LinkedList<Latch<V>>();
+
+        /** Number of instances borrowed and not yet returned */
+        private int activeCount = 0;
+
+        /**
+         * Number of instances counted against <i>maxActive</i>: borrowed, idle, or in
+         * the process of being created, validated or destroyed
+         */
+        private int totalCount = 0;
+
+        /** Whether this queue is registered as waiting for <i>maxTotal</i> capacity */
+        private boolean starved = false;
+
+        /** Whether this queue has been discarded from the pool's key map */
+        private boolean removed = false;
+
+        /** Eviction cursor - keeps track of idle object evictor position within this key */
+        private CursorableLinkedList<ObjectTimestampPair<V>>.Cursor evictionCursor = null;
+
+        /**
+         * Create a new ObjectQueue.
+         * @param key the key
+         */
+        ObjectQueue(K key) {
+            this.key = key;
+        }
+
+        /**
+         * Takes the next idle instance.  Must be called holding this queue's monitor.
+         * @return the next idle instance, or <code>null</code> if there is none
+         */
+        private ObjectTimestampPair<V> pollIdle() {
+            if (queue.isEmpty()) {
+                return null;
+            }
+            _numIdle.decrementAndGet();
+            return queue.removeFirst();
+        }
+
+        /**
+         * Reserves room for one new instance if <i>maxActive</i> and <i>maxTotal</i>
+         * permit it.  Must be called holding this queue's monitor.
+         * @return <code>true</code> if the caller may create an instance
+         */
+        private boolean reserve() {
+            return reserve(1);
+        }
+
+        /**
+         * Reserves room for <code>count</code> new instances if <i>maxActive</i> and
+         * <i>maxTotal</i> permit all of them.  Must be called holding this queue's monitor.
+         * @param count the number of instances to reserve room for
+         * @return <code>true</code> if the caller may create <code>count</code> instances
+         */
+        private boolean reserve(int count) {
+            final int maxActive = _maxActive;
+            if (removed || (maxActive >= 0 && totalCount + count > maxActive) || !reserveTotal(count)) {
+                return false;
+            }
+            totalCount += count;
+            return true;
+        }
+
+        /**
+         * Serves a request in full from idle instances and spare capacity, or not at
+         * all.  Must be called holding this queue's monitor.
+         * @param latch the unserved latch describing the request
+         * @return <code>true</code> if the whole request was allocated to the latch
+         */
+        private boolean reserve(Latch<V> latch) {
+            final int size = latch.getSize();
+            final int idle = Math.min(size, queue.size());
+            if (idle < size && !reserve(size - idle)) {
+                return false;
+            }
+            latch.allocate(pollIdle(idle), size - idle);
+            return true;
+        }
+
+        /**
+         * Takes up to <code>count</code> idle instances.  Must be called holding this
+         * queue's monitor.
+         * @param count the maximum number of instances to take
+         * @return the instances taken
+         */
+        private List<ObjectTimestampPair<V>> pollIdle(int count) {
+            final List<ObjectTimestampPair<V>> pairs = new ArrayList<ObjectTimestampPair<V>>(count);
+            ObjectTimestampPair<V> pair;
+            while (pairs.size() < count && (pair = pollIdle()) != null) {
+                pairs.add(pair);
+            }
+            return pairs;
+        }
+
+        /**
+         * Reserves room for one new instance if fewer than <code>minIdle</code>
+         * instances are idle and the limits permit it.
+         * @param minIdle the number of idle instances to maintain
+         * @return <code>true</code> if the caller may create an instance
+         */
+        synchronized boolean reserveForMinIdle(int minIdle) {
+            return queue.size() < minIdle && allocationQueue.isEmpty() && reserve();
+        }
+
+        /**
+         * Reserves room for one new instance regardless of <i>maxActive</i> and
+         * <i>maxTotal</i>.
+         * @return <code>false</code> if this queue has been discarded
+         */
+        synchronized boolean grow() {
+            if (removed) {
+                return false;
+            }
+            totalCount++;
+            _numTotal.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * Serves a request from idle instances and spare capacity when nobody is
+         * waiting for this key, and reserves room for the remainder regardless of
+         * <i>maxActive</i> and <i>maxTotal</i>.
+         * @param latch the unserved latch describing the request
+         * @return <code>false</code> if this queue has been discarded
+         */
+        synchronized boolean grow(Latch<V> latch) {
+            if (removed) {
+                return false;
+            }
+            final int size = latch.getSize();
+            final List<ObjectTimestampPair<V>> pairs = allocationQueue.isEmpty() ?
+                    pollIdle(size) : new ArrayList<ObjectTimestampPair<V>>(0);
+            final int permits = size - pairs.size();
+            if (permits > 0 && !(allocationQueue.isEmpty() && reserve(permits))) {
+                totalCount += permits;
+                _numTotal.addAndGet(permits);
+            }
+            latch.allocate(pairs, permits);
+            return true;
+        }
+
+        /**
+         * Records that a borrowed instance is no longer checked out.
+         */
+        void deactivate() {
+            synchronized (this) {
+                activeCount--;
+            }
+            _numActive.decrementAndGet();
+        }
+
+        /**
+         * Releases room previously reserved for, or taken by, one instance, lets a
+         * waiting borrower (of this or another key) use it, and discards this queue
+         * if it is no longer in use.
+         */
+        void release() {
+            synchronized (this) {
+                totalCount--;
+                discardIfUnused();
+            }
+            releaseTotal();
+            allocate();
+        }
+
+        /**
+         * Hands an instance to a waiting borrower or adds it to the idle list.
+         *
+         * @param pair instance to add
+         * @param force whether to ignore <i>maxIdle</i>
+         * @return <code>false</code> if the instance was not added and must be destroyed
+         */
+        boolean addIdle(ObjectTimestampPair<V> pair, boolean force) {
+            synchronized (this) {
+                if (isClosed()) {
+                    return false;
+                }
+                final int maxIdle = _maxIdle;
+                if (!force && maxIdle >= 0 && queue.size() >= maxIdle && allocationQueue.isEmpty()) {
+                    return false;
+                }
+                // borrowObject always takes the first element from the queue,
+                // so for LIFO, push on top, FIFO add to end
+                if (_lifo) {
+                    queue.addFirst(pair);
+                } else {
+                    queue.addLast(pair);
+                }
+                _numIdle.incrementAndGet();
+            }
+            allocate();
+            return true;
+        }
+
+        /**
+         * Removes an unserved latch from the allocation queue.
+         *
+         * @param latch the latch to remove
+         * @return <code>true</code> if the latch was still queued, <code>false</code>
+         * if it has already been served
+         */
+        synchronized boolean cancel(Latch<V> latch) {
+            if (allocationQueue.remove(latch)) {
+                discardIfUnused();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Allocate idle instances, then creation permits, to this key's queued
+         * borrowers in request arrival order.  A request is served only once all of
+         * it can be, and requests behind it wait their turn.  If the request at the
+         * head is left waiting only because <i>maxTotal</i> has been reached,
+         * registers this queue to be served when capacity is released and destroys
+         * the oldest idle instance of another key to make room.
+         */
+        void allocate() {
+            boolean makeRoom = false;
+            synchronized (this) {
+                while (!allocationQueue.isEmpty()) {
+                    final Latch<V> latch = allocationQueue.getFirst();
+                    if (!reserve(latch)) {
+                        final int needed = latch.getSize() - Math.min(latch.getSize(), queue.size());
+                        final int maxActive = _maxActive;
+                        if (!removed && (maxActive < 0 || totalCount + needed <= maxActive)) {
+                            // other keys' idle instances stand in the way until destroyed
+                            makeRoom = _numIdle.get() > queue.size();
+                            if (!starved) {
+                                starved = true;
+                                _starved.add(this);
+                                if (hasTotalCapacity(needed)) {
+                                    // capacity was released before we registered
+                                    continue;
+                                }
+                            }
+                        }
+                        break;
+                    }
+                    allocationQueue.removeFirst();
+                    synchronized (latch) {
+                        latch.notify();
+                    }
+                }
+            }
+            if (makeRoom) {
+                destroyOldestIdle(this);
+            }
+        }
+
+        /**
+         * Works the allocation queue after this queue has been taken off the
+         * list of queues waiting for <i>maxTotal</i> capacity.
+         */
+        void wake() {
+            synchronized (this) {
+                starved = false;
+            }
+            allocate();
+        }
+
+        /**
+         * Destroys all idle instances of this key.
+         */
+        void clear() {
+            final List<ObjectTimestampPair<V>> toDestroy = new ArrayList<ObjectTimestampPair<V>>();
+            synchronized (this) {
+                ObjectTimestampPair<V> pair;
+                while ((pair = pollIdle()) != null) {
+                    toDestroy.add(pair);
+                }
+            }
+            for (Iterator<ObjectTimestampPair<V>> it = toDestroy.iterator(); it.hasNext();) {
+                destroy(this, it.next().getValue());
+            }
+        }
+
+        /**
+         * Claims the next idle instance for the evictor, oldest first.
+         *
+         * @param lifo whether the pool is LIFO
+         * @return the claimed instance, or <code>null</code> once the evictor has
+         * visited every idle instance of this key
+         */
+        synchronized ObjectTimestampPair<V> claimForEviction(boolean lifo) {
+            if (evictionCursor == null) {
+                evictionCursor = queue.cursor(lifo ? queue.size() : 0);
+            }
+            if ((lifo && !evictionCursor.hasPrevious()) || (!lifo && !evictionCursor.hasNext())) {
+                evictionCursor.close();
+                evictionCursor = null;
+                return null;
+            }
+            final ObjectTimestampPair<V> pair = lifo ? evictionCursor.previous() : evictionCursor.next();
+            evictionCursor.remove();
+            _numIdle.decrementAndGet();
+            return pair;
+        }
+
+        /**
+         * Puts an instance that passed eviction back where the evictor found it.
+         *
+         * @param pair the instance
+         * @param lifo whether the pool is LIFO
+         */
+        void restoreAfterEviction(ObjectTimestampPair<V> pair, boolean lifo) {
+            synchronized (this) {
+                if (evictionCursor != null) {
+                    evictionCursor.add(pair);
+                    if (lifo) {
+                        // Skip over the element we just added back
+                        evictionCursor.previous();
+                    }
+                } else if (lifo) {
+                    queue.addLast(pair);
+                } else {
+                    queue.addFirst(pair);
+                }
+                _numIdle.incrementAndGet();
+            }
+            allocate();
+        }
+
+        /**
+         * Drops this queue from the pool's key map once it holds no instances and
+         * no borrower is waiting.  Must be called holding this queue's monitor.
+         */
+        private void discardIfUnused() {
+            if (!removed && totalCount == 0 && allocationQueue.isEmpty()) {
+                removed = true;
+                if (evictionCursor != null) {
+                    evictionCursor.close();
+                    evictionCursor = null;
+                }
+                _queues.remove(key, this);
+            }
+        }
+    }
+
+    /**
+     * The idle object evictor task.
+     * @see ConcurrentKeyedObjectPool#setTimeBetweenEvictionRunsMillis
+     */
+    private class Evictor implements Runnable {
+        /**
+         * Run pool maintenance.  Evict objects qualifying for eviction and then
+         * invoke {@link ConcurrentKeyedObjectPool#ensureMinIdle()}.
+         */
+        public void run() {
+            try {
+                evict();
+            } catch(Exception e) {
+                // ignored
+            } catch(OutOfMemoryError oome) {
+                // Log problem but give evictor thread a chance to continue in
+                // case error is recoverable
+                oome.printStackTrace(System.err);
+            }
+            try {
+                ensureMinIdle();
+            } catch(Exception e) {
+                // ignored
+            }
+        }
+    }
+
+    /**
+     * Latch used to serve queued borrowers in the order in which they
+     * requested objects.  A latch is served all at once, with idle instances
+     * and creation permits adding up to its size.
+     */
+    private static final class Latch<V> {
+
+        /** number of instances requested */
+        private final int _size;
+
+        /** object timestamp pairs allocated to this latch */
+        private List<ObjectTimestampPair<V>> _pairs = Collections.emptyList();
+
+        /** number of object instances this latch may create */
+        private int _permits = 0;
+
+        private Latch(int size) {
+            _size = size;
+        }
+
+        private int getSize() {
+            return _size;
+        }
+
+        private synchronized ObjectTimestampPair<V> getPair() {
+            return _pairs.isEmpty() ? null : _pairs.get(0);
+        }
+
+        private synchronized List<ObjectTimestampPair<V>> getPairs() {
+            return _pairs;
+        }
+
+        private synchronized int getPermits() {
+            return _permits;
+        }
+
+        private synchronized void allocate(List<ObjectTimestampPair<V>> pairs, int permits) {
+            _pairs = pairs;
+            _permits = permits;
+        }
+
+        private synchronized boolean isServed() {
+            return !_pairs.isEmpty() || _permits > 0;
+        }
+    }
+
+    //--- private attributes ---------------------------------------
+
+    /** My {@link KeyedPoolableObjectFactory}. */
+    private final KeyedPoolableObjectFactory<K, V> _factory;
+
+    private volatile int _maxActive;
+    private volatile int _maxTotal;
+    private volatile int _maxIdle;
+    private volatile int _minIdle;
+    private volatile long _maxWait;
+    private volatile byte _whenExhaustedAction;
+    private volatile boolean _testOnBorrow;
+    private volatile boolean _testOnReturn;
+    private volatile boolean _testWhileIdle;
+    private volatile long _timeBetweenEvictionRunsMillis;
+    private volatile int _numTestsPerEvictionRun;
+    private volatile long _minEvictableIdleTimeMillis;
+    private volatile boolean _lifo;
+
+    /** The queues of all keys currently in use. */
+    private final ConcurrentMap<K, ObjectQueue> _queues = new ConcurrentHashMap<K, ObjectQueue>();
+
+    /** Queues whose borrowers wait for <i>maxTotal</i> capacity. */
+    private final ConcurrentLinkedQueue<ObjectQueue> _starved = new ConcurrentLinkedQueue<ObjectQueue>();
+
+    /** Number of idle instances across all keys. */
+    private final AtomicInteger _numIdle = new AtomicInteger();
+
+    /** The number of objects borrowed from the pool, but not yet returned. */
+    private final AtomicInteger _numActive = new AtomicInteger();
+
+    /**
+     * The number of instances counted against <i>maxTotal</i>: borrowed, idle,
+     * or in the process of being created or destroyed.
+     */
+    private final AtomicInteger _numTotal = new AtomicInteger();
+
+    /** Serializes eviction runs without involving borrowers. */
+    private final Object _evictionLock = new Object();
+
+    /** The key the evictor will resume with. */
+    private K _evictionKey = null;
+
+    /** My scheduled idle object eviction task, if any. */
+    private ScheduledFuture<?> _evictor = null;
+
+    /** The executor my evictor runs on, or <code>null</code> for the shared scheduler. */
+    private ScheduledExecutorService _evictionExecutor = null;
+
+}
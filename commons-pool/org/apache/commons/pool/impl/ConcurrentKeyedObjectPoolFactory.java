@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import org.apache.commons.pool.KeyedObjectPool;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+
+/**
+ * A factory for creating {@link ConcurrentKeyedObjectPool} instances.
+ *
+ * @param <K> the type of keys in this pool
+ * @param <V> the type of objects held in this pool
+ *
+ * @see ConcurrentKeyedObjectPool
+ * @see KeyedObjectPoolFactory
+ * @since Pool 1.6
+ */
+public class ConcurrentKeyedObjectPoolFactory<K, V> implements KeyedObjectPoolFactory<K, V> {
+    /**
+     * Create a new ConcurrentKeyedObjectPoolFactory using the
+     * {@link GenericKeyedObjectPool} default configuration.
+     *
+     * @param factory the KeyedPoolableObjectFactory used by created pools.
+     */
+    public ConcurrentKeyedObjectPoolFactory(KeyedPoolableObjectFactory<K, V> factory) {
+        this(factory, new GenericKeyedObjectPool.Config());
+    }
+
+    /**
+     * Create a new ConcurrentKeyedObjectPoolFactory.
+     *
+     * @param factory the KeyedPoolableObjectFactory used by created pools.
+     * @param config a non-<code>null</code> GenericKeyedObjectPool.Config describing the configuration.
+     * @throws NullPointerException when config is <code>null</code>.
+     */
+    public ConcurrentKeyedObjectPoolFactory(KeyedPoolableObjectFactory<K, V> factory, GenericKeyedObjectPool.Config config)
+            throws NullPointerException {
+        if (config == null) {
+            throw new NullPointerException("config must not be null");
+        }
+        _factory = factory;
+        _config = config;
+    }
+
+    /**
+     * Create a new ConcurrentKeyedObjectPool.
+     *
+     * @return a new ConcurrentKeyedObjectPool with the configured factory and settings
+     */
+    public KeyedObjectPool<K, V> createPool() {
+        return new ConcurrentKeyedObjectPool<K, V>(_factory, _config);
+    }
+
+    /**
+     * @return the {@link KeyedPoolableObjectFactory} used by pools created by this factory
+     */
+    public KeyedPoolableObjectFactory<K, V> getFactory() {
+        return _factory;
+    }
+
+    /**
+     * @return the configuration used by pools created by this factory
+     */
+    public GenericKeyedObjectPool.Config getConfig() {
+        return _config;
+    }
+
+    /** The KeyedPoolableObjectFactory used by created pools. */
+    private final KeyedPoolableObjectFactory<K, V> _factory;
+
+    /** The configuration used by created pools. */
+    private final GenericKeyedObjectPool.Config _config;
+
+}
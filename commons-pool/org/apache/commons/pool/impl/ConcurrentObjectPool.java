@@ -0,0 +1,1297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool.BaseObjectPool;
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.PoolUtils;
+import org.apache.commons.pool.PoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool.ObjectTimestampPair;
+
+/**
+ * A configurable {@link ObjectPool} implementation with a lock-free fast path.
+ * <p>
+ * <tt>ConcurrentObjectPool</tt> accepts the same configuration as
+ * {@link GenericObjectPool} (see {@link GenericObjectPool.Config}) and honours
+ * <i>maxActive</i>, <i>maxIdle</i>, <i>minIdle</i>, <i>whenExhaustedAction</i>,
+ * <i>maxWait</i>, <i>lifo</i> and the idle object eviction settings in the same way.
+ * The difference lies in how idle instances are stored and handed out:
+ * <ul>
+ *  <li>
+ *    Idle instances are kept in a lock-free {@link ConcurrentLinkedDeque} and the
+ *    instance counters are atomic, so {@link #borrowObject} and {@link #returnObject}
+ *    never enter a shared monitor while an idle instance (or spare capacity) is
+ *    available and no other thread is already waiting.
+ *  </li>
+ *  <li>
+ *    When the pool is exhausted, borrowers take the slow path: they are queued in
+ *    request arrival order and served from the queue as instances are returned or
+ *    capacity is released, which preserves the "fairness" guarantee that
+ *    {@link GenericObjectPool} has provided since pool 1.5.  While any borrower is
+ *    queued, new borrowers join the queue instead of barging past it.
+ *  </li>
+ * </ul>
+ * <p>
+ * Unlike <tt>GenericObjectPool</tt>, <i>maxActive</i> bounds the total number of
+ * instances managed by the pool (checked out, idle, or being created), which is
+ * the documented meaning of the property.
+ * <p>
+ * As with <tt>GenericObjectPool</tt>, no factory method is ever invoked while a
+ * lock is held.
+ *
+ * @param <T> the type of objects held in this pool
+ *
+ * @see GenericObjectPool
+ * @since Pool 1.6
+ */
+public class ConcurrentObjectPool<T> extends BaseObjectPool<T> implements ObjectPool<T> {
+
+    //--- constructors -----------------------------------------------
+
+    /**
+     * Create a new <tt>ConcurrentObjectPool</tt> using the specified factory and
+     * the {@link GenericObjectPool} default configuration.
+     * @param factory the PoolableObjectFactory to use to create, validate and destroy objects
+     */
+    public ConcurrentObjectPool(PoolableObjectFactory<T> factory) {
+        this(factory, new GenericObjectPool.Config());
+    }
+
+    /**
+     * Create a new <tt>ConcurrentObjectPool</tt> using the specified values.
+     * @param factory the PoolableObjectFactory to use to create, validate and destroy objects
+     * @param config a non-<tt>null</tt> {@link GenericObjectPool.Config} describing my configuration
+     */
+    public ConcurrentObjectPool(PoolableObjectFactory<T> factory, GenericObjectPool.Config config) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        _factory = factory;
+        _maxActive = config.maxActive;
+        _maxIdle = config.maxIdle;
+        _minIdle = config.minIdle;
+        _maxWait = config.maxWait;
+        _whenExhaustedAction = checkWhenExhaustedAction(config.whenExhaustedAction);
+        _testOnBorrow = config.testOnBorrow;
+        _testOnReturn = config.testOnReturn;
+        _testWhileIdle = config.testWhileIdle;
+        _numTestsPerEvictionRun = config.numTestsPerEvictionRun;
+        _minEvictableIdleTimeMillis = config.minEvictableIdleTimeMillis;
+        _softMinEvictableIdleTimeMillis = config.softMinEvictableIdleTimeMillis;
+        _lifo = config.lifo;
+        _timeBetweenEvictionRunsMillis = config.timeBetweenEvictionRunsMillis;
+        startEvictor(_timeBetweenEvictionRunsMillis);
+    }
+
+    //--- configuration methods --------------------------------------
+
+    /**
+     * Returns the cap on the total number of instances managed by the pool.
+     * @return the cap on the total number of instances managed by the pool
+     * @see #setMaxActive
+     */
+    public int getMaxActive() {
+        return _maxActive;
+    }
+
+    /**
+     * Sets the cap on the total number of instances managed by the pool.
+     * Use a negative value for no limit.
+     * @param maxActive the new cap
+     * @see #getMaxActive
+     */
+    public void setMaxActive(int maxActive) {
+        _maxActive = maxActive;
+        allocate();
+    }
+
+    /**
+     * Returns the action to take when {@link #borrowObject} is invoked on an exhausted pool.
+     * @return one of {@link GenericObjectPool#WHEN_EXHAUSTED_BLOCK},
+     * {@link GenericObjectPool#WHEN_EXHAUSTED_FAIL} or {@link GenericObjectPool#WHEN_EXHAUSTED_GROW}
+     * @see #setWhenExhaustedAction
+     */
+    public byte getWhenExhaustedAction() {
+        return _whenExhaustedAction;
+    }
+
+    /**
+     * Sets the action to take when {@link #borrowObject} is invoked on an exhausted pool.
+     * @param whenExhaustedAction the action code
+     * @see #getWhenExhaustedAction
+     */
+    public void setWhenExhaustedAction(byte whenExhaustedAction) {
+        _whenExhaustedAction = checkWhenExhaustedAction(whenExhaustedAction);
+    }
+
+    /**
+     * Returns the maximum amount of time (in milliseconds) {@link #borrowObject} blocks
+     * when the pool is exhausted and the "when exhausted" action is
+     * {@link GenericObjectPool#WHEN_EXHAUSTED_BLOCK}.
+     * @return the maximum wait in milliseconds, non-positive meaning indefinitely
+     * @see #setMaxWait
+     */
+    public long getMaxWait() {
+        return _maxWait;
+    }
+
+    /**
+     * Sets the maximum amount of time (in milliseconds) {@link #borrowObject} blocks.
+     * @param maxWait the maximum wait in milliseconds, non-positive meaning indefinitely
+     * @see #getMaxWait
+     */
+    public void setMaxWait(long maxWait) {
+        _maxWait = maxWait;
+    }
+
+    /**
+     * Returns the cap on the number of idle instances in the pool.
+     * @return the cap, negative meaning no limit
+     * @see #setMaxIdle
+     */
+    public int getMaxIdle() {
+        return _maxIdle;
+    }
+
+    /**
+     * Sets the cap on the number of idle instances in the pool.
+     * @param maxIdle the cap, negative meaning no limit
+     * @see #getMaxIdle
+     */
+    public void setMaxIdle(int maxIdle) {
+        _maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns the minimum number of idle instances the evictor tries to maintain.
+     * @return the minimum number of idle instances
+     * @see #setMinIdle
+     */
+    public int getMinIdle() {
+        return _minIdle;
+    }
+
+    /**
+     * Sets the minimum number of idle instances the evictor tries to maintain.
+     * @param minIdle the minimum number of idle instances
+     * @see #getMinIdle
+     */
+    public void setMinIdle(int minIdle) {
+        _minIdle = minIdle;
+    }
+
+    /**
+     * @return whether objects are validated before being returned by {@link #borrowObject}
+     */
+    public boolean getTestOnBorrow() {
+        return _testOnBorrow;
+    }
+
+    /**
+     * @param testOnBorrow whether objects are validated before being returned by {@link #borrowObject}
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        _testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * @return whether objects are validated when passed to {@link #returnObject}
+     */
+    public boolean getTestOnReturn() {
+        return _testOnReturn;
+    }
+
+    /**
+     * @param testOnReturn whether objects are validated when passed to {@link #returnObject}
+     */
+    public void setTestOnReturn(boolean testOnReturn) {
+        _testOnReturn = testOnReturn;
+    }
+
+    /**
+     * @return whether idle objects are validated by the idle object evictor
+     */
+    public boolean getTestWhileIdle() {
+        return _testWhileIdle;
+    }
+
+    /**
+     * @param testWhileIdle whether idle objects are validated by the idle object evictor
+     */
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        _testWhileIdle = testWhileIdle;
+    }
+
+    /**
+     * @return the number of milliseconds to sleep between runs of the idle object evictor
+     */
+    public long getTimeBetweenEvictionRunsMillis() {
+        return _timeBetweenEvictionRunsMillis;
+    }
+
+    /**
+     * Sets the number of milliseconds to sleep between runs of the idle object evictor.
+     * When non-positive, no idle object evictor will be run.
+     * @param timeBetweenEvictionRunsMillis milliseconds between evictor runs
+     */
+    public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+        _timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+        startEvictor(_timeBetweenEvictionRunsMillis);
+    }
+
+    /**
+     * @return the number of objects examined per eviction run
+     * @see GenericObjectPool#setNumTestsPerEvictionRun
+     */
+    public int getNumTestsPerEvictionRun() {
+        return _numTestsPerEvictionRun;
+    }
+
+    /**
+     * @param numTestsPerEvictionRun the number of objects examined per eviction run
+     * @see GenericObjectPool#setNumTestsPerEvictionRun
+     */
+    public void setNumTestsPerEvictionRun(int numTestsPerEvictionRun) {
+        _numTestsPerEvictionRun = numTestsPerEvictionRun;
+    }
+
+    /**
+     * @return the minimum idle time before an object is eligible for eviction
+     */
+    public long getMinEvictableIdleTimeMillis() {
+        return _minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @param minEvictableIdleTimeMillis the minimum idle time before an object is eligible for eviction
+     */
+    public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+        _minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @return the minimum idle time before an object is eligible for eviction while more than
+     * <i>minIdle</i> instances are idle
+     */
+    public long getSoftMinEvictableIdleTimeMillis() {
+        return _softMinEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @param softMinEvictableIdleTimeMillis the minimum idle time before an object is eligible for
+     * eviction while more than <i>minIdle</i> instances are idle
+     */
+    public void setSoftMinEvictableIdleTimeMillis(long softMinEvictableIdleTimeMillis) {
+        _softMinEvictableIdleTimeMillis = softMinEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @return whether the pool hands out idle objects in last-in-first-out order
+     */
+    public boolean getLifo() {
+        return _lifo;
+    }
+
+    /**
+     * @param lifo whether the pool hands out idle objects in last-in-first-out order
+     */
+    public void setLifo(boolean lifo) {
+        _lifo = lifo;
+    }
+
+    /**
+     * @return the executor the idle object evictor runs on, or <code>null</code>
+     * for the scheduler shared by all pools
+     * @see GenericObjectPool#setEvictionExecutor
+     */
+    public synchronized ScheduledExecutorService getEvictionExecutor() {
+        return _evictionExecutor;
+    }
+
+    /**
+     * @param evictionExecutor the executor the idle object evictor runs on, or
+     * <code>null</code> for the scheduler shared by all pools
+     * @see GenericObjectPool#setEvictionExecutor
+     */
+    public synchronized void setEvictionExecutor(ScheduledExecutorService evictionExecutor) {
+        startEvictor(-1L);
+        _evictionExecutor = evictionExecutor;
+        if (!isClosed()) {
+            startEvictor(_timeBetweenEvictionRunsMillis);
+        }
+    }
+
+    //-- ObjectPool methods ------------------------------------------
+
+    /**
+     * <p>Borrows an object from the pool.</p>
+     *
+     * <p>When no other borrower is waiting, an idle instance is taken straight from
+     * the idle deque, or, if there is none and <i>maxActive</i> permits, a new instance
+     * is created - in both cases without acquiring any lock.  Otherwise the request
+     * is queued and served in arrival order, subject to <i>whenExhaustedAction</i>
+     * and <i>maxWait</i> exactly as described for {@link GenericObjectPool#borrowObject()}.</p>
+     *
+     * @return object instance
+     * @throws NoSuchElementException if an instance cannot be returned
+     */
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+        final long starttime = System.currentTimeMillis();
+        final byte whenExhaustedAction = _whenExhaustedAction;
+        final long maxWait = _maxWait;
+        boolean retry = false;
+
+        for (;;) {
+            ObjectTimestampPair<T> pair = null;
+            boolean mayCreate = false;
+
+            // Fast path: nobody is queued ahead of us, or we are retrying after a
+            // failed activation and so were at the head of the queue
+            final boolean fastPath = retry || _numWaiting == 0;
+            if (fastPath) {
+                pair = pollIdle();
+                if (pair == null) {
+                    mayCreate = reserveCapacity();
+                }
+            }
+
+            if (pair == null && !mayCreate) {
+                Latch<T> latch = null;
+                switch (whenExhaustedAction) {
+                    case GenericObjectPool.WHEN_EXHAUSTED_GROW:
+                        _numTotal.incrementAndGet();
+                        mayCreate = true;
+                        break;
+                    case GenericObjectPool.WHEN_EXHAUSTED_FAIL:
+                        if (fastPath) {
+                            throw new NoSuchElementException("Pool exhausted");
+                        }
+                        // queued borrowers are being served, take our turn without waiting
+                        latch = await(new Latch<T>(1), starttime, maxWait, false, true);
+                        break;
+                    case GenericObjectPool.WHEN_EXHAUSTED_BLOCK:
+                        latch = await(new Latch<T>(1), starttime, maxWait, retry, false);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("WhenExhaustedAction property " + whenExhaustedAction +
+                                " not recognized.");
+                }
+                if (latch != null) {
+                    pair = latch.getPair();
+                    mayCreate = pair == null;
+                }
+            }
+
+            boolean newlyCreated = false;
+            if (pair == null) {
+                try {
+                    T obj = _factory.makeObject();
+                    pair = new ObjectTimestampPair<T>(obj);
+                    newlyCreated = true;
+                } finally {
+                    if (!newlyCreated) {
+                        // object cannot be created
+                        releaseCapacity();
+                    }
+                }
+            }
+
+            // activate & validate the object
+            try {
+                _factory.activateObject(pair.getValue());
+                if (_testOnBorrow && !_factory.validateObject(pair.getValue())) {
+                    throw new Exception("ValidateObject failed");
+                }
+                _numActive.incrementAndGet();
+                return pair.getValue();
+            } catch (Throwable e) {
+                PoolUtils.checkRethrow(e);
+                // object cannot be activated or is invalid
+                try {
+                    _factory.destroyObject(pair.getValue());
+                } catch (Throwable e2) {
+                    PoolUtils.checkRethrow(e2);
+                    // cannot destroy broken object
+                }
+                releaseCapacity();
+                if (newlyCreated) {
+                    throw new NoSuchElementException("Could not create a validated object, cause: " + e.getMessage());
+                }
+                // keep looping, at the head of the queue if we were queued
+                retry = true;
+            }
+        }
+    }
+
+    /**
+     * <p>Borrows <code>n</code> instances at once.  Room for the whole batch is
+     * reserved in a single step: idle instances are taken first and the remainder
+     * is reserved against <i>maxActive</i> in the same step, so a batch never holds
+     * part of the pool while it waits for the rest.  The instances are then
+     * activated and validated (if <i>testOnBorrow</i> is set), or created; an idle
+     * instance failing activation or validation is destroyed and replaced by a new
+     * one.</p>
+     *
+     * <p>When <code>n</code> instances cannot be reserved, the
+     * <i>whenExhaustedAction</i> applies to the batch as a whole.  With
+     * {@link GenericObjectPool#WHEN_EXHAUSTED_BLOCK} the batch joins the allocation
+     * queue and waits up to <code>maxWait</code> milliseconds (or the pool's
+     * <i>maxWait</i> if <code>maxWait</code> is zero or less) until it reaches the
+     * head of the queue and the whole batch fits.  A batch larger than
+     * <i>maxActive</i> fails immediately.</p>
+     *
+     * <p>If creating, activating or validating an instance fails, the reservation
+     * is released, the instances obtained so far are returned to the pool and the
+     * exception is rethrown.</p>
+     *
+     * @param n the number of instances to borrow
+     * @param maxWait the maximum number of milliseconds to wait for the batch
+     * @return a list holding <code>n</code> instances
+     * @throws NoSuchElementException if the batch cannot be reserved
+     */
+    @Override
+    public List<T> borrowObjects(int n, long maxWait) throws Exception {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot borrow a negative number of objects: " + n);
+        }
+        assertOpen();
+        final long starttime = System.currentTimeMillis();
+        if (maxWait <= 0) {
+            maxWait = _maxWait;
+        }
+        final List<T> objs = new ArrayList<T>(n);
+        if (n == 0) {
+            return objs;
+        }
+
+        Latch<T> latch = new Latch<T>(n);
+        final byte whenExhaustedAction = _whenExhaustedAction;
+        if (whenExhaustedAction == GenericObjectPool.WHEN_EXHAUSTED_GROW) {
+            // idle instances and spare capacity first, as in borrowObject, then grow
+            final List<ObjectTimestampPair<T>> pairs = new ArrayList<ObjectTimestampPair<T>>(n);
+            int permits = 0;
+            while (pairs.size() + permits < n) {
+                final ObjectTimestampPair<T> pair = _numWaiting == 0 ? pollIdle() : null;
+                if (pair != null) {
+                    pairs.add(pair);
+                } else {
+                    if (_numWaiting != 0 || !reserveCapacity()) {
+                        _numTotal.incrementAndGet();
+                    }
+                    permits++;
+                }
+            }
+            latch.allocate(pairs, permits);
+        } else {
+            final int maxActive = _maxActive;
+            if (maxActive >= 0 && n > maxActive) {
+                throw new NoSuchElementException("Cannot borrow " + n + " objects, maxActive is " + maxActive);
+            }
+            // Fast path: nobody is queued ahead of us
+            final boolean fastPath = _numWaiting == 0;
+            if (!fastPath || !reserve(latch)) {
+                switch (whenExhaustedAction) {
+                    case GenericObjectPool.WHEN_EXHAUSTED_FAIL:
+                        if (fastPath) {
+                            throw new NoSuchElementException("Pool exhausted");
+                        }
+                        // queued borrowers are being served, take our turn without waiting
+                        latch = await(latch, starttime, maxWait, false, true);
+                        break;
+                    case GenericObjectPool.WHEN_EXHAUSTED_BLOCK:
+                        latch = await(latch, starttime, maxWait, false, false);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("WhenExhaustedAction property " + whenExhaustedAction +
+                                " not recognized.");
+                }
+            }
+        }
+
+        final List<ObjectTimestampPair<T>> pairs = latch.getPairs();
+        int permits = latch.getPermits();
+        int next = 0;
+        try {
+            while (objs.size() < n) {
+                if (next < pairs.size()) {
+                    objs.add(activateForBatch(pairs.get(next++)));
+                } else {
+                    // the permit is used up, activateForBatch releases it on failure
+                    permits--;
+                    objs.add(activateForBatch(null));
+                }
+            }
+        } catch (Exception e) {
+            // give back the part of the reservation that was not used
+            while (next < pairs.size()) {
+                final ObjectTimestampPair<T> pair = pairs.get(next++);
+                if (!addIdle(pair, true)) {
+                    destroy(pair.getValue());
+                }
+            }
+            for (; permits > 0; permits--) {
+                releaseCapacity();
+            }
+            try {
+                returnObjects(objs);
+            } catch (Exception e2) {
+                // swallowed
+            }
+            throw e;
+        }
+        return objs;
+    }
+
+    /**
+     * Activates and validates an instance reserved for a batch borrow, replacing
+     * an idle instance with a new one if it fails.  The capacity held by the
+     * instance is released if a new instance cannot be created, activated or
+     * validated.
+     *
+     * @param pair the reserved idle instance, or <code>null</code> to create one
+     * @return an activated (and if applicable validated) instance
+     * @throws Exception if a new instance cannot be created, activated or validated
+     */
+    private T activateForBatch(ObjectTimestampPair<T> pair) throws Exception {
+        if (pair != null) {
+            try {
+                _factory.activateObject(pair.getValue());
+                if (!_testOnBorrow || _factory.validateObject(pair.getValue())) {
+                    _numActive.incrementAndGet();
+                    return pair.getValue();
+                }
+            } catch (Exception e) {
+                // replaced below
+            }
+            try {
+                _factory.destroyObject(pair.getValue());
+            } catch (Exception e) {
+                // ignored
+            }
+        }
+        T obj;
+        boolean created = false;
+        try {
+            obj = _factory.makeObject();
+            created = true;
+        } finally {
+            if (!created) {
+                // object cannot be created
+                releaseCapacity();
+            }
+        }
+        try {
+            _factory.activateObject(obj);
+            if (_testOnBorrow && !_factory.validateObject(obj)) {
+                throw new NoSuchElementException("Could not create a validated object");
+            }
+        } catch (Exception e) {
+            destroy(obj);
+            throw e;
+        }
+        _numActive.incrementAndGet();
+        return obj;
+    }
+
+    /**
+     * Queues a borrow request and waits until idle instances or creation permits
+     * for the whole request have been allocated to it.
+     *
+     * @param latch the unserved latch describing the request
+     * @param starttime time at which the borrow started
+     * @param maxWait maximum time to wait, non-positive meaning indefinitely
+     * @param first whether to queue at the head (used when retrying after a failed activation)
+     * @param failFast whether to give up instead of waiting if nothing is allocated immediately
+     * @return the served latch, holding pairs and creation permits for the whole request
+     * @throws Exception if the wait times out, is interrupted or the pool is closed
+     */
+    private Latch<T> await(Latch<T> latch, long starttime, long maxWait, boolean first, boolean failFast)
+            throws Exception {
+        synchronized (_allocationQueue) {
+            if (first) {
+                _allocationQueue.addFirst(latch);
+            } else {
+                _allocationQueue.addLast(latch);
+            }
+            _numWaiting++;
+        }
+        // Work the allocation queue - an instance may have been returned or
+        // capacity released after our fast path check
+        allocate();
+
+        for (;;) {
+            try {
+                synchronized (latch) {
+                    // Before we wait, make sure another thread didn't allocate us an object
+                    // or permit a new object to be created
+                    if (!latch.isServed() && !failFast) {
+                        if (maxWait <= 0) {
+                            latch.wait();
+                        } else {
+                            final long waitTime = maxWait - (System.currentTimeMillis() - starttime);
+                            if (waitTime > 0) {
+                                latch.wait(waitTime);
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!cancel(latch)) {
+                    // Something has been allocated to us, give it back
+                    release(latch);
+                }
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            if (latch.isServed()) {
+                return latch;
+            }
+            // see if we were awakened by a closing pool
+            if (isClosed()) {
+                cancel(latch);
+                throw new IllegalStateException("Pool closed");
+            }
+            if (failFast || (maxWait > 0 && ((System.currentTimeMillis() - starttime) >= maxWait))) {
+                if (cancel(latch)) {
+                    if (failFast) {
+                        throw new NoSuchElementException("Pool exhausted");
+                    }
+                    throw new NoSuchElementException(latch.getSize() == 1 ? "Timeout waiting for idle object" :
+                            "Timeout waiting for " + latch.getSize() + " idle objects");
+                }
+                return latch;
+            }
+        }
+    }
+
+    /**
+     * Removes an unserved latch from the allocation queue.
+     *
+     * @param latch the latch to remove
+     * @return <code>true</code> if the latch was still queued, <code>false</code>
+     * if it has already been served
+     */
+    private boolean cancel(Latch<T> latch) {
+        synchronized (_allocationQueue) {
+            if (_allocationQueue.remove(latch)) {
+                _numWaiting--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gives back everything allocated to a latch whose borrower no longer wants it.
+     *
+     * @param latch the served latch
+     */
+    private void release(Latch<T> latch) {
+        final List<ObjectTimestampPair<T>> pairs = latch.getPairs();
+        for (int i = 0; i < pairs.size(); i++) {
+            if (!addIdle(pairs.get(i), true)) {
+                destroy(pairs.get(i).getValue());
+            }
+        }
+        for (int i = latch.getPermits(); i > 0; i--) {
+            releaseCapacity();
+        }
+    }
+
+    /**
+     * Allocate idle instances, then creation permits, to queued borrowers in request
+     * arrival order.  A request is served only once all of it can be, and requests
+     * behind it wait their turn.  Only does any work (and only acquires the queue
+     * lock) when at least one borrower is waiting.
+     */
+    private void allocate() {
+        if (_numWaiting == 0) {
+            return;
+        }
+        synchronized (_allocationQueue) {
+            while (!_allocationQueue.isEmpty()) {
+                final Latch<T> latch = _allocationQueue.getFirst();
+                if (!reserve(latch)) {
+                    break;
+                }
+                _allocationQueue.removeFirst();
+                _numWaiting--;
+                synchronized (latch) {
+                    latch.notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Activation of this method decrements the active count and attempts to destroy the instance.</p>
+     *
+     * @throws Exception if the configured {@link PoolableObjectFactory} throws an exception destroying obj
+     */
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        try {
+            _factory.destroyObject(obj);
+        } finally {
+            _numActive.decrementAndGet();
+            releaseCapacity();
+        }
+    }
+
+    /**
+     * <p>Returns an object instance to the pool.</p>
+     *
+     * <p>If {@link #getTestOnReturn() testOnReturn} is set the instance is validated first.  If a borrower is
+     * waiting, the instance is handed to the longest waiting borrower; otherwise it is pushed onto the idle
+     * deque, or destroyed if {@link #getMaxIdle() maxIdle} idle instances are already present.</p>
+     *
+     * @param obj instance to return to the pool
+     */
+    @Override
+    public void returnObject(T obj) throws Exception {
+        boolean success = true;
+        try {
+            if (_testOnReturn && !_factory.validateObject(obj)) {
+                success = false;
+            } else {
+                _factory.passivateObject(obj);
+            }
+        } catch (Exception e) {
+            success = false;
+        }
+        _numActive.decrementAndGet();
+        if (!success || !addIdle(new ObjectTimestampPair<T>(obj), false)) {
+            destroy(obj);
+        }
+    }
+
+    /**
+     * Create an object, and place it into the pool.
+     * addObject() is useful for "pre-loading" a pool with idle objects.
+     */
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        _numTotal.incrementAndGet();
+        T obj;
+        boolean created = false;
+        try {
+            obj = _factory.makeObject();
+            created = true;
+        } finally {
+            if (!created) {
+                releaseCapacity();
+            }
+        }
+        try {
+            _factory.passivateObject(obj);
+        } catch (Exception e) {
+            destroy(obj);
+            throw e;
+        }
+        if (!addIdle(new ObjectTimestampPair<T>(obj), false)) {
+            destroy(obj);
+            assertOpen();
+        }
+    }
+
+    /**
+     * Clears any objects sitting idle in the pool by removing them from the
+     * idle deque and then invoking the configured
+     * {@link PoolableObjectFactory#destroyObject(Object)} method on each idle
+     * instance.  Exceptions encountered destroying idle instances are swallowed.
+     */
+    @Override
+    public void clear() {
+        List<ObjectTimestampPair<T>> toDestroy = new ArrayList<ObjectTimestampPair<T>>();
+        ObjectTimestampPair<T> pair;
+        while ((pair = pollIdle()) != null) {
+            toDestroy.add(pair);
+        }
+        for (Iterator<ObjectTimestampPair<T>> it = toDestroy.iterator(); it.hasNext();) {
+            destroy(it.next().getValue());
+        }
+    }
+
+    /**
+     * Return the number of instances currently borrowed from this pool.
+     *
+     * @return the number of instances currently borrowed from this pool
+     */
+    @Override
+    public int getNumActive() {
+        return _numActive.get();
+    }
+
+    /**
+     * Return the number of instances currently idle in this pool.
+     *
+     * @return the number of instances currently idle in this pool
+     */
+    @Override
+    public int getNumIdle() {
+        return _numIdle.get();
+    }
+
+    /**
+     * <p>Closes the pool.  Once the pool is closed, {@link #borrowObject()}
+     * will fail with IllegalStateException, but {@link #returnObject(Object)} and
+     * {@link #invalidateObject(Object)} will continue to work, with returned objects
+     * destroyed on return.</p>
+     *
+     * @throws Exception
+     */
+    @Override
+    public void close() throws Exception {
+        super.close();
+        clear();
+        startEvictor(-1L);
+        synchronized (_allocationQueue) {
+            while (!_allocationQueue.isEmpty()) {
+                Latch<T> l = _allocationQueue.removeFirst();
+                _numWaiting--;
+                synchronized (l) {
+                    // notify the waiting thread
+                    l.notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Perform <code>numTests</code> idle object eviction tests, evicting
+     * examined objects that meet the criteria for eviction, as described for
+     * {@link GenericObjectPool#evict()}.</p>
+     *
+     * <p>Each examined instance is claimed from the idle deque before it is tested,
+     * so a borrower can never receive an instance the evictor is working on, and
+     * borrowers are never blocked by an eviction run.  Successive runs walk the idle
+     * instances from oldest to youngest.</p>
+     *
+     * @throws Exception if the pool is closed or eviction fails.
+     */
+    public void evict() throws Exception {
+        assertOpen();
+        synchronized (_evictionLock) {
+            final boolean lifo = _lifo;
+            for (int i = 0, m = getNumTests(); i < m; i++) {
+                if (_evictionIterator == null || !_evictionIterator.hasNext()) {
+                    _evictionIterator = lifo ? _idle.descendingIterator() : _idle.iterator();
+                    if (!_evictionIterator.hasNext()) {
+                        break;
+                    }
+                }
+                final ObjectTimestampPair<T> pair = _evictionIterator.next();
+                // Claim the instance; if a borrower got there first, move on
+                if (!(lifo ? _idle.removeLastOccurrence(pair) : _idle.removeFirstOccurrence(pair))) {
+                    continue;
+                }
+                _numIdle.decrementAndGet();
+
+                boolean removeObject = false;
+                final long idleTimeMilis = System.currentTimeMillis() - pair.getTstamp();
+                if ((_minEvictableIdleTimeMillis > 0) &&
+                        (idleTimeMilis > _minEvictableIdleTimeMillis)) {
+                    removeObject = true;
+                } else if ((_softMinEvictableIdleTimeMillis > 0) &&
+                        (idleTimeMilis > _softMinEvictableIdleTimeMillis) &&
+                        ((getNumIdle() + 1) > _minIdle)) { // +1 accounts for object we are processing
+                    removeObject = true;
+                }
+                if (_testWhileIdle && !removeObject) {
+                    boolean active = false;
+                    try {
+                        _factory.activateObject(pair.getValue());
+                        active = true;
+                    } catch (Exception e) {
+                        removeObject = true;
+                    }
+                    if (active) {
+                        if (!_factory.validateObject(pair.getValue())) {
+                            removeObject = true;
+                        } else {
+                            try {
+                                _factory.passivateObject(pair.getValue());
+                            } catch (Exception e) {
+                                removeObject = true;
+                            }
+                        }
+                    }
+                }
+
+                if (removeObject) {
+                    destroy(pair.getValue());
+                } else {
+                    // Put it back at the oldest end, behind the eviction iterator
+                    _numIdle.incrementAndGet();
+                    if (lifo) {
+                        _idle.offerLast(pair);
+                    } else {
+                        _idle.offerFirst(pair);
+                    }
+                    allocate();
+                }
+            }
+        }
+    }
+
+    //--- non-public methods ----------------------------------------
+
+    /**
+     * Takes the next idle instance from the deque.
+     * @return the next idle instance, or <code>null</code> if there is none
+     */
+    private ObjectTimestampPair<T> pollIdle() {
+        final ObjectTimestampPair<T> pair = _idle.pollFirst();
+        if (pair != null) {
+            _numIdle.decrementAndGet();
+        }
+        return pair;
+    }
+
+    /**
+     * Hands an instance to a waiting borrower or adds it to the idle deque.
+     *
+     * @param pair instance to add
+     * @param force whether to ignore <i>maxIdle</i>
+     * @return <code>false</code> if the instance was not added and must be destroyed
+     */
+    private boolean addIdle(ObjectTimestampPair<T> pair, boolean force) {
+        if (isClosed()) {
+            return false;
+        }
+        for (;;) {
+            final int maxIdle = _maxIdle;
+            final int idle = _numIdle.get();
+            if (!force && maxIdle >= 0 && idle >= maxIdle && _numWaiting == 0) {
+                return false;
+            }
+            if (_numIdle.compareAndSet(idle, idle + 1)) {
+                break;
+            }
+        }
+        // borrowObject always takes the first element from the deque,
+        // so for LIFO, push on top, FIFO add to end
+        if (_lifo) {
+            _idle.offerFirst(pair);
+        } else {
+            _idle.offerLast(pair);
+        }
+        allocate();
+        return true;
+    }
+
+    /**
+     * Serves a request in full from idle instances and spare capacity, or not at all.
+     *
+     * @param latch the unserved latch describing the request
+     * @return <code>true</code> if the whole request was allocated to the latch
+     */
+    private boolean reserve(Latch<T> latch) {
+        final int size = latch.getSize();
+        final List<ObjectTimestampPair<T>> pairs = new ArrayList<ObjectTimestampPair<T>>(size);
+        while (pairs.size() < size) {
+            final ObjectTimestampPair<T> pair = pollIdle();
+            if (pair == null) {
+                break;
+            }
+            pairs.add(pair);
+        }
+        final int permits = size - pairs.size();
+        if (permits > 0 && !reserveCapacity(permits)) {
+            // put the idle instances back where they were taken from
+            for (int i = pairs.size() - 1; i >= 0; i--) {
+                _idle.offerFirst(pairs.get(i));
+                _numIdle.incrementAndGet();
+            }
+            return false;
+        }
+        latch.allocate(pairs, permits);
+        return true;
+    }
+
+    /**
+     * Reserves room for one new instance if <i>maxActive</i> permits it.
+     * @return <code>true</code> if the caller may create an instance
+     */
+    private boolean reserveCapacity() {
+        return reserveCapacity(1);
+    }
+
+    /**
+     * Reserves room for <code>count</code> new instances if <i>maxActive</i> permits
+     * all of them.
+     * @param count the number of instances to reserve room for
+     * @return <code>true</code> if the caller may create <code>count</code> instances
+     */
+    private boolean reserveCapacity(int count) {
+        for (;;) {
+            final int maxActive = _maxActive;
+            final int total = _numTotal.get();
+            if (maxActive >= 0 && total + count > maxActive) {
+                return false;
+            }
+            if (_numTotal.compareAndSet(total, total + count)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases room previously reserved for, or taken by, one instance and lets a
+     * waiting borrower use it.
+     */
+    private void releaseCapacity() {
+        _numTotal.decrementAndGet();
+        allocate();
+    }
+
+    /**
+     * Destroys an instance that has already been removed from the pool, swallowing
+     * any exception, and releases its capacity.
+     * @param obj instance to destroy
+     */
+    private void destroy(T obj) {
+        try {
+            _factory.destroyObject(obj);
+        } catch (Exception e) {
+            // ignored
+        } finally {
+            releaseCapacity();
+        }
+    }
+
+    /**
+     * Check to see if we are below our minimum number of objects
+     * if so enough to bring us back to our minimum.
+     *
+     * @throws Exception when the factory fails to create an object
+     */
+    private void ensureMinIdle() throws Exception {
+        while (!isClosed() && _numIdle.get() < _minIdle && reserveCapacity()) {
+            T obj;
+            boolean created = false;
+            try {
+                obj = _factory.makeObject();
+                created = true;
+            } finally {
+                if (!created) {
+                    releaseCapacity();
+                }
+            }
+            try {
+                _factory.passivateObject(obj);
+            } catch (Exception e) {
+                destroy(obj);
+                throw e;
+            }
+            if (!addIdle(new ObjectTimestampPair<T>(obj), false)) {
+                destroy(obj);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Start the eviction thread or service, or when
+     * <i>delay</i> is non-positive, stop it
+     * if it is already running.
+     *
+     * @param delay milliseconds between evictor runs.
+     */
+    protected synchronized void startEvictor(long delay) {
+        if (null != _evictor) {
+            EvictionTimer.cancel(_evictor, _evictionExecutor);
+            _evictor = null;
+        }
+        if (delay > 0) {
+            _evictor = EvictionTimer.schedule(new Evictor(), delay, delay, _evictionExecutor);
+        }
+    }
+
+    /**
+     * Returns the number of tests to be performed in an Evictor run,
+     * based on the current value of <code>numTestsPerEvictionRun</code>
+     * and the number of idle instances in the pool.
+     *
+     * @return the number of tests for the Evictor to run
+     */
+    private int getNumTests() {
+        final int numTests = _numTestsPerEvictionRun;
+        final int idle = _numIdle.get();
+        if (numTests >= 0) {
+            return Math.min(numTests, idle);
+        } else {
+            return (int) (Math.ceil(idle / Math.abs((double) numTests)));
+        }
+    }
+
+    private static byte checkWhenExhaustedAction(byte whenExhaustedAction) {
+        switch (whenExhaustedAction) {
+            case GenericObjectPool.WHEN_EXHAUSTED_BLOCK:
+            case GenericObjectPool.WHEN_EXHAUSTED_FAIL:
+            case GenericObjectPool.WHEN_EXHAUSTED_GROW:
+                return whenExhaustedAction;
+            default:
+                throw new IllegalArgumentException("whenExhaustedAction " + whenExhaustedAction + " not recognized.");
+        }
+    }
+
+    //--- inner classes ----------------------------------------------
+
+    /**
+     * The idle object evictor task.
+     * @see ConcurrentObjectPool#setTimeBetweenEvictionRunsMillis
+     */
+    private class Evictor implements Runnable {
+        /**
+         * Run pool maintenance.  Evict objects qualifying for eviction and then
+         * invoke {@link ConcurrentObjectPool#ensureMinIdle()}.
+         */
+        public void run() {
+            try {
+                evict();
+            } catch(Exception e) {
+                // ignored
+            } catch(OutOfMemoryError oome) {
+                // Log problem but give evictor thread a chance to continue in
+                // case error is recoverable
+                oome.printStackTrace(System.err);
+            }
+            try {
+                ensureMinIdle();
+            } catch(Exception e) {
+                // ignored
+            }
+        }
+    }
+
+    /**
+     * Latch used to serve queued borrowers in the order in which they
+     * requested objects.  A latch is served all at once, with idle instances
+     * and creation permits adding up to its size.
+     */
+    private static final class Latch<T> {
+
+        /** number of instances requested */
+        private final int _size;
+
+        /** object timestamp pairs allocated to this latch */
+        private List<ObjectTimestampPair<T>> _pairs = Collections.emptyList();
+
+        /** number of object instances this latch may create */
+        private int _permits = 0;
+
+        private Latch(int size) {
+            _size = size;
+        }
+
+        private int getSize() {
+            return _size;
+        }
+
+        private synchronized ObjectTimestampPair<T> getPair() {
+            return _pairs.isEmpty() ? null : _pairs.get(0);
+        }
+
+        private synchronized List<ObjectTimestampPair<T>> getPairs() {
+            return _pairs;
+        }
+
+        private synchronized int getPermits() {
+            return _permits;
+        }
+
+        private synchronized void allocate(List<ObjectTimestampPair<T>> pairs, int permits) {
+            _pairs = pairs;
+            _permits = permits;
+        }
+
+        private synchronized boolean isServed() {
+            return !_pairs.isEmpty() || _permits > 0;
+        }
+    }
+
+    //--- private attributes ---------------------------------------
+
+    /** My {@link PoolableObjectFactory}. */
+    private final PoolableObjectFactory<T> _factory;
+
+    private volatile int _maxActive;
+    private volatile int _maxIdle;
+    private volatile int _minIdle;
+    private volatile long _maxWait;
+    private volatile byte _whenExhaustedAction;
+    private volatile boolean _testOnBorrow;
+    private volatile boolean _testOnReturn;
+    private volatile boolean _testWhileIdle;
+    private volatile long _timeBetweenEvictionRunsMillis;
+    private volatile int _numTestsPerEvictionRun;
+    private volatile long _minEvictableIdleTimeMillis;
+    private volatile long _softMinEvictableIdleTimeMillis;
+    private volatile boolean _lifo;
+
+    /** Idle instances; borrowers always take the first element. */
+    private final ConcurrentLinkedDeque<ObjectTimestampPair<T>> _idle =
+        new ConcurrentLinkedDeque<ObjectTimestampPair<T>>();
+
+    /** Number of idle instances (the deque's own size() is not constant time). */
+    private final AtomicInteger _numIdle = new AtomicInteger();
+
+    /** The number of objects borrowed from the pool, but not yet returned. */
+    private final AtomicInteger _numActive = new AtomicInteger();
+
+    /**
+     * The number of instances counted against <i>maxActive</i>: borrowed, idle,
+     * or in the process of being created or destroyed.
+     */
+    private final AtomicInteger _numTotal = new AtomicInteger();
+
+    /** Borrowers waiting for an instance, in request arrival order. */
+    private final LinkedList<Latch<T>> _allocationQueue = new LinkedList<Latch<T>>();
+
+    /** Size of {@link #_allocationQueue}, readable without taking its lock. */
+    private volatile int _numWaiting = 0;
+
+    /** Serializes eviction runs without involving borrowers. */
+    private final Object _evictionLock = new Object();
+
+    /** Eviction iterator - keeps track of idle object evictor position */
+    private Iterator<ObjectTimestampPair<T>> _evictionIterator = null;
+
+    /** My scheduled idle object eviction task, if any. */
+    private ScheduledFuture<?> _evictor = null;
+
+    /** The executor my evictor runs on, or <code>null</code> for the shared scheduler. */
+    private ScheduledExecutorService _evictionExecutor = null;
+
+}
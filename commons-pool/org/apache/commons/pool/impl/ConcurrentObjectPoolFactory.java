@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.ObjectPoolFactory;
+import org.apache.commons.pool.PoolableObjectFactory;
+
+/**
+ * A factory for creating {@link ConcurrentObjectPool} instances.
+ *
+ * @param <T> the type of objects held in this pool
+ *
+ * @see ConcurrentObjectPool
+ * @see ObjectPoolFactory
+ * @since Pool 1.6
+ */
+public class ConcurrentObjectPoolFactory<T> implements ObjectPoolFactory<T> {
+    /**
+     * Create a new ConcurrentObjectPoolFactory using the
+     * {@link GenericObjectPool} default configuration.
+     *
+     * @param factory the PoolableObjectFactory used by created pools.
+     */
+    public ConcurrentObjectPoolFactory(PoolableObjectFactory<T> factory) {
+        this(factory, new GenericObjectPool.Config());
+    }
+
+    /**
+     * Create a new ConcurrentObjectPoolFactory.
+     *
+     * @param factory the PoolableObjectFactory used by created pools.
+     * @param config a non-<code>null</code> GenericObjectPool.Config describing the configuration.
+     * @throws NullPointerException when config is <code>null</code>.
+     */
+    public ConcurrentObjectPoolFactory(PoolableObjectFactory<T> factory, GenericObjectPool.Config config)
+            throws NullPointerException {
+        if (config == null) {
+            throw new NullPointerException("config must not be null");
+        }
+        _factory = factory;
+        _config = config;
+    }
+
+    /**
+     * Create a new ConcurrentObjectPool.
+     *
+     * @return a new ConcurrentObjectPool with the configured factory and settings
+     */
+    public ObjectPool<T> createPool() {
+        return new ConcurrentObjectPool<T>(_factory, _config);
+    }
+
+    /**
+     * @return the {@link PoolableObjectFactory} used by pools created by this factory
+     */
+    public PoolableObjectFactory<T> getFactory() {
+        return _factory;
+    }
+
+    /**
+     * @return the configuration used by pools created by this factory
+     */
+    public GenericObjectPool.Config getConfig() {
+        return _config;
+    }
+
+    /** The PoolableObjectFactory used by created pools. */
+    private final PoolableObjectFactory<T> _factory;
+
+    /** The configuration used by created pools. */
+    private final GenericObjectPool.Config _config;
+
+}
@@ -0,0 +1,563 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool.BaseKeyedObjectPool;
+import org.apache.commons.pool.KeyedObjectPool;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+import org.apache.commons.pool.PoolUtils;
+
+/**
+ * A lock-free drop-in replacement for {@link StackKeyedObjectPool}.
+ * <p>
+ * The pool behaves like <tt>StackKeyedObjectPool</tt>: instances are validated
+ * on every borrow and return, idle instances are handed out last in first out,
+ * the number of "sleeping" instances is capped per key (the oldest idle instance
+ * is destroyed to make room for a returning one), and the number of active
+ * instances is not limited.
+ * </p>
+ * <p>
+ * Where <tt>StackKeyedObjectPool</tt> keeps its stacks in a <code>HashMap</code>
+ * and serializes every operation on the pool monitor, this pool keeps each key's
+ * idle instances in a lock-free {@link ConcurrentLinkedDeque} held in a
+ * {@link ConcurrentHashMap}, and counts instances with atomic counters.  Borrows
+ * and returns never block one another, under the same key or different keys,
+ * which suits pools with many keys and many threads such as caches of pooled
+ * parsers or buffers.  As with <tt>StackKeyedObjectPool</tt>, factory methods
+ * are invoked by the calling thread; no lock is held while they run.
+ * </p>
+ * <p>
+ * Counts read while other threads use the pool are approximate, and the cap on
+ * sleeping instances may be exceeded by the number of concurrent returns for a
+ * short time.
+ * </p>
+ *
+ * @param <K> the type of keys in this pool
+ * @param <V> the type of objects held in this pool
+ *
+ * @see StackKeyedObjectPool
+ * @since Pool 1.6
+ */
+public class ConcurrentStackKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> implements KeyedObjectPool<K, V> {
+
+    //--- constructors -----------------------------------------------
+
+    /**
+     * Create a new pool using no factory.
+     * Clients must first set the {@link #setFactory factory} or
+     * may populate the pool using {@link #returnObject returnObject}
+     * before they can be {@link #borrowObject borrowed}.
+     *
+     * @see StackKeyedObjectPool#StackKeyedObjectPool()
+     */
+    public ConcurrentStackKeyedObjectPool() {
+        this(null, StackKeyedObjectPool.DEFAULT_MAX_SLEEPING, StackKeyedObjectPool.DEFAULT_INIT_SLEEPING_CAPACITY);
+    }
+
+    /**
+     * Create a new pool using no factory.
+     *
+     * @param max cap on the number of "sleeping" instances in each keyed pool
+     * @see StackKeyedObjectPool#StackKeyedObjectPool(int)
+     */
+    public ConcurrentStackKeyedObjectPool(int max) {
+        this(null, max, StackKeyedObjectPool.DEFAULT_INIT_SLEEPING_CAPACITY);
+    }
+
+    /**
+     * Create a new pool using no factory.
+     *
+     * @param max cap on the number of "sleeping" instances in each keyed pool
+     * @param init accepted for compatibility with {@link StackKeyedObjectPool}; idle
+     *             instances are kept in linked deques, which need no initial capacity
+     * @see StackKeyedObjectPool#StackKeyedObjectPool(int, int)
+     */
+    public ConcurrentStackKeyedObjectPool(int max, int init) {
+        this(null, max, init);
+    }
+
+    /**
+     * Create a new pool using the specified <code>factory</code> to create new instances.
+     *
+     * @param factory the {@link KeyedPoolableObjectFactory} used to populate the pool
+     * @see StackKeyedObjectPool#StackKeyedObjectPool(KeyedPoolableObjectFactory)
+     */
+    public ConcurrentStackKeyedObjectPool(KeyedPoolableObjectFactory<K, V> factory) {
+        this(factory, StackKeyedObjectPool.DEFAULT_MAX_SLEEPING);
+    }
+
+    /**
+     * Create a new pool using the specified <code>factory</code> to create new instances,
+     * capping the number of "sleeping" instances to <code>max</code>.
+     *
+     * @param factory the {@link KeyedPoolableObjectFactory} used to populate the pool
+     * @param max cap on the number of "sleeping" instances in each keyed pool
+     * @see StackKeyedObjectPool#StackKeyedObjectPool(KeyedPoolableObjectFactory, int)
+     */
+    public ConcurrentStackKeyedObjectPool(KeyedPoolableObjectFactory<K, V> factory, int max) {
+        this(factory, max, StackKeyedObjectPool.DEFAULT_INIT_SLEEPING_CAPACITY);
+    }
+
+    /**
+     * Create a new pool using the specified <code>factory</code> to create new instances,
+     * capping the number of "sleeping" instances to <code>max</code>.
+     *
+     * @param factory the {@link KeyedPoolableObjectFactory} used to populate the pool
+     * @param max cap on the number of "sleeping" instances in each keyed pool
+     * @param init accepted for compatibility with {@link StackKeyedObjectPool}; idle
+     *             instances are kept in linked deques, which need no initial capacity
+     * @see StackKeyedObjectPool#StackKeyedObjectPool(KeyedPoolableObjectFactory, int, int)
+     */
+    public ConcurrentStackKeyedObjectPool(KeyedPoolableObjectFactory<K, V> factory, int max, int init) {
+        _factory = factory;
+        _maxSleeping = (max < 0 ? StackKeyedObjectPool.DEFAULT_MAX_SLEEPING : max);
+        _initSleepingCapacity = (init < 1 ? StackKeyedObjectPool.DEFAULT_INIT_SLEEPING_CAPACITY : init);
+    }
+
+    //--- KeyedObjectPool methods ------------------------------------
+
+    /**
+     * Borrows an object with the given key.  If there are no idle instances under the
+     * given key, a new one is created.
+     *
+     * @param key the pool key
+     * @return keyed poolable object instance
+     */
+    @Override
+    public V borrowObject(K key) throws Exception {
+        assertOpen();
+        final KeyedStack<V> stack = stack(key);
+        final KeyedPoolableObjectFactory<K, V> factory = _factory;
+        V obj = null;
+        do {
+            boolean newlyMade = false;
+            obj = stack.pop();
+            if (obj == null) {
+                if (null == factory) {
+                    throw new NoSuchElementException("pools without a factory cannot create new objects as needed.");
+                }
+                obj = factory.makeObject(key);
+                newlyMade = true;
+            }
+            if (null != factory && null != obj) {
+                try {
+                    factory.activateObject(key, obj);
+                    if (!factory.validateObject(key, obj)) {
+                        throw new Exception("ValidateObject failed");
+                    }
+                } catch (Throwable t) {
+                    PoolUtils.checkRethrow(t);
+                    try {
+                        factory.destroyObject(key, obj);
+                    } catch (Throwable t2) {
+                        PoolUtils.checkRethrow(t2);
+                        // swallowed
+                    } finally {
+                        obj = null;
+                    }
+                    if (newlyMade) {
+                        throw new NoSuchElementException(
+                            "Could not create a validated object, cause: " +
+                            t.getMessage());
+                    }
+                }
+            }
+        } while (obj == null);
+        stack._active.incrementAndGet();
+        _totActive.incrementAndGet();
+        return obj;
+    }
+
+    /**
+     * Returns <code>obj</code> to the pool under <code>key</code>.  If adding the
+     * returning instance to the pool results in the cap on "sleeping" instances
+     * being exceeded for the given key, the oldest idle instance under that key
+     * is destroyed to make room for the returning instance.
+     *
+     * @param key the pool key
+     * @param obj returning instance
+     */
+    @Override
+    public void returnObject(K key, V obj) throws Exception {
+        final KeyedStack<V> stack = stack(key);
+        decrementActive(stack);
+        final KeyedPoolableObjectFactory<K, V> factory = _factory;
+        if (null != factory) {
+            if (factory.validateObject(key, obj)) {
+                try {
+                    factory.passivateObject(key, obj);
+                } catch (Exception ex) {
+                    factory.destroyObject(key, obj);
+                    return;
+                }
+            } else {
+                return;
+            }
+        }
+
+        if (isClosed()) {
+            destroy(factory, key, obj);
+            return;
+        }
+        final V staleObj = push(key, stack, obj);
+        if (staleObj != null) {
+            destroy(factory, key, staleObj);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateObject(K key, V obj) throws Exception {
+        decrementActive(stack(key));
+        final KeyedPoolableObjectFactory<K, V> factory = _factory;
+        if (null != factory) {
+            factory.destroyObject(key, obj);
+        }
+    }
+
+    /**
+     * Create an object using the {@link KeyedPoolableObjectFactory#makeObject factory},
+     * passivate it, and then placed in the idle object pool.
+     * <code>addObject</code> is useful for "pre-loading" a pool with idle objects.
+     *
+     * @param key the key a new instance should be added to
+     * @throws Exception when {@link KeyedPoolableObjectFactory#makeObject} fails.
+     * @throws IllegalStateException when no {@link #setFactory factory} has been set or after {@link #close} has been called on this pool.
+     */
+    @Override
+    public void addObject(K key) throws Exception {
+        assertOpen();
+        final KeyedPoolableObjectFactory<K, V> factory = _factory;
+        if (factory == null) {
+            throw new IllegalStateException("Cannot add objects without a factory.");
+        }
+        V obj = factory.makeObject(key);
+        try {
+            if (!factory.validateObject(key, obj)) {
+               return;
+            }
+        } catch (Exception e) {
+            destroy(factory, key, obj);
+            return;
+        }
+        factory.passivateObject(key, obj);
+
+        final V staleObj = push(key, stack(key), obj);
+        if (staleObj == obj) {
+            // Don't swallow destroying the newly created object.
+            factory.destroyObject(key, obj);
+        } else if (staleObj != null) {
+            destroy(factory, key, staleObj);
+        }
+    }
+
+    /**
+     * Returns the total number of instances currently idle in this pool.
+     *
+     * @return the total number of instances currently idle in this pool
+     */
+    @Override
+    public int getNumIdle() {
+        return _totIdle.get();
+    }
+
+    /**
+     * Returns the total number of instances current borrowed from this pool but not yet returned.
+     *
+     * @return the total number of instances currently borrowed from this pool
+     */
+    @Override
+    public int getNumActive() {
+        return _totActive.get();
+    }
+
+    /**
+     * Returns the number of instances currently borrowed from but not yet returned
+     * to the pool corresponding to the given <code>key</code>.
+     *
+     * @param key the key to query
+     * @return the number of instances corresponding to the given <code>key</code> currently borrowed in this pool
+     */
+    @Override
+    public int getNumActive(K key) {
+        final KeyedStack<V> stack = _pools.get(key);
+        return stack == null ? 0 : stack._active.get();
+    }
+
+    /**
+     * Returns the number of instances corresponding to the given <code>key</code> currently idle in this pool.
+     *
+     * @param key the key to query
+     * @return the number of instances corresponding to the given <code>key</code> currently idle in this pool
+     */
+    @Override
+    public int getNumIdle(K key) {
+        final KeyedStack<V> stack = _pools.get(key);
+        return stack == null ? 0 : stack._idle.get();
+    }
+
+    /**
+     * Clears the pool, removing all pooled instances.  As with
+     * {@link StackKeyedObjectPool#clear()}, the per key active counts are
+     * forgotten.
+     */
+    @Override
+    public void clear() {
+        for (Iterator<K> it = _pools.keySet().iterator(); it.hasNext();) {
+            clear(it.next());
+        }
+    }
+
+    /**
+     * Clears the specified pool, removing all pooled instances corresponding to the given <code>key</code>.
+     *
+     * @param key the key to clear
+     */
+    @Override
+    public void clear(K key) {
+        final KeyedStack<V> stack = _pools.remove(key);
+        if (stack != null) {
+            stack._retired = true;
+            destroyIdle(key, stack);
+        }
+    }
+
+    /**
+     * Returns a string representation of this pool, including
+     * the number of pools, the keys and the size of each keyed pool.
+     *
+     * @return Keys and pool sizes
+     */
+    @Override
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append(getClass().getName());
+        buf.append(" contains ").append(_pools.size()).append(" distinct pools: ");
+        for (Iterator<Map.Entry<K, KeyedStack<V>>> it = _pools.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<K, KeyedStack<V>> entry = it.next();
+            buf.append(" |").append(entry.getKey()).append("|=").append(entry.getValue()._idle.get());
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Close this pool, and free any resources associated with it.
+     * <p>
+     * Calling {@link #addObject addObject} or {@link #borrowObject borrowObject} after invoking
+     * this method on a pool will cause them to throw an {@link IllegalStateException}.
+     * </p>
+     *
+     * @throws Exception <strong>deprecated</strong>: implementations should silently fail if not all resources can be freed.
+     */
+    @Override
+    public void close() throws Exception {
+        super.close();
+        clear();
+    }
+
+    /**
+     * Sets the {@link KeyedPoolableObjectFactory factory} the pool uses
+     * to create new instances.
+     *
+     * @param factory the {@link KeyedPoolableObjectFactory} used to manage object instances
+     * @throws IllegalStateException when objects are active
+     * @deprecated to be removed in pool 2.0
+     */
+    @Deprecated
+    @Override
+    public synchronized void setFactory(KeyedPoolableObjectFactory<K, V> factory) throws IllegalStateException {
+        if (0 < getNumActive()) {
+            throw new IllegalStateException("Objects are already active");
+        } else {
+            clear();
+            _factory = factory;
+        }
+    }
+
+    /**
+     * @return the {@link KeyedPoolableObjectFactory} used by this pool to manage object instances.
+     */
+    public KeyedPoolableObjectFactory<K, V> getFactory() {
+        return _factory;
+    }
+
+    /**
+     * @return the cap on the number of "sleeping" instances in <code>each</code> pool.
+     */
+    public int getMaxSleeping() {
+        return _maxSleeping;
+    }
+
+    /**
+     * @return the initial capacity passed to the constructor
+     */
+    public int getInitSleepingCapacity() {
+        return _initSleepingCapacity;
+    }
+
+    //--- private methods --------------------------------------------
+
+    /**
+     * Returns the stack for the given key, creating it if needed.
+     *
+     * @param key pool key
+     * @return the key's stack
+     */
+    private KeyedStack<V> stack(K key) {
+        KeyedStack<V> stack = _pools.get(key);
+        if (stack == null) {
+            final KeyedStack<V> created = new KeyedStack<V>();
+            stack = _pools.putIfAbsent(key, created);
+            if (stack == null) {
+                stack = created;
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * Pushes an idle instance, evicting the oldest idle instance of the key
+     * if the cap on sleeping instances is exceeded.
+     *
+     * @param key pool key
+     * @param stack the key's stack
+     * @param obj the idle instance
+     * @return the instance to destroy, or <code>null</code>
+     */
+    private V push(K key, KeyedStack<V> stack, V obj) {
+        stack._deque.addFirst(obj);
+        stack._idle.incrementAndGet();
+        _totIdle.incrementAndGet();
+        if (stack._retired) {
+            // cleared while we were pushing; the clearing thread may have missed obj
+            destroyIdle(key, stack);
+            return null;
+        }
+        if (stack._idle.get() > _maxSleeping) {
+            final V staleObj = stack._deque.pollLast();
+            if (staleObj != null) {
+                stack._idle.decrementAndGet();
+                _totIdle.decrementAndGet();
+                return staleObj;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Destroys the idle instances of a stack.
+     *
+     * @param key key passed to factory when destroying instances
+     * @param stack the stack to empty
+     */
+    private void destroyIdle(K key, KeyedStack<V> stack) {
+        final KeyedPoolableObjectFactory<K, V> factory = _factory;
+        for (V obj = stack.pop(); obj != null; obj = stack.pop()) {
+            destroy(factory, key, obj);
+        }
+    }
+
+    /**
+     * Decrements the active count of a stack and the pool, never below zero
+     * for the stack.
+     *
+     * @param stack the key's stack
+     */
+    private void decrementActive(KeyedStack<V> stack) {
+        _totActive.decrementAndGet();
+        for (int active = stack._active.get(); active > 0 && !stack._active.compareAndSet(active, active - 1);
+                active = stack._active.get()) {
+            // retry
+        }
+    }
+
+    /**
+     * Destroys an instance, swallowing exceptions.
+     */
+    private static <K, V> void destroy(KeyedPoolableObjectFactory<K, V> factory, K key, V obj) {
+        if (null != factory) {
+            try {
+                factory.destroyObject(key, obj);
+            } catch (Exception e) {
+                // swallowed
+            }
+        }
+    }
+
+    /**
+     * Idle instances and counters of one key.
+     */
+    private final class KeyedStack<E> {
+
+        /** Idle instances, most recently returned first */
+        final ConcurrentLinkedDeque<E> _deque = new ConcurrentLinkedDeque<E>();
+
+        /** Number of idle instances; the deque's own size() is not constant time */
+        final AtomicInteger _idle = new AtomicInteger();
+
+        /** Number of instances borrowed under this key */
+        final AtomicInteger _active = new AtomicInteger();
+
+        /** Whether this stack has been removed from the pool by a clear */
+        volatile boolean _retired = false;
+
+        /**
+         * Takes the most recently returned idle instance.
+         *
+         * @return the instance, or <code>null</code> if there is none
+         */
+        E pop() {
+            final E obj = _deque.pollFirst();
+            if (obj != null) {
+                _idle.decrementAndGet();
+                _totIdle.decrementAndGet();
+            }
+            return obj;
+        }
+    }
+
+    //--- private attributes -----------------------------------------
+
+    /** My per key stacks. */
+    private final ConcurrentMap<K, KeyedStack<V>> _pools = new ConcurrentHashMap<K, KeyedStack<V>>();
+
+    /** My {@link KeyedPoolableObjectFactory}. */
+    private volatile KeyedPoolableObjectFactory<K, V> _factory = null;
+
+    /** The cap on the number of "sleeping" instances in <code>each</code> pool. */
+    private final int _maxSleeping;
+
+    /** The initial capacity passed to the constructor. */
+    private final int _initSleepingCapacity;
+
+    /** Total number of objects borrowed and not yet returned for all keys. */
+    private final AtomicInteger _totActive = new AtomicInteger();
+
+    /** Total number of idle objects for all keys. */
+    private final AtomicInteger _totIdle = new AtomicInteger();
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import org.apache.commons.pool.KeyedObjectPool;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+
+/**
+ * A factory for creating {@link ConcurrentStackKeyedObjectPool} instances.
+ *
+ * @param <K> the type of keys in this pool
+ * @param <V> the type of objects held in this pool
+ *
+ * @see ConcurrentStackKeyedObjectPool
+ * @see StackKeyedObjectPoolFactory
+ * @since Pool 1.6
+ */
+public class ConcurrentStackKeyedObjectPoolFactory<K, V> implements KeyedObjectPoolFactory<K, V> {
+    /**
+     * Create a new ConcurrentStackKeyedObjectPoolFactory.
+     *
+     * @param factory the KeyedPoolableObjectFactory used by created pools.
+     * @see ConcurrentStackKeyedObjectPool#ConcurrentStackKeyedObjectPool(KeyedPoolableObjectFactory)
+     */
+    public ConcurrentStackKeyedObjectPoolFactory(KeyedPoolableObjectFactory<K, V> factory) {
+        this(factory, StackKeyedObjectPool.DEFAULT_MAX_SLEEPING);
+    }
+
+    /**
+     * Create a new ConcurrentStackKeyedObjectPoolFactory.
+     *
+     * @param factory the KeyedPoolableObjectFactory used by created pools.
+     * @param maxSleeping cap on the number of "sleeping" instances in each keyed pool.
+     * @see ConcurrentStackKeyedObjectPool#ConcurrentStackKeyedObjectPool(KeyedPoolableObjectFactory, int)
+     */
+    public ConcurrentStackKeyedObjectPoolFactory(KeyedPoolableObjectFactory<K, V> factory, int maxSleeping) {
+        _factory = factory;
+        _maxSleeping = maxSleeping;
+    }
+
+    /**
+     * Create a ConcurrentStackKeyedObjectPool with current property settings.
+     *
+     * @return a new ConcurrentStackKeyedObjectPool with the configured factory and maxSleeping
+     */
+    public KeyedObjectPool<K, V> createPool() {
+        return new ConcurrentStackKeyedObjectPool<K, V>(_factory, _maxSleeping);
+    }
+
+    /**
+     * @return the {@link KeyedPoolableObjectFactory} used by pools created by this factory
+     */
+    public KeyedPoolableObjectFactory<K, V> getFactory() {
+        return _factory;
+    }
+
+    /**
+     * @return the maxSleeping setting for created pools
+     */
+    public int getMaxSleeping() {
+        return _maxSleeping;
+    }
+
+    /** KeyedPoolableObjectFactory used by created pools */
+    private final KeyedPoolableObjectFactory<K, V> _factory;
+
+    /** Maximum number of idle instances in each keyed pool of created pools */
+    private final int _maxSleeping;
+}
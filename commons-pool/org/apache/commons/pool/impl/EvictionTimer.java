@@ -19,21 +19,32 @@ package org.apache.commons.pool.impl;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
- * Provides a shared idle object eviction timer for all pools. This class wraps
- * the standard {@link Timer} and keeps track of how many pools are using it.
- * If no pools are using the timer, it is canceled. This prevents a thread
+ * Provides a shared idle object eviction scheduler for all pools. This class wraps
+ * a {@link ScheduledThreadPoolExecutor} and keeps track of how many pools are using it.
+ * If no pools are using the scheduler, it is shut down. This prevents a thread
  * being left running which, in application server environments, can lead to
  * memory leads and/or prevent applications from shutting down or reloading
  * cleanly.
  * ṩһжعĿжռʱ
  * װһ׼Timerжٶʹ
- * 
- * 
+ * </p>
+ * <p>
+ * Each pool's evictor is scheduled with a fixed delay, so a slow eviction run only
+ * postpones the next run of that pool. The number of scheduler threads defaults to
+ * one and can be raised with the <code>{@value #THREAD_COUNT_PROPERTY}</code> system
+ * property, so that evictors of many pools can run in parallel and one pool blocked in
+ * {@link org.apache.commons.pool.PoolableObjectFactory#validateObject validateObject}
+ * does not hold up the others. A pool configured with its own
+ * {@link ScheduledExecutorService} bypasses the shared scheduler altogether.
  * </p>
  * <p>
  * This class has package scope to prevent its inclusion in the pool public API.
@@ -41,10 +52,13 @@ import java.util.TimerTask;
  * </p>
  */
 class EvictionTimer {
-    
-    /** Timer instance */
-    private static Timer _timer; //@GuardedBy("this")
-    
+
+    /** System property holding the number of shared evictor threads */
+    static final String THREAD_COUNT_PROPERTY = "org.apache.commons.pool.evictor.threads";
+
+    /** Executor instance */
+    private static ScheduledThreadPoolExecutor _executor; //@GuardedBy("this")
+
     /** Static usage count tracker */
     private static int _usageCount; //@GuardedBy("this")
 
@@ -54,80 +68,86 @@ class EvictionTimer {
     }
 
     /**
-     * Add the specified eviction task to the timer. Tasks that are added with a
-     * call to this method *must* call {@link #cancel(TimerTask)} to cancel the
-     * task to prevent memory and/or thread leaks in application server
+     * Add the specified eviction task to the given executor, or to the shared
+     * scheduler when <code>executor</code> is <code>null</code>. Tasks that are
+     * added with a call to this method *must* be canceled with a call to
+     * {@link #cancel(ScheduledFuture, ScheduledExecutorService)} passing the same
+     * executor to prevent memory and/or thread leaks in application server
      * environments.
      * @param task      Task to be scheduled
      * @param delay     Delay in milliseconds before task is executed
-     * @param period    Time in milliseconds between executions
+     * @param period    Time in milliseconds between the end of one execution and the start of the next
+     * @param executor  Executor to run the task on, or <code>null</code> for the shared scheduler
+     * @return the scheduled task
      */
-    static synchronized void schedule(TimerTask task, long delay, long period) {
-        if (null == _timer) {
-            // Force the new Timer thread to be created with a context class
-            // loader set to the class loader that loaded this library
-            ClassLoader ccl = AccessController.doPrivileged(
-                    new PrivilegedGetTccl());
-            try {
-                AccessController.doPrivileged(new PrivilegedSetTccl(
-                        EvictionTimer.class.getClassLoader()));
-                _timer = new Timer(true);
-            } finally {
-                AccessController.doPrivileged(new PrivilegedSetTccl(ccl));
+    static ScheduledFuture<?> schedule(Runnable task, long delay, long period,
+            ScheduledExecutorService executor) {
+        if (null != executor) {
+            return executor.scheduleWithFixedDelay(task, delay, period, TimeUnit.MILLISECONDS);
+        }
+        synchronized (EvictionTimer.class) {
+            if (null == _executor) {
+                _executor = new ScheduledThreadPoolExecutor(getThreadCount(), new EvictorThreadFactory());
+                _executor.setRemoveOnCancelPolicy(true);
             }
+            _usageCount++;
+            return _executor.scheduleWithFixedDelay(task, delay, period, TimeUnit.MILLISECONDS);
         }
-        _usageCount++;
-        _timer.schedule(task, delay, period);
     }
 
     /**
-     * Remove the specified eviction task from the timer.
-     * @param task      Task to be scheduled
+     * Remove the specified eviction task from the executor it was scheduled on.
+     * A run that is already in progress is allowed to complete.
+     * @param task      Task to be canceled
+     * @param executor  Executor passed to {@link #schedule(Runnable, long, long, ScheduledExecutorService)}
      */
-    static synchronized void cancel(TimerTask task) {
-        task.cancel();
-        _usageCount--;
-        if (_usageCount == 0) {
-            _timer.cancel();
-            _timer = null;
+    static void cancel(ScheduledFuture<?> task, ScheduledExecutorService executor) {
+        task.cancel(false);
+        if (null != executor) {
+            return;
+        }
+        synchronized (EvictionTimer.class) {
+            _usageCount--;
+            if (_usageCount == 0) {
+                _executor.shutdown();
+                _executor = null;
+            }
         }
     }
-    
-    /** 
-     * {@link PrivilegedAction} used to get the ContextClassLoader
-     */
-    private static class PrivilegedGetTccl implements PrivilegedAction<ClassLoader> {
 
-        /** 
-         * {@inheritDoc}
-         */
-        public ClassLoader run() {
-            return Thread.currentThread().getContextClassLoader();
+    /**
+     * Returns the number of shared evictor threads to start.
+     * @return the value of the {@value #THREAD_COUNT_PROPERTY} system property, at least one
+     */
+    private static int getThreadCount() {
+        try {
+            return Math.max(1, Integer.getInteger(THREAD_COUNT_PROPERTY, 1).intValue());
+        } catch (SecurityException e) {
+            return 1;
         }
     }
 
-    /** 
-     * {@link PrivilegedAction} used to set the ContextClassLoader
+    /**
+     * Creates daemon evictor threads whose context class loader is the class loader
+     * that loaded this library.
      */
-    private static class PrivilegedSetTccl implements PrivilegedAction<ClassLoader> {
-
-        /** ClassLoader */
-        private final ClassLoader cl;
+    private static class EvictorThreadFactory implements ThreadFactory {
 
-        /**
-         * Create a new PrivilegedSetTccl using the given classloader
-         * @param cl ClassLoader to use
-         */
-        PrivilegedSetTccl(ClassLoader cl) {
-            this.cl = cl;
-        }
+        /** Sequence number of the next thread */
+        private final AtomicInteger _threadNumber = new AtomicInteger(1);
 
         /** 
          * {@inheritDoc}
          */
-        public ClassLoader run() {
-            Thread.currentThread().setContextClassLoader(cl);
-            return null;
+        public Thread newThread(final Runnable r) {
+            return AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+                public Thread run() {
+                    Thread thread = new Thread(r, "commons-pool-evictor-" + _threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    thread.setContextClassLoader(EvictionTimer.class.getClassLoader());
+                    return thread;
+                }
+            });
         }
     }
 
@@ -18,6 +18,7 @@
 package org.apache.commons.pool.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -26,8 +27,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import org.apache.commons.pool.BaseKeyedObjectPool;
 import org.apache.commons.pool.KeyedObjectPool;
@@ -294,6 +296,15 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     public static final boolean DEFAULT_TEST_ON_BORROW = false;
 
+    /**
+     * The default "test on borrow idle time" value: every borrowed instance
+     * is validated when "test on borrow" is set.
+     * @see #getTestOnBorrowIdleTimeMillis
+     * @see #setTestOnBorrowIdleTimeMillis
+     * @since 1.6
+     */
+    public static final long DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS = 0L;
+
     /**
      * The default "test on return" value.
      * @see #getTestOnReturn
@@ -352,6 +363,22 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     public static final boolean DEFAULT_LIFO = true;
 
+    /**
+     * The default "thread affinity" value.
+     * @see #getThreadAffinity
+     * @see #setThreadAffinity
+     * @since 1.6
+     */
+    public static final boolean DEFAULT_THREAD_AFFINITY = false;
+
+    /**
+     * The default "metrics enabled" value.
+     * @see #isMetricsEnabled
+     * @see #setMetricsEnabled
+     * @since 1.6
+     */
+    public static final boolean DEFAULT_METRICS_ENABLED = false;
+
     //--- constructors -----------------------------------------------
 
     /**
@@ -387,6 +414,9 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         this(factory, config.maxActive, config.whenExhaustedAction, config.maxWait, config.maxIdle, config.maxTotal,
                 config.minIdle, config.testOnBorrow, config.testOnReturn, config.timeBetweenEvictionRunsMillis,
                 config.numTestsPerEvictionRun, config.minEvictableIdleTimeMillis, config.testWhileIdle, config.lifo);
+        _threadAffinity = config.threadAffinity;
+        _testOnBorrowIdleTimeMillis = config.testOnBorrowIdleTimeMillis;
+        setMetricsEnabled(config.metricsEnabled);
     }
 
     /**
@@ -608,6 +638,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
             long maxWait, int maxIdle, int maxTotal, int minIdle, boolean testOnBorrow, boolean testOnReturn,
             long timeBetweenEvictionRunsMillis, int numTestsPerEvictionRun, long minEvictableIdleTimeMillis,
             boolean testWhileIdle, boolean lifo) {
+        _userFactory = factory;
         _factory = factory;
         _maxActive = maxActive;
         _lifo = lifo;
@@ -866,6 +897,40 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         _testOnBorrow = testOnBorrow;
     }
 
+    /**
+     * Returns the time an idle instance must have gone without being known to
+     * be valid before {@link #getTestOnBorrow test on borrow} validates it.
+     *
+     * @return the test on borrow idle time in milliseconds
+     * @see #setTestOnBorrowIdleTimeMillis
+     * @since 1.6
+     */
+    public long getTestOnBorrowIdleTimeMillis() {
+        return _testOnBorrowIdleTimeMillis;
+    }
+
+    /**
+     * <p>Sets the time an idle instance must have gone without being known to
+     * be valid before {@link #getTestOnBorrow test on borrow} validates it.
+     * An instance is known to be valid when it is returned to the pool and
+     * whenever the idle object evictor validates it (see
+     * {@link #setTestWhileIdle}).</p>
+     *
+     * <p>When a borrower or the evictor finds an idle instance invalid, the
+     * other idle instances under the same key become suspect and are validated
+     * on their next borrow regardless of this setting.  Newly created instances
+     * are always validated.  The default, <code>0</code>, validates every
+     * borrowed instance.</p>
+     *
+     * @param testOnBorrowIdleTimeMillis the test on borrow idle time in milliseconds
+     * @see #getTestOnBorrowIdleTimeMillis
+     * @see GenericObjectPool#setTestOnBorrowIdleTimeMillis
+     * @since 1.6
+     */
+    public void setTestOnBorrowIdleTimeMillis(long testOnBorrowIdleTimeMillis) {
+        _testOnBorrowIdleTimeMillis = testOnBorrowIdleTimeMillis;
+    }
+
     /**
      * When <code>true</code>, objects will be
      * {@link org.apache.commons.pool.PoolableObjectFactory#validateObject validated}
@@ -1020,11 +1085,14 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         setMaxWait(conf.maxWait);
         setWhenExhaustedAction(conf.whenExhaustedAction);
         setTestOnBorrow(conf.testOnBorrow);
+        setTestOnBorrowIdleTimeMillis(conf.testOnBorrowIdleTimeMillis);
         setTestOnReturn(conf.testOnReturn);
         setTestWhileIdle(conf.testWhileIdle);
         setNumTestsPerEvictionRun(conf.numTestsPerEvictionRun);
         setMinEvictableIdleTimeMillis(conf.minEvictableIdleTimeMillis);
         setTimeBetweenEvictionRunsMillis(conf.timeBetweenEvictionRunsMillis);
+        setThreadAffinity(conf.threadAffinity);
+        setMetricsEnabled(conf.metricsEnabled);
     }
 
     /**
@@ -1055,6 +1123,136 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
          this._lifo = lifo;
      }
 
+    /**
+     * Whether or not each thread keeps the last instance it returned for itself.
+     *
+     * @return <code>true</code> if thread affinity is enabled
+     * @see #setThreadAffinity
+     * @since 1.6
+     */
+    public boolean getThreadAffinity() {
+        return _threadAffinity;
+    }
+
+    /**
+     * <p>Sets the thread affinity property of the pool.  When enabled, the last
+     * instance a thread returns (under any key) is parked in a cache private to
+     * that thread, and the next {@link #borrowObject(Object)} call on the same
+     * thread for the same key hands it straight back without touching the shared
+     * idle lists or the pool lock.  On a miss the pool behaves as usual.</p>
+     *
+     * <p>Parked instances are reported as idle under their key.  They are moved back
+     * to their key's idle list whenever another borrower would otherwise have to
+     * wait or fail, when they have been parked for a whole eviction period (so the
+     * idle object evictor and <i>minIdle</i> see them), and when the pool is cleared
+     * or closed.  Parked instances are not counted against <i>maxIdle</i>, so up to
+     * one extra idle instance per thread may be retained.</p>
+     *
+     * <p>Disabling thread affinity moves all parked instances back to the idle lists.</p>
+     *
+     * @param threadAffinity the new value for the thread affinity property
+     * @since 1.6
+     */
+    public void setThreadAffinity(boolean threadAffinity) {
+        _threadAffinity = threadAffinity;
+        if (!threadAffinity) {
+            synchronized (this) {
+                reclaimAffinityCache(Long.MAX_VALUE);
+            }
+            allocate();
+        }
+    }
+
+    /**
+     * Returns the usage statistics of this pool: borrow, return, creation and
+     * destruction counts, in total and for each key, exhausted and timed out
+     * borrows, and histograms of borrower wait time and factory latency.  The
+     * returned instance is live and can be exported through JMX with
+     * {@link PoolMetrics#registerMBean}.  Nothing is recorded unless
+     * {@link #setMetricsEnabled metrics are enabled}.
+     *
+     * @return the metrics of this pool
+     * @since 1.6
+     */
+    public KeyedPoolMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Returns whether usage statistics are collected.
+     *
+     * @return <code>true</code> if {@link #getMetrics() metrics} are recorded
+     * @see #setMetricsEnabled
+     * @since 1.6
+     */
+    public boolean isMetricsEnabled() {
+        return _metricsEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the collection of usage statistics.  While
+     * enabled, borrows, returns and exhaustion are counted, borrower wait time
+     * is recorded, and every call to the factory is timed.  Metrics are off by
+     * default so that pools do not pay for the timing unless asked to.</p>
+     *
+     * <p>Disabling metrics stops recording; the values already collected are
+     * kept.</p>
+     *
+     * @param metricsEnabled whether to collect usage statistics
+     * @see #isMetricsEnabled
+     * @see #getMetrics
+     * @since 1.6
+     */
+    public synchronized void setMetricsEnabled(boolean metricsEnabled) {
+        if (_metricsEnabled != metricsEnabled) {
+            _metricsEnabled = metricsEnabled;
+            _factory = metricsEnabled ? _metrics.meter(_userFactory) : _userFactory;
+        }
+    }
+
+    /**
+     * Returns the factory used to create, validate and destroy instances, as
+     * given to the constructor or {@link #setFactory}.
+     *
+     * @return the factory of this pool, possibly <code>null</code>
+     * @since 1.6
+     */
+    public synchronized KeyedPoolableObjectFactory<K, V> getFactory() {
+        return _userFactory;
+    }
+
+    /**
+     * Returns the executor the idle object evictor runs on.
+     *
+     * @return the evictor's executor, or <code>null</code> if the evictor shares
+     * a scheduler with the other pools
+     * @see #setEvictionExecutor
+     * @since 1.6
+     */
+    public synchronized ScheduledExecutorService getEvictionExecutor() {
+        return _evictionExecutor;
+    }
+
+    /**
+     * <p>Sets the executor the idle object evictor runs on.  By default the evictors
+     * of all pools share one scheduler, whose thread count is given by the
+     * <code>org.apache.commons.pool.evictor.threads</code> system property.
+     * A dedicated executor isolates this pool's eviction runs from those of other
+     * pools.  The executor is not shut down by the pool.</p>
+     *
+     * @param evictionExecutor the executor to use, or <code>null</code> for the shared scheduler
+     * @see #getEvictionExecutor
+     * @see #setTimeBetweenEvictionRunsMillis
+     * @since 1.6
+     */
+    public synchronized void setEvictionExecutor(ScheduledExecutorService evictionExecutor) {
+        startEvictor(-1L);
+        _evictionExecutor = evictionExecutor;
+        if (!isClosed()) {
+            startEvictor(_timeBetweenEvictionRunsMillis);
+        }
+    }
+
     //-- ObjectPool methods ------------------------------------------
 
     /**
@@ -1090,7 +1288,17 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
      @Override
     public V borrowObject(K key) throws Exception {
+        if (_threadAffinity) {
+            V obj = borrowFromAffinityCache(key);
+            if (obj != null) {
+                if (_metricsEnabled) {
+                    _metrics.borrowed(key, 0);
+                }
+                return obj;
+            }
+        }
         long starttime = System.currentTimeMillis();
+        final long waitStart = System.nanoTime();
         Latch<K, V> latch = new Latch<K, V>(key);
         byte whenExhaustedAction;
         long maxWait;
@@ -1140,6 +1348,9 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                                 }
                                 _allocationQueue.remove(latch);
                             }
+                            if (_metricsEnabled) {
+                                _metrics.exhausted();
+                            }
                             throw new NoSuchElementException("Pool exhausted");
                         case WHEN_EXHAUSTED_BLOCK:
                             try {
@@ -1203,6 +1414,9 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                                         break;
                                     }
                                 }
+                                if (_metricsEnabled) {
+                                    _metrics.timedOut();
+                                }
                                 throw new NoSuchElementException("Timeout waiting for idle object");
                             } else {
                                 continue; // keep looping
@@ -1214,11 +1428,13 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                 }
             }
 
+            final long waitNanos = System.nanoTime() - waitStart;
             boolean newlyCreated = false;
             if (null == latch.getPair()) {
                 try {
                     V obj = _factory.makeObject(key);
-                    latch.setPair(new ObjectTimestampPair<V>(obj));
+                    // new instances are always validated
+                    latch.setPair(new ObjectTimestampPair<V>(obj, System.currentTimeMillis(), 0L));
                     newlyCreated = true;
                 } finally {
                     if (!newlyCreated) {
@@ -1235,13 +1451,17 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
             // activate & validate the object
             try {
                 _factory.activateObject(key, latch.getPair().value);
-                if (_testOnBorrow && !_factory.validateObject(key, latch.getPair().value)) {
+                if (isValidationDue(latch.getPair().validated) &&
+                        !_factory.validateObject(key, latch.getPair().value)) {
                     throw new Exception("ValidateObject failed");
                 }
                 synchronized (this) {
                     latch.getPool().decrementInternalProcessingCount();
                     latch.getPool().incrementActiveCount();
                 }
+                if (_metricsEnabled) {
+                    _metrics.borrowed(key, waitNanos);
+                }
                 return latch.getPair().value;
             } catch (Throwable e) {
                 PoolUtils.checkRethrow(e);
@@ -1255,6 +1475,8 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                 synchronized (this) {
                     latch.getPool().decrementInternalProcessingCount();
                     if (!newlyCreated) {
+                        // the instance went bad while idle, so may have the others
+                        latch.getPool().markSuspect();
                         latch.reset();
                         _allocationQueue.add(0, latch);
                     }
@@ -1272,6 +1494,204 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         }
     }
 
+    /**
+     * <p>Borrows <code>n</code> instances for <code>key</code> at once.  Capacity
+     * for the whole batch is reserved in a single step under the pool lock: idle
+     * instances of the key are taken first and permits to create the remainder
+     * are granted in the same step, so a batch never holds part of the pool while
+     * it waits for the rest.  The instances are then activated and validated (if
+     * <i>testOnBorrow</i> is set), or created, outside the lock; an idle instance
+     * failing activation or validation is destroyed and replaced by a new one.</p>
+     *
+     * <p>When <code>n</code> instances cannot be reserved, the
+     * <i>whenExhaustedAction</i> applies to the batch as a whole.  If only
+     * <i>maxTotal</i> stands in the way, the oldest idle instances of other keys
+     * are {@link #clearOldest cleared} first.  With {@link #WHEN_EXHAUSTED_BLOCK}
+     * the call waits up to <code>maxWait</code> milliseconds (or the pool's
+     * <i>maxWait</i> if <code>maxWait</code> is zero or less) until the whole
+     * batch fits; single borrowers waiting in the allocation queue are served
+     * before a waiting batch.  A batch larger than <i>maxActive</i> or
+     * <i>maxTotal</i> fails immediately.</p>
+     *
+     * <p>If creating, activating or validating an instance fails, the instances
+     * obtained so far are returned to the pool and the exception is rethrown.</p>
+     *
+     * @param key pool key
+     * @param n the number of instances to borrow
+     * @param maxWait the maximum number of milliseconds to wait for the batch
+     * @return a list holding <code>n</code> instances
+     * @throws NoSuchElementException if the batch cannot be reserved
+     * @since 1.6
+     */
+    @Override
+    public List<V> borrowObjects(K key, int n, long maxWait) throws Exception {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot borrow a negative number of objects: " + n);
+        }
+        final long starttime = System.currentTimeMillis();
+        final long waitStart = System.nanoTime();
+        final List<ObjectTimestampPair<V>> idle = new ArrayList<ObjectTimestampPair<V>>(n);
+        ObjectQueue pool = null;
+        for (boolean reserved = false; !reserved;) {
+            boolean clearOldest = false;
+            synchronized (this) {
+                if (maxWait <= 0) {
+                    maxWait = _maxWait;
+                }
+                assertOpen();
+                pool = _poolMap.get(key);
+                if (null == pool) {
+                    pool = new ObjectQueue();
+                    _poolMap.put(key, pool);
+                    _poolList.add(key);
+                }
+                final int toCreate = Math.max(0, n - pool.queue.size());
+                final boolean keyFits = _maxActive < 0 ||
+                        (pool.activeCount + pool.internalProcessingCount + n) <= _maxActive;
+                final boolean totalFits = _maxTotal < 0 ||
+                        (_totalActive + _totalIdle + _totalInternalProcessing + toCreate) <= _maxTotal;
+                if ((keyFits && totalFits) || _whenExhaustedAction == WHEN_EXHAUSTED_GROW) {
+                    while (idle.size() < n && !pool.queue.isEmpty()) {
+                        idle.add(pool.queue.removeFirst());
+                        _totalIdle--;
+                    }
+                    pool.internalProcessingCount += n;
+                    _totalInternalProcessing += n;
+                    reserved = true;
+                } else if (_threadAffinity && reclaimAffinityCache(Long.MAX_VALUE) > 0) {
+                    // Instances parked by other threads count as active; look again
+                    continue;
+                } else if (keyFits && _totalIdle > pool.queue.size()) {
+                    // Only maxTotal is in the way; make room by clearing other keys
+                    clearOldest = true;
+                } else if (_whenExhaustedAction == WHEN_EXHAUSTED_FAIL) {
+                    if (_metricsEnabled) {
+                        _metrics.exhausted();
+                    }
+                    throw new NoSuchElementException("Pool exhausted");
+                } else if ((_maxActive >= 0 && n > _maxActive) || (_maxTotal >= 0 && n > _maxTotal)) {
+                    throw new NoSuchElementException("Cannot borrow " + n + " objects, maxActive is " +
+                            _maxActive + " and maxTotal is " + _maxTotal);
+                } else {
+                    _batchWaiters++;
+                    try {
+                        if (maxWait <= 0) {
+                            wait();
+                        } else {
+                            final long waitTime = maxWait - (System.currentTimeMillis() - starttime);
+                            if (waitTime <= 0) {
+                                if (_metricsEnabled) {
+                                    _metrics.timedOut();
+                                }
+                                throw new NoSuchElementException("Timeout waiting for " + n + " idle objects");
+                            }
+                            wait(waitTime);
+                        }
+                    } finally {
+                        _batchWaiters--;
+                    }
+                }
+            }
+            if (clearOldest) {
+                clearOldest();
+            }
+        }
+
+        final long waitNanos = System.nanoTime() - waitStart;
+        final List<V> objs = new ArrayList<V>(n);
+        try {
+            while (objs.size() < n) {
+                objs.add(activateForBatch(key, objs.size() < idle.size() ? idle.get(objs.size()) : null));
+            }
+        } catch (Exception e) {
+            final List<ObjectTimestampPair<V>> unused = new ArrayList<ObjectTimestampPair<V>>();
+            synchronized (this) {
+                // Idle instances after the failed one were never touched
+                for (int i = idle.size() - 1; i > objs.size(); i--) {
+                    if (isClosed()) {
+                        unused.add(idle.get(i));
+                    } else {
+                        pool.queue.addFirst(idle.get(i));
+                        _totalIdle++;
+                    }
+                }
+                pool.internalProcessingCount -= n;
+                _totalInternalProcessing -= n;
+                pool.activeCount += objs.size();
+                _totalActive += objs.size();
+                if (pool.queue.isEmpty() && pool.activeCount == 0 && pool.internalProcessingCount == 0) {
+                    _poolMap.remove(key);
+                    _metrics.keyRemoved(key);
+                    _poolList.remove(key);
+                }
+            }
+            for (Iterator<ObjectTimestampPair<V>> it = unused.iterator(); it.hasNext();) {
+                try {
+                    _factory.destroyObject(key, it.next().value);
+                } catch (Exception e2) {
+                    // ignored
+                }
+            }
+            allocate();
+            returnObjects(key, objs);
+            throw e;
+        }
+        synchronized (this) {
+            pool.internalProcessingCount -= n;
+            _totalInternalProcessing -= n;
+            pool.activeCount += n;
+            _totalActive += n;
+        }
+        for (int i = 0; i < n; i++) {
+            if (_metricsEnabled) {
+                _metrics.borrowed(key, waitNanos);
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * Activates and validates an instance reserved for a batch borrow, replacing
+     * it with a new instance if it fails.
+     *
+     * @param key pool key
+     * @param pair the reserved idle instance, or <code>null</code> to create one
+     * @return an activated (and if applicable validated) instance
+     * @throws Exception if a new instance cannot be created, activated or validated
+     */
+    private V activateForBatch(K key, ObjectTimestampPair<V> pair) throws Exception {
+        if (pair != null) {
+            try {
+                _factory.activateObject(key, pair.value);
+                if (!isValidationDue(pair.validated) || _factory.validateObject(key, pair.value)) {
+                    return pair.value;
+                }
+            } catch (Exception e) {
+                // replaced below
+            }
+            try {
+                _factory.destroyObject(key, pair.value);
+            } catch (Exception e) {
+                // ignored
+            }
+        }
+        final V obj = _factory.makeObject(key);
+        try {
+            _factory.activateObject(key, obj);
+            if (_testOnBorrow && !_factory.validateObject(key, obj)) {
+                throw new NoSuchElementException("Could not create a validated object");
+            }
+        } catch (Exception e) {
+            try {
+                _factory.destroyObject(key, obj);
+            } catch (Exception e2) {
+                // ignored
+            }
+            throw e;
+        }
+        return obj;
+    }
+
     /**
      * Allocate available instances to latches in the allocation queue.  Then
      * set _mayCreate to true for as many additional latches remaining in queue
@@ -1280,6 +1700,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     private void allocate() {
         boolean clearOldest = false;
+        boolean reclaimed = false;
 
         synchronized (this) {
             if (isClosed()) return;
@@ -1338,8 +1759,27 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                     break;
                 }
             }
+
+            // Borrowers still waiting take precedence over thread affinity
+            if (_threadAffinity && !_allocationQueue.isEmpty()) {
+                // Publish before reclaiming so that a thread parking concurrently
+                // either sees the flag or has its instance reclaimed here
+                _hasWaiters = true;
+                reclaimed = reclaimAffinityCache(Long.MAX_VALUE) > 0;
+            } else {
+                _hasWaiters = !_allocationQueue.isEmpty();
+            }
+
+            // Let batch borrowers check whether their batch fits now
+            if (_batchWaiters > 0) {
+                notifyAll();
+            }
+        }
+
+        if (reclaimed) {
+            allocate();
+            return;
         }
-        
         if (clearOldest) {
             /* Clear oldest calls factory methods so it must be called from
              * outside the sync block.
@@ -1353,6 +1793,104 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         }
     }
     
+    /**
+     * Borrows the instance the calling thread last returned, if it is still
+     * parked in the thread affinity cache under the given key.
+     *
+     * @param key pool key
+     * @return the activated (and if applicable validated) instance, or <code>null</code> on a miss
+     */
+    private V borrowFromAffinityCache(K key) {
+        assertOpen();
+        final ObjectTimestampPair<V> pair = _affinityCache.take(key);
+        if (pair == null) {
+            return null;
+        }
+        // A parked instance is still counted as active, so there is nothing to update
+        try {
+            _factory.activateObject(key, pair.value);
+            if (isValidationDue(pair.validated) && !_factory.validateObject(key, pair.value)) {
+                throw new Exception("ValidateObject failed");
+            }
+            return pair.value;
+        } catch (Throwable e) {
+            PoolUtils.checkRethrow(e);
+            try {
+                _factory.destroyObject(key, pair.value);
+            } catch (Throwable e2) {
+                PoolUtils.checkRethrow(e2);
+                // cannot destroy broken object
+            }
+            synchronized (this) {
+                ObjectQueue pool = _poolMap.get(key);
+                if (pool != null) {
+                    pool.decrementActiveCount();
+                    if (pool.queue.isEmpty() &&
+                            pool.activeCount == 0 &&
+                            pool.internalProcessingCount == 0) {
+                        _poolMap.remove(key);
+                        _metrics.keyRemoved(key);
+                        _poolList.remove(key);
+                    }
+                }
+            }
+            allocate();
+            return null;
+        }
+    }
+
+    /**
+     * Parks a returned instance in the calling thread's affinity cache.
+     *
+     * @param key pool key
+     * @param obj the passivated instance
+     * @return <code>true</code> if the instance was parked (or already handed on)
+     */
+    private boolean parkInAffinityCache(K key, V obj) {
+        if (isClosed()) {
+            return false;
+        }
+        final ThreadAffinityCache.Entry<K, V> entry = _affinityCache.park(key, obj);
+        if (entry == null) {
+            return false;
+        }
+        if (_hasWaiters || !_threadAffinity || isClosed()) {
+            // Hand the instance to the shared idle list instead, unless
+            // allocate() has already reclaimed it
+            return !_affinityCache.unpark(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Moves instances parked in the thread affinity cache back to the idle list
+     * of their key, at its oldest end.  Reclaimed instances stop being counted
+     * as active.
+     *
+     * @param parkedBefore reclaim instances parked at or before this time
+     * @return the number of reclaimed instances
+     */
+    private synchronized int reclaimAffinityCache(long parkedBefore) {
+        List<ThreadAffinityCache.Entry<K, V>> reclaimed = _affinityCache.drain(parkedBefore);
+        for (Iterator<ThreadAffinityCache.Entry<K, V>> it = reclaimed.iterator(); it.hasNext();) {
+            final ThreadAffinityCache.Entry<K, V> entry = it.next();
+            ObjectQueue pool = _poolMap.get(entry.key);
+            if (null == pool) {
+                pool = new ObjectQueue();
+                _poolMap.put(entry.key, pool);
+                _poolList.add(entry.key);
+            }
+            if (_lifo) {
+                pool.queue.addLast(entry.pair);
+            } else {
+                pool.queue.addFirst(entry.pair);
+            }
+            _totalIdle++;
+            pool.decrementActiveCount();
+        }
+        return reclaimed.size();
+    }
+
     /**
      * Clears any objects sitting idle in the pool by removing them from the
      * idle instance pool and then invoking the configured PoolableObjectFactory's
@@ -1372,6 +1910,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     public void clear() {
         Map<K,  List<ObjectTimestampPair<V>>> toDestroy = new HashMap<K,  List<ObjectTimestampPair<V>>>();
         synchronized (this) {
+            reclaimAffinityCache(Long.MAX_VALUE);
             for (Iterator<K> it = _poolMap.keySet().iterator(); it.hasNext();) {
                 K key = it.next();
                 ObjectQueue pool = _poolMap.get(key);
@@ -1404,6 +1943,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         // build sorted map of idle objects
         final Map<ObjectTimestampPair<V>, K> map = new TreeMap<ObjectTimestampPair<V>, K>();
         synchronized (this) {
+            reclaimAffinityCache(Long.MAX_VALUE);
             for (Iterator<K> keyiter = _poolMap.keySet().iterator(); keyiter.hasNext();) {
                 final K key = keyiter.next();
                 final List<ObjectTimestampPair<V>> list = _poolMap.get(key).queue;
@@ -1458,11 +1998,13 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
 
         final ObjectQueue pool;
         synchronized (this) {
+            reclaimAffinityCache(Long.MAX_VALUE);
             pool = _poolMap.remove(key);
             if (pool == null) {
                 return;
             } else {
                 _poolList.remove(key);
+                _metrics.keyRemoved(key);
             }
             // Copy objects to new list so pool.queue can be cleared inside
             // the sync
@@ -1505,6 +2047,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                                     objectQueue.activeCount == 0 &&
                                     objectQueue.queue.isEmpty()) {
                                 _poolMap.remove(key);
+                                _metrics.keyRemoved(key);
                                 _poolList.remove(key);
                             }
                         } else {
@@ -1525,7 +2068,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     @Override
     public synchronized int getNumActive() {
-        return _totalActive;
+        return _totalActive - _affinityCache.size();
     }
 
     /**
@@ -1535,7 +2078,46 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     @Override
     public synchronized int getNumIdle() {
-        return _totalIdle;
+        return _totalIdle + _affinityCache.size();
+    }
+
+    /**
+     * Reads {@link #getNumActive()} without taking the pool's lock, for
+     * {@link KeyedPoolMetrics}.  The value may be momentarily out of step with
+     * {@link #getNumIdleSnapshot()}.
+     *
+     * @return the total number of instances currently borrowed from this pool
+     */
+    int getNumActiveSnapshot() {
+        return _totalActive - _affinityCache.size();
+    }
+
+    /**
+     * Reads {@link #getNumIdle()} without taking the pool's lock, for
+     * {@link KeyedPoolMetrics}.
+     *
+     * @return the total number of instances currently idle in this pool
+     */
+    int getNumIdleSnapshot() {
+        return _totalIdle + _affinityCache.size();
+    }
+
+    /**
+     * Reads the borrowed or idle count of every key under one acquisition of
+     * the pool's lock, for {@link KeyedPoolMetrics}.
+     *
+     * @param active <code>true</code> for the borrowed counts, <code>false</code> for the idle counts
+     * @return the count of each key the pool currently holds instances for
+     */
+    synchronized Map<K, Integer> getNumPerKey(boolean active) {
+        final Map<K, Integer> result = new HashMap<K, Integer>(_poolMap.size());
+        for (Iterator<Map.Entry<K, ObjectQueue>> it = _poolMap.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<K, ObjectQueue> entry = it.next();
+            final ObjectQueue pool = entry.getValue();
+            final int cached = _affinityCache.size(entry.getKey());
+            result.put(entry.getKey(), Integer.valueOf(active ? pool.activeCount - cached : pool.queue.size() + cached));
+        }
+        return result;
     }
 
     /**
@@ -1548,7 +2130,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     @Override
     public synchronized int getNumActive(Object key) {
         final ObjectQueue pool = (_poolMap.get(key));
-        return pool != null ? pool.activeCount : 0;
+        return pool != null ? pool.activeCount - _affinityCache.size(key) : 0;
     }
 
     /**
@@ -1560,7 +2142,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     @Override
     public synchronized int getNumIdle(Object key) {
         final ObjectQueue pool = (_poolMap.get(key));
-        return pool != null ? pool.queue.size() : 0;
+        return pool != null ? pool.queue.size() + _affinityCache.size(key) : 0;
     }
 
     /**
@@ -1583,6 +2165,9 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     @Override
     public void returnObject(K key, V obj) throws Exception {
+        if (_metricsEnabled) {
+            _metrics.returned();
+        }
         try {
             addObjectToPool(key, obj, true);
         } catch (Exception e) {
@@ -1603,6 +2188,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                                 pool.activeCount == 0 &&
                                 pool.internalProcessingCount == 0) {
                             _poolMap.remove(key);
+                            _metrics.keyRemoved(key);
                             _poolList.remove(key);
                         }
                     }
@@ -1612,6 +2198,86 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         }
     }
 
+    /**
+     * <p>Returns several instances of <code>key</code> with a single acquisition of
+     * the pool lock.  Each instance is validated (if <i>testOnReturn</i> is set) and
+     * passivated as by {@link #returnObject}; instances failing either step, or not
+     * fitting under <i>maxIdle</i>, are destroyed.  Instances returned in a batch
+     * are not kept in the thread affinity cache.</p>
+     *
+     * @param key pool key
+     * @param objs instances to return to the pool
+     * @since 1.6
+     */
+    @Override
+    public void returnObjects(K key, Collection<? extends V> objs) throws Exception {
+        final List<V> passivated = new ArrayList<V>(objs.size());
+        final List<V> toDestroy = new ArrayList<V>();
+        for (Iterator<? extends V> it = objs.iterator(); it.hasNext();) {
+            final V obj = it.next();
+            if (_metricsEnabled) {
+                _metrics.returned();
+            }
+            try {
+                if (!_testOnReturn || _factory.validateObject(key, obj)) {
+                    _factory.passivateObject(key, obj);
+                    passivated.add(obj);
+                    continue;
+                }
+            } catch (Exception e) {
+                // destroyed below
+            }
+            toDestroy.add(obj);
+        }
+        final ObjectQueue pool;
+        synchronized (this) {
+            ObjectQueue queue = _poolMap.get(key);
+            if (null == queue) {
+                queue = new ObjectQueue();
+                _poolMap.put(key, queue);
+                _poolList.add(key);
+            }
+            pool = queue;
+            for (Iterator<V> it = passivated.iterator(); it.hasNext();) {
+                final V obj = it.next();
+                if (isClosed() || (_maxIdle >= 0 && (pool.queue.size() >= _maxIdle))) {
+                    toDestroy.add(obj);
+                } else {
+                    if (_lifo) {
+                        pool.queue.addFirst(new ObjectTimestampPair<V>(obj));
+                    } else {
+                        pool.queue.addLast(new ObjectTimestampPair<V>(obj));
+                    }
+                    _totalIdle++;
+                    pool.decrementActiveCount();
+                }
+            }
+        }
+        allocate();
+
+        // Decrement active count *after* destroy, as returnObject does
+        if (!toDestroy.isEmpty()) {
+            for (Iterator<V> it = toDestroy.iterator(); it.hasNext();) {
+                try {
+                    _factory.destroyObject(key, it.next());
+                } catch (Exception e) {
+                    // ignored
+                }
+            }
+            synchronized (this) {
+                for (int i = 0; i < toDestroy.size(); i++) {
+                    pool.decrementActiveCount();
+                }
+                if (pool.queue.isEmpty() && pool.activeCount == 0 && pool.internalProcessingCount == 0) {
+                    _poolMap.remove(key);
+                    _metrics.keyRemoved(key);
+                    _poolList.remove(key);
+                }
+            }
+            allocate();
+        }
+    }
+
     /**
      * <p>Adds an object to the keyed pool.</p>
      * 
@@ -1637,6 +2303,11 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
             _factory.passivateObject(key, obj);
         }
 
+        // Keep the instance for this thread if thread affinity is enabled
+        if (success && decrementNumActive && _threadAffinity && parkInAffinityCache(key, obj)) {
+            return;
+        }
+
         boolean shouldDestroy = !success;
         ObjectQueue pool;
 
@@ -1694,6 +2365,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                             pool.activeCount == 0 &&
                             pool.internalProcessingCount == 0) {
                         _poolMap.remove(key);
+                        _metrics.keyRemoved(key);
                         _poolList.remove(key);
                     }
                 }
@@ -1803,6 +2475,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     @Override
     public void close() throws Exception {
         super.close();
+        _metrics.unregisterMBean();
         synchronized (this) {
             clear();
             if (null != _evictionCursor) {
@@ -1823,6 +2496,8 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                     l.notify();
                 }
             }
+            // wake batch borrowers so that they fail
+            notifyAll();
         }
     }
 
@@ -1844,6 +2519,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         final KeyedPoolableObjectFactory<K, V> oldFactory = _factory;
         synchronized (this) {
             assertOpen();
+            reclaimAffinityCache(Long.MAX_VALUE);
             if (0 < getNumActive()) {
                 throw new IllegalStateException("Objects are already active");
             } else {
@@ -1864,7 +2540,8 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                         pool.queue.clear();
                     }
                 }
-                _factory = factory;
+                _userFactory = factory;
+                _factory = _metricsEnabled ? _metrics.meter(factory) : factory;
             }
         }
         destroy(toDestroy, oldFactory);
@@ -1882,12 +2559,19 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      * in sequence, cycling through the keys and examining objects in
      * oldest-to-youngest order within the keyed pools.</p>
      *
+     * <p>Each object is taken out of its keyed pool on its own, tested without
+     * holding the pool's lock and put back (if it is kept and <i>maxIdle</i>
+     * leaves room for it) before the next one is taken, so borrowers are
+     * neither held up by slow validation or destruction nor denied the
+     * instances the evictor is not working on.</p>
+     *
      * @throws Exception when there is a problem evicting idle objects.
      */
     public void evict() throws Exception {
         K key = null;
         boolean testWhileIdle;
         long minEvictableIdleTimeMillis;
+        final int m;
 
         synchronized (this) {
             // Get local copy of current config. Can't sync when used later as
@@ -1896,14 +2580,18 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
             testWhileIdle = _testWhileIdle;
             minEvictableIdleTimeMillis = _minEvictableIdleTimeMillis;
 
+            // Let the evictor see instances parked for a whole eviction period
+            reclaimAffinityCache(System.currentTimeMillis() - Math.max(0L, _timeBetweenEvictionRunsMillis));
+
             // Initialize key to last key value
             if (_evictionKeyCursor != null &&
                     _evictionKeyCursor._lastReturned != null) {
                 key = _evictionKeyCursor._lastReturned.value();
             }
+            m = getNumTests();
         }
 
-        for (int i=0, m=getNumTests(); i<m; i++) {
+        for (int i = 0; i < m; i++) {
             final ObjectTimestampPair<V> pair;
             synchronized (this) {
                 // make sure pool map is not empty; otherwise do nothing
@@ -1965,7 +2653,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                 }
 
                 // if LIFO and the _evictionCursor has a previous object,
-                // or FIFO and _evictionCursor has a next object, test it
+                // or FIFO and _evictionCursor has a next object, take it
                 pair = _lifo ?
                         _evictionCursor.previous() :
                         _evictionCursor.next();
@@ -1976,6 +2664,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
             }
 
             boolean removeObject=false;
+            boolean invalid = false;
             if ((minEvictableIdleTimeMillis > 0) &&
                (System.currentTimeMillis() - pair.tstamp >
                minEvictableIdleTimeMillis)) {
@@ -1995,42 +2684,56 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
                     } else {
                         try {
                             _factory.passivateObject(key,pair.value);
+                            pair.validated = System.currentTimeMillis();
                         } catch(Exception e) {
                             removeObject=true;
                         }
                     }
                 }
+                invalid = removeObject;
             }
 
+            if (!removeObject) {
+                synchronized (this) {
+                    ObjectQueue objectQueue = _poolMap.get(key);
+                    if (isClosed() || (_maxIdle >= 0 && objectQueue.queue.size() >= _maxIdle)) {
+                        removeObject = true;
+                    } else {
+                        // Put it back at the oldest end of its queue, which is
+                        // behind the eviction cursor
+                        if (_lifo) {
+                            objectQueue.queue.addLast(pair);
+                        } else {
+                            objectQueue.queue.addFirst(pair);
+                        }
+                        _totalIdle++;
+                        objectQueue.decrementInternalProcessingCount();
+                    }
+                }
+            }
             if (removeObject) {
                 try {
                     _factory.destroyObject(key, pair.value);
                 } catch(Exception e) {
                     // ignored
                 }
-            }
-            synchronized (this) {
-                ObjectQueue objectQueue =
-                    _poolMap.get(key);
-                objectQueue.decrementInternalProcessingCount();
-                if (removeObject) {
+                synchronized (this) {
+                    ObjectQueue objectQueue = _poolMap.get(key);
+                    objectQueue.decrementInternalProcessingCount();
                     if (objectQueue.queue.isEmpty() &&
                             objectQueue.activeCount == 0 &&
                             objectQueue.internalProcessingCount == 0) {
                         _poolMap.remove(key);
+                        _metrics.keyRemoved(key);
                         _poolList.remove(key);
-                    }
-                } else {
-                    _evictionCursor.add(pair);
-                    _totalIdle++;
-                    if (_lifo) {
-                        // Skip over the element we just added back
-                        _evictionCursor.previous();
+                    } else if (invalid) {
+                        // An instance that went bad while idle casts doubt on the rest of its key
+                        objectQueue.markSuspect();
                     }
                 }
             }
+            allocate();
         }
-        allocate();
     }
 
     /**
@@ -2145,15 +2848,23 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     protected synchronized void startEvictor(long delay) {
         if (null != _evictor) {
-            EvictionTimer.cancel(_evictor);
+            EvictionTimer.cancel(_evictor, _evictionExecutor);
             _evictor = null;
         }
         if (delay > 0) {
-            _evictor = new Evictor();
-            EvictionTimer.schedule(_evictor, delay, delay);
+            _evictor = EvictionTimer.schedule(new Evictor(), delay, delay, _evictionExecutor);
         }
     }
 
+    /**
+     * Exposes {@link #isClosed()} to {@link AdaptivePoolSizer}.
+     *
+     * @return <code>true</code> if this pool has been closed
+     */
+    boolean isPoolClosed() {
+        return isClosed();
+    }
+
     /**
      * Returns pool info including {@link #getNumActive()}, {@link #getNumIdle()}
      * and currently defined keys.
@@ -2172,6 +2883,18 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
         return buf.toString();
     }
 
+    /**
+     * Whether or not an instance about to be borrowed must be validated.
+     *
+     * @param validated the time the instance was last known to be valid
+     * @return <code>true</code> if test on borrow is set and the instance has not
+     * been known to be valid for the test on borrow idle time
+     */
+    private boolean isValidationDue(long validated) {
+        return _testOnBorrow &&
+                System.currentTimeMillis() - validated >= _testOnBorrowIdleTimeMillis;
+    }
+
     /** 
      * Returns the number of tests to be performed in an Evictor run,
      * based on the current values of <code>_numTestsPerEvictionRun</code>
@@ -2271,6 +2994,16 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
             }
             internalProcessingCount--;
         }
+
+        /**
+         * Forgets when the idle instances were last known to be valid, so that
+         * test on borrow validates each of them.  Callers must hold the pool lock.
+         */
+        void markSuspect() {
+            for (Iterator<ObjectTimestampPair<V>> it = queue.iterator(); it.hasNext();) {
+                it.next().validated = 0L;
+            }
+        }
     }
 
     /**
@@ -2302,6 +3035,12 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
          */
         @Deprecated
         long tstamp;
+
+        /**
+         * Time the instance was last known to be valid, <code>0</code> if it is suspect
+         * @since 1.6
+         */
+        long validated;
         //CHECKSTYLE: resume VisibilityModifier
 
         /**
@@ -2318,8 +3057,19 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
          * @param time long representation of timestamp
          */
         ObjectTimestampPair(T val, long time) {
+            this(val, time, time);
+        }
+
+        /**
+         * Create a new ObjectTimeStampPair using the given object, timestamp and validation time.
+         * @param val object instance
+         * @param time long representation of timestamp
+         * @param validatedTime time the object was last known to be valid
+         */
+        ObjectTimestampPair(T val, long time, long validatedTime) {
             value = val;
             tstamp = time;
+            validated = validatedTime;
         }
 
         /**
@@ -2379,15 +3129,14 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     }
 
     /**
-     * The idle object evictor {@link TimerTask}.
+     * The idle object evictor task.
      * @see GenericKeyedObjectPool#setTimeBetweenEvictionRunsMillis
      */
-    private class Evictor extends TimerTask {
+    private class Evictor implements Runnable {
         /**
          * Run pool maintenance.  Evict objects qualifying for eviction and then
          * invoke {@link GenericKeyedObjectPool#ensureMinIdle()}.
          */
-        @Override
         public void run() {
             //Evict from the pool
             try {
@@ -2444,6 +3193,10 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
          * @see GenericKeyedObjectPool#setTestOnBorrow
          */
         public boolean testOnBorrow = GenericKeyedObjectPool.DEFAULT_TEST_ON_BORROW;
+        /**
+         * @see GenericKeyedObjectPool#setTestOnBorrowIdleTimeMillis
+         */
+        public long testOnBorrowIdleTimeMillis = GenericKeyedObjectPool.DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS;
         /**
          * @see GenericKeyedObjectPool#setTestOnReturn
          */
@@ -2468,6 +3221,14 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
          * @see GenericKeyedObjectPool#setLifo
          */
         public boolean lifo = GenericKeyedObjectPool.DEFAULT_LIFO;
+        /**
+         * @see GenericKeyedObjectPool#setThreadAffinity
+         */
+        public boolean threadAffinity = GenericKeyedObjectPool.DEFAULT_THREAD_AFFINITY;
+        /**
+         * @see GenericKeyedObjectPool#setMetricsEnabled
+         */
+        public boolean metricsEnabled = GenericKeyedObjectPool.DEFAULT_METRICS_ENABLED;
         //CHECKSTYLE: resume VisibilityModifier
     }
 
@@ -2643,6 +3404,15 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     private volatile boolean _testOnBorrow = DEFAULT_TEST_ON_BORROW;
 
+    /**
+     * The time an idle instance must have gone without being known to be
+     * valid before {@link #_testOnBorrow} validates it.
+     *
+     * @see #setTestOnBorrowIdleTimeMillis
+     * @see #getTestOnBorrowIdleTimeMillis
+     */
+    private volatile long _testOnBorrowIdleTimeMillis = DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS;
+
     /**
      * When <code>true</code>, objects will be
      * {@link org.apache.commons.pool.PoolableObjectFactory#validateObject validated}
@@ -2710,11 +3480,17 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     /** My hash of pools (ObjectQueue). */
     private Map<K, ObjectQueue> _poolMap = null;
 
-    /** The total number of active instances. */
-    private int _totalActive = 0;
+    /**
+     * The total number of active instances.  Only written under the pool's lock;
+     * volatile so that {@link KeyedPoolMetrics} can read it without taking that lock.
+     */
+    private volatile int _totalActive = 0;
 
-    /** The total number of idle instances. */
-    private int _totalIdle = 0;
+    /**
+     * The total number of idle instances.  Only written under the pool's lock;
+     * volatile so that {@link KeyedPoolMetrics} can read it without taking that lock.
+     */
+    private volatile int _totalIdle = 0;
 
     /**
      * The number of objects subject to some form of internal processing
@@ -2723,13 +3499,34 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     private int _totalInternalProcessing = 0;
 
-    /** My {@link KeyedPoolableObjectFactory}. */
+    /** My {@link KeyedPoolableObjectFactory}, as given by the user. */
+    private KeyedPoolableObjectFactory<K, V> _userFactory = null;
+
+    /**
+     * The factory the pool calls: {@link #_userFactory}, wrapped to record its
+     * calls in {@link #_metrics} while metrics are enabled.
+     */
     private KeyedPoolableObjectFactory<K, V> _factory = null;
 
     /**
-     * My idle object eviction {@link TimerTask}, if any.
+     * Whether usage statistics are collected.
+     * @see #setMetricsEnabled
+     * @see #isMetricsEnabled
      */
-    private Evictor _evictor = null;
+    private volatile boolean _metricsEnabled = DEFAULT_METRICS_ENABLED;
+
+    /** Usage statistics */
+    private final KeyedPoolMetrics _metrics = new KeyedPoolMetrics(this);
+
+    /**
+     * My scheduled idle object eviction task, if any.
+     */
+    private ScheduledFuture<?> _evictor = null;
+
+    /**
+     * The executor my evictor runs on, or <code>null</code> for the shared scheduler.
+     */
+    private ScheduledExecutorService _evictionExecutor = null;
 
     /**
      * A cursorable list of my pools.
@@ -2746,6 +3543,18 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
     /** Whether or not the pools behave as LIFO queues (last in first out) */
     private boolean _lifo = DEFAULT_LIFO;
 
+    /** Whether or not threads keep the last instance they returned */
+    private volatile boolean _threadAffinity = DEFAULT_THREAD_AFFINITY;
+
+    /** Instances parked by threads when thread affinity is enabled */
+    private final ThreadAffinityCache<K, V> _affinityCache = new ThreadAffinityCache<K, V>();
+
+    /**
+     * Whether borrowers were left waiting by the last {@link #allocate()},
+     * readable without the pool lock so that returning threads stop parking instances.
+     */
+    private volatile boolean _hasWaiters = false;
+
     /**
      * Used to track the order in which threads call {@link #borrowObject()} so
      * that objects can be allocated in the order in which the threads requested
@@ -2753,4 +3562,7 @@ public class GenericKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> impl
      */
     private LinkedList<Latch<K, V>> _allocationQueue = new LinkedList<Latch<K, V>>();
 
+    /** The number of {@link #borrowObjects batch borrowers} waiting on the pool monitor */
+    private int _batchWaiters = 0; //@GuardedBy("this")
+
 }
@@ -56,6 +56,9 @@ public class GenericKeyedObjectPoolFactory<K, V> implements KeyedObjectPoolFacto
      */
     public GenericKeyedObjectPoolFactory(KeyedPoolableObjectFactory<K, V> factory, GenericKeyedObjectPool.Config config) throws NullPointerException {
         this(factory,config.maxActive,config.whenExhaustedAction,config.maxWait,config.maxIdle,config.maxTotal,config.minIdle,config.testOnBorrow,config.testOnReturn,config.timeBetweenEvictionRunsMillis,config.numTestsPerEvictionRun,config.minEvictableIdleTimeMillis,config.testWhileIdle,config.lifo);
+        _threadAffinity = config.threadAffinity;
+        _metricsEnabled = config.metricsEnabled;
+        _testOnBorrowIdleTimeMillis = config.testOnBorrowIdleTimeMillis;
     }
 
     /**
@@ -249,7 +252,11 @@ public class GenericKeyedObjectPoolFactory<K, V> implements KeyedObjectPoolFacto
      * current property settings
      */
     public KeyedObjectPool<K, V> createPool() {
-        return new GenericKeyedObjectPool<K, V>(_factory,_maxActive,_whenExhaustedAction,_maxWait,_maxIdle,_maxTotal,_minIdle,_testOnBorrow,_testOnReturn,_timeBetweenEvictionRunsMillis,_numTestsPerEvictionRun,_minEvictableIdleTimeMillis,_testWhileIdle,_lifo);
+        GenericKeyedObjectPool<K, V> pool = new GenericKeyedObjectPool<K, V>(_factory,_maxActive,_whenExhaustedAction,_maxWait,_maxIdle,_maxTotal,_minIdle,_testOnBorrow,_testOnReturn,_timeBetweenEvictionRunsMillis,_numTestsPerEvictionRun,_minEvictableIdleTimeMillis,_testWhileIdle,_lifo);
+        pool.setThreadAffinity(_threadAffinity);
+        pool.setMetricsEnabled(_metricsEnabled);
+        pool.setTestOnBorrowIdleTimeMillis(_testOnBorrowIdleTimeMillis);
+        return pool;
     }
     
     /**
@@ -367,6 +374,31 @@ public class GenericKeyedObjectPoolFactory<K, V> implements KeyedObjectPoolFacto
         return _lifo;
     }
 
+    /**
+     * @return the {@link GenericKeyedObjectPool#getThreadAffinity() threadAffinity} setting for pools created by
+     * this factory.
+     * @since 1.6
+     */
+    public boolean getThreadAffinity() {
+        return _threadAffinity;
+    }
+
+    /**
+     * @return the {@link GenericKeyedObjectPool#isMetricsEnabled() metricsEnabled} setting for pools created by this factory.
+     * @since 1.6
+     */
+    public boolean isMetricsEnabled() {
+        return _metricsEnabled;
+    }
+
+    /**
+     * @return the {@link GenericKeyedObjectPool#getTestOnBorrowIdleTimeMillis() testOnBorrowIdleTimeMillis} setting for pools created by this factory.
+     * @since 1.6
+     */
+    public long getTestOnBorrowIdleTimeMillis() {
+        return _testOnBorrowIdleTimeMillis;
+    }
+
     //--- protected attributes - deprecated, use getters to access these properties
 
     /**
@@ -470,4 +502,19 @@ public class GenericKeyedObjectPoolFactory<K, V> implements KeyedObjectPoolFacto
     @Deprecated
     protected boolean _lifo = GenericKeyedObjectPool.DEFAULT_LIFO;
 
+    /**
+     * The {@link GenericKeyedObjectPool#getThreadAffinity() threadAffinity} setting for pools created by this factory.
+     */
+    private boolean _threadAffinity = GenericKeyedObjectPool.DEFAULT_THREAD_AFFINITY;
+
+    /**
+     * The {@link GenericKeyedObjectPool#isMetricsEnabled() metricsEnabled} setting for pools created by this factory.
+     */
+    private boolean _metricsEnabled = GenericKeyedObjectPool.DEFAULT_METRICS_ENABLED;
+
+    /**
+     * The {@link GenericKeyedObjectPool#getTestOnBorrowIdleTimeMillis() testOnBorrowIdleTimeMillis} setting for pools created by this factory.
+     */
+    private long _testOnBorrowIdleTimeMillis = GenericKeyedObjectPool.DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS;
+
 }
@@ -23,7 +23,14 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.pool.BaseObjectPool;
 import org.apache.commons.pool.ObjectPool;
@@ -304,6 +311,15 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     public static final boolean DEFAULT_TEST_ON_BORROW = false;
 
+    /**
+     * The default "test on borrow idle time" value: every borrowed instance
+     * is validated when "test on borrow" is set.
+     * @see #getTestOnBorrowIdleTimeMillis
+     * @see #setTestOnBorrowIdleTimeMillis
+     * @since 1.6
+     */
+    public static final long DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS = 0L;
+
     /**
      * The default "test on return" value.
      * @see #getTestOnReturn
@@ -352,6 +368,31 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     public static final long DEFAULT_SOFT_MIN_EVICTABLE_IDLE_TIME_MILLIS = -1;
 
+    /**
+     * The default "thread affinity" value.
+     * @see #getThreadAffinity
+     * @see #setThreadAffinity
+     * @since 1.6
+     */
+    public static final boolean DEFAULT_THREAD_AFFINITY = false;
+
+    /**
+     * The default "metrics enabled" value.
+     * @see #isMetricsEnabled
+     * @see #setMetricsEnabled
+     * @since 1.6
+     */
+    public static final boolean DEFAULT_METRICS_ENABLED = false;
+
+    /**
+     * The default idle count below which objects are created in the background
+     * (disabled).
+     * @see #getReplenishWatermark
+     * @see #setReplenishWatermark
+     * @since 1.6
+     */
+    public static final int DEFAULT_REPLENISH_WATERMARK = 0;
+
     //--- constructors -----------------------------------------------
 
     /**
@@ -383,6 +424,10 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                 config.testOnBorrow, config.testOnReturn, config.timeBetweenEvictionRunsMillis, 
                 config.numTestsPerEvictionRun, config.minEvictableIdleTimeMillis, config.testWhileIdle, 
                 config.softMinEvictableIdleTimeMillis, config.lifo);
+        _threadAffinity = config.threadAffinity;
+        _replenishWatermark = config.replenishWatermark;
+        _testOnBorrowIdleTimeMillis = config.testOnBorrowIdleTimeMillis;
+        setMetricsEnabled(config.metricsEnabled);
     }
 
     /**
@@ -589,6 +634,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
             int maxIdle, int minIdle, boolean testOnBorrow, boolean testOnReturn, long timeBetweenEvictionRunsMillis,
             int numTestsPerEvictionRun, long minEvictableIdleTimeMillis, boolean testWhileIdle,
             long softMinEvictableIdleTimeMillis, boolean lifo) {
+        _userFactory = factory;
         _factory = factory;
         _maxActive = maxActive;
         _lifo = lifo;
@@ -612,7 +658,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
         _softMinEvictableIdleTimeMillis = softMinEvictableIdleTimeMillis;
         _testWhileIdle = testWhileIdle;
 
-        _pool = new CursorableLinkedList<ObjectTimestampPair<T>>();
+        _pool = new IdleObjectRing<T>();
         startEvictor(_timeBetweenEvictionRunsMillis);
     }
 
@@ -819,6 +865,41 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
         _testOnBorrow = testOnBorrow;
     }
 
+    /**
+     * Returns the time an idle instance must have gone without being known to
+     * be valid before {@link #getTestOnBorrow test on borrow} validates it.
+     *
+     * @return the test on borrow idle time in milliseconds
+     * @see #setTestOnBorrowIdleTimeMillis
+     * @since 1.6
+     */
+    public long getTestOnBorrowIdleTimeMillis() {
+        return _testOnBorrowIdleTimeMillis;
+    }
+
+    /**
+     * <p>Sets the time an idle instance must have gone without being known to
+     * be valid before {@link #getTestOnBorrow test on borrow} validates it.
+     * An instance is known to be valid when it is returned to the pool and
+     * whenever the idle object evictor validates it (see
+     * {@link #setTestWhileIdle}), so with a positive value borrowers skip
+     * validation of recently returned or recently tested instances and the
+     * evictor does the checking in the background.</p>
+     *
+     * <p>When a borrower or the evictor finds an idle instance invalid, the
+     * other idle instances become suspect and are validated on their next
+     * borrow regardless of this setting.  Newly created instances are always
+     * validated.  The default, <code>0</code>, validates every borrowed
+     * instance.</p>
+     *
+     * @param testOnBorrowIdleTimeMillis the test on borrow idle time in milliseconds
+     * @see #getTestOnBorrowIdleTimeMillis
+     * @since 1.6
+     */
+    public void setTestOnBorrowIdleTimeMillis(long testOnBorrowIdleTimeMillis) {
+        _testOnBorrowIdleTimeMillis = testOnBorrowIdleTimeMillis;
+    }
+
     /**
      * When <tt>true</tt>, objects will be
      * {@link PoolableObjectFactory#validateObject validated}
@@ -1017,6 +1098,199 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
          this._lifo = lifo;
      }
 
+    /**
+     * Whether or not each thread keeps the last instance it returned for itself.
+     *
+     * @return <code>true</code> if thread affinity is enabled
+     * @see #setThreadAffinity
+     * @since 1.6
+     */
+    public boolean getThreadAffinity() {
+        return _threadAffinity;
+    }
+
+    /**
+     * <p>Sets the thread affinity property of the pool.  When enabled, the last
+     * instance a thread returns is parked in a cache private to that thread, and
+     * the next {@link #borrowObject} call on the same thread hands it straight
+     * back without touching the shared idle list or the pool lock.  On a miss the
+     * pool behaves as usual.</p>
+     *
+     * <p>Parked instances are reported as idle.  They are moved back to the shared
+     * idle list whenever another borrower would otherwise have to wait or fail,
+     * when they have been parked for a whole eviction period (so the idle object
+     * evictor and <i>minIdle</i> see them), and when the pool is cleared or closed.
+     * Parked instances are not counted against <i>maxIdle</i>, so up to one
+     * extra idle instance per thread may be retained.</p>
+     *
+     * <p>Disabling thread affinity moves all parked instances back to the shared
+     * idle list.</p>
+     *
+     * @param threadAffinity the new value for the thread affinity property
+     * @since 1.6
+     */
+    public void setThreadAffinity(boolean threadAffinity) {
+        _threadAffinity = threadAffinity;
+        if (!threadAffinity) {
+            synchronized (this) {
+                reclaimAffinityCache(Long.MAX_VALUE);
+            }
+            allocate();
+        }
+    }
+
+    /**
+     * Returns the executor the idle object evictor runs on.
+     *
+     * @return the evictor's executor, or <code>null</code> if the evictor shares
+     * a scheduler with the other pools
+     * @see #setEvictionExecutor
+     * @since 1.6
+     */
+    public synchronized ScheduledExecutorService getEvictionExecutor() {
+        return _evictionExecutor;
+    }
+
+    /**
+     * <p>Sets the executor the idle object evictor runs on.  By default the evictors
+     * of all pools share one scheduler, whose thread count is given by the
+     * <code>org.apache.commons.pool.evictor.threads</code> system property.
+     * A dedicated executor isolates this pool's eviction runs from those of other
+     * pools.  The executor is not shut down by the pool.</p>
+     *
+     * @param evictionExecutor the executor to use, or <code>null</code> for the shared scheduler
+     * @see #getEvictionExecutor
+     * @see #setTimeBetweenEvictionRunsMillis
+     * @since 1.6
+     */
+    public synchronized void setEvictionExecutor(ScheduledExecutorService evictionExecutor) {
+        startEvictor(-1L);
+        _evictionExecutor = evictionExecutor;
+        if (!isClosed()) {
+            startEvictor(_timeBetweenEvictionRunsMillis);
+        }
+    }
+
+    /**
+     * Returns the idle count below which new objects are created in the background.
+     *
+     * @return the replenish watermark, non-positive when background creation is disabled
+     * @see #setReplenishWatermark
+     * @since 1.6
+     */
+    public int getReplenishWatermark() {
+        return _replenishWatermark;
+    }
+
+    /**
+     * <p>Sets the idle count below which new objects are created in the background.
+     * Whenever a borrow, invalidation or eviction run leaves fewer than
+     * <i>replenishWatermark</i> idle instances in the pool, a task is submitted to the
+     * {@link #setAsyncExecutor async executor} that creates instances until the watermark
+     * (capped by <i>maxIdle</i> and <i>maxActive</i>) is reached again, so that a burst of
+     * borrowers finds idle instances rather than each calling
+     * {@link PoolableObjectFactory#makeObject makeObject} itself.  At most one such task
+     * per pool is outstanding at a time.</p>
+     *
+     * <p>Setting a positive watermark prefills the pool up to it in the background.
+     * Background creation is disabled when the watermark is non-positive or no
+     * async executor is set.</p>
+     *
+     * @param replenishWatermark the new replenish watermark
+     * @see #getReplenishWatermark
+     * @see #setAsyncExecutor
+     * @since 1.6
+     */
+    public void setReplenishWatermark(int replenishWatermark) {
+        _replenishWatermark = replenishWatermark;
+        replenish();
+    }
+
+    /**
+     * Returns the executor used for background object creation and
+     * {@link #borrowObjectAsync() asynchronous borrowing}.
+     *
+     * @return the async executor, or <code>null</code> if none is set
+     * @see #setAsyncExecutor
+     * @since 1.6
+     */
+    public Executor getAsyncExecutor() {
+        return _asyncExecutor;
+    }
+
+    /**
+     * Sets the executor used for background object creation and
+     * {@link #borrowObjectAsync() asynchronous borrowing}.  The executor should be
+     * bounded; it is not shut down by the pool.
+     *
+     * @param asyncExecutor the executor to use, or <code>null</code> to disable background creation
+     * and asynchronous borrowing
+     * @see #getAsyncExecutor
+     * @see #setReplenishWatermark
+     * @since 1.6
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        _asyncExecutor = asyncExecutor;
+        replenish();
+    }
+
+    /**
+     * Returns the usage statistics of this pool: borrow, return, creation and
+     * destruction counts, exhausted and timed out borrows, and histograms of
+     * borrower wait time and factory latency.  The returned instance is live and
+     * can be exported through JMX with {@link PoolMetrics#registerMBean}.
+     * Nothing is recorded unless {@link #setMetricsEnabled metrics are enabled}.
+     *
+     * @return the metrics of this pool
+     * @since 1.6
+     */
+    public PoolMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Returns whether usage statistics are collected.
+     *
+     * @return <code>true</code> if {@link #getMetrics() metrics} are recorded
+     * @see #setMetricsEnabled
+     * @since 1.6
+     */
+    public boolean isMetricsEnabled() {
+        return _metricsEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the collection of usage statistics.  While
+     * enabled, borrows, returns and exhaustion are counted, borrower wait time
+     * is recorded, and every call to the factory is timed.  Metrics are off by
+     * default so that pools do not pay for the timing unless asked to.</p>
+     *
+     * <p>Disabling metrics stops recording; the values already collected are
+     * kept.</p>
+     *
+     * @param metricsEnabled whether to collect usage statistics
+     * @see #isMetricsEnabled
+     * @see #getMetrics
+     * @since 1.6
+     */
+    public synchronized void setMetricsEnabled(boolean metricsEnabled) {
+        if (_metricsEnabled != metricsEnabled) {
+            _metricsEnabled = metricsEnabled;
+            _factory = metricsEnabled ? _metrics.meter(_userFactory) : _userFactory;
+        }
+    }
+
+    /**
+     * Returns the factory used to create, validate and destroy instances, as
+     * given to the constructor or {@link #setFactory}.
+     *
+     * @return the factory of this pool, possibly <code>null</code>
+     * @since 1.6
+     */
+    public synchronized PoolableObjectFactory<T> getFactory() {
+        return _userFactory;
+    }
+
     /**
      * Sets my configuration.
      *
@@ -1031,6 +1305,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
             setMaxWait(conf.maxWait);
             setWhenExhaustedAction(conf.whenExhaustedAction);
             setTestOnBorrow(conf.testOnBorrow);
+            setTestOnBorrowIdleTimeMillis(conf.testOnBorrowIdleTimeMillis);
             setTestOnReturn(conf.testOnReturn);
             setTestWhileIdle(conf.testWhileIdle);
             setNumTestsPerEvictionRun(conf.numTestsPerEvictionRun);
@@ -1038,8 +1313,12 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
             setTimeBetweenEvictionRunsMillis(conf.timeBetweenEvictionRunsMillis);
             setSoftMinEvictableIdleTimeMillis(conf.softMinEvictableIdleTimeMillis);
             setLifo(conf.lifo);
+            setThreadAffinity(conf.threadAffinity);
+            setMetricsEnabled(conf.metricsEnabled);
+            _replenishWatermark = conf.replenishWatermark;
         }
         allocate();
+        replenish();
     }
 
     //-- ObjectPool methods ------------------------------------------
@@ -1081,8 +1360,18 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     @Override
     public T borrowObject() throws Exception {
+        if (_threadAffinity) {
+            T obj = borrowFromAffinityCache();
+            if (obj != null) {
+                if (_metricsEnabled) {
+                    _metrics.borrowed(0);
+                }
+                return obj;
+            }
+        }
     	//һlatchУԣִһη䶯
-        long starttime = System.currentTimeMillis();	//ʼʱ䣬ɶ
+        long starttime = System.currentTimeMillis();
+        final long waitStart = System.nanoTime();	//ʼʱ䣬ɶ
         Latch<T> latch = new Latch<T>();//ObjectĻλ
         byte whenExhaustedAction;
         long maxWait;
@@ -1111,7 +1400,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
 
             // If no object was allocated from the pool above
             // ǰûз󡣼latchûб䵽еĻlatchpairӦֵ
-            if(latch.getPair() == null) {
+            if(!latch.hasObject()) {
                 // check if we were allowed to create one
             	// ǷҪ¶ҪmayCreate()
                 if(latch.mayCreate()) {
@@ -1128,7 +1417,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                                 // Make sure another thread didn't allocate us an object
                                 // or permit a new object to be created
                             	// ȷ̲߳½һ
-                                if (latch.getPair() == null && !latch.mayCreate()) {
+                                if (!latch.hasObject() && !latch.mayCreate()) {
                                     _allocationQueue.remove(latch);
                                     _numInternalProcessing++;
                                 }
@@ -1138,18 +1427,21 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                             synchronized (this) {
                                 // Make sure allocate hasn't already assigned an object
                                 // in a different thread or permitted a new object to be created
-                                if (latch.getPair() != null || latch.mayCreate()) {
+                                if (latch.hasObject() || latch.mayCreate()) {
                                     break;
                                 }
                                 _allocationQueue.remove(latch);
                             }
+                            if (_metricsEnabled) {
+                                _metrics.exhausted();
+                            }
                             throw new NoSuchElementException("Pool exhausted");
                         case WHEN_EXHAUSTED_BLOCK:
                             try {
                                 synchronized (latch) {
                                     // Before we wait, make sure another thread didn't allocate us an object
                                     // or permit a new object to be created
-                                    if (latch.getPair() == null && !latch.mayCreate()) {
+                                    if (!latch.hasObject() && !latch.mayCreate()) {
                                         if(maxWait <= 0) {
                                             latch.wait();
                                         } else {
@@ -1176,12 +1468,12 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                                 synchronized(this) {
                                     // Need to handle the all three possibilities
                                 	// Ҫֿ
-                                    if (latch.getPair() == null && !latch.mayCreate()) {
+                                    if (!latch.hasObject() && !latch.mayCreate()) {
                                         // Case 1: latch still in allocation queue
                                         // Remove latch from the allocation queue
                                     	// һlatchȻڴУƳ
                                         _allocationQueue.remove(latch);
-                                    } else if (latch.getPair() == null && latch.mayCreate()) {
+                                    } else if (!latch.hasObject() && latch.mayCreate()) {
                                         // Case 2: latch has been given permission to create
                                         //         a new object
                                     	// ڶlatchѾ¶_numInternalProcessingԼ1Ϊöʵûв
@@ -1192,7 +1484,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                                     	// Ѿ䣬򽫸ö󷵻
                                         _numInternalProcessing--;
                                         _numActive++;
-                                        returnObject(latch.getPair().getValue());
+                                        returnObject(latch.getObject());
                                     }
                                 }
                                 if (doAllocate) {
@@ -1205,13 +1497,16 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                                 synchronized(this) {
                                     // Make sure allocate hasn't already assigned an object
                                     // in a different thread or permitted a new object to be created
-                                    if (latch.getPair() == null && !latch.mayCreate()) {
+                                    if (!latch.hasObject() && !latch.mayCreate()) {
                                         // Remove latch from the allocation queue
                                         _allocationQueue.remove(latch);
                                     } else {
                                         break;
                                     }
                                 }
+                                if (_metricsEnabled) {
+                                    _metrics.timedOut();
+                                }
                                 throw new NoSuchElementException("Timeout waiting for idle object");
                             } else {
                                 continue; // keep looping
@@ -1223,11 +1518,13 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                 }
             }
 
+            final long waitNanos = System.nanoTime() - waitStart;
             boolean newlyCreated = false;
-            if(null == latch.getPair()) {
+            if(!latch.hasObject()) {
                 try {
                     T obj = _factory.makeObject();
-                    latch.setPair(new ObjectTimestampPair<T>(obj));
+                    // new instances are always validated
+                    latch.setObject(obj, 0L);
                     newlyCreated = true;
                 } finally {
                     if (!newlyCreated) {
@@ -1242,22 +1539,26 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
             }
             // activate & validate the object
             try {
-                _factory.activateObject(latch.getPair().value);
-                if(_testOnBorrow &&
-                        !_factory.validateObject(latch.getPair().value)) {
+                _factory.activateObject(latch.getObject());
+                if(isValidationDue(latch.getValidated()) &&
+                        !_factory.validateObject(latch.getObject())) {
                     throw new Exception("ValidateObject failed");
                 }
                 synchronized(this) {
                     _numInternalProcessing--;
                     _numActive++;
                 }
-                return latch.getPair().value;
+                if (_metricsEnabled) {
+                    _metrics.borrowed(waitNanos);
+                }
+                replenish();
+                return latch.getObject();
             }
             catch (Throwable e) {
                 PoolUtils.checkRethrow(e);
                 // object cannot be activated or is invalid
                 try {
-                    _factory.destroyObject(latch.getPair().value);
+                    _factory.destroyObject(latch.getObject());
                 } catch (Throwable e2) {
                     PoolUtils.checkRethrow(e2);
                     // cannot destroy broken object
@@ -1267,6 +1568,8 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                     if (!newlyCreated) {
                         latch.reset();
                         _allocationQueue.add(0, latch);
+                        // the instance went bad while idle, so may have the others
+                        _pool.clearValidated();
                     }
                 }
                 allocate();
@@ -1280,6 +1583,204 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
         }
     }
 
+    /**
+     * <p>Borrows <code>n</code> instances at once.  Capacity for the whole batch
+     * is reserved in a single step under the pool lock: idle instances are taken
+     * first and permits to create the remainder are granted in the same step, so
+     * a batch never holds part of the pool while it waits for the rest.  The
+     * instances are then activated and validated (if <i>testOnBorrow</i> is set),
+     * or created, outside the lock; an idle instance failing activation or
+     * validation is destroyed and replaced by a new one.</p>
+     *
+     * <p>When <code>n</code> instances cannot be reserved, the
+     * <i>whenExhaustedAction</i> applies to the batch as a whole.  With
+     * {@link #WHEN_EXHAUSTED_BLOCK} the call waits up to <code>maxWait</code>
+     * milliseconds (or the pool's <i>maxWait</i> if <code>maxWait</code> is zero
+     * or less) until the whole batch fits; single borrowers waiting in the
+     * allocation queue are served before a waiting batch.  A batch larger than
+     * <i>maxActive</i> fails immediately.</p>
+     *
+     * <p>If creating, activating or validating an instance fails, the instances
+     * obtained so far are returned to the pool and the exception is rethrown.</p>
+     *
+     * @param n the number of instances to borrow
+     * @param maxWait the maximum number of milliseconds to wait for the batch
+     * @return a list holding <code>n</code> instances
+     * @throws NoSuchElementException if the batch cannot be reserved
+     * @since 1.6
+     */
+    @Override
+    public List<T> borrowObjects(int n, long maxWait) throws Exception {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot borrow a negative number of objects: " + n);
+        }
+        final long starttime = System.currentTimeMillis();
+        final long waitStart = System.nanoTime();
+        final List<T> idle = new ArrayList<T>(n);
+        final long[] idleStamps = new long[n];
+        final long[] idleValidated = new long[n];
+        synchronized (this) {
+            if (maxWait <= 0) {
+                maxWait = _maxWait;
+            }
+            for (;;) {
+                assertOpen();
+                if (_maxActive < 0 || (_numActive + _numInternalProcessing + n) <= _maxActive ||
+                        _whenExhaustedAction == WHEN_EXHAUSTED_GROW) {
+                    break;
+                }
+                // Instances parked by other threads count as active
+                if (_threadAffinity && reclaimAffinityCache(Long.MAX_VALUE) > 0) {
+                    allocate();
+                    continue;
+                }
+                if (_whenExhaustedAction == WHEN_EXHAUSTED_FAIL) {
+                    if (_metricsEnabled) {
+                        _metrics.exhausted();
+                    }
+                    throw new NoSuchElementException("Pool exhausted");
+                }
+                if (n > _maxActive) {
+                    throw new NoSuchElementException("Cannot borrow " + n + " objects, maxActive is " + _maxActive);
+                }
+                _batchWaiters++;
+                try {
+                    if (maxWait <= 0) {
+                        wait();
+                    } else {
+                        final long waitTime = maxWait - (System.currentTimeMillis() - starttime);
+                        if (waitTime <= 0) {
+                            if (_metricsEnabled) {
+                                _metrics.timedOut();
+                            }
+                            throw new NoSuchElementException("Timeout waiting for " + n + " idle objects");
+                        }
+                        wait(waitTime);
+                    }
+                } finally {
+                    _batchWaiters--;
+                }
+            }
+            while (idle.size() < n && !_pool.isEmpty()) {
+                idleStamps[idle.size()] = _pool.timestamp(0);
+                idleValidated[idle.size()] = _pool.validated(0);
+                idle.add(_pool.removeFirst());
+            }
+            _numInternalProcessing += n;
+        }
+
+        final long waitNanos = System.nanoTime() - waitStart;
+        final List<T> objs = new ArrayList<T>(n);
+        try {
+            while (objs.size() < n) {
+                final int i = objs.size();
+                objs.add(i < idle.size() ? activateForBatch(idle.get(i), idleValidated[i]) : activateForBatch(null, 0L));
+            }
+        } catch (Exception e) {
+            final List<T> unused = new ArrayList<T>();
+            synchronized (this) {
+                // Idle instances after the failed one were never touched
+                for (int i = idle.size() - 1; i > objs.size(); i--) {
+                    if (isClosed()) {
+                        unused.add(idle.get(i));
+                    } else {
+                        _pool.addFirst(idle.get(i), idleStamps[i], idleValidated[i]);
+                    }
+                }
+                // destroy() accounts for the unused instances it destroys
+                _numInternalProcessing -= n - unused.size();
+                _numActive += objs.size();
+            }
+            destroy(unused, _factory);
+            allocate();
+            returnObjects(objs);
+            throw e;
+        }
+        synchronized (this) {
+            _numInternalProcessing -= n;
+            _numActive += n;
+        }
+        for (int i = 0; i < n; i++) {
+            if (_metricsEnabled) {
+                _metrics.borrowed(waitNanos);
+            }
+        }
+        replenish();
+        return objs;
+    }
+
+    /**
+     * Activates and validates an instance reserved for a batch borrow, replacing
+     * it with a new instance if it fails.
+     *
+     * @param idleObj the reserved idle instance, or <code>null</code> to create one
+     * @param validated the time <code>idleObj</code> was last known to be valid
+     * @return an activated (and if applicable validated) instance
+     * @throws Exception if a new instance cannot be created, activated or validated
+     */
+    private T activateForBatch(T idleObj, long validated) throws Exception {
+        if (idleObj != null) {
+            try {
+                _factory.activateObject(idleObj);
+                if (!isValidationDue(validated) || _factory.validateObject(idleObj)) {
+                    return idleObj;
+                }
+            } catch (Exception e) {
+                // replaced below
+            }
+            try {
+                _factory.destroyObject(idleObj);
+            } catch (Exception e) {
+                // ignored
+            }
+        }
+        final T obj = _factory.makeObject();
+        try {
+            _factory.activateObject(obj);
+            if (_testOnBorrow && !_factory.validateObject(obj)) {
+                throw new NoSuchElementException("Could not create a validated object");
+            }
+        } catch (Exception e) {
+            try {
+                _factory.destroyObject(obj);
+            } catch (Exception e2) {
+                // ignored
+            }
+            throw e;
+        }
+        return obj;
+    }
+
+    /**
+     * <p>Borrows an object from the pool without blocking the calling thread.</p>
+     *
+     * <p>The borrow is performed by {@link #borrowObject()} on the
+     * {@link #setAsyncExecutor async executor}, so the returned future completes
+     * with an instance, or fails with the exception <code>borrowObject</code> would
+     * have thrown, under the same <i>whenExhaustedAction</i> and <i>maxWait</i> rules.
+     * If the future is cancelled before it completes, any instance borrowed on its
+     * behalf is returned to the pool.</p>
+     *
+     * @return a future for the borrowed instance
+     * @throws IllegalStateException if the pool is closed or no async executor is set
+     * @throws RejectedExecutionException if the async executor rejects the borrow
+     * @since 1.6
+     */
+    public Future<T> borrowObjectAsync() {
+        assertOpen();
+        final Executor executor = _asyncExecutor;
+        if (executor == null) {
+            throw new IllegalStateException("Cannot borrow asynchronously without an executor.");
+        }
+        final AsyncBorrow borrow = new AsyncBorrow(new Callable<T>() {
+            public T call() throws Exception {
+                return borrowObject();
+            }
+        });
+        executor.execute(borrow);
+        return borrow;
+    }
+
     /**
      * Allocate available instances to latches in the allocation queue.  Then
      * set _mayCreate to true for as many additional latches remaining in queue
@@ -1299,7 +1800,8 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
         for (;;) {
             if (!_pool.isEmpty() && !_allocationQueue.isEmpty()) { //пжзǿգҷзǿ
                 Latch<T> latch = _allocationQueue.removeFirst(); //ѵеĵһ
-                latch.setPair( _pool.removeFirst());	//жеĵһ
+                final long validated = _pool.validated(0);
+                latch.setObject(_pool.removeFirst(), validated);	//жеĵһ
                 _numInternalProcessing++;
                 synchronized (latch) {
                     latch.notify(); //֪ͨ󣿣Ϊһ£䲻ˣ̻߳
@@ -1324,6 +1826,101 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                 break;
             }
         }
+
+        // Finally, borrowers still waiting take precedence over thread affinity
+        if (_threadAffinity && !_allocationQueue.isEmpty()) {
+            // Publish before reclaiming so that a thread parking concurrently
+            // either sees the flag or has its instance reclaimed here
+            _hasWaiters = true;
+            if (reclaimAffinityCache(Long.MAX_VALUE) > 0) {
+                allocate();
+                return;
+            }
+        }
+        _hasWaiters = !_allocationQueue.isEmpty();
+
+        // Let batch borrowers check whether their batch fits now
+        if (_batchWaiters > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Borrows the instance the calling thread last returned, if it is still
+     * parked in the thread affinity cache.
+     *
+     * @return the activated (and if applicable validated) instance, or <code>null</code> on a miss
+     */
+    private T borrowFromAffinityCache() {
+        assertOpen();
+        final ObjectTimestampPair<T> pair = _affinityCache.take(null);
+        if (pair == null) {
+            return null;
+        }
+        // A parked instance is still counted as active, so there is nothing to update
+        try {
+            _factory.activateObject(pair.getValue());
+            if (isValidationDue(pair.validated) && !_factory.validateObject(pair.getValue())) {
+                throw new Exception("ValidateObject failed");
+            }
+            return pair.getValue();
+        } catch (Throwable e) {
+            PoolUtils.checkRethrow(e);
+            try {
+                _factory.destroyObject(pair.getValue());
+            } catch (Throwable e2) {
+                PoolUtils.checkRethrow(e2);
+                // cannot destroy broken object
+            }
+            synchronized (this) {
+                _numActive--;
+            }
+            allocate();
+            return null;
+        }
+    }
+
+    /**
+     * Parks a returned instance in the calling thread's affinity cache.
+     *
+     * @param obj the passivated instance
+     * @return <code>true</code> if the instance was parked (or already handed on)
+     */
+    private boolean parkInAffinityCache(T obj) {
+        if (isClosed()) {
+            return false;
+        }
+        final ThreadAffinityCache.Entry<Object, T> entry = _affinityCache.park(null, obj);
+        if (entry == null) {
+            return false;
+        }
+        if (_hasWaiters || !_threadAffinity || isClosed()) {
+            // Hand the instance to the shared idle list instead, unless
+            // allocate() has already reclaimed it
+            return !_affinityCache.unpark(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Moves instances parked in the thread affinity cache back to the idle list,
+     * at its oldest end.  Reclaimed instances stop being counted as active.
+     *
+     * @param parkedBefore reclaim instances parked at or before this time
+     * @return the number of reclaimed instances
+     */
+    private synchronized int reclaimAffinityCache(long parkedBefore) {
+        List<ThreadAffinityCache.Entry<Object, T>> reclaimed = _affinityCache.drain(parkedBefore);
+        for (Iterator<ThreadAffinityCache.Entry<Object, T>> it = reclaimed.iterator(); it.hasNext();) {
+            final ObjectTimestampPair<T> pair = it.next().pair;
+            if (_lifo) {
+                _pool.addLast(pair.getValue(), pair.getTstamp());
+            } else {
+                _pool.addFirst(pair.getValue(), pair.getTstamp());
+            }
+            _numActive--;
+        }
+        return reclaimed.size();
     }
 
     /**
@@ -1345,6 +1942,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                 _numActive--;
             }
             allocate();
+            replenish();
         }
     }
 
@@ -1366,32 +1964,31 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     @Override
     public void clear() {
-        List<ObjectTimestampPair<T>> toDestroy = new ArrayList<ObjectTimestampPair<T>>();
+        List<T> toDestroy = new ArrayList<T>();
 
         synchronized(this) {
+            reclaimAffinityCache(Long.MAX_VALUE);
         	//ƳlistӦûͦ죬Ϊ漰ڴ
-            toDestroy.addAll(_pool);
-            _numInternalProcessing = _numInternalProcessing + _pool._size;
-            _pool.clear();
+            _numInternalProcessing = _numInternalProcessing + _pool.size();
+            _pool.drainTo(toDestroy);
         }
         destroy(toDestroy, _factory);
     }
 
     /**
      * Private method to destroy all the objects in a collection using the 
-     * supplied object factory.  Assumes that objects in the collection are
-     * instances of ObjectTimestampPair and that the object instances that
-     * they wrap were created by the factory.
+     * supplied object factory.  Assumes that the objects in the collection
+     * were created by the factory.
      * 
      * жṩĶ󹤳̡
-     * ٶЩObjectTimestampPair󣬲Ǳ
+     * ٶЩǱ
      * @param c Collection of objects to destroy
      * @param factory PoolableConnectionFactory used to destroy the objects
      */
-    private void destroy(Collection<ObjectTimestampPair<T>> c, PoolableObjectFactory<T> factory) {
-        for (Iterator<ObjectTimestampPair<T>> it = c.iterator(); it.hasNext();) {
+    private void destroy(Collection<T> c, PoolableObjectFactory<T> factory) {
+        for (Iterator<T> it = c.iterator(); it.hasNext();) {
             try {
-                factory.destroyObject(it.next().value);
+                factory.destroyObject(it.next());
             } catch(Exception e) {
                 // ignore error, keep destroying the rest
             } finally {
@@ -1410,7 +2007,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     @Override
     public synchronized int getNumActive() {
-        return _numActive;
+        return _numActive - _affinityCache.size();
     }
 
     /**
@@ -1420,7 +2017,28 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     @Override
     public synchronized int getNumIdle() {
-        return _pool.size();
+        return _pool.size() + _affinityCache.size();
+    }
+
+    /**
+     * Reads {@link #getNumActive()} without taking the pool's lock, for
+     * {@link PoolMetrics}.  The value may be momentarily out of step with
+     * {@link #getNumIdleSnapshot()}.
+     *
+     * @return the number of instances currently borrowed from this pool
+     */
+    int getNumActiveSnapshot() {
+        return _numActive - _affinityCache.size();
+    }
+
+    /**
+     * Reads {@link #getNumIdle()} without taking the pool's lock, for
+     * {@link PoolMetrics}.
+     *
+     * @return the number of instances currently idle in this pool
+     */
+    int getNumIdleSnapshot() {
+        return _pool.size() + _affinityCache.size();
     }
 
     /**
@@ -1449,6 +2067,9 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     @Override
     public void returnObject(T obj) throws Exception {
+        if (_metricsEnabled) {
+            _metrics.returned();
+        }
         try {
             addObjectToPool(obj, true);
         } catch (Exception e) {
@@ -1469,6 +2090,69 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
         }
     }
 
+    /**
+     * <p>Returns several instances with a single acquisition of the pool lock.
+     * Each instance is validated (if <i>testOnReturn</i> is set) and passivated
+     * as by {@link #returnObject}; instances failing either step, or not fitting
+     * under <i>maxIdle</i>, are destroyed.  Instances returned in a batch are not
+     * kept in the thread affinity cache.</p>
+     *
+     * @param objs instances to return to the pool
+     * @since 1.6
+     */
+    @Override
+    public void returnObjects(Collection<? extends T> objs) throws Exception {
+        final List<T> passivated = new ArrayList<T>(objs.size());
+        final List<T> toDestroy = new ArrayList<T>();
+        for (Iterator<? extends T> it = objs.iterator(); it.hasNext();) {
+            final T obj = it.next();
+            if (_metricsEnabled) {
+                _metrics.returned();
+            }
+            try {
+                if (!_testOnReturn || _factory.validateObject(obj)) {
+                    _factory.passivateObject(obj);
+                    passivated.add(obj);
+                    continue;
+                }
+            } catch (Exception e) {
+                // destroyed below
+            }
+            toDestroy.add(obj);
+        }
+        synchronized (this) {
+            for (Iterator<T> it = passivated.iterator(); it.hasNext();) {
+                final T obj = it.next();
+                if (isClosed() || ((_maxIdle >= 0) && (_pool.size() >= _maxIdle))) {
+                    toDestroy.add(obj);
+                } else {
+                    if (_lifo) {
+                        _pool.addFirst(obj, System.currentTimeMillis());
+                    } else {
+                        _pool.addLast(obj, System.currentTimeMillis());
+                    }
+                    _numActive--;
+                }
+            }
+        }
+        allocate();
+
+        // Decrement active count *after* destroy, as returnObject does
+        if (!toDestroy.isEmpty()) {
+            for (Iterator<T> it = toDestroy.iterator(); it.hasNext();) {
+                try {
+                    _factory.destroyObject(it.next());
+                } catch (Exception e) {
+                    // ignored
+                }
+            }
+            synchronized (this) {
+                _numActive -= toDestroy.size();
+            }
+            allocate();
+        }
+    }
+
     /**
      * <p>Adds an object to the pool.</p>
      * 
@@ -1490,6 +2174,11 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
             _factory.passivateObject(obj);
         }
 
+        // Keep the instance for this thread if thread affinity is enabled
+        if (success && decrementNumActive && _threadAffinity && parkInAffinityCache(obj)) {
+            return;
+        }
+
         boolean shouldDestroy = !success;
 
         // Add instance to pool if there is room and it has passed validation
@@ -1505,9 +2194,9 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                     // borrowObject always takes the first element from the queue,
                     // so for LIFO, push on top, FIFO add to end
                     if (_lifo) {
-                        _pool.addFirst(new ObjectTimestampPair<T>(obj));
+                        _pool.addFirst(obj, System.currentTimeMillis());
                     } else {
-                        _pool.addLast(new ObjectTimestampPair<T>(obj));
+                        _pool.addLast(obj, System.currentTimeMillis());
                     }
                     if (decrementNumActive) {
                         _numActive--;
@@ -1551,6 +2240,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
     @Override
     public void close() throws Exception {
         super.close();
+        _metrics.unregisterMBean();
         synchronized (this) {
             clear();
             startEvictor(-1L);
@@ -1563,6 +2253,8 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
                     l.notify();
                 }
             }
+            // wake batch borrowers so that they fail
+            notifyAll();
         }
     }
 
@@ -1581,18 +2273,19 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
     @Deprecated
     @Override
     public void setFactory(PoolableObjectFactory<T> factory) throws IllegalStateException {
-        List<ObjectTimestampPair<T>> toDestroy = new ArrayList<ObjectTimestampPair<T>>();
+        List<T> toDestroy = new ArrayList<T>();
         final PoolableObjectFactory<T> oldFactory = _factory;
         synchronized (this) {
             assertOpen();
+            reclaimAffinityCache(Long.MAX_VALUE);
             if(0 < getNumActive()) {
                 throw new IllegalStateException("Objects are already active");
             } else {
-                toDestroy.addAll(_pool);
-                _numInternalProcessing = _numInternalProcessing + _pool._size;
-                _pool.clear();
+                _numInternalProcessing = _numInternalProcessing + _pool.size();
+                _pool.drainTo(toDestroy);
             }
-            _factory = factory;
+            _userFactory = factory;
+            _factory = _metricsEnabled ? _metrics.meter(factory) : factory;
         }
         destroy(toDestroy, oldFactory); 
     }
@@ -1608,89 +2301,140 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      * <p>Successive activations of this method examine objects in
      * in sequence, cycling through objects in oldest-to-youngest order.</p>
      *
+     * <p>Each object is taken out of the idle object pool on its own, tested
+     * without holding the pool's lock and put back (if it is kept and
+     * <i>maxIdle</i> leaves room for it) before the next one is taken, so
+     * borrowers are neither held up by slow validation or destruction nor
+     * denied the instances the evictor is not working on.</p>
+     *
      * @throws Exception if the pool is closed or eviction fails.
      * 
      * 
      * 
      */
+    @SuppressWarnings("unchecked")
     public void evict() throws Exception {
         assertOpen();
+        final int m;
         synchronized (this) {
+            // Let the evictor see instances parked for a whole eviction period
+            reclaimAffinityCache(System.currentTimeMillis() - Math.max(0L, _timeBetweenEvictionRunsMillis));
             if(_pool.isEmpty()) {
                 return;
             }
-            if (null == _evictionCursor) {
-                _evictionCursor = _pool.cursor(_lifo ? _pool.size() : 0);
-            }
+            m = getNumTests();
         }
 
-        for (int i=0,m=getNumTests();i<m;i++) {
-            final ObjectTimestampPair<T> pair;
+        boolean invalidFound = false;
+        for (int i = 0; i < m; i++) {
+            final T obj;
+            final long tstamp;
+            long validated;
+            final int offset;
             synchronized (this) {
-                if ((_lifo && !_evictionCursor.hasPrevious()) ||
-                        !_lifo && !_evictionCursor.hasNext()) {
-                    _evictionCursor.close();
-                    _evictionCursor = _pool.cursor(_lifo ? _pool.size() : 0);
+                if (_pool.isEmpty()) {
+                    break;
                 }
-
-                pair = _lifo ?
-                         _evictionCursor.previous() :
-                         _evictionCursor.next();
-
-                _evictionCursor.remove();
+                if (_evictionOffset >= _pool.size()) {
+                    _evictionOffset = 0;
+                }
+                offset = _evictionOffset;
+                final int index = evictionIndex(offset, _pool.size());
+                tstamp = _pool.timestamp(index);
+                validated = _pool.validated(index);
+                obj = _pool.removeAt(index);
                 _numInternalProcessing++;
             }
 
             boolean removeObject = false;
-            final long idleTimeMilis = System.currentTimeMillis() - pair.tstamp;
+            final long idleTimeMilis = System.currentTimeMillis() - tstamp;
             if ((getMinEvictableIdleTimeMillis() > 0) &&
                     (idleTimeMilis > getMinEvictableIdleTimeMillis())) {
                 removeObject = true;
             } else if ((getSoftMinEvictableIdleTimeMillis() > 0) &&
                     (idleTimeMilis > getSoftMinEvictableIdleTimeMillis()) &&
-                    ((getNumIdle() + 1)> getMinIdle())) { // +1 accounts for object we are processing
+                    ((getNumIdle() + 1) > getMinIdle())) { // +1 accounts for object we are processing
                 removeObject = true;
             }
             if(getTestWhileIdle() && !removeObject) {
                 boolean active = false;
                 try {
-                    _factory.activateObject(pair.value);
+                    _factory.activateObject(obj);
                     active = true;
                 } catch(Exception e) {
                     removeObject=true;
                 }
                 if(active) {
-                    if(!_factory.validateObject(pair.value)) {
+                    if(!_factory.validateObject(obj)) {
                         removeObject=true;
                     } else {
                         try {
-                            _factory.passivateObject(pair.value);
+                            _factory.passivateObject(obj);
+                            validated = System.currentTimeMillis();
                         } catch(Exception e) {
                             removeObject=true;
                         }
                     }
                 }
+                invalidFound |= removeObject;
             }
 
+            if (!removeObject) {
+                synchronized (this) {
+                    if (isClosed() || ((_maxIdle >= 0) && (_pool.size() >= _maxIdle))) {
+                        removeObject = true;
+                    } else {
+                        // Put it back where it was taken from
+                        final int at = Math.min(offset, _pool.size());
+                        _pool.insert(evictionIndex(at, _pool.size() + 1), obj, tstamp, validated);
+                        _evictionOffset = at + 1;
+                        _numInternalProcessing--;
+                    }
+                }
+            }
             if (removeObject) {
                 try {
-                    _factory.destroyObject(pair.value);
+                    _factory.destroyObject(obj);
                 } catch(Exception e) {
                     // ignored
                 }
+                synchronized (this) {
+                    _numInternalProcessing--;
+                }
             }
+            allocate();
+        }
+
+        if (invalidFound) {
             synchronized (this) {
-                if(!removeObject) {
-                    _evictionCursor.add(pair);
-                    if (_lifo) {
-                        // Skip over the element we just added back
-                        _evictionCursor.previous();
-                    }
-                }
-                _numInternalProcessing--;
+                _pool.clearValidated();
             }
         }
-        allocate();
+    }
+
+    /**
+     * Converts an eviction offset, counted from the oldest end of the idle
+     * instance list, to an index into {@link #_pool}.  The oldest instances
+     * are at the end of the list in LIFO mode and at its head in FIFO mode.
+     *
+     * @param offset distance from the oldest end
+     * @param size the size of the list
+     * @return the index of the instance at <code>offset</code>
+     */
+    private int evictionIndex(int offset, int size) {
+        return _lifo ? size - 1 - offset : offset;
+    }
+
+    /**
+     * Whether or not an instance about to be borrowed must be validated.
+     *
+     * @param validated the time the instance was last known to be valid
+     * @return <code>true</code> if test on borrow is set and the instance has not
+     * been known to be valid for the test on borrow idle time
+     */
+    private boolean isValidationDue(long validated) {
+        return _testOnBorrow &&
+                System.currentTimeMillis() - validated >= _testOnBorrowIdleTimeMillis;
     }
 
     /**
@@ -1700,13 +2444,24 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      * @throws Exception when {@link #addObject()} fails.
      */
     private void ensureMinIdle() throws Exception {
+        ensureIdle(getMinIdle());
+    }
+
+    /**
+     * Creates objects until at least <code>idleTarget</code> instances are
+     * idle, or <i>maxActive</i> is reached.
+     *
+     * @param idleTarget the number of idle instances to reach
+     * @throws Exception when {@link #addObject()} fails.
+     */
+    private void ensureIdle(int idleTarget) throws Exception {
         // this method isn't synchronized so the
         // calculateDeficit is done at the beginning
         // as a loop limit and a second time inside the loop
         // to stop when another thread already returned the
         // needed objects
-        int objectDeficit = calculateDeficit(false);
-        for ( int j = 0 ; j < objectDeficit && calculateDeficit(true) > 0 ; j++ ) {
+        int objectDeficit = calculateDeficit(idleTarget, false);
+        for ( int j = 0 ; j < objectDeficit && calculateDeficit(idleTarget, true) > 0 ; j++ ) {
             try {
                 addObject();
             } finally {
@@ -1720,16 +2475,17 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
 
     /**
      * This returns the number of objects to create during the pool
-     * sustain cycle. This will ensure that the minimum number of idle
+     * sustain cycle. This will ensure that the target number of idle
      * instances is maintained without going past the maxActive value.
      *
+     * @param idleTarget - The number of idle instances to maintain
      * @param incrementInternal - Should the count of objects currently under
      *                            some form of internal processing be
      *                            incremented?
      * @return The number of objects to be created
      */
-    private synchronized int calculateDeficit(boolean incrementInternal) {
-        int objectDeficit = getMinIdle() - getNumIdle();
+    private synchronized int calculateDeficit(int idleTarget, boolean incrementInternal) {
+        int objectDeficit = idleTarget - getNumIdle();
         if (_maxActive > 0) {
             int growLimit = Math.max(0,
                     getMaxActive() - getNumActive() - getNumIdle() - _numInternalProcessing);
@@ -1769,6 +2525,24 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
 
     //--- non-public methods ----------------------------------------
 
+    /**
+     * Submits a {@link Replenisher} if background creation is enabled, the
+     * idle count is below the replenish watermark and none is outstanding.
+     */
+    private void replenish() {
+        final Executor executor = _asyncExecutor;
+        if (executor == null || _replenishWatermark <= 0 || isClosed() ||
+                getNumIdle() >= _replenishWatermark || !_replenishing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Replenisher());
+        } catch (RejectedExecutionException e) {
+            // try again on the next trigger
+            _replenishing.set(false);
+        }
+    }
+
     /**
      * Start the eviction thread or service, or when
      * <i>delay</i> is non-positive, stop it
@@ -1779,13 +2553,12 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
     protected synchronized void startEvictor(long delay) {
     	//_evictor߳Ѵڣ򽫸߳ȡ
         if(null != _evictor) {
-            EvictionTimer.cancel(_evictor);
+            EvictionTimer.cancel(_evictor, _evictionExecutor);
             _evictor = null;
         }
         //delay>0½һEvitor
         if(delay > 0) {
-            _evictor = new Evictor();
-            EvictionTimer.schedule(_evictor, delay, delay);
+            _evictor = EvictionTimer.schedule(new Evictor(), delay, delay, _evictionExecutor);
         }
     }
 
@@ -1800,11 +2573,9 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
         buf.append("Active: ").append(getNumActive()).append("\n");
         buf.append("Idle: ").append(getNumIdle()).append("\n");
         buf.append("Idle Objects:\n");
-        Iterator<ObjectTimestampPair<T>> it = _pool.iterator();
         long time = System.currentTimeMillis();
-        while(it.hasNext()) {
-            ObjectTimestampPair<T> pair = it.next();
-            buf.append("\t").append(pair.value).append("\t").append(time - pair.tstamp).append("\n");
+        for (int i = 0; i < _pool.size(); i++) {
+            buf.append("\t").append(_pool.get(i)).append("\t").append(time - _pool.timestamp(i)).append("\n");
         }
         return buf.toString();
     }
@@ -1828,11 +2599,11 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
     //--- inner classes ----------------------------------------------
 
     /**
-     * The idle object evictor {@link TimerTask}.
+     * The idle object evictor task.
      * ж
      * @see GenericObjectPool#setTimeBetweenEvictionRunsMillis
      */
-    private class Evictor extends TimerTask {
+    private class Evictor implements Runnable {
         /**
          * Run pool maintenance.  Evict objects qualifying for eviction and then
          * invoke {@link GenericObjectPool#ensureMinIdle()}.
@@ -1840,7 +2611,6 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
     	/**
     	 * öʱжά
     	 */
-        @Override
         public void run() {
             try {
                 evict();
@@ -1856,6 +2626,57 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
             } catch(Exception e) {
                 // ignored
             }
+            replenish();
+        }
+    }
+
+    /**
+     * Background task creating objects up to the replenish watermark.
+     * @see GenericObjectPool#setReplenishWatermark
+     */
+    private class Replenisher implements Runnable {
+        /**
+         * Create idle instances until the replenish watermark, capped by
+         * <i>maxIdle</i>, is reached.
+         */
+        public void run() {
+            try {
+                final int maxIdle = getMaxIdle();
+                ensureIdle(maxIdle < 0 ? _replenishWatermark : Math.min(_replenishWatermark, maxIdle));
+            } catch(Exception e) {
+                // ignored
+            } finally {
+                _replenishing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Future of an {@link GenericObjectPool#borrowObjectAsync() asynchronous borrow}.
+     * Returns the borrowed instance to the pool if the future was cancelled first.
+     */
+    private class AsyncBorrow extends FutureTask<T> {
+        /**
+         * Create a new AsyncBorrow.
+         * @param borrow the borrowing callable
+         */
+        AsyncBorrow(Callable<T> borrow) {
+            super(borrow);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void set(T obj) {
+            super.set(obj);
+            if (isCancelled()) {
+                try {
+                    returnObject(obj);
+                } catch (Exception e) {
+                    // ignored
+                }
+            }
         }
     }
 
@@ -1892,6 +2713,10 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
          * @see GenericObjectPool#setTestOnBorrow
          */
         public boolean testOnBorrow = GenericObjectPool.DEFAULT_TEST_ON_BORROW;
+        /**
+         * @see GenericObjectPool#setTestOnBorrowIdleTimeMillis
+         */
+        public long testOnBorrowIdleTimeMillis = GenericObjectPool.DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS;
         /**
          * @see GenericObjectPool#setTestOnReturn
          */
@@ -1920,6 +2745,18 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
          * @see GenericObjectPool#setLifo
          */
         public boolean lifo = GenericObjectPool.DEFAULT_LIFO;
+        /**
+         * @see GenericObjectPool#setThreadAffinity
+         */
+        public boolean threadAffinity = GenericObjectPool.DEFAULT_THREAD_AFFINITY;
+        /**
+         * @see GenericObjectPool#setMetricsEnabled
+         */
+        public boolean metricsEnabled = GenericObjectPool.DEFAULT_METRICS_ENABLED;
+        /**
+         * @see GenericObjectPool#setReplenishWatermark
+         */
+        public int replenishWatermark = GenericObjectPool.DEFAULT_REPLENISH_WATERMARK;
         //CHECKSTYLE: resume VisibilityModifier
     }
 
@@ -1933,29 +2770,54 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     private static final class Latch<T> {
         
-        /** object timestamp pair allocated to this latch */
-    	//¼ͺʱ
-        private ObjectTimestampPair<T> _pair;
+        /** object allocated to this latch */
+    	//¼·Ķ
+        private T _object;
+
+        /** Whether or not an object has been allocated to this latch */
+        private boolean _allocated = false;
+
+        /** Time the allocated object was last known to be valid */
+        private long _validated;
         
         /** Whether or not this latch may create an object instance */
         //latchǷᴴ
         private boolean _mayCreate = false;
 
         /**
-         * Returns ObjectTimestampPair allocated to this latch
-         * @return ObjectTimestampPair allocated to this latch
+         * Returns the object allocated to this latch
+         * @return the object allocated to this latch
          */
         //
-        private synchronized ObjectTimestampPair<T> getPair() {
-            return _pair;
+        private synchronized T getObject() {
+            return _object;
+        }
+
+        /**
+         * Whether or not an object has been allocated to this latch
+         * @return true if {@link #setObject(Object, long)} has been called since the last reset
+         */
+        private synchronized boolean hasObject() {
+            return _allocated;
         }
         
         /**
-         * Sets ObjectTimestampPair on this latch
-         * @param pair ObjectTimestampPair allocated to this latch
+         * Returns the time the allocated object was last known to be valid
+         * @return the time the allocated object was last known to be valid
          */
-        private synchronized void setPair(ObjectTimestampPair<T> pair) {
-            _pair = pair;
+        private synchronized long getValidated() {
+            return _validated;
+        }
+        
+        /**
+         * Sets the object allocated to this latch
+         * @param obj object allocated to this latch
+         * @param validated the time obj was last known to be valid
+         */
+        private synchronized void setObject(T obj, long validated) {
+            _object = obj;
+            _validated = validated;
+            _allocated = true;
         }
 
         /**
@@ -1979,7 +2841,8 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
          * needs to be re-added to the queue.
          */
         private synchronized void reset() {
-            _pair = null;
+            _object = null;
+            _allocated = false;
             _mayCreate = false;
         }
     }
@@ -2054,6 +2917,15 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     private volatile boolean _testOnBorrow = DEFAULT_TEST_ON_BORROW;
 
+    /**
+     * The time an idle instance must have gone without being known to be
+     * valid before {@link #_testOnBorrow} validates it.
+     *
+     * @see #setTestOnBorrowIdleTimeMillis
+     * @see #getTestOnBorrowIdleTimeMillis
+     */
+    private volatile long _testOnBorrowIdleTimeMillis = DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS;
+
     /**
      * When <tt>true</tt>, objects will be
      * {@link PoolableObjectFactory#validateObject validated}
@@ -2134,26 +3006,75 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
     /** Whether or not the pool behaves as a LIFO queue (last in first out) */
     private boolean _lifo = DEFAULT_LIFO;
 
+    /** Whether or not threads keep the last instance they returned */
+    private volatile boolean _threadAffinity = DEFAULT_THREAD_AFFINITY;
+
+    /** Instances parked by threads when thread affinity is enabled */
+    private final ThreadAffinityCache<Object, T> _affinityCache = new ThreadAffinityCache<Object, T>();
+
+    /**
+     * Whether borrowers were left waiting by the last {@link #allocate()},
+     * readable without the pool lock so that returning threads stop parking instances.
+     */
+    private volatile boolean _hasWaiters = false;
+
+    /**
+     * The idle count below which objects are created in the background.
+     * @see #setReplenishWatermark
+     */
+    private volatile int _replenishWatermark = DEFAULT_REPLENISH_WATERMARK;
+
+    /** Executor for background creation and asynchronous borrows, if any */
+    private volatile Executor _asyncExecutor = null;
+
+    /** Whether a {@link Replenisher} is outstanding */
+    private final AtomicBoolean _replenishing = new AtomicBoolean(false);
+
     /** My pool. */
-    //УڱжObjectTimestampPairֵΪʵObject
-    private CursorableLinkedList<ObjectTimestampPair<T>> _pool = null;
+    //Уڱж״̬ʱ
+    private IdleObjectRing<T> _pool = null;
 
-    /** Eviction cursor - keeps track of idle object evictor position */
-    private CursorableLinkedList<ObjectTimestampPair<T>>.Cursor _evictionCursor = null;
+    /**
+     * Eviction position - the number of idle instances between the oldest end
+     * of {@link #_pool} and the next instance the evictor examines.
+     */
+    private int _evictionOffset = 0;
 
-    /** My {@link PoolableObjectFactory}. */
+    /** My {@link PoolableObjectFactory}, as given by the user. */
+    private PoolableObjectFactory<T> _userFactory = null;
+
+    /**
+     * The factory the pool calls: {@link #_userFactory}, wrapped to record its
+     * calls in {@link #_metrics} while metrics are enabled.
+     */
     private PoolableObjectFactory<T> _factory = null;
 
+    /**
+     * Whether usage statistics are collected.
+     * @see #setMetricsEnabled
+     * @see #isMetricsEnabled
+     */
+    private volatile boolean _metricsEnabled = DEFAULT_METRICS_ENABLED;
+
+    /** Usage statistics */
+    private final PoolMetrics _metrics = new PoolMetrics(this);
+
     /**
      * The number of objects {@link #borrowObject} borrowed
-     * from the pool, but not yet returned.
+     * from the pool, but not yet returned.  Only written under the pool's lock;
+     * volatile so that {@link PoolMetrics} can read it without taking that lock.
      */
-    private int _numActive = 0;
+    private volatile int _numActive = 0;
 
     /**
-     * My idle object eviction {@link TimerTask}, if any.
+     * My scheduled idle object eviction task, if any.
      */
-    private Evictor _evictor = null;
+    private ScheduledFuture<?> _evictor = null;
+
+    /**
+     * The executor my evictor runs on, or <code>null</code> for the shared scheduler.
+     */
+    private ScheduledExecutorService _evictionExecutor = null;
 
     /**
      * The number of objects subject to some form of internal processing
@@ -2173,4 +3094,7 @@ public class GenericObjectPool<T> extends BaseObjectPool<T> implements ObjectPoo
      */
     private final LinkedList<Latch<T>> _allocationQueue = new LinkedList<Latch<T>>();
 
+    /** The number of {@link #borrowObjects batch borrowers} waiting on the pool monitor */
+    private int _batchWaiters = 0; //@GuardedBy("this")
+
 }
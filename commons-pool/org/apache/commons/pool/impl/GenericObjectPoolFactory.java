@@ -54,6 +54,10 @@ public class GenericObjectPoolFactory<T> implements ObjectPoolFactory<T> {
      */
     public GenericObjectPoolFactory(PoolableObjectFactory<T> factory, GenericObjectPool.Config config) throws NullPointerException {
         this(factory,config.maxActive,config.whenExhaustedAction,config.maxWait,config.maxIdle,config.minIdle,config.testOnBorrow,config.testOnReturn,config.timeBetweenEvictionRunsMillis,config.numTestsPerEvictionRun,config.minEvictableIdleTimeMillis,config.testWhileIdle,config.softMinEvictableIdleTimeMillis, config.lifo);
+        _threadAffinity = config.threadAffinity;
+        _metricsEnabled = config.metricsEnabled;
+        _testOnBorrowIdleTimeMillis = config.testOnBorrowIdleTimeMillis;
+        _replenishWatermark = config.replenishWatermark;
     }
 
     /**
@@ -230,7 +234,12 @@ public class GenericObjectPoolFactory<T> implements ObjectPoolFactory<T> {
      * {@inheritDoc}
      */
     public ObjectPool<T> createPool() {
-        return new GenericObjectPool<T>(_factory,_maxActive,_whenExhaustedAction,_maxWait,_maxIdle,_minIdle,_testOnBorrow,_testOnReturn,_timeBetweenEvictionRunsMillis,_numTestsPerEvictionRun,_minEvictableIdleTimeMillis,_testWhileIdle,_softMinEvictableIdleTimeMillis,_lifo);
+        GenericObjectPool<T> pool = new GenericObjectPool<T>(_factory,_maxActive,_whenExhaustedAction,_maxWait,_maxIdle,_minIdle,_testOnBorrow,_testOnReturn,_timeBetweenEvictionRunsMillis,_numTestsPerEvictionRun,_minEvictableIdleTimeMillis,_testWhileIdle,_softMinEvictableIdleTimeMillis,_lifo);
+        pool.setThreadAffinity(_threadAffinity);
+        pool.setMetricsEnabled(_metricsEnabled);
+        pool.setTestOnBorrowIdleTimeMillis(_testOnBorrowIdleTimeMillis);
+        pool.setReplenishWatermark(_replenishWatermark);
+        return pool;
     }
 
     
@@ -346,6 +355,38 @@ public class GenericObjectPoolFactory<T> implements ObjectPoolFactory<T> {
         return _lifo;
     }
 
+    /**
+     * @return the {@link GenericObjectPool#getThreadAffinity() threadAffinity} setting for pools created by this factory.
+     * @since 1.6
+     */
+    public boolean getThreadAffinity() {
+        return _threadAffinity;
+    }
+
+    /**
+     * @return the {@link GenericObjectPool#isMetricsEnabled() metricsEnabled} setting for pools created by this factory.
+     * @since 1.6
+     */
+    public boolean isMetricsEnabled() {
+        return _metricsEnabled;
+    }
+
+    /**
+     * @return the {@link GenericObjectPool#getTestOnBorrowIdleTimeMillis() testOnBorrowIdleTimeMillis} setting for pools created by this factory.
+     * @since 1.6
+     */
+    public long getTestOnBorrowIdleTimeMillis() {
+        return _testOnBorrowIdleTimeMillis;
+    }
+
+    /**
+     * @return the {@link GenericObjectPool#getReplenishWatermark() replenishWatermark} setting for pools created by this factory.
+     * @since 1.6
+     */
+    public int getReplenishWatermark() {
+        return _replenishWatermark;
+    }
+
     /**
      * @return the {@link PoolableObjectFactory} used by pools created by this factory
      */
@@ -448,7 +489,27 @@ public class GenericObjectPoolFactory<T> implements ObjectPoolFactory<T> {
      */
     @Deprecated
     protected boolean _lifo = GenericObjectPool.DEFAULT_LIFO;
+
+    /**
+     * The {@link GenericObjectPool#getThreadAffinity() threadAffinity} setting for pools created by this factory.
+     */
+    private boolean _threadAffinity = GenericObjectPool.DEFAULT_THREAD_AFFINITY;
     
+    /**
+     * The {@link GenericObjectPool#isMetricsEnabled() metricsEnabled} setting for pools created by this factory.
+     */
+    private boolean _metricsEnabled = GenericObjectPool.DEFAULT_METRICS_ENABLED;
+
+    /**
+     * The {@link GenericObjectPool#getTestOnBorrowIdleTimeMillis() testOnBorrowIdleTimeMillis} setting for pools created by this factory.
+     */
+    private long _testOnBorrowIdleTimeMillis = GenericObjectPool.DEFAULT_TEST_ON_BORROW_IDLE_TIME_MILLIS;
+
+    /**
+     * The {@link GenericObjectPool#getReplenishWatermark() replenishWatermark} setting for pools created by this factory.
+     */
+    private int _replenishWatermark = GenericObjectPool.DEFAULT_REPLENISH_WATERMARK;
+
     /**
      * The {@link PoolableObjectFactory} used by pools created by this factory.
      * @deprecated to be removed in pool 2.0.  Use {@link #getFactory()}.
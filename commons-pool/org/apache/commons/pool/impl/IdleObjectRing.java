@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.Collection;
+
+/**
+ * <p>
+ * Idle instance store of {@link GenericObjectPool}: a double-ended ring buffer
+ * of instances, the times they became idle and the times they were last known
+ * to be valid, kept in parallel arrays.  Adding,
+ * removing and inspecting instances allocate nothing; the arrays only grow, by
+ * doubling, when the store is full.
+ * </p>
+ * <p>
+ * Instances are addressed by their index from the first element.  Both ends
+ * are updated in constant time; {@link #removeAt(int)} and
+ * {@link #insert(int, Object, long, long)} move the elements on the shorter side of
+ * the index.
+ * </p>
+ * <p>
+ * This class is not thread-safe; {@link GenericObjectPool} guards it with its
+ * monitor.  It has package scope to prevent its inclusion in the pool public API.
+ * </p>
+ *
+ * @param <T> the type of objects held in the store
+ */
+class IdleObjectRing<T> {
+
+    /** Initial capacity */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Instances; the length is always a power of two */
+    private Object[] _objects;
+
+    /** Times the instances became idle, parallel to {@link #_objects} */
+    private long[] _timestamps;
+
+    /** Times the instances were last known to be valid, parallel to {@link #_objects} */
+    private long[] _validated;
+
+    /** Slot of the first element */
+    private int _head = 0;
+
+    /**
+     * Number of elements.  Only written under the owning pool's lock; volatile so
+     * that {@link PoolMetrics} can read it without taking that lock.
+     */
+    private volatile int _size = 0;
+
+    /**
+     * Create an empty store.
+     */
+    IdleObjectRing() {
+        _objects = new Object[DEFAULT_CAPACITY];
+        _timestamps = new long[DEFAULT_CAPACITY];
+        _validated = new long[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * @return the number of instances held
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * @return <code>true</code> if no instance is held
+     */
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Adds an instance that was valid when it became idle before the first element.
+     * @param obj the instance
+     * @param tstamp the time it became idle
+     */
+    void addFirst(T obj, long tstamp) {
+        addFirst(obj, tstamp, tstamp);
+    }
+
+    /**
+     * Adds an instance before the first element.
+     * @param obj the instance
+     * @param tstamp the time it became idle
+     * @param validated the time it was last known to be valid
+     */
+    void addFirst(T obj, long tstamp, long validated) {
+        ensureCapacity();
+        _head = (_head - 1) & (_objects.length - 1);
+        set(_head, obj, tstamp, validated);
+        _size++;
+    }
+
+    /**
+     * Adds an instance that was valid when it became idle after the last element.
+     * @param obj the instance
+     * @param tstamp the time it became idle
+     */
+    void addLast(T obj, long tstamp) {
+        ensureCapacity();
+        set(slot(_size), obj, tstamp, tstamp);
+        _size++;
+    }
+
+    /**
+     * Removes the first element.
+     * @return the removed instance
+     * @throws java.util.NoSuchElementException if the store is empty
+     */
+    T removeFirst() {
+        return removeAt(0);
+    }
+
+    /**
+     * @param index index of an element
+     * @return the instance at <code>index</code>
+     */
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        checkIndex(index, _size);
+        return (T) _objects[slot(index)];
+    }
+
+    /**
+     * @param index index of an element
+     * @return the time the instance at <code>index</code> became idle
+     */
+    long timestamp(int index) {
+        checkIndex(index, _size);
+        return _timestamps[slot(index)];
+    }
+
+    /**
+     * @param index index of an element
+     * @return the time the instance at <code>index</code> was last known to be valid
+     */
+    long validated(int index) {
+        checkIndex(index, _size);
+        return _validated[slot(index)];
+    }
+
+    /**
+     * Forgets when the held instances were last known to be valid, so that each
+     * of them reports a validation time of <code>0</code>.
+     */
+    void clearValidated() {
+        for (int i = 0; i < _size; i++) {
+            _validated[slot(i)] = 0L;
+        }
+    }
+
+    /**
+     * Removes the element at <code>index</code>, moving the elements on its
+     * shorter side to close the gap.
+     * @param index index of an element
+     * @return the removed instance
+     */
+    @SuppressWarnings("unchecked")
+    T removeAt(int index) {
+        checkIndex(index, _size);
+        final int mask = _objects.length - 1;
+        final T obj = (T) _objects[slot(index)];
+        if (index < _size / 2) {
+            // shift the elements before index one slot towards the end
+            for (int i = index; i > 0; i--) {
+                move(slot(i - 1), slot(i));
+            }
+            _objects[_head] = null;
+            _head = (_head + 1) & mask;
+        } else {
+            // shift the elements after index one slot towards the head
+            for (int i = index; i < _size - 1; i++) {
+                move(slot(i + 1), slot(i));
+            }
+            _objects[slot(_size - 1)] = null;
+        }
+        _size--;
+        return obj;
+    }
+
+    /**
+     * Inserts an instance so that it ends up at <code>index</code>, moving the
+     * elements on the shorter side to make room.
+     * @param index the index of the new element, between <code>0</code> and {@link #size()}
+     * @param obj the instance
+     * @param tstamp the time it became idle
+     * @param validated the time it was last known to be valid
+     */
+    void insert(int index, T obj, long tstamp, long validated) {
+        checkIndex(index, _size + 1);
+        ensureCapacity();
+        final int mask = _objects.length - 1;
+        if (index < _size / 2) {
+            // open a slot before the head and shift the elements before index into it
+            _head = (_head - 1) & mask;
+            for (int i = 0; i < index; i++) {
+                move(slot(i + 1), slot(i));
+            }
+        } else {
+            for (int i = _size; i > index; i--) {
+                move(slot(i - 1), slot(i));
+            }
+        }
+        set(slot(index), obj, tstamp, validated);
+        _size++;
+    }
+
+    /**
+     * Removes every instance, adding them to <code>c</code> in order.
+     * @param c the collection receiving the instances
+     */
+    void drainTo(Collection<? super T> c) {
+        for (int i = 0; i < _size; i++) {
+            c.add(get(i));
+        }
+        clear();
+    }
+
+    /**
+     * Removes every instance.
+     */
+    void clear() {
+        for (int i = 0; i < _size; i++) {
+            _objects[slot(i)] = null;
+        }
+        _head = 0;
+        _size = 0;
+    }
+
+    /**
+     * @param index an index from the first element
+     * @return the array slot holding it
+     */
+    private int slot(int index) {
+        return (_head + index) & (_objects.length - 1);
+    }
+
+    /**
+     * Fills a slot.
+     */
+    private void set(int slot, T obj, long tstamp, long validated) {
+        _objects[slot] = obj;
+        _timestamps[slot] = tstamp;
+        _validated[slot] = validated;
+    }
+
+    /**
+     * Copies an element from one slot to another.
+     */
+    private void move(int from, int to) {
+        _objects[to] = _objects[from];
+        _timestamps[to] = _timestamps[from];
+        _validated[to] = _validated[from];
+    }
+
+    /**
+     * Doubles the arrays if they are full, unwrapping the elements.
+     */
+    private void ensureCapacity() {
+        if (_size < _objects.length) {
+            return;
+        }
+        final int capacity = _objects.length << 1;
+        if (capacity < 0) {
+            throw new IllegalStateException("Idle object store is full");
+        }
+        final Object[] objects = new Object[capacity];
+        final long[] timestamps = new long[capacity];
+        final long[] validated = new long[capacity];
+        final int firstPart = _objects.length - _head;
+        System.arraycopy(_objects, _head, objects, 0, firstPart);
+        System.arraycopy(_objects, 0, objects, firstPart, _head);
+        System.arraycopy(_timestamps, _head, timestamps, 0, firstPart);
+        System.arraycopy(_timestamps, 0, timestamps, firstPart, _head);
+        System.arraycopy(_validated, _head, validated, 0, firstPart);
+        System.arraycopy(_validated, 0, validated, firstPart, _head);
+        _objects = objects;
+        _timestamps = timestamps;
+        _validated = validated;
+        _head = 0;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+
+/**
+ * Usage statistics of a {@link GenericKeyedObjectPool}.  In addition to the
+ * pool-wide figures of {@link PoolMetrics}, borrow, creation and destruction
+ * counts and the active and idle gauges are reported for each key.  As with
+ * {@link PoolMetrics}, nothing is recorded unless
+ * {@link GenericKeyedObjectPool#setMetricsEnabled metrics are enabled}.
+ * <p>
+ * Per-key counters are kept while the pool holds instances for the key and
+ * are dropped when the key's pool is removed.  The per-key gauges are read
+ * under a single acquisition of the pool's lock.
+ * </p>
+ *
+ * @see GenericKeyedObjectPool#getMetrics()
+ * @since Pool 1.6
+ */
+public class KeyedPoolMetrics extends PoolMetrics implements KeyedPoolMetricsMXBean {
+
+    /** The pool the gauges are read from */
+    private final GenericKeyedObjectPool<?, ?> _keyedPool;
+
+    /** Per-key counters */
+    private final ConcurrentMap<Object, KeyStats> _keyStats = new ConcurrentHashMap<Object, KeyStats>();
+
+    /**
+     * Create a new KeyedPoolMetrics.
+     * @param pool the pool the gauges are read from
+     */
+    KeyedPoolMetrics(GenericKeyedObjectPool<?, ?> pool) {
+        super(null);
+        _keyedPool = pool;
+    }
+
+    //--- KeyedPoolMetricsMXBean --------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumActive() {
+        return _keyedPool.getNumActiveSnapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIdle() {
+        return _keyedPool.getNumIdleSnapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Integer> getNumActivePerKey() {
+        return byName(_keyedPool.getNumPerKey(true));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Integer> getNumIdlePerKey() {
+        return byName(_keyedPool.getNumPerKey(false));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getBorrowedCountPerKey() {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        for (Iterator<Map.Entry<Object, KeyStats>> it = _keyStats.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Object, KeyStats> entry = it.next();
+            result.put(String.valueOf(entry.getKey()), Long.valueOf(entry.getValue().borrowed.get()));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getCreatedCountPerKey() {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        for (Iterator<Map.Entry<Object, KeyStats>> it = _keyStats.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Object, KeyStats> entry = it.next();
+            result.put(String.valueOf(entry.getKey()), Long.valueOf(entry.getValue().created.get()));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getDestroyedCountPerKey() {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        for (Iterator<Map.Entry<Object, KeyStats>> it = _keyStats.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Object, KeyStats> entry = it.next();
+            result.put(String.valueOf(entry.getKey()), Long.valueOf(entry.getValue().destroyed.get()));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        _keyStats.clear();
+    }
+
+    //--- recording ----------------------------------------------------
+
+    /**
+     * Drops the counters of a key whose pool has been removed.
+     * @param key the pool key
+     */
+    void keyRemoved(Object key) {
+        _keyStats.remove(key);
+    }
+
+    /**
+     * Records a successful borrow.
+     * @param key the pool key
+     * @param waitNanos time the borrower waited for an instance or a creation permit
+     */
+    void borrowed(Object key, long waitNanos) {
+        borrowed(waitNanos);
+        statsFor(key).borrowed.incrementAndGet();
+    }
+
+    /**
+     * Wraps a factory so that its calls are recorded.
+     * @param <K> the type of keys in the pool
+     * @param <V> the type of objects held in the pool
+     * @param factory the factory to wrap, may be <code>null</code>
+     * @return the wrapping factory, or <code>null</code> if <code>factory</code> is <code>null</code>
+     */
+    <K, V> KeyedPoolableObjectFactory<K, V> meter(KeyedPoolableObjectFactory<K, V> factory) {
+        return factory == null ? null : new MeteredKeyedPoolableObjectFactory<K, V>(factory);
+    }
+
+    /**
+     * Sorts per-key counts by the string form of their keys.
+     * @param counts the counts to sort
+     * @return the counts keyed by <code>String.valueOf(key)</code>
+     */
+    private static Map<String, Integer> byName(Map<?, Integer> counts) {
+        final Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Iterator<? extends Map.Entry<?, Integer>> it = counts.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<?, Integer> entry = it.next();
+            result.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the counters of a key, creating them if necessary.
+     * @param key the pool key
+     * @return the counters
+     */
+    private KeyStats statsFor(Object key) {
+        KeyStats stats = _keyStats.get(key);
+        if (stats == null) {
+            stats = new KeyStats();
+            final KeyStats existing = _keyStats.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Per-key counters.
+     */
+    private static class KeyStats {
+        final AtomicLong borrowed = new AtomicLong();
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong destroyed = new AtomicLong();
+    }
+
+    /**
+     * Decorates a {@link KeyedPoolableObjectFactory}, timing and counting the
+     * calls made by the pool.
+     */
+    private class MeteredKeyedPoolableObjectFactory<K, V> implements KeyedPoolableObjectFactory<K, V> {
+
+        /** The decorated factory */
+        private final KeyedPoolableObjectFactory<K, V> _factory;
+
+        /**
+         * Create a new MeteredKeyedPoolableObjectFactory.
+         * @param factory the decorated factory
+         */
+        MeteredKeyedPoolableObjectFactory(KeyedPoolableObjectFactory<K, V> factory) {
+            _factory = factory;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public V makeObject(K key) throws Exception {
+            final long start = System.nanoTime();
+            final V obj = _factory.makeObject(key);
+            created(System.nanoTime() - start);
+            statsFor(key).created.incrementAndGet();
+            return obj;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void destroyObject(K key, V obj) throws Exception {
+            final long start = System.nanoTime();
+            try {
+                _factory.destroyObject(key, obj);
+            } finally {
+                destroyed(System.nanoTime() - start);
+                // the key's pool, and its counters, may already be gone
+                final KeyStats stats = _keyStats.get(key);
+                if (stats != null) {
+                    stats.destroyed.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean validateObject(K key, V obj) {
+            final long start = System.nanoTime();
+            boolean valid = false;
+            try {
+                valid = _factory.validateObject(key, obj);
+            } finally {
+                validated(System.nanoTime() - start, valid);
+            }
+            return valid;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void activateObject(K key, V obj) throws Exception {
+            _factory.activateObject(key, obj);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void passivateObject(K key, V obj) throws Exception {
+            _factory.passivateObject(key, obj);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return _factory.toString();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link KeyedPoolMetrics}, exported through JMX.
+ * Per-key statistics are keyed by the <code>String</code> form of the pool keys.
+ *
+ * @see KeyedPoolMetrics
+ * @since Pool 1.6
+ */
+public interface KeyedPoolMetricsMXBean extends PoolMetricsMXBean {
+
+    /**
+     * @return the number of instances currently borrowed, for each key the pool currently holds
+     */
+    Map<String, Integer> getNumActivePerKey();
+
+    /**
+     * @return the number of instances currently idle, for each key the pool currently holds
+     */
+    Map<String, Integer> getNumIdlePerKey();
+
+    /**
+     * @return the number of successful borrows, for each key the pool currently holds
+     */
+    Map<String, Long> getBorrowedCountPerKey();
+
+    /**
+     * @return the number of instances created by the factory, for each key the pool currently holds
+     */
+    Map<String, Long> getCreatedCountPerKey();
+
+    /**
+     * @return the number of instances destroyed by the factory, for each key the pool currently holds
+     */
+    Map<String, Long> getDestroyedCountPerKey();
+}
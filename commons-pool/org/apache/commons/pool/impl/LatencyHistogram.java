@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, used by {@link PoolMetrics}.
+ * <p>
+ * Recorded durations are counted in power-of-two microsecond buckets: bucket
+ * <code>0</code> holds durations below one microsecond and bucket <code>i</code>
+ * holds durations from <code>2<sup>i-1</sup></code> up to (but excluding)
+ * <code>2<sup>i</sup></code> microseconds.  Recording a duration is a few atomic
+ * increments and never blocks; percentiles are therefore approximate, reported as
+ * the upper bound of the bucket they fall in.
+ * </p>
+ *
+ * @see PoolMetrics
+ * @since Pool 1.6
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets; the last one also holds anything longer than about six days */
+    private static final int BUCKETS = 40;
+
+    /** Bucket counts */
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded durations */
+    private final AtomicLong _count = new AtomicLong();
+
+    /** Sum of recorded durations in nanoseconds */
+    private final AtomicLong _sum = new AtomicLong();
+
+    /** Longest recorded duration in nanoseconds */
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     * @param nanos the duration in nanoseconds; negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        final long micros = nanos / 1000;
+        final int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        _buckets.incrementAndGet(bucket);
+        _count.incrementAndGet();
+        _sum.addAndGet(nanos);
+        for (long max = _max.get(); nanos > max && !_max.compareAndSet(max, nanos); max = _max.get()) {
+            // retry
+        }
+    }
+
+    /**
+     * Discards all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _sum.set(0);
+        _max.set(0);
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * @return the mean recorded duration in microseconds, or <code>0</code> if none has been recorded
+     */
+    public long getMeanMicros() {
+        final long count = _count.get();
+        return count == 0 ? 0 : _sum.get() / count / 1000;
+    }
+
+    /**
+     * @return the longest recorded duration in microseconds
+     */
+    public long getMaxMicros() {
+        return _max.get() / 1000;
+    }
+
+    /**
+     * @return the approximate median duration in microseconds
+     */
+    public long getMedianMicros() {
+        return getPercentileMicros(0.5);
+    }
+
+    /**
+     * @return the approximate 99th percentile duration in microseconds
+     */
+    public long get99thPercentileMicros() {
+        return getPercentileMicros(0.99);
+    }
+
+    /**
+     * @return the approximate 99.9th percentile duration in microseconds
+     */
+    public long get999thPercentileMicros() {
+        return getPercentileMicros(0.999);
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile.
+     * @param fraction the percentile, between <code>0</code> and <code>1</code>
+     * @return the approximate duration in microseconds, or <code>0</code> if none has been recorded
+     */
+    public long getPercentileMicros(double fraction) {
+        final long[] buckets = getBucketCounts();
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * @return a copy of the bucket counts; element <code>i</code> counts durations
+     * below <code>2<sup>i</sup></code> microseconds not counted by element <code>i-1</code>
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @return a short summary of the recorded durations
+     */
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMeanMicros() + "us, p50=" + getMedianMicros() +
+            "us, p99=" + get99thPercentileMicros() + "us, max=" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.pool.PoolableObjectFactory;
+
+/**
+ * <p>
+ * Usage statistics of a {@link GenericObjectPool}: borrow, return, creation and
+ * destruction counts, exhausted and timed out borrows, and {@link LatencyHistogram
+ * histograms} of borrower wait time and of the time spent in the pool's
+ * {@link PoolableObjectFactory}.  All counters are updated without locking, so
+ * collecting them costs a few atomic increments per operation.
+ * </p>
+ * <p>
+ * Instances are created by the pool and obtained with
+ * {@link GenericObjectPool#getMetrics()}, and only record while
+ * {@link GenericObjectPool#setMetricsEnabled metrics are enabled} on the pool,
+ * which they are not by default.  They implement {@link PoolMetricsMXBean}
+ * and can be exported through JMX with {@link #registerMBean(ObjectName)}; a
+ * registered instance is unregistered when its pool is closed.
+ * </p>
+ *
+ * @see GenericObjectPool#getMetrics()
+ * @see KeyedPoolMetrics
+ * @since Pool 1.6
+ */
+public class PoolMetrics implements PoolMetricsMXBean {
+
+    /** The pool the gauges are read from, <code>null</code> for keyed pools */
+    private final GenericObjectPool<?> _pool;
+
+    private final AtomicLong _borrowed = new AtomicLong();
+    private final AtomicLong _returned = new AtomicLong();
+    private final AtomicLong _created = new AtomicLong();
+    private final AtomicLong _destroyed = new AtomicLong();
+    private final AtomicLong _validationFailed = new AtomicLong();
+    private final AtomicLong _exhausted = new AtomicLong();
+    private final AtomicLong _timeouts = new AtomicLong();
+
+    private final LatencyHistogram _borrowWaitTime = new LatencyHistogram();
+    private final LatencyHistogram _createTime = new LatencyHistogram();
+    private final LatencyHistogram _validateTime = new LatencyHistogram();
+    private final LatencyHistogram _destroyTime = new LatencyHistogram();
+
+    /** The name this instance is registered under, if any */
+    private ObjectName _objectName = null; //@GuardedBy("this")
+
+    /**
+     * Create a new PoolMetrics.
+     * @param pool the pool the gauges are read from, <code>null</code> for keyed pools
+     */
+    PoolMetrics(GenericObjectPool<?> pool) {
+        _pool = pool;
+    }
+
+    //--- PoolMetricsMXBean -------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNumActive() {
+        return _pool.getNumActiveSnapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNumIdle() {
+        return _pool.getNumIdleSnapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBorrowedCount() {
+        return _borrowed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getReturnedCount() {
+        return _returned.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCreatedCount() {
+        return _created.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDestroyedCount() {
+        return _destroyed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getValidationFailedCount() {
+        return _validationFailed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getExhaustedCount() {
+        return _exhausted.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTimeoutCount() {
+        return _timeouts.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencyHistogram getBorrowWaitTime() {
+        return _borrowWaitTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencyHistogram getCreateTime() {
+        return _createTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencyHistogram getValidateTime() {
+        return _validateTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencyHistogram getDestroyTime() {
+        return _destroyTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        _borrowed.set(0);
+        _returned.set(0);
+        _created.set(0);
+        _destroyed.set(0);
+        _validationFailed.set(0);
+        _exhausted.set(0);
+        _timeouts.set(0);
+        _borrowWaitTime.reset();
+        _createTime.reset();
+        _validateTime.reset();
+        _destroyTime.reset();
+    }
+
+    //--- JMX export ---------------------------------------------------
+
+    /**
+     * Registers this instance with the platform MBean server, replacing any
+     * previous registration of this instance.
+     *
+     * @param name the name to register under
+     * @throws JMException if the MBean server refuses the registration
+     */
+    public synchronized void registerMBean(ObjectName name) throws JMException {
+        unregisterMBean();
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        _objectName = name;
+    }
+
+    /**
+     * Removes this instance from the platform MBean server, if it is registered.
+     * Errors are swallowed.
+     */
+    public synchronized void unregisterMBean() {
+        if (_objectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                if (server.isRegistered(_objectName)) {
+                    server.unregisterMBean(_objectName);
+                }
+            } catch (JMException e) {
+                // ignored
+            }
+            _objectName = null;
+        }
+    }
+
+    /**
+     * @return the name this instance is registered under, or <code>null</code>
+     */
+    public synchronized ObjectName getObjectName() {
+        return _objectName;
+    }
+
+    //--- recording ----------------------------------------------------
+
+    /**
+     * Records a successful borrow.
+     * @param waitNanos time the borrower waited for an instance or a creation permit
+     */
+    void borrowed(long waitNanos) {
+        _borrowed.incrementAndGet();
+        _borrowWaitTime.record(waitNanos);
+    }
+
+    /**
+     * Records a returned instance.
+     */
+    void returned() {
+        _returned.incrementAndGet();
+    }
+
+    /**
+     * Records a borrow that failed because the pool was exhausted.
+     */
+    void exhausted() {
+        _exhausted.incrementAndGet();
+    }
+
+    /**
+     * Records a borrow that timed out.
+     */
+    void timedOut() {
+        _timeouts.incrementAndGet();
+    }
+
+    /**
+     * Records a factory <code>makeObject</code> call.
+     * @param nanos its duration
+     */
+    void created(long nanos) {
+        _created.incrementAndGet();
+        _createTime.record(nanos);
+    }
+
+    /**
+     * Records a factory <code>destroyObject</code> call.
+     * @param nanos its duration
+     */
+    void destroyed(long nanos) {
+        _destroyed.incrementAndGet();
+        _destroyTime.record(nanos);
+    }
+
+    /**
+     * Records a factory <code>validateObject</code> call.
+     * @param nanos its duration
+     * @param valid whether the instance was found valid
+     */
+    void validated(long nanos, boolean valid) {
+        _validateTime.record(nanos);
+        if (!valid) {
+            _validationFailed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wraps a factory so that its calls are recorded.
+     * @param <T> the type of objects held in the pool
+     * @param factory the factory to wrap, may be <code>null</code>
+     * @return the wrapping factory, or <code>null</code> if <code>factory</code> is <code>null</code>
+     */
+    <T> PoolableObjectFactory<T> meter(PoolableObjectFactory<T> factory) {
+        return factory == null ? null : new MeteredPoolableObjectFactory<T>(factory);
+    }
+
+    /**
+     * Decorates a {@link PoolableObjectFactory}, timing and counting the calls
+     * made by the pool.
+     */
+    private class MeteredPoolableObjectFactory<T> implements PoolableObjectFactory<T> {
+
+        /** The decorated factory */
+        private final PoolableObjectFactory<T> _factory;
+
+        /**
+         * Create a new MeteredPoolableObjectFactory.
+         * @param factory the decorated factory
+         */
+        MeteredPoolableObjectFactory(PoolableObjectFactory<T> factory) {
+            _factory = factory;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T makeObject() throws Exception {
+            final long start = System.nanoTime();
+            final T obj = _factory.makeObject();
+            created(System.nanoTime() - start);
+            return obj;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void destroyObject(T obj) throws Exception {
+            final long start = System.nanoTime();
+            try {
+                _factory.destroyObject(obj);
+            } finally {
+                destroyed(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean validateObject(T obj) {
+            final long start = System.nanoTime();
+            boolean valid = false;
+            try {
+                valid = _factory.validateObject(obj);
+            } finally {
+                validated(System.nanoTime() - start, valid);
+            }
+            return valid;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void activateObject(T obj) throws Exception {
+            _factory.activateObject(obj);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void passivateObject(T obj) throws Exception {
+            _factory.passivateObject(obj);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return _factory.toString();
+        }
+    }
+}
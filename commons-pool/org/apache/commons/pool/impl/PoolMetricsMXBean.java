@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+/**
+ * The management interface of {@link PoolMetrics}, exported through JMX.
+ *
+ * @see PoolMetrics
+ * @since Pool 1.6
+ */
+public interface PoolMetricsMXBean {
+
+    /**
+     * @return the number of instances currently borrowed from the pool
+     */
+    int getNumActive();
+
+    /**
+     * @return the number of instances currently idle in the pool
+     */
+    int getNumIdle();
+
+    /**
+     * @return the number of successful borrows
+     */
+    long getBorrowedCount();
+
+    /**
+     * @return the number of instances returned to the pool
+     */
+    long getReturnedCount();
+
+    /**
+     * @return the number of instances created by the factory
+     */
+    long getCreatedCount();
+
+    /**
+     * @return the number of instances destroyed by the factory
+     */
+    long getDestroyedCount();
+
+    /**
+     * @return the number of validations that failed or threw an exception
+     */
+    long getValidationFailedCount();
+
+    /**
+     * @return the number of borrows that failed immediately because the pool was exhausted
+     */
+    long getExhaustedCount();
+
+    /**
+     * @return the number of borrows that failed after waiting <i>maxWait</i> milliseconds
+     */
+    long getTimeoutCount();
+
+    /**
+     * @return the time borrowers waited for an idle instance or a permit to create one
+     */
+    LatencyHistogram getBorrowWaitTime();
+
+    /**
+     * @return the time taken by the factory to create instances
+     */
+    LatencyHistogram getCreateTime();
+
+    /**
+     * @return the time taken by the factory to validate instances
+     */
+    LatencyHistogram getValidateTime();
+
+    /**
+     * @return the time taken by the factory to destroy instances
+     */
+    LatencyHistogram getDestroyTime();
+
+    /**
+     * Resets all counters and histograms.  Does not affect the pool itself.
+     */
+    void reset();
+}
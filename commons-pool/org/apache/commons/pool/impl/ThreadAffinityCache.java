@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool.impl.GenericKeyedObjectPool.ObjectTimestampPair;
+
+/**
+ * <p>
+ * Per-thread cache of the last instance each thread returned to a pool, used by
+ * {@link GenericObjectPool} and {@link GenericKeyedObjectPool} when thread
+ * affinity is enabled.  Each thread owns one slot; parking an instance in, and
+ * taking it back out of, the calling thread's own slot is a single compare-and-set
+ * and never touches the pool's shared idle list or monitor.
+ * </p>
+ * <p>
+ * Slots of every thread are also registered with the cache so that the owning pool
+ * can {@link #drain(long) reclaim} parked instances - for waiting borrowers, for the
+ * idle object evictor, or when the pool is cleared - and so that instances parked by
+ * threads that have since died are not lost.  A reclaimed instance is removed from
+ * its slot with the same compare-and-set, so an instance is never handed out twice.
+ * </p>
+ * <p>
+ * This class has package scope to prevent its inclusion in the pool public API.
+ * </p>
+ *
+ * @param <K> the type of keys (always <code>null</code> for non-keyed pools)
+ * @param <V> the type of objects held in the pool
+ */
+class ThreadAffinityCache<K, V> {
+
+    /** Slots of all threads that have used the cache */
+    private final ConcurrentLinkedQueue<Slot<K, V>> _slots = new ConcurrentLinkedQueue<Slot<K, V>>();
+
+    /**
+     * The number of parked instances, so that the pool's idle and active counts
+     * need not visit every slot.  Incremented before an instance is parked and
+     * decremented after it leaves its slot, so it never goes negative.
+     */
+    private final AtomicInteger _size = new AtomicInteger();
+
+    /** The calling thread's slot */
+    private final ThreadLocal<Slot<K, V>> _slot = new ThreadLocal<Slot<K, V>>() {
+        @Override
+        protected Slot<K, V> initialValue() {
+            Slot<K, V> slot = new Slot<K, V>(Thread.currentThread());
+            _slots.add(slot);
+            return slot;
+        }
+    };
+
+    /**
+     * Parks an instance in the calling thread's slot.
+     *
+     * @param key the key the instance belongs to
+     * @param value the instance
+     * @return the parked entry, or <code>null</code> if the slot is already occupied
+     */
+    Entry<K, V> park(K key, V value) {
+        final Entry<K, V> entry = new Entry<K, V>(key, new ObjectTimestampPair<V>(value));
+        _size.incrementAndGet();
+        if (_slot.get().compareAndSet(null, entry)) {
+            return entry;
+        }
+        _size.decrementAndGet();
+        return null;
+    }
+
+    /**
+     * Takes a parked entry back out of the calling thread's slot, unless another
+     * thread has reclaimed it in the meantime.
+     *
+     * @param entry the entry returned by {@link #park(Object, Object)}
+     * @return <code>true</code> if the caller owns the instance again
+     */
+    boolean unpark(Entry<K, V> entry) {
+        if (_slot.get().compareAndSet(entry, null)) {
+            _size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the instance parked by the calling thread under the given key.
+     *
+     * @param key the key to look for
+     * @return the parked instance, or <code>null</code> on a miss
+     */
+    ObjectTimestampPair<V> take(Object key) {
+        final Slot<K, V> slot = _slot.get();
+        final Entry<K, V> entry = slot.get();
+        if (entry != null && (key == null ? entry.key == null : key.equals(entry.key)) &&
+                slot.compareAndSet(entry, null)) {
+            _size.decrementAndGet();
+            return entry.pair;
+        }
+        return null;
+    }
+
+    /**
+     * Reclaims every instance parked at or before the given time, and forgets the
+     * slots of threads that have died.
+     *
+     * @param parkedBefore reclaim instances parked at or before this time;
+     * {@link Long#MAX_VALUE} reclaims everything
+     * @return the reclaimed entries, possibly empty
+     */
+    List<Entry<K, V>> drain(long parkedBefore) {
+        List<Entry<K, V>> drained = new ArrayList<Entry<K, V>>();
+        for (Iterator<Slot<K, V>> it = _slots.iterator(); it.hasNext();) {
+            final Slot<K, V> slot = it.next();
+            final Entry<K, V> entry = slot.get();
+            if (entry != null && entry.pair.getTstamp() <= parkedBefore && slot.compareAndSet(entry, null)) {
+                _size.decrementAndGet();
+                drained.add(entry);
+            }
+            if (slot.get() == null && !slot.isOwnerAlive()) {
+                it.remove();
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Returns the number of parked instances without visiting the slots.
+     *
+     * @return the number of parked instances
+     */
+    int size() {
+        return _size.get();
+    }
+
+    /**
+     * Counts the instances parked under a key.  Visits the slot of every thread
+     * that has used the cache; use {@link #size()} for the total.
+     *
+     * @param key only count instances parked under this key, or count all when <code>null</code>
+     * @return the number of parked instances
+     */
+    int size(Object key) {
+        int n = 0;
+        for (Iterator<Slot<K, V>> it = _slots.iterator(); it.hasNext();) {
+            final Entry<K, V> entry = it.next().get();
+            if (entry != null && (key == null || key.equals(entry.key))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * An instance parked by a thread, together with its key and parking time.
+     */
+    static final class Entry<K, V> {
+        final K key;
+        final ObjectTimestampPair<V> pair;
+
+        Entry(K key, ObjectTimestampPair<V> pair) {
+            this.key = key;
+            this.pair = pair;
+        }
+    }
+
+    /**
+     * A thread's slot.  Holds its owner weakly so that slots of dead threads
+     * can be recognised and dropped.
+     */
+    private static final class Slot<K, V> extends AtomicReference<Entry<K, V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final WeakReference<Thread> _owner;
+
+        Slot(Thread owner) {
+            _owner = new WeakReference<Thread>(owner);
+        }
+
+        boolean isOwnerAlive() {
+            final Thread owner = _owner.get();
+            return owner != null && owner.isAlive();
+        }
+    }
+}
@@ -19,13 +19,16 @@ package org.quartz;
 
 import java.io.Serializable;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.SortedSet;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.TreeSet;
@@ -253,6 +256,30 @@ public final class CronExpression implements Serializable, Cloneable {
     protected transient boolean nearestWeekday = false;
     protected transient int lastdayOffset = 0;
     protected transient boolean expressionParsed = false;
+
+    private transient long secondsMask;
+    private transient long minutesMask;
+    private transient long hoursMask;
+    private transient long daysOfMonthMask;
+    private transient long monthsMask;
+    private transient long daysOfWeekMask;
+    private transient int[] yearValues;
+    private transient boolean dayOfMonthSpecified;
+    private transient boolean dayOfWeekSpecified;
+
+    private static final ThreadLocal<Calendar> COMPUTATION_CALENDAR = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new java.util.GregorianCalendar();
+        }
+    };
+
+    private static final ThreadLocal<Calendar> WEEKDAY_CALENDAR = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new java.util.GregorianCalendar();
+        }
+    };
     
     public static final int MAX_YEAR = Calendar.getInstance().get(Calendar.YEAR) + 100;
 
@@ -310,16 +337,14 @@ public final class CronExpression implements Serializable, Cloneable {
      *         expression
      */
     public boolean isSatisfiedBy(Date date) {
-        Calendar testDateCal = Calendar.getInstance(getTimeZone());
-        testDateCal.setTime(date);
-        testDateCal.set(Calendar.MILLISECOND, 0);
-        Date originalDate = testDateCal.getTime();
-        
-        testDateCal.add(Calendar.SECOND, -1);
-        
-        Date timeAfter = getTimeAfter(testDateCal.getTime());
+        // time zones are offset by whole seconds, so truncating the
+        // milliseconds needs no Calendar
+        long time = date.getTime();
+        long originalTime = time - (((time % 1000) + 1000) % 1000);
 
-        return ((timeAfter != null) && (timeAfter.equals(originalDate)));
+        Date timeAfter = getTimeAfter(new Date(originalTime - 1000));
+
+        return ((timeAfter != null) && (timeAfter.getTime() == originalTime));
     }
     
     /**
@@ -512,6 +537,8 @@ public final class CronExpression implements Serializable, Cloneable {
                             "Support for specifying both a day-of-week AND a day-of-month parameter is not implemented.", 0);
                 }
             }
+
+            compileExpression();
         } catch (ParseException pe) {
             throw pe;
         } catch (Exception e) {
@@ -1159,14 +1186,69 @@ public final class CronExpression implements Serializable, Cloneable {
 
     public Date getTimeAfter(Date afterTime) {
 
+        Calendar cl = getComputationCalendar();
+        if (!computeTimeAfter(afterTime.getTime(), cl)) {
+            return null;
+        }
+        return cl.getTime();
+    }
+
+    /**
+     * Returns the next <code>count</code> date/times <I>after</I> the given
+     * date/time which satisfy the cron expression, fewer if the expression
+     * stops matching.
+     * 
+     * @param date the date/time at which to begin the search
+     * @param count the maximum number of date/times to return
+     * @return the next valid date/times, in increasing order
+     */
+    public List<Date> getNextValidTimesAfter(Date date, int count) {
+        List<Date> times = new ArrayList<Date>(Math.max(0, Math.min(count, 1024)));
+        Calendar cl = getComputationCalendar();
+        long afterTime = date.getTime();
+        while (times.size() < count && computeTimeAfter(afterTime, cl)) {
+            afterTime = cl.getTimeInMillis();
+            times.add(new Date(afterTime));
+        }
+        return times;
+    }
+
+    /**
+     * @return this thread's calendar for computations in this expression's
+     *         time zone
+     */
+    private Calendar getComputationCalendar() {
         // Computation is based on Gregorian year only.
-        Calendar cl = new java.util.GregorianCalendar(getTimeZone()); 
+        Calendar cl = COMPUTATION_CALENDAR.get();
+        cl.setTimeZone(getTimeZone());
+        return cl;
+    }
+
+    /**
+     * @return this thread's cleared calendar for the nearest weekday checks
+     *         of "L" and "W" in this expression's time zone, used alongside
+     *         the computation calendar
+     */
+    private Calendar getWeekdayCalendar() {
+        Calendar tcal = WEEKDAY_CALENDAR.get();
+        tcal.clear();
+        tcal.setTimeZone(getTimeZone());
+        return tcal;
+    }
+
+    /**
+     * Computes the next date/time after the given time that satisfies the
+     * expression into the given calendar, by walking the fields' bit masks.
+     * 
+     * @return false if there is no such time
+     */
+    private boolean computeTimeAfter(long afterTimeMillis, Calendar cl) {
 
         // move ahead one second, since we're computing the time *after* the
         // given time
-        afterTime = new Date(afterTime.getTime() + 1000);
+        long afterTime = afterTimeMillis + 1000;
         // CronTrigger does not deal with milliseconds
-        cl.setTime(afterTime);
+        cl.setTimeInMillis(afterTime);
         cl.set(Calendar.MILLISECOND, 0);
 
         boolean gotOne = false;
@@ -1175,21 +1257,21 @@ public final class CronExpression implements Serializable, Cloneable {
 
             //if (endTime != null && cl.getTime().after(endTime)) return null;
             if(cl.get(Calendar.YEAR) > 2999) { // prevent endless loop...
-                return null;
+                return false;
             }
 
-            SortedSet<Integer> st = null;
+            int st;
             int t = 0;
 
             int sec = cl.get(Calendar.SECOND);
             int min = cl.get(Calendar.MINUTE);
 
             // get second.................................................
-            st = seconds.tailSet(sec);
-            if (st != null && st.size() != 0) {
-                sec = st.first();
+            st = nextSetBit(secondsMask, sec);
+            if (st >= 0) {
+                sec = st;
             } else {
-                sec = seconds.first();
+                sec = firstSetBit(secondsMask);
                 min++;
                 cl.set(Calendar.MINUTE, min);
             }
@@ -1200,12 +1282,12 @@ public final class CronExpression implements Serializable, Cloneable {
             t = -1;
 
             // get minute.................................................
-            st = minutes.tailSet(min);
-            if (st != null && st.size() != 0) {
+            st = nextSetBit(minutesMask, min);
+            if (st >= 0) {
                 t = min;
-                min = st.first();
+                min = st;
             } else {
-                min = minutes.first();
+                min = firstSetBit(minutesMask);
                 hr++;
             }
             if (min != t) {
@@ -1221,12 +1303,12 @@ public final class CronExpression implements Serializable, Cloneable {
             t = -1;
 
             // get hour...................................................
-            st = hours.tailSet(hr);
-            if (st != null && st.size() != 0) {
+            st = nextSetBit(hoursMask, hr);
+            if (st >= 0) {
                 t = hr;
-                hr = st.first();
+                hr = st;
             } else {
-                hr = hours.first();
+                hr = firstSetBit(hoursMask);
                 day++;
             }
             if (hr != t) {
@@ -1246,10 +1328,10 @@ public final class CronExpression implements Serializable, Cloneable {
             int tmon = mon;
             
             // get day...................................................
-            boolean dayOfMSpec = !daysOfMonth.contains(NO_SPEC);
-            boolean dayOfWSpec = !daysOfWeek.contains(NO_SPEC);
+            boolean dayOfMSpec = dayOfMonthSpecified;
+            boolean dayOfWSpec = dayOfWeekSpecified;
             if (dayOfMSpec && !dayOfWSpec) { // get day by day of month rule
-                st = daysOfMonth.tailSet(day);
+                st = nextSetBit(daysOfMonthMask, day);
                 if (lastdayOfMonth) {
                     if(!nearestWeekday) {
                         t = day;
@@ -1269,7 +1351,7 @@ public final class CronExpression implements Serializable, Cloneable {
                         day = getLastDayOfMonth(mon, cl.get(Calendar.YEAR));
                         day -= lastdayOffset;
                         
-                        java.util.Calendar tcal = java.util.Calendar.getInstance(getTimeZone());
+                        Calendar tcal = getWeekdayCalendar();
                         tcal.set(Calendar.SECOND, 0);
                         tcal.set(Calendar.MINUTE, 0);
                         tcal.set(Calendar.HOUR_OF_DAY, 0);
@@ -1295,17 +1377,16 @@ public final class CronExpression implements Serializable, Cloneable {
                         tcal.set(Calendar.HOUR_OF_DAY, hr);
                         tcal.set(Calendar.DAY_OF_MONTH, day);
                         tcal.set(Calendar.MONTH, mon - 1);
-                        Date nTime = tcal.getTime();
-                        if(nTime.before(afterTime)) {
+                        if(tcal.getTimeInMillis() < afterTime) {
                             day = 1;
                             mon++;
                         }
                     }
                 } else if(nearestWeekday) {
                     t = day;
-                    day = daysOfMonth.first();
+                    day = firstSetBit(daysOfMonthMask);
 
-                    java.util.Calendar tcal = java.util.Calendar.getInstance(getTimeZone());
+                    Calendar tcal = getWeekdayCalendar();
                     tcal.set(Calendar.SECOND, 0);
                     tcal.set(Calendar.MINUTE, 0);
                     tcal.set(Calendar.HOUR_OF_DAY, 0);
@@ -1332,22 +1413,21 @@ public final class CronExpression implements Serializable, Cloneable {
                     tcal.set(Calendar.HOUR_OF_DAY, hr);
                     tcal.set(Calendar.DAY_OF_MONTH, day);
                     tcal.set(Calendar.MONTH, mon - 1);
-                    Date nTime = tcal.getTime();
-                    if(nTime.before(afterTime)) {
-                        day = daysOfMonth.first();
+                    if(tcal.getTimeInMillis() < afterTime) {
+                        day = firstSetBit(daysOfMonthMask);
                         mon++;
                     }
-                } else if (st != null && st.size() != 0) {
+                } else if (st >= 0) {
                     t = day;
-                    day = st.first();
+                    day = st;
                     // make sure we don't over-run a short month, such as february
                     int lastDay = getLastDayOfMonth(mon, cl.get(Calendar.YEAR));
                     if (day > lastDay) {
-                        day = daysOfMonth.first();
+                        day = firstSetBit(daysOfMonthMask);
                         mon++;
                     }
                 } else {
-                    day = daysOfMonth.first();
+                    day = firstSetBit(daysOfMonthMask);
                     mon++;
                 }
                 
@@ -1364,7 +1444,7 @@ public final class CronExpression implements Serializable, Cloneable {
             } else if (dayOfWSpec && !dayOfMSpec) { // get day by day of week rule
                 if (lastdayOfWeek) { // are we looking for the last XXX day of
                     // the month?
-                    int dow = daysOfWeek.first(); // desired
+                    int dow = firstSetBit(daysOfWeekMask); // desired
                     // d-o-w
                     int cDow = cl.get(Calendar.DAY_OF_WEEK); // current d-o-w
                     int daysToAdd = 0;
@@ -1407,7 +1487,7 @@ public final class CronExpression implements Serializable, Cloneable {
 
                 } else if (nthdayOfWeek != 0) {
                     // are we looking for the Nth XXX day in the month?
-                    int dow = daysOfWeek.first(); // desired
+                    int dow = firstSetBit(daysOfWeekMask); // desired
                     // d-o-w
                     int cDow = cl.get(Calendar.DAY_OF_WEEK); // current d-o-w
                     int daysToAdd = 0;
@@ -1451,11 +1531,11 @@ public final class CronExpression implements Serializable, Cloneable {
                     }
                 } else {
                     int cDow = cl.get(Calendar.DAY_OF_WEEK); // current d-o-w
-                    int dow = daysOfWeek.first(); // desired
+                    int dow = firstSetBit(daysOfWeekMask); // desired
                     // d-o-w
-                    st = daysOfWeek.tailSet(cDow);
-                    if (st != null && st.size() > 0) {
-                        dow = st.first();
+                    st = nextSetBit(daysOfWeekMask, cDow);
+                    if (st >= 0) {
+                        dow = st;
                     }
 
                     int daysToAdd = 0;
@@ -1503,16 +1583,16 @@ public final class CronExpression implements Serializable, Cloneable {
             // test for expressions that never generate a valid fire date,
             // but keep looping...
             if (year > MAX_YEAR) {
-                return null;
+                return false;
             }
 
             // get month...................................................
-            st = months.tailSet(mon);
-            if (st != null && st.size() != 0) {
+            st = nextSetBit(monthsMask, mon);
+            if (st >= 0) {
                 t = mon;
-                mon = st.first();
+                mon = st;
             } else {
-                mon = months.first();
+                mon = firstSetBit(monthsMask);
                 year++;
             }
             if (mon != t) {
@@ -1534,12 +1614,12 @@ public final class CronExpression implements Serializable, Cloneable {
             t = -1;
 
             // get year...................................................
-            st = years.tailSet(year);
-            if (st != null && st.size() != 0) {
+            st = nextYear(year);
+            if (st >= 0) {
                 t = year;
-                year = st.first();
+                year = st;
             } else {
-                return null; // ran out of years...
+                return false; // ran out of years...
             }
 
             if (year != t) {
@@ -1558,7 +1638,75 @@ public final class CronExpression implements Serializable, Cloneable {
             gotOne = true;
         } // while( !done )
 
-        return cl.getTime();
+        return true;
+    }
+
+    /**
+     * @return the smallest value of the mask's field that is at least
+     *         <code>from</code>, or -1 if there is none
+     */
+    private static int nextSetBit(long mask, int from) {
+        if (from > 63) {
+            return -1;
+        }
+        long m = mask & (-1L << Math.max(from, 0));
+        return (m == 0) ? -1 : Long.numberOfTrailingZeros(m);
+    }
+
+    /**
+     * @return the smallest value of the mask's field
+     * @throws NoSuchElementException if the field has no value, as 
+     *         <code>TreeSet.first()</code> does
+     */
+    private static int firstSetBit(long mask) {
+        if (mask == 0) {
+            throw new NoSuchElementException();
+        }
+        return Long.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * @return the first year of the expression that is at least 
+     *         <code>from</code>, or -1 if there is none
+     */
+    private int nextYear(int from) {
+        int i = Arrays.binarySearch(yearValues, from);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return (i < yearValues.length) ? yearValues[i] : -1;
+    }
+
+    /**
+     * Compiles the parsed field sets into the bit masks (and the sorted year
+     * array) that <code>getTimeAfter</code> walks.  The '*' and '?' markers
+     * are left out of the masks: a '*' field holds all of its values, so the
+     * marker is never the answer of a lookup within the field's range.
+     */
+    private void compileExpression() {
+        secondsMask = toMask(seconds);
+        minutesMask = toMask(minutes);
+        hoursMask = toMask(hours);
+        daysOfMonthMask = toMask(daysOfMonth);
+        monthsMask = toMask(months);
+        daysOfWeekMask = toMask(daysOfWeek);
+        yearValues = new int[years.size()];
+        int i = 0;
+        for (Integer year : years) {
+            yearValues[i++] = year;
+        }
+        dayOfMonthSpecified = !daysOfMonth.contains(NO_SPEC);
+        dayOfWeekSpecified = !daysOfWeek.contains(NO_SPEC);
+    }
+
+    private static long toMask(TreeSet<Integer> set) {
+        long mask = 0L;
+        for (Integer value : set) {
+            if (value >= 0 && value < 64) {
+                mask |= 1L << value;
+            }
+        }
+        return mask;
     }
 
     /**
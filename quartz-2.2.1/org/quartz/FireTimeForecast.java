@@ -0,0 +1,446 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.quartz.Trigger.TriggerState;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.spi.JobStore;
+import org.quartz.spi.OperableTrigger;
+
+/**
+ * <p>
+ * A forecast of the times at which a set of <code>{@link Trigger}s</code>
+ * will fire within a window of time, taking the
+ * <code>{@link Calendar}s</code> they reference into account.
+ * </p>
+ *
+ * <p>
+ * Iterating a forecast streams the fire times of all of its triggers merged
+ * into a single time-ordered sequence, holding no more than one pending fire
+ * time per trigger.  Where a trigger's calendar excludes a fire time, the
+ * forecast asks the calendar for its next included time and continues from
+ * the trigger's first fire time after that, rather than visiting each
+ * excluded occurrence in turn as <code>{@link Trigger}</code> itself does -
+ * it therefore relies on <code>{@link Calendar#getNextIncludedTime(long)}</code>
+ * not skipping over included times.
+ * </p>
+ *
+ * <p>
+ * A forecast of a <code>{@link Scheduler}</code> or a
+ * <code>{@link JobStore}</code> takes a snapshot of their triggers and
+ * calendars when it is created, leaving out triggers that are paused,
+ * complete or in error.  The forecast can be iterated any number of times.
+ * </p>
+ *
+ * @see TriggerUtils#computeFireTimesBetween(OperableTrigger, Calendar, Date, Date)
+ */
+public final class FireTimeForecast implements Iterable<FireTimeForecast.ScheduledFire> {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private static final long ONE_MINUTE = 60L * 1000L;
+
+    private final List<OperableTrigger> triggers;
+
+    private final Map<String, Calendar> calendars;
+
+    private final long from;
+
+    private final long to;
+
+    private final boolean computeFirstFireTimes;
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Constructors.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private FireTimeForecast(List<OperableTrigger> triggers, Map<String, Calendar> calendars,
+            Date from, Date to, boolean computeFirstFireTimes) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("The forecast window must have a start and an end.");
+        }
+        if (to.before(from)) {
+            throw new IllegalArgumentException("The end of the forecast window must not be before its start.");
+        }
+        this.triggers = triggers;
+        this.calendars = calendars;
+        this.from = from.getTime();
+        this.to = to.getTime();
+        this.computeFirstFireTimes = computeFirstFireTimes;
+    }
+
+    /**
+     * <p>
+     * Forecast the fire times, between the given dates (inclusive), of all
+     * triggers currently stored in the given <code>{@link Scheduler}</code>.
+     * </p>
+     */
+    public static FireTimeForecast forScheduler(Scheduler sched, Date from, Date to)
+        throws SchedulerException {
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>();
+        Map<String, Calendar> calendars = new HashMap<String, Calendar>();
+
+        for (TriggerKey key : sched.getTriggerKeys(GroupMatcher.anyTriggerGroup())) {
+            if (!isForecast(sched.getTriggerState(key))) {
+                continue;
+            }
+            Trigger trigger = sched.getTrigger(key);
+            if (trigger == null) {
+                continue;
+            }
+            String calName = trigger.getCalendarName();
+            if (calName != null && !calendars.containsKey(calName)) {
+                calendars.put(calName, sched.getCalendar(calName));
+            }
+            triggers.add((OperableTrigger) trigger);
+        }
+
+        return new FireTimeForecast(triggers, calendars, from, to, false);
+    }
+
+    /**
+     * <p>
+     * Forecast the fire times, between the given dates (inclusive), of all
+     * triggers currently stored in the given <code>{@link JobStore}</code>.
+     * </p>
+     */
+    public static FireTimeForecast forJobStore(JobStore jobStore, Date from, Date to)
+        throws JobPersistenceException {
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>();
+        Map<String, Calendar> calendars = new HashMap<String, Calendar>();
+
+        for (TriggerKey key : jobStore.getTriggerKeys(GroupMatcher.anyTriggerGroup())) {
+            if (!isForecast(jobStore.getTriggerState(key))) {
+                continue;
+            }
+            OperableTrigger trigger = jobStore.retrieveTrigger(key);
+            if (trigger == null) {
+                continue;
+            }
+            String calName = trigger.getCalendarName();
+            if (calName != null && !calendars.containsKey(calName)) {
+                calendars.put(calName, jobStore.retrieveCalendar(calName));
+            }
+            triggers.add(trigger);
+        }
+
+        return new FireTimeForecast(triggers, calendars, from, to, false);
+    }
+
+    /**
+     * <p>
+     * Forecast the fire times, between the given dates (inclusive), of the
+     * given triggers, which need not have been scheduled.  The first fire
+     * time of a trigger that has none yet is computed the way the scheduler
+     * would when it is scheduled.
+     * </p>
+     *
+     * @param calendars
+     *          the calendars referenced by the triggers, by name
+     */
+    public static FireTimeForecast forTriggers(Collection<? extends Trigger> triggers,
+            Map<String, ? extends Calendar> calendars, Date from, Date to) {
+        List<OperableTrigger> operableTriggers = new ArrayList<OperableTrigger>(triggers.size());
+        for (Trigger trigger : triggers) {
+            operableTriggers.add((OperableTrigger) trigger);
+        }
+        Map<String, Calendar> cals = new HashMap<String, Calendar>();
+        if (calendars != null) {
+            cals.putAll(calendars);
+        }
+        return new FireTimeForecast(operableTriggers, cals, from, to, true);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    public Date getFrom() {
+        return new Date(from);
+    }
+
+    public Date getTo() {
+        return new Date(to);
+    }
+
+    /**
+     * <p>
+     * Stream the fire times of all triggers of the forecast in time order.
+     * Fire times that are equal are ordered by descending trigger priority,
+     * then by trigger key.
+     * </p>
+     */
+    public Iterator<ScheduledFire> iterator() {
+        return new MergingIterator();
+    }
+
+    /**
+     * <p>
+     * Get all fire times of the forecast, in time order.
+     * </p>
+     */
+    public List<ScheduledFire> getScheduledFires() {
+        List<ScheduledFire> fires = new ArrayList<ScheduledFire>();
+        for (ScheduledFire fire : this) {
+            fires.add(fire);
+        }
+        return Collections.unmodifiableList(fires);
+    }
+
+    /**
+     * <p>
+     * Count the fire times of the forecast per period of the given length,
+     * with the first period starting at the start of the forecast window.
+     * </p>
+     *
+     * @return the counts, one per period; the last period may be cut short
+     *         by the end of the window
+     */
+    public int[] getFireDensity(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("The period must be greater than 0.");
+        }
+        long buckets = (to - from) / periodMillis + 1;
+        if (buckets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The period is too short for the forecast window.");
+        }
+        int[] density = new int[(int) buckets];
+
+        // the counts do not depend on the order, so skip the merge
+        for (OperableTrigger trigger : triggers) {
+            Cursor cursor = newCursor(trigger);
+            while (cursor != null && cursor.fireTime != null) {
+                density[(int) ((cursor.fireTime.getTime() - from) / periodMillis)]++;
+                advance(cursor);
+            }
+        }
+        return density;
+    }
+
+    /**
+     * <p>
+     * Count the fire times of the forecast per minute.
+     * </p>
+     *
+     * @see #getFireDensity(long)
+     */
+    public int[] getFireDensityPerMinute() {
+        return getFireDensity(ONE_MINUTE);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Helpers.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private static boolean isForecast(TriggerState state) {
+        return state == TriggerState.NORMAL || state == TriggerState.BLOCKED;
+    }
+
+    /**
+     * @return a cursor positioned at the trigger's first fire time in the
+     *         window, or <code>null</code> if it has none
+     */
+    private Cursor newCursor(OperableTrigger trigger) {
+        OperableTrigger t = (OperableTrigger) trigger.clone();
+        Calendar cal = (t.getCalendarName() == null) ? null : calendars.get(t.getCalendarName());
+
+        Date fireTime = t.getNextFireTime();
+        if (fireTime == null) {
+            if (!computeFirstFireTimes) {
+                return null;
+            }
+            fireTime = t.computeFirstFireTime(cal);
+        }
+        if (fireTime != null && fireTime.getTime() < from) {
+            fireTime = t.getFireTimeAfter(new Date(from - 1));
+        }
+
+        Cursor cursor = new Cursor(t, cal);
+        cursor.fireTime = skipExcluded(cursor, fireTime);
+        return (cursor.fireTime == null) ? null : cursor;
+    }
+
+    /**
+     * Move the cursor to its trigger's next fire time in the window.
+     */
+    private void advance(Cursor cursor) {
+        OperableTrigger t = cursor.trigger;
+        t.setNextFireTime(cursor.fireTime);
+        t.triggered(null);
+        cursor.fireTime = skipExcluded(cursor, t.getNextFireTime());
+    }
+
+    /**
+     * @return the first fire time of the cursor's trigger at or after the
+     *         given one that its calendar includes, or <code>null</code> if
+     *         there is none in the window
+     */
+    private Date skipExcluded(Cursor cursor, Date fireTime) {
+        Calendar cal = cursor.calendar;
+        while (fireTime != null && fireTime.getTime() <= to) {
+            long time = fireTime.getTime();
+            if (cal == null || cal.isTimeIncluded(time)) {
+                return fireTime;
+            }
+            long included = cal.getNextIncludedTime(time);
+            if (included > to) {
+                return null;
+            }
+            fireTime = cursor.trigger.getFireTimeAfter(
+                    (included > time) ? new Date(included - 1) : fireTime);
+        }
+        return null;
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Nested classes.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * A forecast firing of a <code>{@link Trigger}</code>.
+     * </p>
+     */
+    public static final class ScheduledFire {
+
+        private final TriggerKey triggerKey;
+
+        private final JobKey jobKey;
+
+        private final Date fireTime;
+
+        private ScheduledFire(TriggerKey triggerKey, JobKey jobKey, Date fireTime) {
+            this.triggerKey = triggerKey;
+            this.jobKey = jobKey;
+            this.fireTime = fireTime;
+        }
+
+        public TriggerKey getTriggerKey() {
+            return triggerKey;
+        }
+
+        public JobKey getJobKey() {
+            return jobKey;
+        }
+
+        public Date getFireTime() {
+            return new Date(fireTime.getTime());
+        }
+
+        @Override
+        public String toString() {
+            return triggerKey + " (" + jobKey + ") at " + fireTime;
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+
+        final OperableTrigger trigger;
+
+        final Calendar calendar;
+
+        Date fireTime;
+
+        Cursor(OperableTrigger trigger, Calendar calendar) {
+            this.trigger = trigger;
+            this.calendar = calendar;
+        }
+
+        public int compareTo(Cursor other) {
+            int comp = fireTime.compareTo(other.fireTime);
+            if (comp != 0) {
+                return comp;
+            }
+            comp = other.trigger.getPriority() - trigger.getPriority();
+            if (comp != 0) {
+                return comp;
+            }
+            return trigger.getKey().compareTo(other.trigger.getKey());
+        }
+    }
+
+    private final class MergingIterator implements Iterator<ScheduledFire> {
+
+        private final PriorityQueue<Cursor> cursors;
+
+        MergingIterator() {
+            cursors = new PriorityQueue<Cursor>(Math.max(1, triggers.size()));
+            for (OperableTrigger trigger : triggers) {
+                Cursor cursor = newCursor(trigger);
+                if (cursor != null) {
+                    cursors.add(cursor);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !cursors.isEmpty();
+        }
+
+        public ScheduledFire next() {
+            Cursor cursor = cursors.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            ScheduledFire fire = new ScheduledFire(
+                    cursor.trigger.getKey(), cursor.trigger.getJobKey(), cursor.fireTime);
+            advance(cursor);
+            if (cursor.fireTime != null) {
+                cursors.add(cursor);
+            }
+            return fire;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
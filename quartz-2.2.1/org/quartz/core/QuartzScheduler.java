@@ -565,6 +565,9 @@ public class QuartzScheduler implements RemotableQuartzScheduler {
         if (initialStart == null) {
             initialStart = new Date();
             this.resources.getJobStore().schedulerStarted();            
+            if (resources.getSchedulingChangeChannel() != null) {
+                resources.getSchedulingChangeChannel().start();
+            }
             startPlugins();
         } else {
             resources.getJobStore().schedulerResumed();
@@ -720,6 +723,10 @@ public class QuartzScheduler implements RemotableQuartzScheduler {
         standby();
 
         schedThread.halt(waitForJobsToComplete);
+
+        if (resources.getSchedulingChangeChannel() != null) {
+            resources.getSchedulingChangeChannel().shutdown();
+        }
         
         notifySchedulerListenersShuttingdown();
         
@@ -1811,6 +1818,9 @@ J     *
     protected void notifySchedulerThread(long candidateNewNextFireTime) {
         if (isSignalOnSchedulingChange()) {
             signaler.signalSchedulingChange(candidateNewNextFireTime);
+            if (resources.getSchedulingChangeChannel() != null) {
+                resources.getSchedulingChangeChannel().schedulingChanged(candidateNewNextFireTime);
+            }
         }
     }
 
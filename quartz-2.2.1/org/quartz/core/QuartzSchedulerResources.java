@@ -24,6 +24,7 @@ import java.util.List;
 import org.quartz.management.ManagementRESTServiceConfiguration;
 import org.quartz.spi.JobStore;
 import org.quartz.spi.SchedulerPlugin;
+import org.quartz.spi.SchedulingChangeChannel;
 import org.quartz.spi.ThreadExecutor;
 import org.quartz.spi.ThreadPool;
 
@@ -89,6 +90,8 @@ public class QuartzSchedulerResources {
 
     private ThreadExecutor threadExecutor;
 
+    private SchedulingChangeChannel schedulingChangeChannel;
+
     private boolean runUpdateCheck = true;
 
     private long batchTimeWindow = 0;
@@ -529,6 +532,23 @@ public class QuartzSchedulerResources {
         this.threadExecutor = threadExecutor;
     }
 
+    /**
+     * Get the SchedulingChangeChannel which carries changes to the schedule
+     * between the scheduler instances sharing the JobStore, or null if there
+     * is none.
+     */
+    public SchedulingChangeChannel getSchedulingChangeChannel() {
+        return schedulingChangeChannel;
+    }
+
+    /**
+     * Set the SchedulingChangeChannel which carries changes to the schedule
+     * between the scheduler instances sharing the JobStore.
+     */
+    public void setSchedulingChangeChannel(SchedulingChangeChannel schedulingChangeChannel) {
+        this.schedulingChangeChannel = schedulingChangeChannel;
+    }
+
     /**
      * Create the name under which this scheduler should be registered in JMX.
      * <p>
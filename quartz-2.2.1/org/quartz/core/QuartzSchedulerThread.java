@@ -21,12 +21,16 @@ package org.quartz.core;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import org.quartz.JobPersistenceException;
 import org.quartz.SchedulerException;
 import org.quartz.Trigger;
 import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.spi.EarliestFireTimeAware;
+import org.quartz.spi.JobStore;
 import org.quartz.spi.OperableTrigger;
 import org.quartz.spi.TriggerFiredBundle;
 import org.quartz.spi.TriggerFiredResult;
@@ -66,6 +70,16 @@ public class QuartzSchedulerThread extends Thread {
 
     private AtomicBoolean halted;
 
+    // the thread running the main processing loop, which is parked while it
+    // waits, and unparked when it is signaled - not necessarily this thread,
+    // as a ThreadExecutor may run it on another
+    private volatile Thread runner;
+
+    // whether the runner was interrupted while parked: park() returns at once
+    // while the interrupt status is set, so it is cleared to keep waiting, and
+    // restored when the loop ends
+    private boolean interrupted;
+
     private Random random = new Random(System.currentTimeMillis());
 
     // When the scheduler finds there is no current trigger to fire, how long
@@ -152,7 +166,7 @@ public class QuartzSchedulerThread extends Thread {
             if (paused) {
                 signalSchedulingChange(0);
             } else {
-                sigLock.notifyAll();
+                wakeUp();
             }
         }
     }
@@ -167,7 +181,7 @@ public class QuartzSchedulerThread extends Thread {
             halted.set(true);
 
             if (paused) {
-                sigLock.notifyAll();
+                wakeUp();
             } else {
                 signalSchedulingChange(0);
             }
@@ -211,8 +225,8 @@ public class QuartzSchedulerThread extends Thread {
         synchronized(sigLock) {
             signaled = true;
             signaledNextFireTime = candidateNewNextFireTime;
-            sigLock.notifyAll();
         }
+        wakeUp();
     }
 
     public void clearSignaledSchedulingChange() {
@@ -242,24 +256,28 @@ public class QuartzSchedulerThread extends Thread {
     @Override
     public void run() {
         boolean lastAcquireFailed = false;
+        runner = Thread.currentThread();
 
         while (!halted.get()) {
             try {
                 // check if we're supposed to pause...
-                synchronized (sigLock) {
-                    while (paused && !halted.get()) {
-                        try {
-                            // wait until togglePause(false) is called...
-                            sigLock.wait(1000L);
-                        } catch (InterruptedException ignore) {
+                while (true) {
+                    synchronized (sigLock) {
+                        if (!paused || halted.get()) {
+                            break;
                         }
                     }
-
-                    if (halted.get()) {
-                        break;
+                    // wait until togglePause(false) or halt() is called...
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        interrupted = true;
                     }
                 }
 
+                if (halted.get()) {
+                    break;
+                }
+
                 int availThreadCount = qsRsrcs.getThreadPool().blockForAvailableThreads();
                 if(availThreadCount > 0) { // will always be true, due to semantics of blockForAvailableThreads...
 
@@ -296,22 +314,14 @@ public class QuartzSchedulerThread extends Thread {
                         now = System.currentTimeMillis();
                         long triggerTime = triggers.get(0).getNextFireTime().getTime();
                         long timeUntilTrigger = triggerTime - now;
-                        while(timeUntilTrigger > 2) {
-                            synchronized (sigLock) {
-                                if (halted.get()) {
-                                    break;
-                                }
-                                if (!isCandidateNewTimeEarlierWithinReason(triggerTime, false)) {
-                                    try {
-                                        // we could have blocked a long while
-                                        // on 'synchronize', so we must recompute
-                                        now = System.currentTimeMillis();
-                                        timeUntilTrigger = triggerTime - now;
-                                        if(timeUntilTrigger >= 1)
-                                            sigLock.wait(timeUntilTrigger);
-                                    } catch (InterruptedException ignore) {
-                                    }
-                                }
+                        while(timeUntilTrigger > 0) {
+                            if (halted.get()) {
+                                break;
+                            }
+                            if (!isCandidateNewTimeEarlierWithinReason(triggerTime, false)) {
+                                // a signal sent after the check above unparks
+                                // the wait right away
+                                parkUntil(triggerTime);
                             }
                             if(releaseIfScheduleChangedSignificantly(triggers, triggerTime)) {
                                 break;
@@ -396,22 +406,14 @@ public class QuartzSchedulerThread extends Thread {
                     continue; // while (!halted)
                 }
 
-                long now = System.currentTimeMillis();
-                long waitTime = now + getRandomizedIdleWaitTime();
-                long timeUntilContinue = waitTime - now;
-                synchronized(sigLock) {
-                    try {
-                      if(!halted.get()) {
-                        // QTZ-336 A job might have been completed in the mean time and we might have
-                        // missed the scheduled changed signal by not waiting for the notify() yet
-                        // Check that before waiting for too long in case this very job needs to be
-                        // scheduled very soon
-                        if (!isScheduleChanged()) {
-                          sigLock.wait(timeUntilContinue);
-                        }
-                      }
-                    } catch (InterruptedException ignore) {
-                    }
+                long waitTime = getIdleWaitUntil(System.currentTimeMillis());
+                // QTZ-336 A job might have been completed in the mean time and we might have
+                // missed the scheduled changed signal by not waiting for the unpark() yet
+                // Check that before waiting for too long in case this very job needs to be
+                // scheduled very soon
+                while (!halted.get() && !isScheduleChanged()
+                        && System.currentTimeMillis() < waitTime) {
+                    parkUntil(waitTime);
                 }
 
             } catch(RuntimeException re) {
@@ -422,6 +424,74 @@ public class QuartzSchedulerThread extends Thread {
         // drop references to scheduler stuff to aid garbage collection...
         qs = null;
         qsRsrcs = null;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * <p>
+     * Get the time to park until when no trigger fires within the idle wait
+     * time.  If the job store can tell when its earliest trigger fires, and
+     * every change to the schedule is signaled to this thread, that is the
+     * idle wait time before the earliest trigger fires, so that the trigger
+     * is acquired in time, or never if there is no trigger; otherwise it is
+     * the randomized idle wait time.
+     * </p>
+     */
+    private long getIdleWaitUntil(long now) {
+        long waitTime = now + getRandomizedIdleWaitTime();
+
+        JobStore jobStore = qsRsrcs.getJobStore();
+        if (!(jobStore instanceof EarliestFireTimeAware)
+                || (jobStore.isClustered() && qsRsrcs.getSchedulingChangeChannel() == null)) {
+            // changes made by the other instances are only seen by looking
+            return waitTime;
+        }
+
+        long nextFireTime;
+        try {
+            nextFireTime = ((EarliestFireTimeAware) jobStore).getEarliestNextFireTime();
+        } catch (JobPersistenceException jpe) {
+            getLog().debug("Couldn't obtain the earliest next fire time, waiting the idle wait time.", jpe);
+            return waitTime;
+        }
+        if (nextFireTime == 0L) {
+            return Long.MAX_VALUE;
+        }
+        // a trigger that was due but not acquired, such as a misfired one,
+        // is left to the idle wait time
+        return Math.max(waitTime, nextFireTime - idleWaitTime);
+    }
+
+    /**
+     * <p>
+     * Wakes the main processing loop up if it is waiting.
+     * </p>
+     */
+    private void wakeUp() {
+        Thread waiter = runner;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * <p>
+     * Parks the calling thread until the given time, or until it is woken up
+     * - whichever comes first.  Callers must check again what they wait for.
+     * </p>
+     */
+    private void parkUntil(long timeMillis) {
+        long timeUntil = timeMillis - System.currentTimeMillis();
+        if (timeUntil > 0) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeUntil));
+        }
+        // park() returns on interruption, which must not keep it from parking again
+        if (Thread.interrupted()) {
+            interrupted = true;
+        }
     }
 
     private boolean releaseIfScheduleChangedSignificantly(
@@ -50,6 +50,7 @@ import org.quartz.impl.jdbcjobstore.Semaphore;
 import org.quartz.impl.jdbcjobstore.TablePrefixAware;
 import org.quartz.impl.matchers.EverythingMatcher;
 import org.quartz.management.ManagementRESTServiceConfiguration;
+import org.quartz.simpl.ExecutorThreadPoolSupport;
 import org.quartz.simpl.RAMJobStore;
 import org.quartz.simpl.SimpleThreadPool;
 import org.quartz.spi.ClassLoadHelper;
@@ -57,6 +58,7 @@ import org.quartz.spi.InstanceIdGenerator;
 import org.quartz.spi.JobFactory;
 import org.quartz.spi.JobStore;
 import org.quartz.spi.SchedulerPlugin;
+import org.quartz.spi.SchedulingChangeChannel;
 import org.quartz.spi.ThreadExecutor;
 import org.quartz.spi.ThreadPool;
 import org.quartz.utils.ConnectionProvider;
@@ -280,6 +282,10 @@ public class StdSchedulerFactory implements SchedulerFactory {
 
     public static final String PROP_THREAD_EXECUTOR_CLASS = "org.quartz.threadExecutor.class";
 
+    public static final String PROP_SCHEDULING_CHANGE_CHANNEL = "org.quartz.schedulingChangeChannel";
+
+    public static final String PROP_SCHEDULING_CHANGE_CHANNEL_CLASS = "org.quartz.schedulingChangeChannel.class";
+
     public static final String SYSTEM_PROPERTY_AS_INSTANCE_ID = "SYS_PROP";
     
     public static final String MANAGEMENT_REST_SERVICE_ENABLED = "org.quartz.managementRESTService.enabled";
@@ -618,6 +624,7 @@ public class StdSchedulerFactory implements SchedulerFactory {
         String classLoadHelperClass;
         String jobFactoryClass;
         ThreadExecutor threadExecutor;
+        SchedulingChangeChannel schedulingChangeChannel = null;
 
 
         SchedulerRepository schedRep = SchedulerRepository.getInstance();
@@ -1185,6 +1192,24 @@ public class StdSchedulerFactory implements SchedulerFactory {
             threadExecutor = new DefaultThreadExecutor();
         }
 
+        // Get SchedulingChangeChannel Properties
+        // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+        String schedulingChangeChannelClass = cfg.getStringProperty(PROP_SCHEDULING_CHANGE_CHANNEL_CLASS);
+        if (schedulingChangeChannelClass != null) {
+            tProps = cfg.getPropertyGroup(PROP_SCHEDULING_CHANGE_CHANNEL, true);
+            try {
+                schedulingChangeChannel = (SchedulingChangeChannel) loadHelper.loadClass(schedulingChangeChannelClass).newInstance();
+                log.info("Using SchedulingChangeChannel: " + schedulingChangeChannelClass);
+
+                setBeanProps(schedulingChangeChannel, tProps);
+            } catch (Exception e) {
+                initException = new SchedulerException(
+                        "SchedulingChangeChannel class '" + schedulingChangeChannelClass + "' could not be instantiated.", e);
+                throw initException;
+            }
+        }
+
 
 
         // Fire everything up
@@ -1278,12 +1303,16 @@ public class StdSchedulerFactory implements SchedulerFactory {
             SchedulerDetailsSetter.setDetails(tp, schedName, schedInstId);
 
             rsrcs.setThreadExecutor(threadExecutor);
+            rsrcs.setSchedulingChangeChannel(schedulingChangeChannel);
             threadExecutor.initialize();
 
             rsrcs.setThreadPool(tp);
             if(tp instanceof SimpleThreadPool) {
                 if(threadsInheritInitalizersClassLoader)
                     ((SimpleThreadPool)tp).setThreadsInheritContextClassLoaderOfInitializingThread(threadsInheritInitalizersClassLoader);
+            } else if(tp instanceof ExecutorThreadPoolSupport) {
+                if(threadsInheritInitalizersClassLoader)
+                    ((ExecutorThreadPoolSupport)tp).setThreadsInheritContextClassLoaderOfInitializingThread(threadsInheritInitalizersClassLoader);
             }
             tp.initialize();
             tpInited = true;
@@ -1332,6 +1361,10 @@ public class StdSchedulerFactory implements SchedulerFactory {
             js.setThreadPoolSize(tp.getPoolSize());
             js.initialize(loadHelper, qs.getSchedulerSignaler());
 
+            if (schedulingChangeChannel != null) {
+                schedulingChangeChannel.initialize(js, qs.getSchedulerSignaler());
+            }
+
             jrsf.initialize(scheduler);
             
             qs.initialize();
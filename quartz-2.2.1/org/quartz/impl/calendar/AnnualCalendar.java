@@ -32,6 +32,15 @@ import org.quartz.Calendar;
  * may use it to exclude bank holidays which are on the same date every year.
  * </p>
  * 
+ * <p>
+ * The calendar keeps its own list of excluded days: unlike earlier versions,
+ * <code>{@link #getDaysExcluded()}</code> returns a copy and
+ * <code>{@link #setDaysExcluded(ArrayList)}</code> copies its argument, so
+ * changing either list afterwards does not change the calendar.  Use
+ * <code>{@link #setDayExcluded(java.util.Calendar, boolean)}</code> to
+ * exclude or include single days.
+ * </p>
+ * 
  * @see org.quartz.Calendar
  * @see org.quartz.impl.calendar.BaseCalendar
  * 
@@ -47,6 +56,11 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
     // true, if excludeDays is sorted
     private boolean dataSorted = false;
 
+    // The excluded days of the years in use, compiled on demand; excludeDays
+    // is never exposed, so every change to it goes through a method that
+    // drops the index
+    private transient volatile DayIndex dayIndex;
+
     public AnnualCalendar() {
     }
 
@@ -71,11 +85,14 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
 
     /**
      * <p>
-     * Get the array which defines the exclude-value of each day of month
+     * Get the array which defines the exclude-value of each day of month.
+     * The returned list is a copy; use <code>{@link #setDaysExcluded(ArrayList)}</code>
+     * or <code>{@link #setDayExcluded(java.util.Calendar, boolean)}</code>
+     * to change the excluded days.
      * </p>
      */
     public ArrayList<java.util.Calendar> getDaysExcluded() {
-        return excludeDays;
+        return new ArrayList<java.util.Calendar>(excludeDays);
     }
 
     /**
@@ -95,9 +112,11 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
          return true;
         } 
         
-        int dmonth = day.get(java.util.Calendar.MONTH);
-        int dday = day.get(java.util.Calendar.DAY_OF_MONTH);
+        return isInExcludeDays(day.get(java.util.Calendar.MONTH),
+                day.get(java.util.Calendar.DAY_OF_MONTH));
+    }
 
+    private boolean isInExcludeDays(int dmonth, int dday) {
         if (dataSorted == false) {
             Collections.sort(excludeDays, new CalendarComparator());
             dataSorted = true;
@@ -129,17 +148,19 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
     /**
      * <p>
      * Redefine the list of days excluded. The ArrayList 
-     * should contain <code>java.util.Calendar</code> objects. 
+     * should contain <code>java.util.Calendar</code> objects.  The list is
+     * copied, so later changes to it do not affect the calendar.
      * </p>
      */
     public void setDaysExcluded(ArrayList<java.util.Calendar> days) {
         if (days == null) {
             excludeDays = new ArrayList<java.util.Calendar>();
         } else {
-            excludeDays = days;
+            excludeDays = new ArrayList<java.util.Calendar>(days);
         }
 
         dataSorted = false;
+        dayIndex = null;
     }
 
     /**
@@ -155,6 +176,7 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
 
             excludeDays.add(day);
             dataSorted = false;
+            dayIndex = null;
         } else {
             if (!isDayExcluded(day)) {
                 return;
@@ -178,6 +200,8 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
             ! isDayExcluded(day)) {
             return;
         }
+
+        dayIndex = null;
         
         // Fast way, see if exact day object was already in list
         if (this.excludeDays.remove(day)) {
@@ -225,9 +249,7 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
         // excludes the time/date, continue evaluating this calendar instance.
         if (super.isTimeIncluded(timeStamp) == false) { return false; }
 
-        java.util.Calendar day = createJavaCalendar(timeStamp);
-
-        return !(isDayExcluded(day));
+        return !getDayIndex(timeStamp).isExcluded(timeStamp);
     }
 
     /**
@@ -250,16 +272,37 @@ public class AnnualCalendar extends BaseCalendar implements Calendar,
         }
 
         // Get timestamp for 00:00:00
-        java.util.Calendar day = getStartOfDayJavaCalendar(timeStamp);
-        if (isDayExcluded(day) == false) { 
+        DayIndex index = getDayIndex(timeStamp);
+        long dayStart = index.getStartOfDay(index.dayOf(timeStamp));
+        if (isDayExcluded(dayStart) == false) { 
             return timeStamp; // return the original value
         }
 
-        while (isDayExcluded(day) == true) {
-            day.add(java.util.Calendar.DATE, 1);
+        while (isDayExcluded(dayStart) == true) {
+            index = getDayIndex(dayStart);
+            dayStart = index.getStartOfDay(index.dayOf(dayStart) + 1);
         }
 
-        return day.getTime().getTime();
+        return dayStart;
+    }
+
+    private boolean isDayExcluded(long startOfDay) {
+        return !super.isTimeIncluded(startOfDay) || getDayIndex(startOfDay).isExcluded(startOfDay);
+    }
+
+    private DayIndex getDayIndex(long timeStamp) {
+        DayIndex index = DayIndex.find(dayIndex, getTimeZone(), excludeDays, 0, timeStamp);
+        if (index == null) {
+            index = DayIndex.compile(this, dayIndex, timeStamp, excludeDays, 0,
+                    new DayIndex.DayFilter() {
+                        public boolean isDayExcluded(java.util.Calendar startOfDay) {
+                            return isInExcludeDays(startOfDay.get(java.util.Calendar.MONTH),
+                                    startOfDay.get(java.util.Calendar.DAY_OF_MONTH));
+                        }
+                    }, null);
+            dayIndex = index;
+        }
+        return index;
     }
 }
 
@@ -38,6 +38,11 @@ public class DailyCalendar extends BaseCalendar {
     private static final long oneMillis = 1;
     private static final String colon = ":";
 
+    // indexes of the times of day compiled into the DayIndex
+    private static final int RANGE_START = 0;
+    private static final int RANGE_END = 1;
+    private static final int END_OF_DAY = 2;
+
     private int rangeStartingHourOfDay;
     private int rangeStartingMinute;
     private int rangeStartingSecond;
@@ -49,6 +54,9 @@ public class DailyCalendar extends BaseCalendar {
     
     private boolean invertTimeRange = false;
 
+    // The time range on each day of the years in use, compiled on demand
+    private transient volatile DayIndex dayIndex;
+
     /**
      * Create a <CODE>DailyCalendar</CODE> with a time range defined by the
      * specified strings and no <CODE>baseCalendar</CODE>. 
@@ -469,12 +477,14 @@ public class DailyCalendar extends BaseCalendar {
             return false;
         }
         
-        long startOfDayInMillis = getStartOfDayJavaCalendar(timeInMillis).getTime().getTime();
-        long endOfDayInMillis = getEndOfDayJavaCalendar(timeInMillis).getTime().getTime();
+        DayIndex index = getDayIndex(timeInMillis);
+        int day = index.dayOf(timeInMillis);
+        long startOfDayInMillis = index.getStartOfDay(day);
+        long endOfDayInMillis = index.getTimeOfDay(END_OF_DAY, day);
         long timeRangeStartingTimeInMillis = 
-            getTimeRangeStartingTimeInMillis(timeInMillis);
+            index.getTimeOfDay(RANGE_START, day);
         long timeRangeEndingTimeInMillis = 
-            getTimeRangeEndingTimeInMillis(timeInMillis);
+            index.getTimeOfDay(RANGE_END, day);
         if (!invertTimeRange) {
             return 
                 ((timeInMillis > startOfDayInMillis && 
@@ -537,7 +547,8 @@ public class DailyCalendar extends BaseCalendar {
                 } else if (nextIncludedTime > 
                         getTimeRangeEndingTimeInMillis(nextIncludedTime)) {
                     //(move to start of next day)
-                    nextIncludedTime = getEndOfDayJavaCalendar(nextIncludedTime).getTime().getTime();
+                    DayIndex index = getDayIndex(nextIncludedTime);
+                    nextIncludedTime = index.getTimeOfDay(END_OF_DAY, index.dayOf(nextIncludedTime));
                     nextIncludedTime += 1l; 
                 } else if ((getBaseCalendar() != null) && 
                         (!getBaseCalendar().isTimeIncluded(nextIncludedTime))){
@@ -562,12 +573,8 @@ public class DailyCalendar extends BaseCalendar {
      *         time range for the specified date.
      */
     public long getTimeRangeStartingTimeInMillis(long timeInMillis) {
-        Calendar rangeStartingTime = createJavaCalendar(timeInMillis);
-        rangeStartingTime.set(Calendar.HOUR_OF_DAY, rangeStartingHourOfDay);
-        rangeStartingTime.set(Calendar.MINUTE, rangeStartingMinute);
-        rangeStartingTime.set(Calendar.SECOND, rangeStartingSecond);
-        rangeStartingTime.set(Calendar.MILLISECOND, rangeStartingMillis);
-        return rangeStartingTime.getTime().getTime();
+        DayIndex index = getDayIndex(timeInMillis);
+        return index.getTimeOfDay(RANGE_START, index.dayOf(timeInMillis));
     }
 
     /**
@@ -580,12 +587,23 @@ public class DailyCalendar extends BaseCalendar {
      *         time range for the specified date.
      */
     public long getTimeRangeEndingTimeInMillis(long timeInMillis) {
-        Calendar rangeEndingTime = createJavaCalendar(timeInMillis);
-        rangeEndingTime.set(Calendar.HOUR_OF_DAY, rangeEndingHourOfDay);
-        rangeEndingTime.set(Calendar.MINUTE, rangeEndingMinute);
-        rangeEndingTime.set(Calendar.SECOND, rangeEndingSecond);
-        rangeEndingTime.set(Calendar.MILLISECOND, rangeEndingMillis);
-        return rangeEndingTime.getTime().getTime();
+        DayIndex index = getDayIndex(timeInMillis);
+        return index.getTimeOfDay(RANGE_END, index.dayOf(timeInMillis));
+    }
+
+    private DayIndex getDayIndex(long timeInMillis) {
+        DayIndex index = DayIndex.find(dayIndex, getTimeZone(), null, 0, timeInMillis);
+        if (index == null) {
+            int[][] timesOfDay = new int[3][];
+            timesOfDay[RANGE_START] = new int[] {rangeStartingHourOfDay,
+                rangeStartingMinute, rangeStartingSecond, rangeStartingMillis};
+            timesOfDay[RANGE_END] = new int[] {rangeEndingHourOfDay,
+                rangeEndingMinute, rangeEndingSecond, rangeEndingMillis};
+            timesOfDay[END_OF_DAY] = new int[] {23, 59, 59, 999};
+            index = DayIndex.compile(this, dayIndex, timeInMillis, null, 0, null, timesOfDay);
+            dayIndex = index;
+        }
+        return index;
     }
 
     /**
@@ -801,6 +819,7 @@ public class DailyCalendar extends BaseCalendar {
         this.rangeEndingMinute = rangeEndingMinute;
         this.rangeEndingSecond = rangeEndingSecond;
         this.rangeEndingMillis = rangeEndingMillis;
+        this.dayIndex = null;
     }
     
     /**
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.impl.calendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * An immutable index of the days of a few consecutive years in the time zone
+ * of a <code>{@link BaseCalendar}</code>, compiled so that the calendar can
+ * answer <code>isTimeIncluded(long)</code> and
+ * <code>getNextIncludedTime(long)</code> with array lookups rather than by
+ * building a <code>java.util.Calendar</code> for every time it is asked
+ * about.
+ * </p>
+ *
+ * <p>
+ * The index holds the time each day starts at, optionally a bitmap of the
+ * days the calendar itself excludes (not counting its base calendar), and
+ * optionally the times of a few fixed wall-clock times of day on every day.
+ * </p>
+ *
+ * <p>
+ * A calendar keeps its index in a transient field, and compiles a new one
+ * when a time outside of the years it covers is asked about, or when the
+ * index is no longer valid for the calendar's time zone or exclusions.  An
+ * index grows to cover the years asked about as long as they are close
+ * together; a year further away gets an index of its own, and the index
+ * keeps a few of those windows, so that asking about far apart years in
+ * turn does not compile the index over and over.
+ * </p>
+ */
+final class DayIndex {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    // the most years a window of the index grows to cover
+    private static final int MAX_YEARS = 8;
+
+    // the most windows, over distinct ranges of years, an index keeps
+    private static final int MAX_WINDOWS = 4;
+
+    private final TimeZone timeZone;
+
+    private final Object source;
+
+    private final int fingerprint;
+
+    private final int firstYear;
+
+    private final int lastYear;
+
+    // the start of each day, and of the day after the last one
+    private final long[] dayStarts;
+
+    // a bit per day, set if the day is excluded - or null
+    private final long[] excludedDays;
+
+    // timesOfDay[i][day] is the i-th wall-clock time on the day - or null
+    private final long[][] timesOfDay;
+
+    // the window compiled before this one, over other years - or null
+    private final DayIndex other;
+
+    /**
+     * <p>
+     * Tells which days a calendar excludes.
+     * </p>
+     */
+    interface DayFilter {
+
+        /**
+         * @param startOfDay
+         *          the start of the day, which must not be modified
+         */
+        boolean isDayExcluded(java.util.Calendar startOfDay);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Constructors.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private DayIndex(TimeZone timeZone, Object source, int fingerprint,
+            int firstYear, int lastYear, long[] dayStarts, long[] excludedDays, long[][] timesOfDay,
+            DayIndex other) {
+        this.timeZone = timeZone;
+        this.source = source;
+        this.fingerprint = fingerprint;
+        this.firstYear = firstYear;
+        this.lastYear = lastYear;
+        this.dayStarts = dayStarts;
+        this.excludedDays = excludedDays;
+        this.timesOfDay = timesOfDay;
+        this.other = other;
+    }
+
+    private DayIndex withOther(DayIndex other) {
+        return new DayIndex(timeZone, source, fingerprint, firstYear, lastYear,
+                dayStarts, excludedDays, timesOfDay, other);
+    }
+
+    /**
+     * <p>
+     * Find the window of the given index that can be used to answer questions
+     * about the given time for a calendar with the given time zone and
+     * exclusions.
+     * </p>
+     *
+     * @return the window, or <code>null</code> if there is none and the
+     *         index must be compiled.
+     */
+    static DayIndex find(DayIndex index, TimeZone timeZone, Object source, int fingerprint, long timeStamp) {
+        for (; index != null; index = index.other) {
+            if (index.isValidFor(timeZone, source, fingerprint, timeStamp)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Compile a window for the given calendar that covers the given time and,
+     * if they are close enough, the years covered by one of the windows of
+     * the given previous index, whose other windows are kept.
+     * </p>
+     *
+     * @param source
+     *          the object the calendar keeps its exclusions in, or
+     *          <code>null</code>; replacing it invalidates the index
+     * @param fingerprint
+     *          a digest of exclusions that can be changed in place through
+     *          an array the calendar hands out, as with
+     *          <code>MonthlyCalendar</code> and <code>WeeklyCalendar</code>,
+     *          or 0 if the calendar drops its index itself whenever its
+     *          exclusions change
+     * @param filter
+     *          the days the calendar excludes, or <code>null</code> if it does
+     *          not exclude whole days
+     * @param wallClockTimes
+     *          the wall-clock times of day, as hour of day, minute, second
+     *          and millisecond, to compile the times of on every day, or
+     *          <code>null</code>
+     */
+    static DayIndex compile(BaseCalendar calendar, DayIndex previous, long timeStamp,
+            Object source, int fingerprint, DayFilter filter, int[][] wallClockTimes) {
+        java.util.Calendar day = calendar.createJavaCalendar(timeStamp);
+        int year = day.get(java.util.Calendar.YEAR);
+        int firstYear = year - 1;
+        int lastYear = year + 1;
+        boolean merged = false;
+        List<DayIndex> kept = new ArrayList<DayIndex>(MAX_WINDOWS - 1);
+        for (DayIndex window = previous; window != null; window = window.other) {
+            if (window.timeZone != calendar.getTimeZone()
+                    || window.source != source || window.fingerprint != fingerprint) {
+                continue; // compiled before the calendar changed
+            }
+            if (!merged && Math.max(lastYear, window.lastYear) - Math.min(firstYear, window.firstYear) < MAX_YEARS) {
+                firstYear = Math.min(firstYear, window.firstYear);
+                lastYear = Math.max(lastYear, window.lastYear);
+                merged = true;
+            } else if (kept.size() < MAX_WINDOWS - 1) {
+                kept.add(window);
+            }
+        }
+        DayIndex others = null;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            others = kept.get(i).withOther(others);
+        }
+
+        day.clear();
+        day.set(firstYear, java.util.Calendar.JANUARY, 1, 0, 0, 0);
+        day.set(java.util.Calendar.MILLISECOND, 0);
+        java.util.Calendar end = (java.util.Calendar) day.clone();
+        end.set(java.util.Calendar.YEAR, lastYear + 1);
+        long endTime = end.getTimeInMillis();
+
+        int days = 0;
+        long[] dayStarts = new long[(lastYear - firstYear + 1) * 366 + 1];
+        long[] excludedDays = (filter == null) ? null : new long[(dayStarts.length + 63) >>> 6];
+        long[][] timesOfDay = null;
+        if (wallClockTimes != null) {
+            timesOfDay = new long[wallClockTimes.length][dayStarts.length];
+        }
+
+        while (true) {
+            long dayStart = day.getTimeInMillis();
+            dayStarts[days] = dayStart;
+            if (dayStart >= endTime) {
+                break;
+            }
+            if (filter != null && filter.isDayExcluded(day)) {
+                excludedDays[days >>> 6] |= 1L << days;
+            }
+            if (timesOfDay != null) {
+                for (int i = 0; i < wallClockTimes.length; i++) {
+                    day.set(java.util.Calendar.HOUR_OF_DAY, wallClockTimes[i][0]);
+                    day.set(java.util.Calendar.MINUTE, wallClockTimes[i][1]);
+                    day.set(java.util.Calendar.SECOND, wallClockTimes[i][2]);
+                    day.set(java.util.Calendar.MILLISECOND, wallClockTimes[i][3]);
+                    timesOfDay[i][days] = day.getTimeInMillis();
+                }
+                day.setTimeInMillis(dayStart);
+            }
+            days++;
+
+            day.add(java.util.Calendar.DATE, 1);
+            day.set(java.util.Calendar.HOUR_OF_DAY, 0);
+            day.set(java.util.Calendar.MINUTE, 0);
+            day.set(java.util.Calendar.SECOND, 0);
+            day.set(java.util.Calendar.MILLISECOND, 0);
+        }
+
+        dayStarts = Arrays.copyOf(dayStarts, days + 1);
+        return new DayIndex(calendar.getTimeZone(), source, fingerprint,
+                firstYear, lastYear, dayStarts, excludedDays, timesOfDay, others);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Tell whether this window can be used to answer questions about the
+     * given time for a calendar with the given time zone and exclusions.
+     * </p>
+     */
+    private boolean isValidFor(TimeZone timeZone, Object source, int fingerprint, long timeStamp) {
+        return this.timeZone == timeZone
+            && this.source == source
+            && this.fingerprint == fingerprint
+            && timeStamp >= dayStarts[0]
+            && timeStamp < dayStarts[dayStarts.length - 1];
+    }
+
+    /**
+     * @return the start of the day after the last day covered by the index.
+     */
+    long getEnd() {
+        return dayStarts[dayStarts.length - 1];
+    }
+
+    /**
+     * @return the number of the day of the given time, which must be covered
+     *         by the index.
+     */
+    int dayOf(long timeStamp) {
+        int day = Arrays.binarySearch(dayStarts, timeStamp);
+        return (day >= 0) ? day : -day - 2;
+    }
+
+    long getStartOfDay(int day) {
+        return dayStarts[day];
+    }
+
+    /**
+     * @return the i-th of the wall-clock times the index was compiled with,
+     *         on the given day.
+     */
+    long getTimeOfDay(int i, int day) {
+        return timesOfDay[i][day];
+    }
+
+    /**
+     * @return whether the calendar excludes the day of the given time.
+     */
+    boolean isExcluded(long timeStamp) {
+        int day = dayOf(timeStamp);
+        return (excludedDays[day >>> 6] & (1L << day)) != 0;
+    }
+
+    /**
+     * @return the start of the first day, at or after the day of the given
+     *         time, that the calendar does not exclude, or -1 if there is
+     *         none up to the end of the index.
+     */
+    long getNextIncludedDay(long timeStamp) {
+        int days = dayStarts.length - 1;
+        for (int day = dayOf(timeStamp); day < days; day++) {
+            long word = excludedDays[day >>> 6] >>> day;
+            if (word != -1L >>> (day & 63)) {
+                // some day in the rest of this word is included
+                day += Long.numberOfTrailingZeros(~word);
+                return (day < days) ? dayStarts[day] : -1L;
+            }
+            day |= 63;
+        }
+        return -1L;
+    }
+}
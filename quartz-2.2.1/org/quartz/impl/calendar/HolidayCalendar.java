@@ -48,6 +48,9 @@ public class HolidayCalendar extends BaseCalendar implements Calendar,
     // A sorted set to store the holidays
     private TreeSet<Date> dates = new TreeSet<Date>();
 
+    // The holidays of the years in use, compiled on demand
+    private transient volatile DayIndex dayIndex;
+
     public HolidayCalendar() {
     }
 
@@ -86,9 +89,7 @@ public class HolidayCalendar extends BaseCalendar implements Calendar,
             return false;
         }
 
-        Date lookFor = getStartOfDayJavaCalendar(timeStamp).getTime();
-
-        return !(dates.contains(lookFor));
+        return !getDayIndex(timeStamp).isExcluded(timeStamp);
     }
 
     /**
@@ -111,12 +112,14 @@ public class HolidayCalendar extends BaseCalendar implements Calendar,
         }
 
         // Get timestamp for 00:00:00
-        java.util.Calendar day = getStartOfDayJavaCalendar(timeStamp);
-        while (isTimeIncluded(day.getTime().getTime()) == false) {
-            day.add(java.util.Calendar.DATE, 1);
+        DayIndex index = getDayIndex(timeStamp);
+        long dayStart = index.getStartOfDay(index.dayOf(timeStamp));
+        while (isTimeIncluded(dayStart) == false) {
+            index = getDayIndex(dayStart);
+            dayStart = index.getStartOfDay(index.dayOf(dayStart) + 1);
         }
 
-        return day.getTime().getTime();
+        return dayStart;
     }
 
     /**
@@ -132,11 +135,13 @@ public class HolidayCalendar extends BaseCalendar implements Calendar,
          * excludedDate.toLocaleString());
          */
         this.dates.add(date);
+        dayIndex = null;
     }
 
     public void removeExcludedDate(Date dateToRemove) {
         Date date = getStartOfDayJavaCalendar(dateToRemove.getTime()).getTime();
         dates.remove(date);
+        dayIndex = null;
     }
 
     /**
@@ -149,4 +154,18 @@ public class HolidayCalendar extends BaseCalendar implements Calendar,
     public SortedSet<Date> getExcludedDates() {
         return Collections.unmodifiableSortedSet(dates);
     }
+
+    private DayIndex getDayIndex(long timeStamp) {
+        DayIndex index = DayIndex.find(dayIndex, getTimeZone(), dates, 0, timeStamp);
+        if (index == null) {
+            final TreeSet<Date> holidays = dates;
+            index = DayIndex.compile(this, dayIndex, timeStamp, holidays, 0, new DayIndex.DayFilter() {
+                public boolean isDayExcluded(java.util.Calendar startOfDay) {
+                    return holidays.contains(startOfDay.getTime());
+                }
+            }, null);
+            dayIndex = index;
+        }
+        return index;
+    }
 }
@@ -48,6 +48,9 @@ public class MonthlyCalendar extends BaseCalendar implements Calendar,
     // Will be set to true, if all week days are excluded
     private boolean excludeAll = false;
 
+    // The excluded days of the years in use, compiled on demand
+    private transient volatile DayIndex dayIndex;
+
     public MonthlyCalendar() {
         this(null, null);
     }
@@ -175,10 +178,7 @@ public class MonthlyCalendar extends BaseCalendar implements Calendar,
         // excludes the time/date, continue evaluating this calendar instance.
         if (super.isTimeIncluded(timeStamp) == false) { return false; }
 
-        java.util.Calendar cl = createJavaCalendar(timeStamp);
-        int day = cl.get(java.util.Calendar.DAY_OF_MONTH);
-
-        return !(isDayExcluded(day));
+        return !getDayIndex(timeStamp).isExcluded(timeStamp);
     }
 
     /**
@@ -204,19 +204,40 @@ public class MonthlyCalendar extends BaseCalendar implements Calendar,
             timeStamp = baseTime;
         }
 
-        // Get timestamp for 00:00:00
-        java.util.Calendar cl = getStartOfDayJavaCalendar(timeStamp);
-        int day = cl.get(java.util.Calendar.DAY_OF_MONTH);
-
-        if (!isDayExcluded(day)) {
+        DayIndex index = getDayIndex(timeStamp);
+        if (!index.isExcluded(timeStamp)) {
             return timeStamp; // return the original value
         }
 
-        while (isDayExcluded(day) == true) {
-            cl.add(java.util.Calendar.DATE, 1);
-            day = cl.get(java.util.Calendar.DAY_OF_MONTH);
+        // Get timestamp for 00:00:00 of the next included day
+        long nextIncludedDay = index.getNextIncludedDay(timeStamp);
+        while (nextIncludedDay < 0) {
+            long end = index.getEnd();
+            index = getDayIndex(end);
+            nextIncludedDay = index.getNextIncludedDay(end);
+        }
+
+        return nextIncludedDay;
+    }
+
+    private DayIndex getDayIndex(long timeStamp) {
+        final boolean[] days = excludeDays;
+        int fingerprint = 0;
+        for (int i = 1; i <= MAX_DAYS_IN_MONTH; i++) {
+            if (isDayExcluded(i)) {
+                fingerprint |= 1 << i;
+            }
         }
 
-        return cl.getTime().getTime();
+        DayIndex index = DayIndex.find(dayIndex, getTimeZone(), days, fingerprint, timeStamp);
+        if (index == null) {
+            index = DayIndex.compile(this, dayIndex, timeStamp, days, fingerprint, new DayIndex.DayFilter() {
+                public boolean isDayExcluded(java.util.Calendar startOfDay) {
+                    return days[startOfDay.get(java.util.Calendar.DAY_OF_MONTH) - 1];
+                }
+            }, null);
+            dayIndex = index;
+        }
+        return index;
     }
 }
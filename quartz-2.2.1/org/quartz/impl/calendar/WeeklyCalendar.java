@@ -45,6 +45,9 @@ public class WeeklyCalendar extends BaseCalendar implements Calendar,
     // Will be set to true, if all week days are excluded
     private boolean excludeAll = false;
 
+    // The excluded days of the years in use, compiled on demand
+    private transient volatile DayIndex dayIndex;
+
     public WeeklyCalendar() {
         this(null, null);
     }
@@ -157,10 +160,7 @@ public class WeeklyCalendar extends BaseCalendar implements Calendar,
         // excludes the time/date, continue evaluating this calendar instance.
         if (super.isTimeIncluded(timeStamp) == false) { return false; }
 
-        java.util.Calendar cl = createJavaCalendar(timeStamp);
-        int wday = cl.get(java.util.Calendar.DAY_OF_WEEK);
-
-        return !(isDayExcluded(wday));
+        return !getDayIndex(timeStamp).isExcluded(timeStamp);
     }
 
     /**
@@ -186,19 +186,40 @@ public class WeeklyCalendar extends BaseCalendar implements Calendar,
             timeStamp = baseTime;
         }
 
-        // Get timestamp for 00:00:00
-        java.util.Calendar cl = getStartOfDayJavaCalendar(timeStamp);
-        int wday = cl.get(java.util.Calendar.DAY_OF_WEEK);
-
-        if (!isDayExcluded(wday)) {
+        DayIndex index = getDayIndex(timeStamp);
+        if (!index.isExcluded(timeStamp)) {
             return timeStamp; // return the original value
         }
 
-        while (isDayExcluded(wday) == true) {
-            cl.add(java.util.Calendar.DATE, 1);
-            wday = cl.get(java.util.Calendar.DAY_OF_WEEK);
+        // Get timestamp for 00:00:00 of the next included day
+        long nextIncludedDay = index.getNextIncludedDay(timeStamp);
+        while (nextIncludedDay < 0) {
+            long end = index.getEnd();
+            index = getDayIndex(end);
+            nextIncludedDay = index.getNextIncludedDay(end);
+        }
+
+        return nextIncludedDay;
+    }
+
+    private DayIndex getDayIndex(long timeStamp) {
+        final boolean[] days = excludeDays;
+        int fingerprint = 0;
+        for (int i = java.util.Calendar.SUNDAY; i <= java.util.Calendar.SATURDAY; i++) {
+            if (isDayExcluded(i)) {
+                fingerprint |= 1 << i;
+            }
         }
 
-        return cl.getTime().getTime();
+        DayIndex index = DayIndex.find(dayIndex, getTimeZone(), days, fingerprint, timeStamp);
+        if (index == null) {
+            index = DayIndex.compile(this, dayIndex, timeStamp, days, fingerprint, new DayIndex.DayFilter() {
+                public boolean isDayExcluded(java.util.Calendar startOfDay) {
+                    return days[startOfDay.get(java.util.Calendar.DAY_OF_WEEK)];
+                }
+            }, null);
+            dayIndex = index;
+        }
+        return index;
     }
 }
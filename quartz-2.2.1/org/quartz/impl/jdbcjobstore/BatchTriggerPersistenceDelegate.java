@@ -0,0 +1,27 @@
+package org.quartz.impl.jdbcjobstore;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.quartz.TriggerKey;
+
+/**
+ * A <code>{@link TriggerPersistenceDelegate}</code> that can also load the
+ * extended properties of several triggers with a single query, so that
+ * acquiring a batch of triggers does not query their properties one by one.
+ *
+ * @see StdJDBCDelegate#selectTriggersToAcquire
+ */
+public interface BatchTriggerPersistenceDelegate extends TriggerPersistenceDelegate {
+
+    /**
+     * Load the extended properties of the given triggers.
+     *
+     * @return the properties of each of the triggers that has them; a trigger
+     *          whose properties are missing, such as one deleted meanwhile, is
+     *          left out
+     */
+    public Map<TriggerKey, TriggerPropertyBundle> loadExtendedTriggerProperties(Connection conn, List<TriggerKey> triggerKeys) throws SQLException;
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.impl.jdbcjobstore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A size-bounded, least-recently-used cache of objects read from the
+ * database by <code>{@link JobStoreSupport}</code>, whose entries optionally
+ * expire a while after they were loaded.
+ * </p>
+ *
+ * <p>
+ * Loads are versioned: a value may only be put with the version read by
+ * <code>{@link #version()}</code> before it was loaded, and the put is ignored
+ * if the cache was invalidated in between, so that a load racing with a
+ * change of the same object can not reinstate the old value.
+ * </p>
+ */
+class BoundedCache<K, V> {
+
+    private final long timeToLive;
+
+    private final LinkedHashMap<K, CachedValue<V>> entries; //@GuardedBy("this")
+
+    private long version = 0L; //@GuardedBy("this")
+
+    private static class CachedValue<V> {
+        final V value;
+        final long loadTime;
+
+        CachedValue(V value, long loadTime) {
+            this.value = value;
+            this.loadTime = loadTime;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param timeToLive the number of milliseconds an entry is used for after
+     *          it was loaded, or 0 for no limit
+     */
+    BoundedCache(final int maxSize, long timeToLive) {
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or <code>null</code> if there is none or it
+     *         has expired.
+     */
+    synchronized V get(K key) {
+        CachedValue<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (timeToLive > 0 && System.currentTimeMillis() - entry.loadTime > timeToLive) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @return the version to pass to <code>{@link #put(Object, Object, long)}</code>
+     *         for a value about to be loaded.
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Cache the given value, unless the cache was invalidated since the given
+     * version was read.
+     */
+    synchronized void put(K key, V value, long loadVersion) {
+        if (loadVersion == version) {
+            entries.put(key, new CachedValue<V>(value, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Drop the value of the given key, because it has changed.
+     */
+    synchronized void invalidate(K key) {
+        version++;
+        entries.remove(key);
+    }
+
+    /**
+     * Drop all values.
+     */
+    synchronized void clear() {
+        version++;
+        entries.clear();
+    }
+}
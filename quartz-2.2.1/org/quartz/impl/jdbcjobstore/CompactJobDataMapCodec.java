@@ -0,0 +1,390 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.impl.jdbcjobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+
+import org.quartz.JobDataMap;
+
+/**
+ * <p>
+ * A compact, versioned binary encoding of <code>{@link JobDataMap}</code>s,
+ * for the JDBC job stores.  Strings and the primitive wrapper types are
+ * written in a few bytes each; any other value is written with Java
+ * serialization, on its own.
+ * </p>
+ *
+ * <p>
+ * An encoded map starts with a header that a Java serialization stream can
+ * not start with, so that <code>{@link #isEncoded(InputStream)}</code> tells
+ * the two apart and rows written before the encoding was turned on remain
+ * readable.
+ * </p>
+ *
+ * <p>
+ * Strings are written in UTF-8, which cannot hold an unpaired surrogate
+ * character.  A string value holding one is written with Java serialization,
+ * and a map with such a key is written with Java serialization as a whole.
+ * </p>
+ *
+ * @see StdJDBCDelegate#serializeJobData(JobDataMap)
+ * @see StdJDBCDelegate#deserializeObject(InputStream)
+ */
+public final class CompactJobDataMapCodec {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Constants.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    // 'Q', 'J', 'D' - a Java serialization stream starts with 0xACED
+    private static final byte[] MAGIC = { 0x51, 0x4A, 0x44 };
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_TRUE = 4;
+    private static final int TYPE_FALSE = 5;
+    private static final int TYPE_DOUBLE = 6;
+    private static final int TYPE_FLOAT = 7;
+    private static final int TYPE_SHORT = 8;
+    private static final int TYPE_BYTE = 9;
+    private static final int TYPE_CHARACTER = 10;
+    private static final int TYPE_SERIALIZED = 11;
+
+    /**
+     * Private constructor because this is a pure utility class.
+     */
+    private CompactJobDataMapCodec() {
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Write the given map to the given stream.  A map with a key that UTF-8
+     * cannot hold is written with Java serialization instead, which
+     * <code>{@link #isEncoded(InputStream)}</code> tells apart.
+     * </p>
+     *
+     * @throws NotSerializableException
+     *           if a value is neither a string, a primitive wrapper nor
+     *           serializable
+     */
+    public static void encode(JobDataMap data, OutputStream os) throws IOException {
+        CharsetEncoder utf8 = newUtf8Encoder();
+        for (String key : data.keySet()) {
+            if (!utf8.canEncode(key)) {
+                ObjectOutputStream oos = new ObjectOutputStream(os);
+                oos.writeObject(data);
+                oos.flush();
+                return;
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeVarInt(out, data.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            writeBytes(out, encodeString(utf8, entry.getKey()));
+            writeValue(out, utf8, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+    }
+
+    /**
+     * <p>
+     * Read a map written by <code>{@link #encode(JobDataMap, OutputStream)}</code>.
+     * The returned map is not dirty.
+     * </p>
+     *
+     * @throws ClassNotFoundException
+     *           if the class of a serialized value cannot be found
+     * @throws IOException
+     *           if the stream does not hold an encoded map of a known version
+     */
+    public static JobDataMap decode(InputStream is) throws ClassNotFoundException, IOException {
+        DataInputStream in = new DataInputStream(is);
+        byte[] header = new byte[HEADER_LENGTH];
+        in.readFully(header);
+        if (!hasMagic(header)) {
+            throw new IOException("Not an encoded JobDataMap");
+        }
+        if (header[MAGIC.length] != VERSION) {
+            throw new IOException("Unsupported JobDataMap encoding version: " + header[MAGIC.length]);
+        }
+
+        int size = readVarInt(in);
+        JobDataMap data = new JobDataMap();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            data.put(key, readValue(in));
+        }
+        data.clearDirtyFlag();
+        return data;
+    }
+
+    /**
+     * <p>
+     * Tell whether the given stream starts with an encoded map, without
+     * consuming it.
+     * </p>
+     *
+     * @param is
+     *          a stream that supports <code>mark</code>
+     */
+    public static boolean isEncoded(InputStream is) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        is.mark(header.length);
+        try {
+            int read = 0;
+            while (read < header.length) {
+                int n = is.read(header, read, header.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return hasMagic(header);
+        } finally {
+            is.reset();
+        }
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Helpers.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private static boolean hasMagic(byte[] header) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeValue(DataOutputStream out, CharsetEncoder utf8, String key, Object value)
+        throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            ByteBuffer bytes = encodeString(utf8, (String) value);
+            if (bytes != null) {
+                out.writeByte(TYPE_STRING);
+                writeBytes(out, bytes);
+            } else {
+                // an unpaired surrogate, which only serialization keeps
+                writeSerialized(out, key, value);
+            }
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            int i = (Integer) value;
+            writeVarInt(out, (i << 1) ^ (i >> 31));
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            long l = (Long) value;
+            writeVarLong(out, (l << 1) ^ (l >> 63));
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TYPE_CHARACTER);
+            out.writeChar((Character) value);
+        } else {
+            writeSerialized(out, key, value);
+        }
+    }
+
+    private static void writeSerialized(DataOutputStream out, String key, Object value) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(value);
+            oos.flush();
+        } catch (NotSerializableException e) {
+            throw new NotSerializableException(
+                "Unable to serialize JobDataMap for insertion into " +
+                "database because the value of property '" +
+                key + "' is not serializable: " + e.getMessage());
+        }
+        out.writeByte(TYPE_SERIALIZED);
+        writeVarInt(out, baos.size());
+        baos.writeTo(out);
+    }
+
+    private static Object readValue(DataInputStream in) throws ClassNotFoundException, IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INTEGER:
+                int i = readVarInt(in);
+                return Integer.valueOf((i >>> 1) ^ -(i & 1));
+            case TYPE_LONG:
+                long l = readVarLong(in);
+                return Long.valueOf((l >>> 1) ^ -(l & 1));
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case TYPE_FLOAT:
+                return Float.valueOf(in.readFloat());
+            case TYPE_SHORT:
+                return Short.valueOf(in.readShort());
+            case TYPE_BYTE:
+                return Byte.valueOf(in.readByte());
+            case TYPE_CHARACTER:
+                return Character.valueOf(in.readChar());
+            case TYPE_SERIALIZED:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return ois.readObject();
+                } finally {
+                    ois.close();
+                }
+            default:
+                throw new IOException("Unknown JobDataMap value type: " + type);
+        }
+    }
+
+    private static CharsetEncoder newUtf8Encoder() {
+        return UTF8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * @return the UTF-8 bytes of the string, or null if it holds an unpaired
+     *         surrogate
+     */
+    private static ByteBuffer encodeString(CharsetEncoder utf8, String s) {
+        try {
+            return utf8.encode(CharBuffer.wrap(s));
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, ByteBuffer bytes) throws IOException {
+        writeVarInt(out, bytes.remaining());
+        out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length int in encoded JobDataMap");
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length long in encoded JobDataMap");
+    }
+}
+
+// EOF
@@ -5,6 +5,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.quartz.CronScheduleBuilder;
@@ -14,7 +17,7 @@ import org.quartz.TriggerKey;
 import org.quartz.impl.triggers.CronTriggerImpl;
 import org.quartz.spi.OperableTrigger;
 
-public class CronTriggerPersistenceDelegate implements TriggerPersistenceDelegate, StdJDBCConstants {
+public class CronTriggerPersistenceDelegate implements BatchTriggerPersistenceDelegate, StdJDBCConstants {
 
     protected String tablePrefix;
     protected String schedNameLiteral;
@@ -78,15 +81,7 @@ public class CronTriggerPersistenceDelegate implements TriggerPersistenceDelegat
             rs = ps.executeQuery();
 
             if (rs.next()) {
-                String cronExpr = rs.getString(COL_CRON_EXPRESSION);
-                String timeZoneId = rs.getString(COL_TIME_ZONE_ID);
-
-                CronScheduleBuilder cb = CronScheduleBuilder.cronSchedule(cronExpr);
-              
-                if (timeZoneId != null) 
-                    cb.inTimeZone(TimeZone.getTimeZone(timeZoneId));
-                
-                return new TriggerPropertyBundle(cb, null, null);
+                return readExtendedTriggerProperties(rs);
             }
             
             throw new IllegalStateException("No record found for selection of Trigger with key: '" + triggerKey + "' and statement: " + Util.rtp(SELECT_CRON_TRIGGER, tablePrefix, schedNameLiteral));
@@ -96,6 +91,49 @@ public class CronTriggerPersistenceDelegate implements TriggerPersistenceDelegat
         }
     }
 
+    public Map<TriggerKey, TriggerPropertyBundle> loadExtendedTriggerProperties(Connection conn, List<TriggerKey> triggerKeys) throws SQLException {
+
+        Map<TriggerKey, TriggerPropertyBundle> bundles = new HashMap<TriggerKey, TriggerPropertyBundle>();
+        if (triggerKeys.isEmpty()) {
+            return bundles;
+        }
+
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        
+        try {
+            ps = conn.prepareStatement(Util.rtp(Util.forTriggerKeys(SELECT_CRON_TRIGGER, triggerKeys.size()), tablePrefix, schedNameLiteral));
+            int index = 1;
+            for (TriggerKey triggerKey : triggerKeys) {
+                ps.setString(index++, triggerKey.getName());
+                ps.setString(index++, triggerKey.getGroup());
+            }
+            rs = ps.executeQuery();
+
+            while (rs.next()) {
+                bundles.put(new TriggerKey(rs.getString(COL_TRIGGER_NAME), rs.getString(COL_TRIGGER_GROUP)),
+                        readExtendedTriggerProperties(rs));
+            }
+            return bundles;
+        } finally {
+            Util.closeResultSet(rs);
+            Util.closeStatement(ps);
+        }
+    }
+
+    /** Read the properties of the current row of a <code>CRON_TRIGGERS</code> query. */
+    private TriggerPropertyBundle readExtendedTriggerProperties(ResultSet rs) throws SQLException {
+        String cronExpr = rs.getString(COL_CRON_EXPRESSION);
+        String timeZoneId = rs.getString(COL_TIME_ZONE_ID);
+
+        CronScheduleBuilder cb = CronScheduleBuilder.cronSchedule(cronExpr);
+
+        if (timeZoneId != null)
+            cb.inTimeZone(TimeZone.getTimeZone(timeZoneId));
+
+        return new TriggerPropertyBundle(cb, null, null);
+    }
+
     public int updateExtendedTriggerProperties(Connection conn, OperableTrigger trigger, String state, JobDetail jobDetail) throws SQLException, IOException {
 
         CronTrigger cronTrigger = (CronTrigger)trigger;
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.impl.jdbcjobstore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.quartz.JobPersistenceException;
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.JobStore;
+import org.quartz.spi.SchedulerSignaler;
+import org.quartz.spi.SchedulingChangeChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A <code>{@link SchedulingChangeChannel}</code> for the scheduler
+ * instances of a cluster sharing a <code>{@link JobStoreSupport}</code>,
+ * which uses the database itself as the channel: a trigger that is
+ * scheduled is stored before the scheduler tells the channel about it, so
+ * the channel need not send anything to the other instances, and instead
+ * watches the earliest next fire time of the waiting triggers - a single
+ * indexed query - and wakes the local scheduler thread whenever it becomes
+ * earlier.
+ * </p>
+ *
+ * <p>
+ * This is polling rather than push notification.  The query is run by a
+ * daemon thread of the channel, and with the channel configured an idle
+ * scheduler thread of a clustered store parks until shortly before the
+ * earliest trigger fires, or until the channel signals it, rather than
+ * looking for other instances' triggers every idle wait time.  It is run
+ * <code>pollInterval</code> milliseconds (1000 by default) after the last
+ * change was seen, and then less and less often, up to every
+ * <code>maxPollInterval</code> milliseconds (10000 by default), while
+ * nothing changes, so that idle instances put little load on the database.
+ * A change made by another instance after a quiet spell may thus take up
+ * to <code>maxPollInterval</code> to be noticed; set it to
+ * <code>pollInterval</code> to poll at a fixed rate.  Changes made by the
+ * local scheduler are reported to the channel, which then does not wake the
+ * scheduler thread for them again.
+ * </p>
+ */
+public class JdbcSchedulingChangeChannel implements SchedulingChangeChannel {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private long pollInterval = 1000L;
+
+    private long maxPollInterval = 10000L;
+
+    private JobStoreSupport jobStore;
+
+    private SchedulerSignaler signaler;
+
+    private Watcher watcher;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    protected Logger getLog() {
+        return log;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * <p>
+     * Set the number of milliseconds between two looks at the earliest next
+     * fire time in the database.
+     * </p>
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    /**
+     * <p>
+     * Set the largest number of milliseconds between two looks at the
+     * earliest next fire time, which the interval grows to while it does not
+     * change.
+     * </p>
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setMaxPollInterval(long maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    public void initialize(JobStore jobStore, SchedulerSignaler signaler)
+        throws SchedulerConfigException {
+        if (!(jobStore instanceof JobStoreSupport)) {
+            throw new SchedulerConfigException(
+                    "JdbcSchedulingChangeChannel requires a JDBC JobStore, not "
+                            + jobStore.getClass().getName());
+        }
+        if (pollInterval <= 0) {
+            throw new SchedulerConfigException("Poll interval must be > 0");
+        }
+        if (maxPollInterval < pollInterval) {
+            throw new SchedulerConfigException("Max poll interval must be >= poll interval");
+        }
+        this.jobStore = (JobStoreSupport) jobStore;
+        this.signaler = signaler;
+    }
+
+    public synchronized void start() {
+        if (watcher == null) {
+            watcher = new Watcher();
+            watcher.start();
+        }
+    }
+
+    public void schedulingChanged(long candidateNewNextFireTime) {
+        // the change is already in the database, for the other instances to
+        // see, and the local scheduler thread has been signaled
+        Watcher w = getWatcher();
+        if (w != null && candidateNewNextFireTime > 0) {
+            w.changedLocally(candidateNewNextFireTime);
+        }
+    }
+
+    private synchronized Watcher getWatcher() {
+        return watcher;
+    }
+
+    public synchronized void shutdown() {
+        if (watcher != null) {
+            watcher.shutdown();
+            watcher = null;
+        }
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Watcher Thread.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    class Watcher extends Thread {
+
+        private volatile boolean shutdown = false;
+
+        // the earliest fire time scheduled locally since the last look, or 0
+        private final AtomicLong localNextFireTime = new AtomicLong(0L);
+
+        Watcher() {
+            this.setPriority(Thread.NORM_PRIORITY + 2);
+            this.setName("QuartzScheduler_" + jobStore.getInstanceName() + "-"
+                    + jobStore.getInstanceId() + "_SchedulingChangeChannel");
+            this.setDaemon(true);
+        }
+
+        public void shutdown() {
+            shutdown = true;
+            LockSupport.unpark(this);
+        }
+
+        void changedLocally(long nextFireTime) {
+            while (true) {
+                long current = localNextFireTime.get();
+                if ((current != 0L && current <= nextFireTime)
+                        || localNextFireTime.compareAndSet(current, nextFireTime)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long lastNextFireTime = 0L;
+            boolean lastLookFailed = false;
+            long interval = pollInterval;
+
+            while (!shutdown) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(interval));
+                if (shutdown) {
+                    break;
+                }
+                if (isInterrupted()) {
+                    // parkNanos would return at once from now on
+                    getLog().info("Scheduling change watcher interrupted, stopping.");
+                    break;
+                }
+
+                // taken before the look, so that a change it misses is only
+                // signaled once too often, rather than not at all
+                long localFireTime = localNextFireTime.getAndSet(0L);
+                long nextFireTime;
+                try {
+                    nextFireTime = jobStore.getEarliestNextFireTime();
+                    lastLookFailed = false;
+                } catch (JobPersistenceException e) {
+                    if (!lastLookFailed) {
+                        getLog().error("Failed to look for scheduling changes: "
+                                + e.getMessage(), e);
+                    }
+                    lastLookFailed = true;
+                    continue;
+                }
+
+                // a later earliest time is the earliest trigger having fired
+                if (nextFireTime > 0
+                        && (lastNextFireTime == 0 || nextFireTime < lastNextFireTime)
+                        && nextFireTime != localFireTime) {
+                    signaler.signalSchedulingChange(nextFireTime);
+                    interval = pollInterval;
+                } else {
+                    interval = Math.min(interval * 2, maxPollInterval);
+                }
+                lastNextFireTime = nextFireTime;
+            }
+        }
+    }
+}
@@ -22,10 +22,15 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -52,6 +57,7 @@ import org.quartz.impl.matchers.StringMatcher;
 import org.quartz.impl.matchers.StringMatcher.StringOperatorName;
 import org.quartz.impl.triggers.SimpleTriggerImpl;
 import org.quartz.spi.ClassLoadHelper;
+import org.quartz.spi.EarliestFireTimeAware;
 import org.quartz.spi.JobStore;
 import org.quartz.spi.OperableTrigger;
 import org.quartz.spi.SchedulerSignaler;
@@ -71,7 +77,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:jeff@binaryfeed.org">Jeffrey Wescott</a>
  * @author James House
  */
-public abstract class JobStoreSupport implements JobStore, Constants {
+public abstract class JobStoreSupport implements JobStore, EarliestFireTimeAware, Constants {
 
     /*
      * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -143,6 +149,32 @@ public abstract class JobStoreSupport implements JobStore, Constants {
     
     private boolean acquireTriggersWithinLock = false;
     
+    private boolean acquireTriggersInBatch = false;
+    
+    private boolean batchFiredTriggerWrites = false;
+
+    private boolean acquireTriggersOptimistically = false;
+
+    // whether the driver has been seen to report the row count of each
+    // statement of a batch, which batched optimistic acquisition requires
+    private volatile boolean exactBatchUpdateCounts = false;
+
+    private boolean partitionTriggersAcrossCluster = false;
+
+    private volatile ClusterPartition clusterPartition = null;
+
+    private int jobCacheSize = 0;
+
+    private long jobCacheTimeToLive = 0L;
+
+    private BoundedCache<JobKey, JobDetail> jobDetailCache = null;
+
+    private BoundedCache<String, Calendar> calendarDetailCache = null;
+
+    private final List<JobCompletion> pendingCompletions = new ArrayList<JobCompletion>();
+
+    private boolean writingCompletions = false; //@GuardedBy("pendingCompletions")
+    
     private long dbRetryInterval = 15000L; // 15 secs
     
     private boolean makeThreadsDaemons = false;
@@ -482,6 +514,159 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         this.acquireTriggersWithinLock = acquireTriggersWithinLock;
     }
 
+    /**
+     * Whether or not a batch of triggers should be acquired with set-based
+     * statements: one query that reads the triggers together with their
+     * jobs' concurrency flag, one batched update of their states and one
+     * batched insert of their fired trigger records, rather than a few
+     * statements per trigger.
+     */
+    public boolean isAcquireTriggersInBatch() {
+        return acquireTriggersInBatch;
+    }
+
+    /**
+     * Whether or not a batch of triggers should be acquired with set-based
+     * statements rather than a few statements per trigger.  The delegate's
+     * JDBC driver must support statement batching.  Triggers are acquired
+     * within the TRIGGER_ACCESS lock until the driver has reported the row
+     * count of each statement of a batch.  The set-based statements are
+     * offered by <code>StdJDBCDelegate</code>; with a delegate that does not
+     * extend it, this is ignored.
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setAcquireTriggersInBatch(boolean acquireTriggersInBatch) {
+        this.acquireTriggersInBatch = acquireTriggersInBatch;
+    }
+
+    /**
+     * Whether or not the fired trigger bookkeeping is written in batches:
+     * the fired trigger records of a batch of fired triggers are updated with
+     * a single JDBC batch, and the completions of jobs that finish while
+     * another completion is being written are committed together in one
+     * transaction.
+     */
+    public boolean isBatchFiredTriggerWrites() {
+        return batchFiredTriggerWrites;
+    }
+
+    /**
+     * Whether or not the fired trigger bookkeeping is written in batches.
+     * A job's completion is still durable when 
+     * <code>{@link #triggeredJobComplete(OperableTrigger, JobDetail, CompletedExecutionInstruction)}</code>
+     * returns, and each completion still goes through
+     * <code>triggeredJobComplete(Connection, ...)</code>.  The triggers of a
+     * batch are however fired without calling 
+     * <code>{@link #triggerFired(Connection, OperableTrigger)}</code>, so
+     * subclasses overriding it should not enable this.  The delegate's JDBC
+     * driver must support statement batching.  With a delegate that does not
+     * extend <code>StdJDBCDelegate</code>, the fired trigger records are
+     * updated one by one.
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setBatchFiredTriggerWrites(boolean batchFiredTriggerWrites) {
+        this.batchFiredTriggerWrites = batchFiredTriggerWrites;
+    }
+
+    /**
+     * Whether or not triggers are acquired without the TRIGGER_ACCESS lock,
+     * even for batches of more than one trigger.  A trigger is then claimed by
+     * an update conditioned on both its WAITING state and the next fire time
+     * it was read with, so that when several cluster nodes race for it only
+     * one wins, and a trigger that was fired and rescheduled in between is
+     * left alone.  Jobs that disallow concurrent execution are still
+     * protected by the locked <code>triggersFired</code> transaction, which
+     * only fires triggers that are still acquired.
+     * <p>
+     * This requires a JDBC driver that reports the exact number of rows each
+     * update changed.  With <code>acquireTriggersInBatch</code>, triggers are
+     * acquired within the lock until a batch shows that the driver reports
+     * the row count of each statement of a batch rather than
+     * <code>Statement.SUCCESS_NO_INFO</code>, and for good if it does not.
+     * </p>
+     */
+    public boolean isAcquireTriggersOptimistically() {
+        return acquireTriggersOptimistically;
+    }
+
+    /**
+     * Whether or not triggers are acquired without the TRIGGER_ACCESS lock,
+     * relying on conditional updates to claim them.  Ignored if
+     * <code>acquireTriggersWithinLock</code> is set, or if the delegate does
+     * not extend <code>StdJDBCDelegate</code>, which offers the conditional
+     * updates.
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setAcquireTriggersOptimistically(boolean acquireTriggersOptimistically) {
+        this.acquireTriggersOptimistically = acquireTriggersOptimistically;
+    }
+
+    /**
+     * Whether or not, in a cluster, each node only acquires the triggers
+     * whose key hashes to its own share of the live nodes, so that nodes
+     * acquiring optimistically rarely compete for the same rows.  The nodes
+     * are those seen alive at the last cluster check-in; the share of a
+     * failed node is taken over once the failure is detected.
+     */
+    public boolean isPartitionTriggersAcrossCluster() {
+        return partitionTriggersAcrossCluster;
+    }
+
+    /**
+     * Whether or not, in a cluster, each node only acquires its share of the
+     * triggers.  Only useful with <code>acquireTriggersOptimistically</code>.
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setPartitionTriggersAcrossCluster(boolean partitionTriggersAcrossCluster) {
+        this.partitionTriggersAcrossCluster = partitionTriggersAcrossCluster;
+    }
+
+    /**
+     * Get the maximum number of <code>JobDetail</code>s, and of
+     * <code>Calendar</code>s, kept in memory for firing triggers, least
+     * recently used first out.  0 (the default) disables the caches, leaving
+     * only the unbounded, non-clustered calendar cache.
+     */
+    public int getJobCacheSize() {
+        return jobCacheSize;
+    }
+
+    /**
+     * Set the maximum number of <code>JobDetail</code>s, and of
+     * <code>Calendar</code>s, kept in memory for firing triggers.  The jobs
+     * that persist their data after execution are never cached.  While the
+     * caches are enabled, jobs and calendars are always stored within the
+     * TRIGGER_ACCESS lock, so that a trigger fired before the change is
+     * committed can not cache the old version again.
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setJobCacheSize(int jobCacheSize) {
+        this.jobCacheSize = jobCacheSize;
+    }
+
+    /**
+     * Get the number of milliseconds a cached <code>JobDetail</code> or
+     * <code>Calendar</code> is used for before it is read again.  0 (the
+     * default) means no limit.
+     */
+    public long getJobCacheTimeToLive() {
+        return jobCacheTimeToLive;
+    }
+
+    /**
+     * Set the number of milliseconds a cached <code>JobDetail</code> or
+     * <code>Calendar</code> is used for before it is read again.  Changes
+     * made through this scheduler drop the cached copies immediately, but
+     * nothing tells the other nodes of a cluster: they keep firing with
+     * their cached copies until these expire.  The caches are therefore only
+     * used when clustered if this is set, and it is the only bound on how
+     * stale a fired job's definition may be on the other nodes.
+     */
+    @SuppressWarnings("UnusedDeclaration") /* called reflectively */
+    public void setJobCacheTimeToLive(long jobCacheTimeToLive) {
+        this.jobCacheTimeToLive = jobCacheTimeToLive;
+    }
+
     
     /**
      * <p>
@@ -673,6 +858,15 @@ public abstract class JobStoreSupport implements JobStore, Constants {
             }
         }
 
+        if (getJobCacheSize() > 0) {
+            if (isClustered() && getJobCacheTimeToLive() <= 0) {
+                getLog().info("Not caching job details and calendars since clustered " +
+                        "without a 'jobCacheTimeToLive'.");
+            } else {
+                jobDetailCache = new BoundedCache<JobKey, JobDetail>(getJobCacheSize(), getJobCacheTimeToLive());
+                calendarDetailCache = new BoundedCache<String, Calendar>(getJobCacheSize(), getJobCacheTimeToLive());
+            }
+        }
     }
    
     /**
@@ -1056,7 +1250,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
             final OperableTrigger newTrigger) 
         throws JobPersistenceException {
         executeInLock(
-            (isLockOnInsert()) ? LOCK_TRIGGER_ACCESS : null,
+            lockForJobChange(isLockOnInsert()),
             new VoidTransactionCallback() {
                 public void executeVoid(Connection conn) throws JobPersistenceException {
                     storeJob(conn, newJob, false);
@@ -1084,7 +1278,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
     public void storeJob(final JobDetail newJob,
         final boolean replaceExisting) throws JobPersistenceException {
         executeInLock(
-            (isLockOnInsert() || replaceExisting) ? LOCK_TRIGGER_ACCESS : null,
+            lockForJobChange(isLockOnInsert() || replaceExisting),
             new VoidTransactionCallback() {
                 public void executeVoid(Connection conn) throws JobPersistenceException {
                     storeJob(conn, newJob, replaceExisting);
@@ -1108,6 +1302,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                     throw new ObjectAlreadyExistsException(newJob); 
                 }
                 getDelegate().updateJobDetail(conn, newJob);
+                invalidateCachedJob(newJob.getKey());
             } else {
                 getDelegate().insertJobDetail(conn, newJob);
             }
@@ -1321,7 +1516,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
             throws JobPersistenceException {
 
         executeInLock(
-                (isLockOnInsert() || replace) ? LOCK_TRIGGER_ACCESS : null,
+                lockForJobChange(isLockOnInsert() || replace),
                 new VoidTransactionCallback() {
                     public void executeVoid(Connection conn) throws JobPersistenceException {
                         
@@ -1346,7 +1541,9 @@ public abstract class JobStoreSupport implements JobStore, Constants {
     private boolean deleteJobAndChildren(Connection conn, JobKey key)
         throws NoSuchDelegateException, SQLException {
 
-        return (getDelegate().deleteJobDetail(conn, key) > 0);
+        boolean deleted = (getDelegate().deleteJobDetail(conn, key) > 0);
+        invalidateCachedJob(key);
+        return deleted;
     }
     
     /**
@@ -1379,6 +1576,51 @@ public abstract class JobStoreSupport implements JobStore, Constants {
             });
     }
     
+    /**
+     * Retrieve a job to fire one of its triggers, from the job cache if it is
+     * enabled.  Must be called while holding the TRIGGER_ACCESS lock, which
+     * all changes of jobs are made under, so that the cache is not filled
+     * with a version that is being changed.
+     * 
+     * @return a copy of the job, that the caller may modify
+     */
+    private JobDetail retrieveJobForFiring(Connection conn, JobKey key) throws JobPersistenceException {
+        if (jobDetailCache == null) {
+            return retrieveJob(conn, key);
+        }
+        JobDetail job = jobDetailCache.get(key);
+        if (job != null) {
+            return (JobDetail) job.clone();
+        }
+        long version = jobDetailCache.version();
+        job = retrieveJob(conn, key);
+        if (job != null && !job.isPersistJobDataAfterExecution()) {
+            jobDetailCache.put(key, (JobDetail) job.clone(), version);
+        }
+        return job;
+    }
+
+    /**
+     * The lock to store jobs or calendars with: TRIGGER_ACCESS if the change
+     * needs it anyway, and always while the job cache is enabled, because
+     * triggers fire within the lock, and one fired while the change is not
+     * yet committed would otherwise read the old version and cache it again
+     * after the change invalidated it.
+     */
+    private String lockForJobChange(boolean lockNeeded) {
+        return (lockNeeded || jobDetailCache != null) ? LOCK_TRIGGER_ACCESS : null;
+    }
+
+    /**
+     * Drop the cached copy of a job.  Must be called after the job was
+     * changed in the database, within the TRIGGER_ACCESS lock.
+     */
+    private void invalidateCachedJob(JobKey key) {
+        if (jobDetailCache != null) {
+            jobDetailCache.invalidate(key);
+        }
+    }
+    
     protected JobDetail retrieveJob(Connection conn, JobKey key) throws JobPersistenceException {
         try {
 
@@ -1617,7 +1859,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         final Calendar calendar, final boolean replaceExisting, final boolean updateTriggers)
         throws JobPersistenceException {
         executeInLock(
-            (isLockOnInsert() || updateTriggers) ? LOCK_TRIGGER_ACCESS : null,
+            lockForJobChange(isLockOnInsert() || updateTriggers),
             new VoidTransactionCallback() {
                 public void executeVoid(Connection conn) throws JobPersistenceException {
                     storeCalendar(conn, calName, calendar, replaceExisting, updateTriggers);
@@ -1656,7 +1898,9 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                 }
             }
 
-            if (!isClustered) {
+            if (calendarDetailCache != null) {
+                calendarDetailCache.invalidate(calName);
+            } else if (!isClustered) {
                 calendarCache.put(calName, calendar); // lazy-cache
             }
 
@@ -1719,11 +1963,15 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                     "Calender cannot be removed if it referenced by a trigger!"); 
             }
 
-            if (!isClustered) {
+            boolean deleted = (getDelegate().deleteCalendar(conn, calName) > 0);
+
+            if (calendarDetailCache != null) {
+                calendarDetailCache.invalidate(calName);
+            } else if (!isClustered) {
                 calendarCache.remove(calName);
             }
 
-            return (getDelegate().deleteCalendar(conn, calName) > 0);
+            return deleted;
         } catch (SQLException e) {
             throw new JobPersistenceException("Couldn't remove calendar: "
                     + e.getMessage(), e);
@@ -1750,19 +1998,44 @@ public abstract class JobStoreSupport implements JobStore, Constants {
             });
     }
     
+    /**
+     * Retrieve a calendar to fire a trigger, filling the calendar cache if it
+     * is enabled.  Must be called while holding the TRIGGER_ACCESS lock.
+     */
+    private Calendar retrieveCalendarForFiring(Connection conn, String calName)
+        throws JobPersistenceException {
+        if (calendarDetailCache == null) {
+            return retrieveCalendar(conn, calName);
+        }
+        Calendar cal = calendarDetailCache.get(calName);
+        if (cal == null) {
+            long version = calendarDetailCache.version();
+            cal = retrieveCalendar(conn, calName);
+            if (cal != null) {
+                calendarDetailCache.put(calName, cal, version);
+            }
+        }
+        return cal;
+    }
+    
     protected Calendar retrieveCalendar(Connection conn,
             String calName)
         throws JobPersistenceException {
         // all calendars are persistent, but we can lazy-cache them during run
         // time as long as we aren't running clustered.
-        Calendar cal = (isClustered) ? null : calendarCache.get(calName);
+        Calendar cal;
+        if (calendarDetailCache != null) {
+            cal = calendarDetailCache.get(calName);
+        } else {
+            cal = (isClustered) ? null : calendarCache.get(calName);
+        }
         if (cal != null) {
             return cal;
         }
 
         try {
             cal = getDelegate().selectCalendar(conn, calName);
-            if (!isClustered) {
+            if (calendarDetailCache == null && !isClustered) {
                 calendarCache.put(calName, cal); // lazy-cache...
             }
             return cal;
@@ -1806,6 +2079,41 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         }
     }
 
+    /**
+     * <p>
+     * Get the earliest next fire time of the triggers waiting to fire, or 0
+     * if there are none.
+     * </p>
+     *
+     * @see JdbcSchedulingChangeChannel
+     */
+    public long getEarliestNextFireTime()
+        throws JobPersistenceException {
+        return executeWithoutLock( // no locks necessary for read...
+                new TransactionCallback<Long>() {
+                    public Long execute(Connection conn) throws JobPersistenceException {
+                        try {
+                            StdJDBCDelegate delegate = getStdJDBCDelegate();
+                            if (delegate != null) {
+                                return delegate.selectEarliestNextFireTime(
+                                        conn, STATE_WAITING, getMisfireTime());
+                            }
+                            // the first trigger in the order of acquisition fires first
+                            List<TriggerKey> keys = getDelegate().selectTriggerToAcquire(
+                                    conn, Long.MAX_VALUE, getMisfireTime(), 1);
+                            OperableTrigger trigger = keys.isEmpty() ? null : retrieveTrigger(conn, keys.get(0));
+                            if (trigger == null || trigger.getNextFireTime() == null) {
+                                return 0L;
+                            }
+                            return trigger.getNextFireTime().getTime();
+                        } catch (SQLException e) {
+                            throw new JobPersistenceException(
+                                    "Couldn't obtain next fire time: " + e.getMessage(), e);
+                        }
+                    }
+                });
+    }
+
     /**
      * <p>
      * Get the number of <code>{@link org.quartz.Trigger}</code> s that are
@@ -1964,6 +2272,11 @@ public abstract class JobStoreSupport implements JobStore, Constants {
     
     protected void clearAllSchedulingData(Connection conn) throws JobPersistenceException {
         try {
+            calendarCache.clear();
+            if (jobDetailCache != null) {
+                jobDetailCache.clear();
+                calendarDetailCache.clear();
+            }
             getDelegate().clearData(conn);
         } catch (SQLException e) {
             throw new JobPersistenceException("Error clearing scheduling data: " + e.getMessage(), e);
@@ -2748,7 +3061,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         throws JobPersistenceException {
         
         String lockName;
-        if(isAcquireTriggersWithinLock() || maxCount > 1) { 
+        if(acquiresTriggersWithinLock(maxCount)) { 
             lockName = LOCK_TRIGGER_ACCESS;
         } else {
             lockName = null;
@@ -2780,6 +3093,51 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                 });
     }
     
+    /**
+     * Whether a batch of up to <code>maxCount</code> triggers is acquired
+     * within the TRIGGER_ACCESS lock.
+     */
+    private boolean acquiresTriggersWithinLock(int maxCount) throws JobPersistenceException {
+        return isAcquireTriggersWithinLock()
+                || (maxCount > 1 && !acquiresTriggersOptimistically())
+                // lock-free batched acquisition needs exact batch update counts
+                || (acquiresTriggersInBatch() && !exactBatchUpdateCounts);
+    }
+
+    private boolean acquiresTriggersOptimistically() throws JobPersistenceException {
+        return isAcquireTriggersOptimistically() && getStdJDBCDelegate() != null;
+    }
+
+    private boolean acquiresTriggersInBatch() throws JobPersistenceException {
+        return isAcquireTriggersInBatch() && getStdJDBCDelegate() != null;
+    }
+
+    /**
+     * Learn from the update counts of a batch whether the driver reports the
+     * row count of each statement.  Without the lock, an update whose count
+     * is unknown may have claimed a trigger another node claimed too, so the
+     * transaction is rolled back, to acquire within the lock from then on.
+     */
+    private void checkBatchUpdateCounts(int[] rowsUpdated, int maxCount) throws JobPersistenceException {
+        if (rowsUpdated.length == 0) {
+            return;
+        }
+        for (int count : rowsUpdated) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                boolean withinLock = acquiresTriggersWithinLock(maxCount);
+                exactBatchUpdateCounts = false;
+                if (!withinLock) {
+                    getLog().warn("The JDBC driver does not report batch update counts, "
+                            + "triggers will be acquired within the lock.");
+                    throw new JobPersistenceException(
+                            "Couldn't tell which triggers were acquired: the JDBC driver did not report batch update counts");
+                }
+                return;
+            }
+        }
+        exactBatchUpdateCounts = true;
+    }
+
     // FUTURE_TODO: this really ought to return something like a FiredTriggerBundle,
     // so that the fireInstanceId doesn't have to be on the trigger...
     protected List<OperableTrigger> acquireNextTrigger(Connection conn, long noLaterThan, int maxCount, long timeWindow)
@@ -2788,22 +3146,36 @@ public abstract class JobStoreSupport implements JobStore, Constants {
           throw new IllegalArgumentException();
         }
         
+        if (acquiresTriggersInBatch()) {
+            return acquireNextTriggersInBatch(conn, noLaterThan, maxCount, timeWindow);
+        }
+        
         List<OperableTrigger> acquiredTriggers = new ArrayList<OperableTrigger>();
         Set<JobKey> acquiredJobKeysForNoConcurrentExec = new HashSet<JobKey>();
         final int MAX_DO_LOOP_RETRY = 3;
         int currentLoopCount = 0;
         long firstAcquiredTriggerFireTime = 0;
+        ClusterPartition partition = getClusterPartition();
         
         do {
             currentLoopCount ++;
             try {
-                List<TriggerKey> keys = getDelegate().selectTriggerToAcquire(conn, noLaterThan + timeWindow, getMisfireTime(), maxCount);
+                List<TriggerKey> keys = getDelegate().selectTriggerToAcquire(conn, noLaterThan + timeWindow, getMisfireTime(),
+                        partition == null ? maxCount : partition.selectCount(maxCount));
                 
                 // No trigger is ready to fire yet.
                 if (keys == null || keys.size() == 0)
                     return acquiredTriggers;
                 
                 for(TriggerKey triggerKey: keys) {
+                    if (acquiredTriggers.size() >= maxCount) {
+                        break;
+                    }
+                    // Leave the triggers of the other nodes' shares to them.
+                    if (partition != null && !partition.owns(triggerKey)) {
+                        continue; // next trigger
+                    }
+
                     // If our trigger is no longer available, try a new one.
                     OperableTrigger nextTrigger = retrieveTrigger(conn, triggerKey);
                     if(nextTrigger == null) {
@@ -2813,7 +3185,10 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                     // If trigger's job is set as @DisallowConcurrentExecution, and it has already been added to result, then
                     // put it back into the timeTriggers set and continue to search for next trigger.
                     JobKey jobKey = nextTrigger.getJobKey();
-                    JobDetail job = getDelegate().selectJobDetail(conn, jobKey, getClassLoadHelper());
+                    JobDetail job = (jobDetailCache == null) ? null : jobDetailCache.get(jobKey);
+                    if (job == null) {
+                        job = getDelegate().selectJobDetail(conn, jobKey, getClassLoadHelper());
+                    }
                     if (job.isConcurrentExectionDisallowed()) {
                         if (acquiredJobKeysForNoConcurrentExec.contains(jobKey)) {
                             continue; // next trigger
@@ -2824,7 +3199,13 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                     
                     // We now have a acquired trigger, let's add to return list.
                     // If our trigger was no longer in the expected state, try a new one.
-                    int rowsUpdated = getDelegate().updateTriggerStateFromOtherState(conn, triggerKey, STATE_ACQUIRED, STATE_WAITING);
+                    int rowsUpdated;
+                    if (acquiresTriggersOptimistically()) {
+                        rowsUpdated = getStdJDBCDelegate().updateTriggerStateFromOtherStateAndFireTime(conn, triggerKey,
+                                STATE_ACQUIRED, STATE_WAITING, nextTrigger.getNextFireTime().getTime());
+                    } else {
+                        rowsUpdated = getDelegate().updateTriggerStateFromOtherState(conn, triggerKey, STATE_ACQUIRED, STATE_WAITING);
+                    }
                     if (rowsUpdated <= 0) {
                         continue; // next trigger
                     }
@@ -2853,6 +3234,96 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         // Return the acquired trigger list
         return acquiredTriggers;
     }
+
+    /**
+     * Set-based version of <code>{@link #acquireNextTrigger(Connection, long, int, long)}</code>:
+     * the candidates are loaded by one query that also reports their jobs'
+     * <code>@DisallowConcurrentExecution</code> flag, and they are moved to the
+     * acquired state and recorded as fired triggers with JDBC batches.
+     */
+    protected List<OperableTrigger> acquireNextTriggersInBatch(Connection conn, long noLaterThan, int maxCount, long timeWindow)
+        throws JobPersistenceException {
+        List<OperableTrigger> acquiredTriggers = new ArrayList<OperableTrigger>();
+        Set<JobKey> acquiredJobKeysForNoConcurrentExec = new HashSet<JobKey>();
+        final int MAX_DO_LOOP_RETRY = 3;
+        int currentLoopCount = 0;
+        ClusterPartition partition = getClusterPartition();
+        StdJDBCDelegate delegate = getStdJDBCDelegate();
+        
+        do {
+            currentLoopCount ++;
+            try {
+                Set<JobKey> nonConcurrentJobs = new HashSet<JobKey>();
+                List<OperableTrigger> candidates = delegate.selectTriggersToAcquire(
+                        conn, noLaterThan + timeWindow, getMisfireTime(),
+                        partition == null ? maxCount : partition.selectCount(maxCount), nonConcurrentJobs);
+                
+                // No trigger is ready to fire yet.
+                if (candidates.isEmpty())
+                    return acquiredTriggers;
+                
+                // If trigger's job is set as @DisallowConcurrentExecution, only its first trigger is acquired.
+                List<OperableTrigger> selected = new ArrayList<OperableTrigger>(candidates.size());
+                List<TriggerKey> selectedKeys = new ArrayList<TriggerKey>(candidates.size());
+                for (OperableTrigger candidate : candidates) {
+                    if (acquiredTriggers.size() + selected.size() >= maxCount) {
+                        break;
+                    }
+                    // Leave the triggers of the other nodes' shares to them.
+                    if (partition != null && !partition.owns(candidate.getKey())) {
+                        continue; // next trigger
+                    }
+                    JobKey jobKey = candidate.getJobKey();
+                    if (nonConcurrentJobs.contains(jobKey) && !acquiredJobKeysForNoConcurrentExec.add(jobKey)) {
+                        continue; // next trigger
+                    }
+                    selected.add(candidate);
+                    selectedKeys.add(candidate.getKey());
+                }
+                
+                // Keep the triggers that were still in the expected state.
+                int[] rowsUpdated = isAcquireTriggersOptimistically()
+                        ? delegate.updateTriggerStatesFromOtherStateAndFireTime(conn, selected, STATE_ACQUIRED, STATE_WAITING)
+                        : delegate.updateTriggerStatesFromOtherState(conn, selectedKeys, STATE_ACQUIRED, STATE_WAITING);
+                checkBatchUpdateCounts(rowsUpdated, maxCount);
+                List<OperableTrigger> acquired = new ArrayList<OperableTrigger>(selected.size());
+                for (int i = 0; i < selected.size(); i++) {
+                    OperableTrigger nextTrigger = selected.get(i);
+                    if (rowsUpdated[i] == Statement.SUCCESS_NO_INFO) {
+                        // The driver did not tell whether the row was updated, but
+                        // within the lock no other node can have acquired the trigger.
+                        rowsUpdated[i] = STATE_ACQUIRED.equals(
+                                getDelegate().selectTriggerState(conn, nextTrigger.getKey())) ? 1 : 0;
+                    }
+                    if (rowsUpdated[i] <= 0) {
+                        if (nonConcurrentJobs.contains(nextTrigger.getJobKey())) {
+                            acquiredJobKeysForNoConcurrentExec.remove(nextTrigger.getJobKey());
+                        }
+                        continue; // next trigger
+                    }
+                    nextTrigger.setFireInstanceId(getFiredTriggerRecordId());
+                    acquired.add(nextTrigger);
+                }
+                delegate.insertFiredTriggers(conn, acquired, STATE_ACQUIRED);
+                acquiredTriggers.addAll(acquired);
+
+                // if we didn't end up with any trigger to fire from that first
+                // batch, try again for another batch. We allow with a max retry count.
+                if(acquiredTriggers.size() == 0 && currentLoopCount < MAX_DO_LOOP_RETRY) {
+                    continue;
+                }
+                
+                // We are done with the while loop.
+                break;
+            } catch (Exception e) {
+                throw new JobPersistenceException(
+                          "Couldn't acquire next trigger: " + e.getMessage(), e);
+            }
+        } while (true);
+        
+        // Return the acquired trigger list
+        return acquiredTriggers;
+    }
     
     /**
      * <p>
@@ -2900,6 +3371,10 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         return executeInNonManagedTXLock(LOCK_TRIGGER_ACCESS,
                 new TransactionCallback<List<TriggerFiredResult>>() {
                     public List<TriggerFiredResult> execute(Connection conn) throws JobPersistenceException {
+                        if (isBatchFiredTriggerWrites()) {
+                            return triggersFiredInBatch(conn, triggers);
+                        }
+
                         List<TriggerFiredResult> results = new ArrayList<TriggerFiredResult>();
 
                         TriggerFiredResult result;
@@ -2945,6 +3420,167 @@ public abstract class JobStoreSupport implements JobStore, Constants {
     protected TriggerFiredBundle triggerFired(Connection conn,
             OperableTrigger trigger)
         throws JobPersistenceException {
+        TriggerFiring firing = prepareTriggerFired(conn, trigger);
+        if (firing == null) {
+            return null;
+        }
+
+        try {
+            getDelegate().updateFiredTrigger(conn, trigger, STATE_EXECUTING, firing.job);
+        } catch (SQLException e) {
+            throw new JobPersistenceException("Couldn't insert fired trigger: "
+                    + e.getMessage(), e);
+        }
+
+        return applyTriggerFired(conn, firing);
+    }
+
+    /**
+     * Batched version of the firing of each trigger by 
+     * <code>{@link #triggerFired(Connection, OperableTrigger)}</code>: the
+     * triggers are all checked first, then their fired trigger records are
+     * updated with a single JDBC batch, and only then are the triggers that
+     * were updated fired.  A trigger whose record can't be updated fails on
+     * its own, and is left as it was.  Of the triggers of a job that
+     * disallows concurrent execution, only the first is fired; the others
+     * are released before any fired trigger record is marked as executing.
+     */
+    private List<TriggerFiredResult> triggersFiredInBatch(Connection conn, List<OperableTrigger> triggers)
+        throws JobPersistenceException {
+        TriggerFiredResult[] results = new TriggerFiredResult[triggers.size()];
+        List<TriggerFiring> firings = new ArrayList<TriggerFiring>(triggers.size());
+        Set<JobKey> firedNonConcurrentJobs = new HashSet<JobKey>();
+
+        for (int i = 0; i < results.length; i++) {
+            try {
+                TriggerFiring firing = prepareTriggerFired(conn, triggers.get(i));
+                if (firing == null) {
+                    results[i] = new TriggerFiredResult((TriggerFiredBundle) null);
+                } else if (firing.job.isConcurrentExectionDisallowed()
+                        && !firedNonConcurrentJobs.add(firing.job.getKey())) {
+                    // the firing of the job's first trigger will block this one
+                    releaseAcquiredTrigger(conn, firing.trigger);
+                    results[i] = new TriggerFiredResult((TriggerFiredBundle) null);
+                } else {
+                    firing.index = i;
+                    firings.add(firing);
+                }
+            } catch (JobPersistenceException jpe) {
+                results[i] = new TriggerFiredResult(jpe);
+            } catch(RuntimeException re) {
+                results[i] = new TriggerFiredResult(re);
+            }
+        }
+
+        updateFiredTriggers(conn, firings, results);
+
+        for (TriggerFiring firing : firings) {
+            try {
+                results[firing.index] = new TriggerFiredResult(applyTriggerFired(conn, firing));
+            } catch (JobPersistenceException jpe) {
+                results[firing.index] = new TriggerFiredResult(jpe);
+            } catch(RuntimeException re) {
+                results[firing.index] = new TriggerFiredResult(re);
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Move the fired trigger records of the given firings to the executing
+     * state with a single JDBC batch, or, should the batch fail or the
+     * delegate not support it, one by one, dropping the firings whose record
+     * can't be updated.
+     */
+    private void updateFiredTriggers(Connection conn, List<TriggerFiring> firings,
+            TriggerFiredResult[] results) throws JobPersistenceException {
+        if (firings.isEmpty()) {
+            return;
+        }
+
+        StdJDBCDelegate delegate = getStdJDBCDelegate();
+        if (delegate != null && updateFiredTriggersInBatch(conn, delegate, firings)) {
+            return;
+        }
+
+        for (Iterator<TriggerFiring> it = firings.iterator(); it.hasNext(); ) {
+            TriggerFiring firing = it.next();
+            try {
+                getDelegate().updateFiredTrigger(conn, firing.trigger, STATE_EXECUTING, firing.job);
+            } catch (SQLException e) {
+                results[firing.index] = new TriggerFiredResult(new JobPersistenceException(
+                        "Couldn't insert fired trigger: " + e.getMessage(), e));
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Move the fired trigger records of the given firings to the executing
+     * state with a single JDBC batch.
+     *
+     * @return whether the batch succeeded; if not, it has been rolled back
+     *         where the connection supports savepoints
+     */
+    private boolean updateFiredTriggersInBatch(Connection conn, StdJDBCDelegate delegate,
+            List<TriggerFiring> firings) {
+        List<OperableTrigger> firedTriggers = new ArrayList<OperableTrigger>(firings.size());
+        List<JobDetail> jobs = new ArrayList<JobDetail>(firings.size());
+        for (TriggerFiring firing : firings) {
+            firedTriggers.add(firing.trigger);
+            jobs.add(firing.job);
+        }
+
+        // some databases abort the transaction on a failed statement
+        Savepoint savepoint = null;
+        try {
+            savepoint = conn.setSavepoint();
+        } catch (SQLException e) {
+            // not supported, the updates one by one may then fail too
+        }
+        try {
+            delegate.updateFiredTriggers(conn, firedTriggers, jobs, STATE_EXECUTING);
+            return true;
+        } catch (SQLException e) {
+            getLog().warn("Couldn't update a batch of " + firings.size()
+                    + " fired triggers, updating them one by one: " + e.getMessage(), e);
+        }
+        if (savepoint != null) {
+            try {
+                conn.rollback(savepoint);
+            } catch (SQLException e) {
+                getLog().warn("Couldn't roll back the failed batch of fired triggers: " + e.getMessage(), e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A trigger that is about to fire, with its job and calendar.
+     */
+    private static class TriggerFiring {
+        final OperableTrigger trigger;
+        final JobDetail job;
+        final Calendar cal;
+        int index;
+
+        TriggerFiring(OperableTrigger trigger, JobDetail job, Calendar cal) {
+            this.trigger = trigger;
+            this.job = job;
+            this.cal = cal;
+        }
+    }
+
+    /**
+     * Check that the given trigger can fire, and load its job and calendar.
+     *
+     * @return null if the trigger is no longer acquired, or if its job or
+     *         calendar no longer exist.
+     */
+    private TriggerFiring prepareTriggerFired(Connection conn,
+            OperableTrigger trigger)
+        throws JobPersistenceException {
         JobDetail job;
         Calendar cal = null;
 
@@ -2961,7 +3597,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         }
 
         try {
-            job = retrieveJob(conn, trigger.getJobKey());
+            job = retrieveJobForFiring(conn, trigger.getJobKey());
             if (job == null) { return null; }
         } catch (JobPersistenceException jpe) {
             try {
@@ -2975,16 +3611,22 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         }
 
         if (trigger.getCalendarName() != null) {
-            cal = retrieveCalendar(conn, trigger.getCalendarName());
+            cal = retrieveCalendarForFiring(conn, trigger.getCalendarName());
             if (cal == null) { return null; }
         }
 
-        try {
-            getDelegate().updateFiredTrigger(conn, trigger, STATE_EXECUTING, job);
-        } catch (SQLException e) {
-            throw new JobPersistenceException("Couldn't insert fired trigger: "
-                    + e.getMessage(), e);
-        }
+        return new TriggerFiring(trigger, job, cal);
+    }
+
+    /**
+     * Fire a trigger whose fired trigger record is in the executing state:
+     * move it to its next fire time and store it.
+     */
+    private TriggerFiredBundle applyTriggerFired(Connection conn, TriggerFiring firing)
+        throws JobPersistenceException {
+        OperableTrigger trigger = firing.trigger;
+        JobDetail job = firing.job;
+        Calendar cal = firing.cal;
 
         Date prevFireTime = trigger.getPreviousFireTime();
 
@@ -3036,6 +3678,10 @@ public abstract class JobStoreSupport implements JobStore, Constants {
      */
     public void triggeredJobComplete(final OperableTrigger trigger,
             final JobDetail jobDetail, final CompletedExecutionInstruction triggerInstCode) {
+        if (isBatchFiredTriggerWrites()) {
+            batchTriggeredJobComplete(new JobCompletion(trigger, jobDetail, triggerInstCode));
+            return;
+        }
         retryExecuteInNonManagedTXLock(
             LOCK_TRIGGER_ACCESS,
             new VoidTransactionCallback() {
@@ -3044,6 +3690,98 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                 }
             });    
     }
+
+    /**
+     * A job completion waiting to be written by 
+     * <code>{@link JobStoreSupport#batchTriggeredJobComplete(JobCompletion)}</code>.
+     */
+    private static class JobCompletion {
+        final OperableTrigger trigger;
+        final JobDetail jobDetail;
+        final CompletedExecutionInstruction triggerInstCode;
+        boolean written = false; //@GuardedBy("pendingCompletions")
+
+        JobCompletion(OperableTrigger trigger, JobDetail jobDetail,
+                CompletedExecutionInstruction triggerInstCode) {
+            this.trigger = trigger;
+            this.jobDetail = jobDetail;
+            this.triggerInstCode = triggerInstCode;
+        }
+    }
+
+    /**
+     * Group commit of job completions: the calling thread either finds its
+     * completion written by the thread that was writing when it arrived, or
+     * writes it together with every completion that queued up meanwhile.
+     * There is at most one completion per worker thread waiting, so a batch
+     * never exceeds the thread pool's size.
+     */
+    private void batchTriggeredJobComplete(JobCompletion completion) {
+        List<JobCompletion> batch;
+        boolean interrupted = false;
+        synchronized (pendingCompletions) {
+            pendingCompletions.add(completion);
+            while (writingCompletions && !completion.written) {
+                try {
+                    pendingCompletions.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (completion.written) {
+                return;
+            }
+            writingCompletions = true;
+            batch = new ArrayList<JobCompletion>(pendingCompletions);
+            pendingCompletions.clear();
+        }
+        try {
+            writeTriggeredJobCompletions(batch);
+        } finally {
+            synchronized (pendingCompletions) {
+                for (JobCompletion written : batch) {
+                    written.written = true;
+                }
+                writingCompletions = false;
+                pendingCompletions.notifyAll();
+            }
+        }
+    }
+
+    private void writeTriggeredJobCompletions(final List<JobCompletion> batch) {
+        if (batch.size() > 1) {
+            try {
+                executeInNonManagedTXLock(
+                    LOCK_TRIGGER_ACCESS,
+                    new VoidTransactionCallback() {
+                        public void executeVoid(Connection conn) throws JobPersistenceException {
+                            for (JobCompletion completion : batch) {
+                                triggeredJobComplete(conn, completion.trigger,
+                                        completion.jobDetail, completion.triggerInstCode);
+                            }
+                        }
+                    }, null);
+                return;
+            } catch (JobPersistenceException e) {
+                getLog().warn("Couldn't complete a batch of " + batch.size()
+                        + " triggered jobs, completing them one by one: " + e.getMessage(), e);
+            }
+        }
+        // a single completion, or the batch failed: retry each one on its own
+        for (final JobCompletion completion : batch) {
+            retryExecuteInNonManagedTXLock(
+                LOCK_TRIGGER_ACCESS,
+                new VoidTransactionCallback() {
+                    public void executeVoid(Connection conn) throws JobPersistenceException {
+                        triggeredJobComplete(conn, completion.trigger, completion.jobDetail,
+                                completion.triggerInstCode);
+                    }
+                });
+        }
+    }
     
     protected void triggeredJobComplete(Connection conn,
             OperableTrigger trigger, JobDetail jobDetail,
@@ -3098,6 +3836,7 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                 try {
                     if (jobDetail.getJobDataMap().isDirty()) {
                         getDelegate().updateJobData(conn, jobDetail);
+                        invalidateCachedJob(jobDetail.getKey());
                     }
                 } catch (IOException e) {
                     throw new JobPersistenceException(
@@ -3152,6 +3891,19 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         }
     }
 
+    /**
+     * <P>
+     * Get the driver delegate for the set-based DB operations, which are only
+     * offered by <code>{@link StdJDBCDelegate}</code> and its subclasses so
+     * that delegates implementing <code>{@link DriverDelegate}</code>
+     * directly keep working, or null if the delegate does not extend it.
+     * </p>
+     */
+    protected StdJDBCDelegate getStdJDBCDelegate() throws NoSuchDelegateException {
+        DriverDelegate delegate = getDelegate();
+        return (delegate instanceof StdJDBCDelegate) ? (StdJDBCDelegate) delegate : null;
+    }
+
     protected Semaphore getLockHandler() {
         return lockHandler;
     }
@@ -3305,6 +4057,8 @@ public abstract class JobStoreSupport implements JobStore, Constants {
             long timeNow = System.currentTimeMillis();
             
             List<SchedulerStateRecord> states = getDelegate().selectSchedulerStateRecords(conn, null);
+            List<String> liveInstanceIds = new ArrayList<String>();
+            liveInstanceIds.add(getInstanceId());
 
             for(SchedulerStateRecord rec: states) {
         
@@ -3318,9 +4072,17 @@ public abstract class JobStoreSupport implements JobStore, Constants {
                     // find failed instances...
                     if (calcFailedIfAfter(rec) < timeNow) {
                         failedInstances.add(rec);
+                    } else {
+                        liveInstanceIds.add(rec.getSchedulerInstanceId());
                     }
                 }
             }
+
+            if (isPartitionTriggersAcrossCluster()) {
+                Collections.sort(liveInstanceIds);
+                clusterPartition = new ClusterPartition(
+                        liveInstanceIds.indexOf(getInstanceId()), liveInstanceIds.size());
+            }
             
             // The first time through, also check for orphaned fired triggers.
             if (firstCheckIn) {
@@ -3380,6 +4142,47 @@ public abstract class JobStoreSupport implements JobStore, Constants {
         return orphanedInstances;
     }
     
+    /**
+     * This node's share of the triggers: the keys whose hash, modulo the
+     * number of live nodes, is the position of this node's instance id among
+     * theirs.  As every node sorts the same instance ids, the shares of nodes
+     * that agree on the live nodes do not overlap.
+     */
+    private static final class ClusterPartition {
+        private final int index;
+        private final int count;
+
+        ClusterPartition(int index, int count) {
+            this.index = index;
+            this.count = count;
+        }
+
+        boolean owns(TriggerKey triggerKey) {
+            return (triggerKey.hashCode() & Integer.MAX_VALUE) % count == index;
+        }
+
+        /**
+         * The number of triggers to read to find about <code>maxCount</code>
+         * of this node's own.
+         */
+        int selectCount(int maxCount) {
+            return (int) Math.min((long) maxCount * count, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @return this node's share of the triggers, or <code>null</code> if it
+     *         may acquire any trigger.
+     */
+    private ClusterPartition getClusterPartition() {
+        ClusterPartition partition = clusterPartition;
+        if (!isClustered() || !isPartitionTriggersAcrossCluster()
+                || partition == null || partition.count < 2) {
+            return null;
+        }
+        return partition;
+    }
+    
     protected long calcFailedIfAfter(SchedulerStateRecord rec) {
         return rec.getCheckinTimestamp() +
             Math.max(rec.getCheckinInterval(), 
@@ -5,6 +5,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.quartz.JobDetail;
 import org.quartz.ScheduleBuilder;
@@ -22,7 +25,7 @@ import org.quartz.spi.OperableTrigger;
  * 
  * @author jhouse
  */
-public abstract class SimplePropertiesTriggerPersistenceDelegateSupport implements TriggerPersistenceDelegate, StdJDBCConstants {
+public abstract class SimplePropertiesTriggerPersistenceDelegateSupport implements BatchTriggerPersistenceDelegate, StdJDBCConstants {
 
     protected static final String TABLE_SIMPLE_PROPERTIES_TRIGGERS = "SIMPROP_TRIGGERS";
     
@@ -137,21 +140,7 @@ public abstract class SimplePropertiesTriggerPersistenceDelegateSupport implemen
             rs = ps.executeQuery();
     
             if (rs.next()) {
-                SimplePropertiesTriggerProperties properties = new SimplePropertiesTriggerProperties();
-                    
-                properties.setString1(rs.getString(COL_STR_PROP_1));
-                properties.setString2(rs.getString(COL_STR_PROP_2));
-                properties.setString3(rs.getString(COL_STR_PROP_3));
-                properties.setInt1(rs.getInt(COL_INT_PROP_1));
-                properties.setInt2(rs.getInt(COL_INT_PROP_2));
-                properties.setLong1(rs.getInt(COL_LONG_PROP_1));
-                properties.setLong2(rs.getInt(COL_LONG_PROP_2));
-                properties.setDecimal1(rs.getBigDecimal(COL_DEC_PROP_1));
-                properties.setDecimal2(rs.getBigDecimal(COL_DEC_PROP_2));
-                properties.setBoolean1(rs.getBoolean(COL_BOOL_PROP_1));
-                properties.setBoolean2(rs.getBoolean(COL_BOOL_PROP_2));
-                
-                return getTriggerPropertyBundle(properties);
+                return readExtendedTriggerProperties(rs);
             }
             
             throw new IllegalStateException("No record found for selection of Trigger with key: '" + triggerKey + "' and statement: " + Util.rtp(SELECT_SIMPLE_TRIGGER, tablePrefix, schedNameLiteral));
@@ -161,6 +150,55 @@ public abstract class SimplePropertiesTriggerPersistenceDelegateSupport implemen
         }
     }
 
+    public Map<TriggerKey, TriggerPropertyBundle> loadExtendedTriggerProperties(Connection conn, List<TriggerKey> triggerKeys) throws SQLException {
+
+        Map<TriggerKey, TriggerPropertyBundle> bundles = new HashMap<TriggerKey, TriggerPropertyBundle>();
+        if (triggerKeys.isEmpty()) {
+            return bundles;
+        }
+
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        
+        try {
+            ps = conn.prepareStatement(Util.rtp(Util.forTriggerKeys(SELECT_SIMPLE_PROPS_TRIGGER, triggerKeys.size()), tablePrefix, schedNameLiteral));
+            int index = 1;
+            for (TriggerKey triggerKey : triggerKeys) {
+                ps.setString(index++, triggerKey.getName());
+                ps.setString(index++, triggerKey.getGroup());
+            }
+            rs = ps.executeQuery();
+
+            while (rs.next()) {
+                bundles.put(new TriggerKey(rs.getString(COL_TRIGGER_NAME), rs.getString(COL_TRIGGER_GROUP)),
+                        readExtendedTriggerProperties(rs));
+            }
+            return bundles;
+        } finally {
+            Util.closeResultSet(rs);
+            Util.closeStatement(ps);
+        }
+    }
+
+    /** Read the properties of the current row of a <code>SIMPROP_TRIGGERS</code> query. */
+    private TriggerPropertyBundle readExtendedTriggerProperties(ResultSet rs) throws SQLException {
+        SimplePropertiesTriggerProperties properties = new SimplePropertiesTriggerProperties();
+
+        properties.setString1(rs.getString(COL_STR_PROP_1));
+        properties.setString2(rs.getString(COL_STR_PROP_2));
+        properties.setString3(rs.getString(COL_STR_PROP_3));
+        properties.setInt1(rs.getInt(COL_INT_PROP_1));
+        properties.setInt2(rs.getInt(COL_INT_PROP_2));
+        properties.setLong1(rs.getInt(COL_LONG_PROP_1));
+        properties.setLong2(rs.getInt(COL_LONG_PROP_2));
+        properties.setDecimal1(rs.getBigDecimal(COL_DEC_PROP_1));
+        properties.setDecimal2(rs.getBigDecimal(COL_DEC_PROP_2));
+        properties.setBoolean1(rs.getBoolean(COL_BOOL_PROP_1));
+        properties.setBoolean2(rs.getBoolean(COL_BOOL_PROP_2));
+
+        return getTriggerPropertyBundle(properties);
+    }
+
     public int updateExtendedTriggerProperties(Connection conn, OperableTrigger trigger, String state, JobDetail jobDetail) throws SQLException, IOException {
 
         SimplePropertiesTriggerProperties properties = getTriggerProperties(trigger);
@@ -6,6 +6,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.quartz.JobDetail;
 import org.quartz.SimpleScheduleBuilder;
@@ -14,7 +17,7 @@ import org.quartz.TriggerKey;
 import org.quartz.impl.triggers.SimpleTriggerImpl;
 import org.quartz.spi.OperableTrigger;
 
-public class SimpleTriggerPersistenceDelegate implements TriggerPersistenceDelegate, StdJDBCConstants {
+public class SimpleTriggerPersistenceDelegate implements BatchTriggerPersistenceDelegate, StdJDBCConstants {
 
     protected String tablePrefix;
     protected String schedNameLiteral;
@@ -78,18 +81,7 @@ public class SimpleTriggerPersistenceDelegate implements TriggerPersistenceDeleg
             rs = ps.executeQuery();
     
             if (rs.next()) {
-                int repeatCount = rs.getInt(COL_REPEAT_COUNT);
-                long repeatInterval = rs.getLong(COL_REPEAT_INTERVAL);
-                int timesTriggered = rs.getInt(COL_TIMES_TRIGGERED);
-
-                SimpleScheduleBuilder sb = SimpleScheduleBuilder.simpleSchedule()
-                    .withRepeatCount(repeatCount)
-                    .withIntervalInMilliseconds(repeatInterval);
-                
-                String[] statePropertyNames = { "timesTriggered" };
-                Object[] statePropertyValues = { timesTriggered };
-                
-                return new TriggerPropertyBundle(sb, statePropertyNames, statePropertyValues);
+                return readExtendedTriggerProperties(rs);
             }
             
             throw new IllegalStateException("No record found for selection of Trigger with key: '" + triggerKey + "' and statement: " + Util.rtp(SELECT_SIMPLE_TRIGGER, tablePrefix, schedNameLiteral));
@@ -99,6 +91,52 @@ public class SimpleTriggerPersistenceDelegate implements TriggerPersistenceDeleg
         }
     }
 
+    public Map<TriggerKey, TriggerPropertyBundle> loadExtendedTriggerProperties(Connection conn, List<TriggerKey> triggerKeys) throws SQLException {
+
+        Map<TriggerKey, TriggerPropertyBundle> bundles = new HashMap<TriggerKey, TriggerPropertyBundle>();
+        if (triggerKeys.isEmpty()) {
+            return bundles;
+        }
+
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        
+        try {
+            ps = conn.prepareStatement(Util.rtp(Util.forTriggerKeys(SELECT_SIMPLE_TRIGGER, triggerKeys.size()), tablePrefix, schedNameLiteral));
+            int index = 1;
+            for (TriggerKey triggerKey : triggerKeys) {
+                ps.setString(index++, triggerKey.getName());
+                ps.setString(index++, triggerKey.getGroup());
+            }
+            rs = ps.executeQuery();
+
+            while (rs.next()) {
+                bundles.put(new TriggerKey(rs.getString(COL_TRIGGER_NAME), rs.getString(COL_TRIGGER_GROUP)),
+                        readExtendedTriggerProperties(rs));
+            }
+            return bundles;
+        } finally {
+            Util.closeResultSet(rs);
+            Util.closeStatement(ps);
+        }
+    }
+
+    /** Read the properties of the current row of a <code>SIMPLE_TRIGGERS</code> query. */
+    private TriggerPropertyBundle readExtendedTriggerProperties(ResultSet rs) throws SQLException {
+        int repeatCount = rs.getInt(COL_REPEAT_COUNT);
+        long repeatInterval = rs.getLong(COL_REPEAT_INTERVAL);
+        int timesTriggered = rs.getInt(COL_TIMES_TRIGGERED);
+
+        SimpleScheduleBuilder sb = SimpleScheduleBuilder.simpleSchedule()
+            .withRepeatCount(repeatCount)
+            .withIntervalInMilliseconds(repeatInterval);
+
+        String[] statePropertyNames = { "timesTriggered" };
+        Object[] statePropertyValues = { timesTriggered };
+
+        return new TriggerPropertyBundle(sb, statePropertyNames, statePropertyValues);
+    }
+
     public int updateExtendedTriggerProperties(Connection conn, OperableTrigger trigger, String state, JobDetail jobDetail) throws SQLException, IOException {
 
         SimpleTrigger simpleTrigger = (SimpleTrigger)trigger;
@@ -301,6 +301,13 @@ public interface StdJDBCConstants extends Constants {
             + " AND " + COL_TRIGGER_NAME + " = ? AND "
             + COL_TRIGGER_GROUP + " = ? AND " + COL_TRIGGER_STATE + " = ?";
 
+    String UPDATE_TRIGGER_STATE_FROM_STATE_AND_FIRE_TIME = "UPDATE "
+            + TABLE_PREFIX_SUBST + TABLE_TRIGGERS + " SET " + COL_TRIGGER_STATE
+            + " = ?" + " WHERE " + COL_SCHEDULER_NAME + " = " + SCHED_NAME_SUBST
+            + " AND " + COL_TRIGGER_NAME + " = ? AND "
+            + COL_TRIGGER_GROUP + " = ? AND " + COL_TRIGGER_STATE + " = ? AND "
+            + COL_NEXT_FIRE_TIME + " = ?";
+
     String UPDATE_TRIGGER_GROUP_STATE_FROM_STATE = "UPDATE "
             + TABLE_PREFIX_SUBST
             + TABLE_TRIGGERS
@@ -500,6 +507,13 @@ public interface StdJDBCConstants extends Constants {
             + COL_SCHEDULER_NAME + " = " + SCHED_NAME_SUBST
             + " AND " + COL_TRIGGER_STATE + " = ? AND " + COL_NEXT_FIRE_TIME + " >= 0";
 
+    String SELECT_EARLIEST_NEXT_FIRE_TIME = "SELECT MIN("
+            + COL_NEXT_FIRE_TIME + ") AS " + ALIAS_COL_NEXT_FIRE_TIME
+            + " FROM " + TABLE_PREFIX_SUBST + TABLE_TRIGGERS + " WHERE "
+            + COL_SCHEDULER_NAME + " = " + SCHED_NAME_SUBST
+            + " AND " + COL_TRIGGER_STATE + " = ? AND " + COL_NEXT_FIRE_TIME + " >= 0"
+            + " AND (" + COL_MISFIRE_INSTRUCTION + " = -1 OR " + COL_NEXT_FIRE_TIME + " >= ?)";
+
     String SELECT_TRIGGER_FOR_FIRE_TIME = "SELECT "
             + COL_TRIGGER_NAME + ", " + COL_TRIGGER_GROUP + " FROM "
             + TABLE_PREFIX_SUBST + TABLE_TRIGGERS + " WHERE "
@@ -514,6 +528,17 @@ public interface StdJDBCConstants extends Constants {
         + " AND " + COL_TRIGGER_STATE + " = ? AND " + COL_NEXT_FIRE_TIME + " <= ? " 
         + "AND (" + COL_MISFIRE_INSTRUCTION + " = -1 OR (" +COL_MISFIRE_INSTRUCTION+ " != -1 AND "+ COL_NEXT_FIRE_TIME + " >= ?)) "
         + "ORDER BY "+ COL_NEXT_FIRE_TIME + " ASC, " + COL_PRIORITY + " DESC";
+
+    String SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS = "SELECT T.*, J."
+        + COL_IS_NONCONCURRENT + " FROM "
+        + TABLE_PREFIX_SUBST + TABLE_TRIGGERS + " T, " + TABLE_PREFIX_SUBST + TABLE_JOB_DETAILS
+        + " J WHERE T." + COL_SCHEDULER_NAME + " = " + SCHED_NAME_SUBST
+        + " AND J." + COL_SCHEDULER_NAME + " = " + SCHED_NAME_SUBST
+        + " AND T." + COL_JOB_NAME + " = J." + COL_JOB_NAME
+        + " AND T." + COL_JOB_GROUP + " = J." + COL_JOB_GROUP
+        + " AND T." + COL_TRIGGER_STATE + " = ? AND T." + COL_NEXT_FIRE_TIME + " <= ? "
+        + "AND (T." + COL_MISFIRE_INSTRUCTION + " = -1 OR (T." + COL_MISFIRE_INSTRUCTION + " != -1 AND T." + COL_NEXT_FIRE_TIME + " >= ?)) "
+        + "ORDER BY T." + COL_NEXT_FIRE_TIME + " ASC, T." + COL_PRIORITY + " DESC";
     
     
     String INSERT_FIRED_TRIGGER = "INSERT INTO "
@@ -21,6 +21,7 @@ import static org.quartz.JobKey.jobKey;
 import static org.quartz.TriggerBuilder.newTrigger;
 import static org.quartz.TriggerKey.triggerKey;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -35,10 +36,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -95,11 +98,16 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
     protected String schedName;
 
     protected boolean useProperties;
+
+    protected boolean compactJobData;
     
     protected ClassLoadHelper classLoadHelper;
 
     protected List<TriggerPersistenceDelegate> triggerPersistenceDelegates = new LinkedList<TriggerPersistenceDelegate>();
 
+    // the most triggers whose type-specific properties are loaded by one query
+    private static final int MAX_TRIGGER_KEYS_PER_QUERY = 100;
+
     
     /*
      * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -163,6 +171,9 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
                     } 
                 }
             }
+            else if(name.equals("compactJobData")) {
+                compactJobData = Boolean.valueOf(parts[1]);
+            }
             else
                 throw new NoSuchDelegateException("Unknown setting: '" + name + "'");
         }
@@ -1442,6 +1453,44 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         }
     }
 
+    /**
+     * <p>
+     * Update the given trigger to the given new state, if it is in the given
+     * old state and still has the given next fire time.  The fire time acts
+     * as the row's version: a trigger that was fired and rescheduled since it
+     * was read is not updated.
+     * </p>
+     * 
+     * @param conn
+     *          the DB connection
+     * 
+     * @param newState
+     *          the new state for the trigger
+     * @param oldState
+     *          the old state the trigger must be in
+     * @param nextFireTime
+     *          the next fire time the trigger must have
+     * @return int the number of rows updated
+     * @throws SQLException
+     */
+    public int updateTriggerStateFromOtherStateAndFireTime(Connection conn,
+            TriggerKey triggerKey, String newState, String oldState, long nextFireTime) throws SQLException {
+        PreparedStatement ps = null;
+
+        try {
+            ps = conn.prepareStatement(rtp(UPDATE_TRIGGER_STATE_FROM_STATE_AND_FIRE_TIME));
+            ps.setString(1, newState);
+            ps.setString(2, triggerKey.getName());
+            ps.setString(3, triggerKey.getGroup());
+            ps.setString(4, oldState);
+            ps.setBigDecimal(5, new BigDecimal(String.valueOf(nextFireTime)));
+
+            return ps.executeUpdate();
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
     /**
      * <p>
      * Update all of the triggers of the given group to the given new state, if
@@ -1761,62 +1810,17 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
             rs = ps.executeQuery();
 
             if (rs.next()) {
-                String jobName = rs.getString(COL_JOB_NAME);
-                String jobGroup = rs.getString(COL_JOB_GROUP);
-                String description = rs.getString(COL_DESCRIPTION);
-                long nextFireTime = rs.getLong(COL_NEXT_FIRE_TIME);
-                long prevFireTime = rs.getLong(COL_PREV_FIRE_TIME);
-                String triggerType = rs.getString(COL_TRIGGER_TYPE);
-                long startTime = rs.getLong(COL_START_TIME);
-                long endTime = rs.getLong(COL_END_TIME);
-                String calendarName = rs.getString(COL_CALENDAR_NAME);
-                int misFireInstr = rs.getInt(COL_MISFIRE_INSTRUCTION);
-                int priority = rs.getInt(COL_PRIORITY);
-
-                Map<?, ?> map = null;
-                if (canUseProperties()) {
-                    map = getMapFromProperties(rs);
-                } else {
-                    map = (Map<?, ?>) getObjectFromBlob(rs, COL_JOB_DATAMAP);
-                }
-                
-                Date nft = null;
-                if (nextFireTime > 0) {
-                    nft = new Date(nextFireTime);
-                }
-
-                Date pft = null;
-                if (prevFireTime > 0) {
-                    pft = new Date(prevFireTime);
-                }
-                Date startTimeD = new Date(startTime);
-                Date endTimeD = null;
-                if (endTime > 0) {
-                    endTimeD = new Date(endTime);
-                }
+                TriggerRow row = readTriggerRow(rs, triggerKey);
 
-                if (triggerType.equals(TTYPE_BLOB)) {
+                if (row.triggerType.equals(TTYPE_BLOB)) {
                     rs.close(); rs = null;
                     ps.close(); ps = null;
 
-                    ps = conn.prepareStatement(rtp(SELECT_BLOB_TRIGGER));
-                    ps.setString(1, triggerKey.getName());
-                    ps.setString(2, triggerKey.getGroup());
-                    rs = ps.executeQuery();
-
-                    if (rs.next()) {
-                        trigger = (OperableTrigger) getObjectFromBlob(rs, COL_BLOB);
-                    }
+                    trigger = buildTrigger(conn, row);
                 }
                 else {
-                    TriggerPersistenceDelegate tDel = findTriggerPersistenceDelegate(triggerType);
-                    
-                    if(tDel == null)
-                        throw new JobPersistenceException("No TriggerPersistenceDelegate for trigger discriminator type: " + triggerType);
-
-                    TriggerPropertyBundle triggerProps = null;
                     try {
-                        triggerProps = tDel.loadExtendedTriggerProperties(conn, triggerKey);
+                        trigger = buildTrigger(conn, row);
                     } catch (IllegalStateException isex) {
                         if (isTriggerStillPresent(ps)) {
                             throw isex;
@@ -1825,28 +1829,6 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
                             return null;
                         }
                     }
-
-                    TriggerBuilder<?> tb = newTrigger()
-                        .withDescription(description)
-                        .withPriority(priority)
-                        .startAt(startTimeD)
-                        .endAt(endTimeD)
-                        .withIdentity(triggerKey)
-                        .modifiedByCalendar(calendarName)
-                        .withSchedule(triggerProps.getScheduleBuilder())
-                        .forJob(jobKey(jobName, jobGroup));
-    
-                    if (null != map) {
-                        tb.usingJobData(new JobDataMap(map));
-                    }
-    
-                    trigger = (OperableTrigger) tb.build();
-                    
-                    trigger.setMisfireInstruction(misFireInstr);
-                    trigger.setNextFireTime(nft);
-                    trigger.setPreviousFireTime(pft);
-                    
-                    setTriggerStateProperties(trigger, triggerProps);
                 }                
             }
 
@@ -1857,6 +1839,137 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         }
     }
 
+    /**
+     * The columns of a <code>TRIGGERS</code> row, held until the trigger's
+     * type-specific properties have been loaded.
+     */
+    private static class TriggerRow {
+        TriggerKey triggerKey;
+        JobKey jobKey;
+        String description;
+        long nextFireTime;
+        long prevFireTime;
+        String triggerType;
+        long startTime;
+        long endTime;
+        String calendarName;
+        int misfireInstruction;
+        int priority;
+        Map<?, ?> jobDataMap;
+    }
+
+    private TriggerRow readTriggerRow(ResultSet rs, TriggerKey triggerKey) throws SQLException,
+            ClassNotFoundException, IOException {
+        TriggerRow row = new TriggerRow();
+        row.triggerKey = triggerKey;
+        row.jobKey = jobKey(rs.getString(COL_JOB_NAME), rs.getString(COL_JOB_GROUP));
+        row.description = rs.getString(COL_DESCRIPTION);
+        row.nextFireTime = rs.getLong(COL_NEXT_FIRE_TIME);
+        row.prevFireTime = rs.getLong(COL_PREV_FIRE_TIME);
+        row.triggerType = rs.getString(COL_TRIGGER_TYPE);
+        row.startTime = rs.getLong(COL_START_TIME);
+        row.endTime = rs.getLong(COL_END_TIME);
+        row.calendarName = rs.getString(COL_CALENDAR_NAME);
+        row.misfireInstruction = rs.getInt(COL_MISFIRE_INSTRUCTION);
+        row.priority = rs.getInt(COL_PRIORITY);
+
+        if (canUseProperties()) {
+            row.jobDataMap = getMapFromProperties(rs);
+        } else {
+            row.jobDataMap = (Map<?, ?>) getObjectFromBlob(rs, COL_JOB_DATAMAP);
+        }
+        return row;
+    }
+
+    /**
+     * Build the trigger of the given row, loading its type-specific
+     * properties.
+     * 
+     * @throws IllegalStateException if the trigger's type-specific properties
+     *          are missing
+     */
+    private OperableTrigger buildTrigger(Connection conn, TriggerRow row) throws SQLException,
+            ClassNotFoundException, IOException, JobPersistenceException {
+        return buildTrigger(conn, row, null);
+    }
+
+    /**
+     * Build the trigger of the given row with the given type-specific
+     * properties, loading them if they are <code>null</code>.
+     * 
+     * @throws IllegalStateException if the trigger's type-specific properties
+     *          are missing
+     */
+    private OperableTrigger buildTrigger(Connection conn, TriggerRow row, TriggerPropertyBundle triggerProps) throws SQLException,
+            ClassNotFoundException, IOException, JobPersistenceException {
+        Date nft = null;
+        if (row.nextFireTime > 0) {
+            nft = new Date(row.nextFireTime);
+        }
+
+        Date pft = null;
+        if (row.prevFireTime > 0) {
+            pft = new Date(row.prevFireTime);
+        }
+        Date startTimeD = new Date(row.startTime);
+        Date endTimeD = null;
+        if (row.endTime > 0) {
+            endTimeD = new Date(row.endTime);
+        }
+
+        if (row.triggerType.equals(TTYPE_BLOB)) {
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                ps = conn.prepareStatement(rtp(SELECT_BLOB_TRIGGER));
+                ps.setString(1, row.triggerKey.getName());
+                ps.setString(2, row.triggerKey.getGroup());
+                rs = ps.executeQuery();
+
+                if (rs.next()) {
+                    return (OperableTrigger) getObjectFromBlob(rs, COL_BLOB);
+                }
+                return null;
+            } finally {
+                closeResultSet(rs);
+                closeStatement(ps);
+            }
+        }
+
+        if (triggerProps == null) {
+            TriggerPersistenceDelegate tDel = findTriggerPersistenceDelegate(row.triggerType);
+
+            if(tDel == null)
+                throw new JobPersistenceException("No TriggerPersistenceDelegate for trigger discriminator type: " + row.triggerType);
+
+            triggerProps = tDel.loadExtendedTriggerProperties(conn, row.triggerKey);
+        }
+
+        TriggerBuilder<?> tb = newTrigger()
+            .withDescription(row.description)
+            .withPriority(row.priority)
+            .startAt(startTimeD)
+            .endAt(endTimeD)
+            .withIdentity(row.triggerKey)
+            .modifiedByCalendar(row.calendarName)
+            .withSchedule(triggerProps.getScheduleBuilder())
+            .forJob(row.jobKey);
+
+        if (null != row.jobDataMap) {
+            tb.usingJobData(new JobDataMap(row.jobDataMap));
+        }
+
+        OperableTrigger trigger = (OperableTrigger) tb.build();
+        
+        trigger.setMisfireInstruction(row.misfireInstruction);
+        trigger.setNextFireTime(nft);
+        trigger.setPreviousFireTime(pft);
+        
+        setTriggerStateProperties(trigger, triggerProps);
+
+        return trigger;
+    }
+
     private boolean isTriggerStillPresent(PreparedStatement ps) throws SQLException {
         ResultSet rs = null;
         try {
@@ -2513,6 +2626,43 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         }
     }
 
+    /**
+     * <p>
+     * Select the earliest next fire time of the triggers in the given state,
+     * leaving out triggers that have misfired, the same way as
+     * <code>{@link #selectTriggerToAcquire(Connection, long, long, int)}</code>.
+     * </p>
+     * 
+     * @param conn
+     *          the DB Connection
+     * @param state
+     *          the state of the triggers to look at
+     * @param noEarlierThan
+     *          the misfire time: triggers that handle misfires and should
+     *          have fired before it are left out
+     * @return the earliest next fire time, or 0 if there is none
+     */
+    public long selectEarliestNextFireTime(Connection conn, String state, long noEarlierThan)
+        throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(rtp(SELECT_EARLIEST_NEXT_FIRE_TIME));
+            ps.setString(1, state);
+            ps.setBigDecimal(2, new BigDecimal(String.valueOf(noEarlierThan)));
+            rs = ps.executeQuery();
+
+            if (rs.next()) {
+                return rs.getLong(ALIAS_COL_NEXT_FIRE_TIME);
+            } else {
+                return 0l;
+            }
+        } finally {
+            closeResultSet(rs);
+            closeStatement(ps);
+        }
+    }
+
     /**
      * <p>
      * Select the trigger that will be fired at the given fire time.
@@ -2625,6 +2775,217 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         }      
     }
 
+    /**
+     * <p>
+     * Select and load the next triggers which will fire between the two given
+     * timestamps, in the order of <code>{@link #selectTriggerToAcquire(Connection, long, long, int)}</code>.
+     * The triggers are read joined with their jobs, so that a single query also
+     * tells which jobs disallow concurrent execution, and their type-specific
+     * properties are then loaded with one query per trigger type, where the
+     * type's <code>{@link BatchTriggerPersistenceDelegate}</code> allows it.
+     * </p>
+     * 
+     * @param conn
+     *          the DB Connection
+     * @param noLaterThan
+     *          highest value of <code>getNextFireTime()</code> of the triggers (exclusive)
+     * @param noEarlierThan 
+     *          highest value of <code>getNextFireTime()</code> of the triggers (inclusive)
+     * @param maxCount 
+     *          maximum number of triggers to return.
+     * @param nonConcurrentJobs
+     *          receives the keys of the returned triggers' jobs that disallow
+     *          concurrent execution.
+     *          
+     * @return A (never null, possibly empty) list of the next triggers to be fired.
+     */
+    public List<OperableTrigger> selectTriggersToAcquire(Connection conn, long noLaterThan, long noEarlierThan, int maxCount,
+            Set<JobKey> nonConcurrentJobs) throws SQLException, ClassNotFoundException, IOException, JobPersistenceException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        List<TriggerRow> rows = new ArrayList<TriggerRow>();
+        try {
+            ps = conn.prepareStatement(rtp(SELECT_NEXT_TRIGGERS_TO_ACQUIRE_WITH_JOBS));
+            
+            // Set max rows to retrieve
+            if (maxCount < 1)
+                maxCount = 1; // we want at least one trigger back.
+            ps.setMaxRows(maxCount);
+            
+            // Try to give jdbc driver a hint to hopefully not pull over more than the few rows we actually need.
+            // Note: in some jdbc drivers, such as MySQL, you must set maxRows before fetchSize, or you get exception!
+            ps.setFetchSize(maxCount);
+            
+            ps.setString(1, STATE_WAITING);
+            ps.setBigDecimal(2, new BigDecimal(String.valueOf(noLaterThan)));
+            ps.setBigDecimal(3, new BigDecimal(String.valueOf(noEarlierThan)));
+            rs = ps.executeQuery();
+            
+            while (rs.next() && rows.size() < maxCount) {
+                TriggerRow row = readTriggerRow(rs, triggerKey(
+                        rs.getString(COL_TRIGGER_NAME),
+                        rs.getString(COL_TRIGGER_GROUP)));
+                if (getBoolean(rs, COL_IS_NONCONCURRENT)) {
+                    nonConcurrentJobs.add(row.jobKey);
+                }
+                rows.add(row);
+            }
+        } finally {
+            closeResultSet(rs);
+            closeStatement(ps);
+        }
+
+        // load the type-specific properties once the result set is closed
+        Map<TriggerKey, TriggerPropertyBundle> triggerProps = loadExtendedTriggerProperties(conn, rows);
+        List<OperableTrigger> triggers = new ArrayList<OperableTrigger>(rows.size());
+        for (TriggerRow row : rows) {
+            OperableTrigger trigger;
+            try {
+                // a trigger whose properties were not batch loaded loads them itself
+                trigger = buildTrigger(conn, row, triggerProps.get(row.triggerKey));
+            } catch (IllegalStateException isex) {
+                if (triggerExists(conn, row.triggerKey)) {
+                    throw isex;
+                }
+                continue; // QTZ-386 Trigger has been deleted
+            }
+            if (trigger != null) {
+                triggers.add(trigger);
+            }
+        }
+        return triggers;
+    }
+
+    /**
+     * Load the type-specific properties of the triggers of the given rows
+     * with one query per trigger type, for the types whose
+     * <code>TriggerPersistenceDelegate</code> can load them in a batch.
+     */
+    private Map<TriggerKey, TriggerPropertyBundle> loadExtendedTriggerProperties(Connection conn, List<TriggerRow> rows)
+            throws SQLException {
+        Map<BatchTriggerPersistenceDelegate, List<TriggerKey>> keysByDelegate =
+                new LinkedHashMap<BatchTriggerPersistenceDelegate, List<TriggerKey>>();
+        for (TriggerRow row : rows) {
+            if (row.triggerType.equals(TTYPE_BLOB)) {
+                continue;
+            }
+            TriggerPersistenceDelegate tDel = findTriggerPersistenceDelegate(row.triggerType);
+            if (tDel instanceof BatchTriggerPersistenceDelegate) {
+                List<TriggerKey> keys = keysByDelegate.get(tDel);
+                if (keys == null) {
+                    keys = new ArrayList<TriggerKey>();
+                    keysByDelegate.put((BatchTriggerPersistenceDelegate) tDel, keys);
+                }
+                keys.add(row.triggerKey);
+            }
+        }
+
+        Map<TriggerKey, TriggerPropertyBundle> triggerProps = new HashMap<TriggerKey, TriggerPropertyBundle>();
+        for (Map.Entry<BatchTriggerPersistenceDelegate, List<TriggerKey>> entry : keysByDelegate.entrySet()) {
+            List<TriggerKey> keys = entry.getValue();
+            for (int from = 0; from < keys.size(); from += MAX_TRIGGER_KEYS_PER_QUERY) {
+                List<TriggerKey> chunk = keys.subList(from, Math.min(keys.size(), from + MAX_TRIGGER_KEYS_PER_QUERY));
+                triggerProps.putAll(entry.getKey().loadExtendedTriggerProperties(conn, chunk));
+            }
+        }
+        return triggerProps;
+    }
+
+    /**
+     * <p>
+     * Update the state of each of the given triggers, if it is in the given
+     * old state, with a single JDBC batch.
+     * </p>
+     * 
+     * @param conn
+     *          the DB Connection
+     * @param triggerKeys
+     *          the keys of the triggers to update
+     * @param newState
+     *          the new state for the triggers
+     * @param oldState
+     *          the state the triggers must be in
+     * @return the number of rows updated for each of the triggers, in order,
+     *         or <code>Statement.SUCCESS_NO_INFO</code> for the triggers the
+     *         driver did not report a count for, whose update is unknown
+     */
+    public int[] updateTriggerStatesFromOtherState(Connection conn, List<TriggerKey> triggerKeys,
+            String newState, String oldState) throws SQLException {
+        if (triggerKeys.isEmpty()) {
+            return new int[0];
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = conn.prepareStatement(rtp(UPDATE_TRIGGER_STATE_FROM_STATE));
+            for (TriggerKey triggerKey : triggerKeys) {
+                ps.setString(1, newState);
+                ps.setString(2, triggerKey.getName());
+                ps.setString(3, triggerKey.getGroup());
+                ps.setString(4, oldState);
+                ps.addBatch();
+            }
+            return normalizeBatchCounts(ps.executeBatch());
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    /**
+     * <p>
+     * Update the state of each of the given triggers, if it is in the given
+     * old state and still has the next fire time of the given trigger, with a
+     * single JDBC batch.
+     * </p>
+     * 
+     * @param conn
+     *          the DB Connection
+     * @param triggers
+     *          the triggers to update
+     * @param newState
+     *          the new state for the triggers
+     * @param oldState
+     *          the state the triggers must be in
+     * @return the number of rows updated for each of the triggers, in order,
+     *         or <code>Statement.SUCCESS_NO_INFO</code> for the triggers the
+     *         driver did not report a count for, whose update is unknown
+     * @see #updateTriggerStateFromOtherStateAndFireTime(Connection, TriggerKey, String, String, long)
+     */
+    public int[] updateTriggerStatesFromOtherStateAndFireTime(Connection conn, List<OperableTrigger> triggers,
+            String newState, String oldState) throws SQLException {
+        if (triggers.isEmpty()) {
+            return new int[0];
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = conn.prepareStatement(rtp(UPDATE_TRIGGER_STATE_FROM_STATE_AND_FIRE_TIME));
+            for (OperableTrigger trigger : triggers) {
+                ps.setString(1, newState);
+                ps.setString(2, trigger.getKey().getName());
+                ps.setString(3, trigger.getKey().getGroup());
+                ps.setString(4, oldState);
+                ps.setBigDecimal(5, new BigDecimal(String.valueOf(trigger.getNextFireTime().getTime())));
+                ps.addBatch();
+            }
+            return normalizeBatchCounts(ps.executeBatch());
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    /**
+     * Turn the update counts of an executed batch into row counts, leaving
+     * <code>Statement.SUCCESS_NO_INFO</code> for the statements the driver
+     * reported no count for: whether they updated their row is unknown.
+     */
+    private static int[] normalizeBatchCounts(int[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] < 0 && counts[i] != Statement.SUCCESS_NO_INFO) {
+                counts[i] = 0;
+            }
+        }
+        return counts;
+    }
+
     /**
      * <p>
      * Insert a fired trigger.
@@ -2643,25 +3004,7 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         PreparedStatement ps = null;
         try {
             ps = conn.prepareStatement(rtp(INSERT_FIRED_TRIGGER));
-            ps.setString(1, trigger.getFireInstanceId());
-            ps.setString(2, trigger.getKey().getName());
-            ps.setString(3, trigger.getKey().getGroup());
-            ps.setString(4, instanceId);
-            ps.setBigDecimal(5, new BigDecimal(String.valueOf(System.currentTimeMillis())));
-            ps.setBigDecimal(6, new BigDecimal(String.valueOf(trigger.getNextFireTime().getTime())));
-            ps.setString(7, state);
-            if (job != null) {
-                ps.setString(8, trigger.getJobKey().getName());
-                ps.setString(9, trigger.getJobKey().getGroup());
-                setBoolean(ps, 10, job.isConcurrentExectionDisallowed());
-                setBoolean(ps, 11, job.requestsRecovery());
-            } else {
-                ps.setString(8, null);
-                ps.setString(9, null);
-                setBoolean(ps, 10, false);
-                setBoolean(ps, 11, false);
-            }
-            ps.setInt(12, trigger.getPriority());
+            setFiredTriggerParameters(ps, trigger, state, job);
 
             return ps.executeUpdate();
         } finally {
@@ -2669,6 +3012,73 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         }
     }
 
+    /**
+     * <p>
+     * Insert fired trigger records, without job information, for the given
+     * triggers with a single JDBC batch.
+     * </p>
+     * 
+     * @param conn
+     *          the DB Connection
+     * @param triggers
+     *          the triggers
+     * @param state
+     *          the state that the fired triggers should be stored in
+     * @return the number of rows inserted
+     */
+    public int insertFiredTriggers(Connection conn, List<OperableTrigger> triggers,
+            String state) throws SQLException {
+        if (triggers.isEmpty()) {
+            return 0;
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = conn.prepareStatement(rtp(INSERT_FIRED_TRIGGER));
+            for (OperableTrigger trigger : triggers) {
+                setFiredTriggerParameters(ps, trigger, state, null);
+                ps.addBatch();
+            }
+            return sumBatchCounts(ps.executeBatch());
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    /**
+     * Total the update counts of an executed batch, counting the statements
+     * for which the driver reported no count as one row.
+     */
+    private static int sumBatchCounts(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += (count == Statement.SUCCESS_NO_INFO) ? 1 : Math.max(count, 0);
+        }
+        return total;
+    }
+
+    private void setFiredTriggerParameters(PreparedStatement ps, OperableTrigger trigger,
+            String state, JobDetail job) throws SQLException {
+        ps.setString(1, trigger.getFireInstanceId());
+        ps.setString(2, trigger.getKey().getName());
+        ps.setString(3, trigger.getKey().getGroup());
+        ps.setString(4, instanceId);
+        ps.setBigDecimal(5, new BigDecimal(String.valueOf(System.currentTimeMillis())));
+        ps.setBigDecimal(6, new BigDecimal(String.valueOf(trigger.getNextFireTime().getTime())));
+        ps.setString(7, state);
+        if (job != null) {
+            ps.setString(8, trigger.getJobKey().getName());
+            ps.setString(9, trigger.getJobKey().getGroup());
+            setBoolean(ps, 10, job.isConcurrentExectionDisallowed());
+            setBoolean(ps, 11, job.requestsRecovery());
+        } else {
+            ps.setString(8, null);
+            ps.setString(9, null);
+            setBoolean(ps, 10, false);
+            setBoolean(ps, 11, false);
+        }
+        ps.setInt(12, trigger.getPriority());
+    }
+
     /**
      * <p>
      * Update a fired trigger.
@@ -2687,32 +3097,70 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         PreparedStatement ps = null;
         try {
             ps = conn.prepareStatement(rtp(UPDATE_FIRED_TRIGGER));
-            
-            ps.setString(1, instanceId);
+            setUpdatedFiredTriggerParameters(ps, trigger, state, job);
 
-            ps.setBigDecimal(2, new BigDecimal(String.valueOf(System.currentTimeMillis())));
-            ps.setBigDecimal(3, new BigDecimal(String.valueOf(trigger.getNextFireTime().getTime())));
-            ps.setString(4, state);
+            return ps.executeUpdate();
+        } finally {
+            closeStatement(ps);
+        }
+    }
 
-            if (job != null) {
-                ps.setString(5, trigger.getJobKey().getName());
-                ps.setString(6, trigger.getJobKey().getGroup());
-                setBoolean(ps, 7, job.isConcurrentExectionDisallowed());
-                setBoolean(ps, 8, job.requestsRecovery());
-            } else {
-                ps.setString(5, null);
-                ps.setString(6, null);
-                setBoolean(ps, 7, false);
-                setBoolean(ps, 8, false);
+    /**
+     * <p>
+     * Update the fired trigger records of the given triggers, as
+     * <code>{@link #updateFiredTrigger(Connection, OperableTrigger, String, JobDetail)}</code>
+     * does, with a single JDBC batch.
+     * </p>
+     * 
+     * @param conn
+     *          the DB Connection
+     * @param triggers
+     *          the triggers
+     * @param jobDetails
+     *          the triggers' jobs, in the same order as the triggers
+     * @param state
+     *          the state that the fired triggers should be stored in
+     * @return the number of rows updated
+     */
+    public int updateFiredTriggers(Connection conn, List<OperableTrigger> triggers,
+            List<JobDetail> jobDetails, String state) throws SQLException {
+        if (triggers.isEmpty()) {
+            return 0;
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = conn.prepareStatement(rtp(UPDATE_FIRED_TRIGGER));
+            for (int i = 0; i < triggers.size(); i++) {
+                setUpdatedFiredTriggerParameters(ps, triggers.get(i), state, jobDetails.get(i));
+                ps.addBatch();
             }
+            return sumBatchCounts(ps.executeBatch());
+        } finally {
+            closeStatement(ps);
+        }
+    }
 
-            ps.setString(9, trigger.getFireInstanceId());
+    private void setUpdatedFiredTriggerParameters(PreparedStatement ps, OperableTrigger trigger,
+            String state, JobDetail job) throws SQLException {
+        ps.setString(1, instanceId);
 
+        ps.setBigDecimal(2, new BigDecimal(String.valueOf(System.currentTimeMillis())));
+        ps.setBigDecimal(3, new BigDecimal(String.valueOf(trigger.getNextFireTime().getTime())));
+        ps.setString(4, state);
 
-            return ps.executeUpdate();
-        } finally {
-            closeStatement(ps);
+        if (job != null) {
+            ps.setString(5, trigger.getJobKey().getName());
+            ps.setString(6, trigger.getJobKey().getGroup());
+            setBoolean(ps, 7, job.isConcurrentExectionDisallowed());
+            setBoolean(ps, 8, job.requestsRecovery());
+        } else {
+            ps.setString(5, null);
+            ps.setString(6, null);
+            setBoolean(ps, 7, false);
+            setBoolean(ps, 8, false);
         }
+
+        ps.setString(9, trigger.getFireInstanceId());
     }
     
     /**
@@ -3059,10 +3507,42 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
         return baos;
     }
 
+    /**
+     * <p>
+     * Read an object written by <code>{@link #serializeObject(Object)}</code>
+     * or <code>{@link #serializeJobData(JobDataMap)}</code> from the given
+     * BLOB stream, and close the stream.  Job data maps are recognized in
+     * either encoding, whether or not <code>compactJobData</code> is set.
+     * </p>
+     * 
+     * @param binaryInput
+     *          the BLOB's stream
+     * @return the deserialized Object
+     * @throws ClassNotFoundException
+     *           if a class found during deserialization cannot be found
+     * @throws IOException
+     *           if deserialization causes an error
+     */
+    protected Object deserializeObject(InputStream binaryInput)
+        throws ClassNotFoundException, IOException {
+        InputStream in = binaryInput.markSupported() ? binaryInput : new BufferedInputStream(binaryInput);
+        try {
+            if (CompactJobDataMapCodec.isEncoded(in)) {
+                return CompactJobDataMapCodec.decode(in);
+            }
+            return new ObjectInputStream(in).readObject();
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * <p>
      * Remove the transient data from and then create a serialized <code>java.util.ByteArrayOutputStream</code>
-     * version of a <code>{@link org.quartz.JobDataMap}</code>.
+     * version of a <code>{@link org.quartz.JobDataMap}</code>.  If the 
+     * <code>compactJobData</code> setting is true, a map other than null is
+     * written with <code>{@link CompactJobDataMapCodec}</code> rather than Java
+     * serialization.
      * </p>
      * 
      * @param data
@@ -3077,6 +3557,13 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
             return serializeProperties(data);
         }
 
+        // a null map is written by serializeObject, as without compactJobData
+        if (compactJobData && null != data) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            CompactJobDataMapCodec.encode(data, baos);
+            return baos;
+        }
+
         try {
             return serializeObject(data);
         } catch (NotSerializableException e) {
@@ -3196,12 +3683,7 @@ public class StdJDBCDelegate implements DriverDelegate, StdJDBCConstants {
                     && ((ByteArrayInputStream) binaryInput).available() == 0 ) {
                     //do nothing
                 } else {
-                    ObjectInputStream in = new ObjectInputStream(binaryInput);
-                    try {
-                        obj = in.readObject();
-                    } finally {
-                        in.close();
-                    }
+                    obj = deserializeObject(binaryInput);
                 }
             }
 
@@ -98,6 +98,30 @@ public final class Util {
         return (groupName + "_$x$x$_" + triggerName).intern();
     }
     
+    /**
+     * <p>
+     * Turn a query that selects a single trigger with
+     * <code>TRIGGER_NAME = ? AND TRIGGER_GROUP = ?</code> as its last
+     * condition into one that selects any of the given number of triggers,
+     * taking a name and a group parameter for each of them in turn.
+     * </p>
+     */
+    static String forTriggerKeys(String query, int count) {
+        String keyCondition = Constants.COL_TRIGGER_NAME + " = ? AND " + Constants.COL_TRIGGER_GROUP + " = ?";
+        if (!query.endsWith(keyCondition) || count < 1) {
+            throw new IllegalArgumentException("Not a single trigger query: " + query);
+        }
+        StringBuilder sb = new StringBuilder(query.length() + count * (keyCondition.length() + 6));
+        sb.append(query, 0, query.length() - keyCondition.length()).append('(');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append('(').append(keyCondition).append(')');
+        }
+        return sb.append(')').toString();
+    }
+
     /**
      * Cleanup helper method that closes the given <code>ResultSet</code>
      * while ignoring any errors.
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.simpl;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Base class for <code>{@link org.quartz.spi.ThreadPool}</code>s that hand
+ * each <code>Runnable</code> to an executor rather than to one of a fixed
+ * set of worker threads.
+ * </p>
+ *
+ * <p>
+ * The pool does not own a thread per job it can run: it only limits the
+ * number of jobs running at once to the thread count.  So
+ * <code>{@link #blockForAvailableThreads()}</code> blocks only while that
+ * many jobs are running, and otherwise tells the scheduler it may run as
+ * many more jobs as the limit leaves room for, which lets the scheduler
+ * acquire large batches of triggers with a high thread count.
+ * </p>
+ *
+ * @see WorkStealingThreadPool
+ * @see VirtualThreadPool
+ */
+public abstract class ExecutorThreadPoolSupport implements ThreadPool {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private int count = -1;
+
+    private String threadNamePrefix;
+
+    private boolean inheritLoader = false;
+
+    private ClassLoader initializingLoader;
+
+    private String schedulerInstanceName;
+
+    private final Object runningJobsLock = new Object();
+
+    private int runningJobs = 0; //@GuardedBy("runningJobsLock")
+
+    private boolean isInitialized = false; //@GuardedBy("runningJobsLock")
+
+    private boolean isShutdown = false; //@GuardedBy("runningJobsLock")
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    public Logger getLog() {
+        return log;
+    }
+
+    /**
+     * <p>
+     * Get the most jobs the pool runs at once.
+     * </p>
+     */
+    public int getPoolSize() {
+        return getThreadCount();
+    }
+
+    /**
+     * <p>
+     * Set the most jobs the pool runs at once.
+     * </p>
+     *
+     * <p>
+     * Should be set before <code>initialize()</code> is called, and must be
+     * greater than 0.
+     * </p>
+     */
+    public void setThreadCount(int count) {
+        this.count = count;
+    }
+
+    public int getThreadCount() {
+        return count;
+    }
+
+    public void setThreadNamePrefix(String prfx) {
+        this.threadNamePrefix = prfx;
+    }
+
+    public String getThreadNamePrefix() {
+        if (threadNamePrefix == null) {
+            return schedulerInstanceName + "_Worker";
+        }
+        return threadNamePrefix;
+    }
+
+    /**
+     * @return whether jobs run with the context class loader of the thread
+     *         that initialized the pool.
+     */
+    public boolean isThreadsInheritContextClassLoaderOfInitializingThread() {
+        return inheritLoader;
+    }
+
+    public void setThreadsInheritContextClassLoaderOfInitializingThread(
+            boolean inheritLoader) {
+        this.inheritLoader = inheritLoader;
+    }
+
+    public void setInstanceId(String schedInstId) {
+    }
+
+    public void setInstanceName(String schedName) {
+        schedulerInstanceName = schedName;
+    }
+
+    public void initialize() throws SchedulerConfigException {
+        synchronized (runningJobsLock) {
+            if (isInitialized) {
+                return;
+            }
+
+            if (count <= 0) {
+                throw new SchedulerConfigException(
+                        "Thread count must be > 0");
+            }
+
+            if (isThreadsInheritContextClassLoaderOfInitializingThread()) {
+                initializingLoader = Thread.currentThread().getContextClassLoader();
+                getLog().info(
+                        "Job execution threads will use class loader of thread: "
+                                + Thread.currentThread().getName());
+            }
+
+            startExecutor();
+            isInitialized = true;
+        }
+    }
+
+    /**
+     * <p>
+     * Run the given <code>Runnable</code> object as soon as fewer than the
+     * thread count of jobs are running.  If while waiting the thread pool is
+     * asked to shut down, the Runnable is executed immediately within a new
+     * additional thread.
+     * </p>
+     *
+     * @return false if the executor refused the runnable
+     */
+    public boolean runInThread(Runnable runnable) {
+        if (runnable == null) {
+            return false;
+        }
+
+        boolean shutdown;
+        synchronized (runningJobsLock) {
+            awaitAvailableThread();
+            runningJobs++;
+            shutdown = isShutdown;
+        }
+
+        JobRunner jobRunner = new JobRunner(runnable);
+        if (shutdown) {
+            // If the thread pool is going down, execute the Runnable
+            // within a new additional thread (no thread from the executor).
+            Thread lastJob = new Thread(jobRunner, getThreadNamePrefix() + "-LastJob");
+            lastJob.start();
+            return true;
+        }
+
+        try {
+            execute(jobRunner);
+        } catch (RejectedExecutionException e) {
+            getLog().error("Job execution was rejected by the executor.", e);
+            jobFinished();
+            return false;
+        }
+        return true;
+    }
+
+    public int blockForAvailableThreads() {
+        synchronized (runningJobsLock) {
+            awaitAvailableThread();
+
+            return Math.max(0, count - runningJobs);
+        }
+    }
+
+    /**
+     * <p>
+     * Stop accepting jobs.
+     * </p>
+     *
+     * <p>
+     * Jobs currently in progress will complete.
+     * </p>
+     */
+    public void shutdown(boolean waitForJobsToComplete) {
+        synchronized (runningJobsLock) {
+            getLog().debug("Shutting down threadpool...");
+
+            isShutdown = true;
+            runningJobsLock.notifyAll();
+
+            if (!isInitialized) { // case where the pool wasn't even initialize()ed
+                return;
+            }
+
+            shutdownExecutor();
+
+            if (waitForJobsToComplete) {
+                boolean interrupted = false;
+                try {
+                    while (runningJobs > 0) {
+                        getLog().debug(
+                                "Waiting for " + runningJobs + " jobs to complete");
+                        try {
+                            // note: with waiting infinite time the
+                            // application may appear to 'hang'.
+                            runningJobsLock.wait(2000);
+                        } catch (InterruptedException ignore) {
+                            interrupted = true;
+                        }
+                    }
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                getLog().debug("No executing jobs remaining.");
+            }
+            getLog().debug("Shutdown of threadpool complete.");
+        }
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Extension points.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Create and start the executor, once the pool's properties are set.
+     * </p>
+     */
+    protected abstract void startExecutor() throws SchedulerConfigException;
+
+    /**
+     * <p>
+     * Have the executor run the given job on some thread.
+     * </p>
+     *
+     * @throws RejectedExecutionException
+     *           if the executor can not run the job
+     */
+    protected abstract void execute(Runnable job);
+
+    /**
+     * <p>
+     * Have the executor stop accepting jobs, letting the running ones complete.
+     * </p>
+     */
+    protected abstract void shutdownExecutor();
+
+    /**
+     * <p>
+     * Run the given job on the current thread.  Called by the thread the
+     * executor runs it on.
+     * </p>
+     */
+    protected void runJob(Runnable runnable) {
+        runnable.run();
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Helpers.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Wait until fewer than the thread count of jobs are running, or the pool
+     * is shut down.  Must be called while holding
+     * <code>runningJobsLock</code>; <code>jobFinished()</code> and
+     * <code>shutdown()</code> notify it.
+     * </p>
+     */
+    private void awaitAvailableThread() {
+        while (runningJobs >= count && !isShutdown) {
+            try {
+                runningJobsLock.wait();
+            } catch (InterruptedException ignore) {
+            }
+        }
+    }
+
+    private void jobFinished() {
+        synchronized (runningJobsLock) {
+            runningJobs--;
+            runningJobsLock.notifyAll();
+        }
+    }
+
+    /**
+     * <p>
+     * Runs a job and counts it as finished, whatever the outcome.
+     * </p>
+     */
+    private class JobRunner implements Runnable {
+
+        private final Runnable runnable;
+
+        JobRunner(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        public void run() {
+            Thread current = Thread.currentThread();
+            ClassLoader previousLoader = null;
+            if (initializingLoader != null) {
+                previousLoader = current.getContextClassLoader();
+                current.setContextClassLoader(initializingLoader);
+            }
+            try {
+                runJob(runnable);
+            } catch (Throwable exceptionInRunnable) {
+                try {
+                    getLog().error("Error while executing the Runnable: ",
+                        exceptionInRunnable);
+                } catch(Exception e) {
+                    // ignore to help with a tomcat glitch
+                }
+            } finally {
+                if (initializingLoader != null) {
+                    current.setContextClassLoader(previousLoader);
+                }
+                // repair the thread in case the runnable mucked it up...
+                Thread.interrupted();
+                jobFinished();
+            }
+        }
+    }
+}
@@ -22,15 +22,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.quartz.Calendar;
@@ -49,6 +50,7 @@ import org.quartz.impl.JobDetailImpl;
 import org.quartz.impl.matchers.GroupMatcher;
 import org.quartz.impl.matchers.StringMatcher;
 import org.quartz.spi.ClassLoadHelper;
+import org.quartz.spi.EarliestFireTimeAware;
 import org.quartz.spi.JobStore;
 import org.quartz.spi.OperableTrigger;
 import org.quartz.spi.SchedulerSignaler;
@@ -72,11 +74,28 @@ import static org.quartz.impl.matchers.EverythingMatcher.allTriggers;
  * required.
  * </p>
  * 
+ * <p>
+ * <b>Note to subclasses:</b> the protected fields have changed type, which
+ * breaks source and binary compatibility with subclasses written for
+ * earlier versions.  The job, trigger, group and calendar maps are
+ * concurrent maps declared as <code>Map</code> rather than
+ * <code>HashMap</code>, <code>timeTriggers</code> is a
+ * <code>SortedSet</code> rather than a <code>TreeSet</code>, and the paused
+ * group sets are declared as <code>Set</code> rather than
+ * <code>HashSet</code>; such subclasses must be changed to the new types
+ * and recompiled.  The state of a stored trigger may only be changed through
+ * {@link #setState(TriggerWrapper, int)}, which keeps the state index current.
+ * The protected <code>triggers</code> list has been removed: stored triggers
+ * are found through <code>triggersByKey</code> and the job, calendar and
+ * state indexes, so that removing a trigger no longer scans a list.
+ * Subclasses that used the list must use those instead.
+ * </p>
+ * 
  * @author James House
  * @author Sharada Jambula
  * @author Eric Mueller
  */
-public class RAMJobStore implements JobStore {
+public class RAMJobStore implements JobStore, EarliestFireTimeAware {
 
     /*
      * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -86,30 +105,50 @@ public class RAMJobStore implements JobStore {
      * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
      */
 
-    protected HashMap<JobKey, JobWrapper> jobsByKey = new HashMap<JobKey, JobWrapper>(1000);
+    /*
+     * All maps and sets below can be read without holding any lock.  Changes
+     * to triggers, calendars and trigger states are made while holding
+     * 'lock'; jobs are stored while holding only the stripe lock of their
+     * group (see jobGroupLock()), so that adding jobs does not contend with
+     * trigger acquisition.  When both are needed, 'lock' is taken first, and
+     * several stripe locks are taken in the order of their index.
+     * timeTriggers is only used while holding 'lock'.
+     */
 
-    protected HashMap<TriggerKey, TriggerWrapper> triggersByKey = new HashMap<TriggerKey, TriggerWrapper>(1000);
+    protected Map<JobKey, JobWrapper> jobsByKey = new ConcurrentHashMap<JobKey, JobWrapper>(1000);
 
-    protected HashMap<String, HashMap<JobKey, JobWrapper>> jobsByGroup = new HashMap<String, HashMap<JobKey, JobWrapper>>(25);
+    protected Map<TriggerKey, TriggerWrapper> triggersByKey = new ConcurrentHashMap<TriggerKey, TriggerWrapper>(1000);
 
-    protected HashMap<String, HashMap<TriggerKey, TriggerWrapper>> triggersByGroup = new HashMap<String, HashMap<TriggerKey, TriggerWrapper>>(25);
+    protected Map<String, Map<JobKey, JobWrapper>> jobsByGroup = new ConcurrentHashMap<String, Map<JobKey, JobWrapper>>(25);
 
-    protected TreeSet<TriggerWrapper> timeTriggers = new TreeSet<TriggerWrapper>(new TriggerWrapperComparator());
+    protected Map<String, Map<TriggerKey, TriggerWrapper>> triggersByGroup = new ConcurrentHashMap<String, Map<TriggerKey, TriggerWrapper>>(25);
 
-    protected HashMap<String, Calendar> calendarsByName = new HashMap<String, Calendar>(25);
+    protected SortedSet<TriggerWrapper> timeTriggers = new ConcurrentSkipListSet<TriggerWrapper>(new TriggerWrapperComparator());
 
-    protected ArrayList<TriggerWrapper> triggers = new ArrayList<TriggerWrapper>(1000);
+    protected Map<String, Calendar> calendarsByName = new ConcurrentHashMap<String, Calendar>(25);
+
+    protected Map<JobKey, Set<TriggerWrapper>> triggersByJob = new ConcurrentHashMap<JobKey, Set<TriggerWrapper>>(1000);
+
+    protected Map<String, Set<TriggerWrapper>> triggersByCalendar = new ConcurrentHashMap<String, Set<TriggerWrapper>>(25);
+
+    protected Map<Integer, Set<TriggerWrapper>> triggersByState = new ConcurrentHashMap<Integer, Set<TriggerWrapper>>(8);
 
     protected final Object lock = new Object();
 
-    protected HashSet<String> pausedTriggerGroups = new HashSet<String>();
+    private final Object[] jobGroupLocks = new Object[16];
+
+    protected Set<String> pausedTriggerGroups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    protected HashSet<String> pausedJobGroups = new HashSet<String>();
+    protected Set<String> pausedJobGroups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     protected HashSet<JobKey> blockedJobs = new HashSet<JobKey>();
     
     protected long misfireThreshold = 5000l;
 
+    protected boolean useTimingWheel = false;
+
+    protected long timingWheelTickMillis = 1l;
+
     protected SchedulerSignaler signaler;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
@@ -128,6 +167,9 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public RAMJobStore() {
+        for (int i = 0; i < jobGroupLocks.length; i++) {
+            jobGroupLocks[i] = new Object();
+        }
     }
 
     /*
@@ -152,6 +194,14 @@ public class RAMJobStore implements JobStore {
 
         this.signaler = schedSignaler;
 
+        if (useTimingWheel) {
+            synchronized (lock) {
+                SortedSet<TriggerWrapper> wheel = new TimingWheelTriggerSet(new TriggerWrapperComparator(), timingWheelTickMillis);
+                wheel.addAll(timeTriggers);
+                timeTriggers = wheel;
+            }
+        }
+
         getLog().info("RAMJobStore initialized.");
     }
 
@@ -186,6 +236,49 @@ public class RAMJobStore implements JobStore {
         this.misfireThreshold = misfireThreshold;
     }
 
+    public boolean getUseTimingWheel() {
+        return useTimingWheel;
+    }
+
+    /**
+     * Whether to index the triggers waiting to fire with a hierarchical
+     * timing wheel instead of a skip list.  The wheel makes adding, removing
+     * and finding the next trigger cost almost nothing regardless of how
+     * many triggers are stored, which pays off with very large numbers of
+     * frequently firing triggers.  Must be set before the store is
+     * initialized.
+     *
+     * @param useTimingWheel whether to use the timing wheel
+     * @see #setTimingWheelTickMillis(long)
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setUseTimingWheel(boolean useTimingWheel) {
+        this.useTimingWheel = useTimingWheel;
+    }
+
+    public long getTimingWheelTickMillis() {
+        return timingWheelTickMillis;
+    }
+
+    /**
+     * The width, in milliseconds, of the timing wheel's finest slots.
+     * Triggers due within the same tick are kept in exact fire time order,
+     * so this only trades memory locality against how often triggers are
+     * moved between the wheel's levels.  The wheel spans 2<sup>36</sup> ticks
+     * (a little over two years at the default of 1); triggers due later are
+     * kept in an ordinary sorted set until they come within range.
+     *
+     * @param timingWheelTickMillis the tick width
+     * @see #setUseTimingWheel(boolean)
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setTimingWheelTickMillis(long timingWheelTickMillis) {
+        if (timingWheelTickMillis < 1) {
+            throw new IllegalArgumentException("Timing wheel tick must be larger than 0");
+        }
+        this.timingWheelTickMillis = timingWheelTickMillis;
+    }
+
     /**
      * <p>
      * Called by the QuartzScheduler to inform the <code>JobStore</code> that
@@ -273,7 +366,7 @@ public class RAMJobStore implements JobStore {
 
         boolean repl = false;
 
-        synchronized (lock) {
+        synchronized (jobGroupLock(jw.key.getGroup())) {
             if (jobsByKey.get(jw.key) != null) {
                 if (!replaceExisting) {
                     throw new ObjectAlreadyExistsException(newJob);
@@ -283,9 +376,9 @@ public class RAMJobStore implements JobStore {
 
             if (!repl) {
                 // get job group
-                HashMap<JobKey, JobWrapper> grpMap = jobsByGroup.get(newJob.getKey().getGroup());
+                Map<JobKey, JobWrapper> grpMap = jobsByGroup.get(newJob.getKey().getGroup());
                 if (grpMap == null) {
-                    grpMap = new HashMap<JobKey, JobWrapper>(100);
+                    grpMap = new ConcurrentHashMap<JobKey, JobWrapper>(100);
                     jobsByGroup.put(newJob.getKey().getGroup(), grpMap);
                 }
                 // add to jobs by group
@@ -321,14 +414,16 @@ public class RAMJobStore implements JobStore {
                 found = true;
             }
             
-            found = (jobsByKey.remove(jobKey) != null) | found;
-            if (found) {
+            synchronized (jobGroupLock(jobKey.getGroup())) {
+                found = (jobsByKey.remove(jobKey) != null) | found;
+                if (found) {
 
-                HashMap<JobKey, JobWrapper> grpMap = jobsByGroup.get(jobKey.getGroup());
-                if (grpMap != null) {
-                    grpMap.remove(jobKey);
-                    if (grpMap.size() == 0) {
-                        jobsByGroup.remove(jobKey.getGroup());
+                    Map<JobKey, JobWrapper> grpMap = jobsByGroup.get(jobKey.getGroup());
+                    if (grpMap != null) {
+                        grpMap.remove(jobKey);
+                        if (grpMap.size() == 0) {
+                            jobsByGroup.remove(jobKey.getGroup());
+                        }
                     }
                 }
             }
@@ -365,27 +460,48 @@ public class RAMJobStore implements JobStore {
             Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace)
             throws JobPersistenceException {
 
+        // hold the stripe locks of all the jobs' groups, taken in index
+        // order, so that no job can be stored between the check and the add
+        SortedSet<Integer> stripes = new TreeSet<Integer>();
+        for(JobDetail job: triggersAndJobs.keySet()) {
+            stripes.add(jobGroupStripe(job.getKey().getGroup()));
+        }
+
         synchronized (lock) {
-            // make sure there are no collisions...
-            if(!replace) {
-                for(Entry<JobDetail, Set<? extends Trigger>> e: triggersAndJobs.entrySet()) {
-                    if(checkExists(e.getKey().getKey()))
-                        throw new ObjectAlreadyExistsException(e.getKey());
-                    for(Trigger trigger: e.getValue()) {
-                        if(checkExists(trigger.getKey()))
-                            throw new ObjectAlreadyExistsException(trigger);
-                    }
-                }
+            storeJobsAndTriggers(triggersAndJobs, replace, stripes.toArray(new Integer[stripes.size()]), 0);
+        }
+        
+    }
+
+    private void storeJobsAndTriggers(
+            Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace,
+            Integer[] stripes, int nextStripe) throws JobPersistenceException {
+
+        if (nextStripe < stripes.length) {
+            synchronized (jobGroupLocks[stripes[nextStripe]]) {
+                storeJobsAndTriggers(triggersAndJobs, replace, stripes, nextStripe + 1);
             }
-            // do bulk add...
+            return;
+        }
+
+        // make sure there are no collisions...
+        if(!replace) {
             for(Entry<JobDetail, Set<? extends Trigger>> e: triggersAndJobs.entrySet()) {
-                storeJob(e.getKey(), true);
+                if(checkExists(e.getKey().getKey()))
+                    throw new ObjectAlreadyExistsException(e.getKey());
                 for(Trigger trigger: e.getValue()) {
-                    storeTrigger((OperableTrigger) trigger, true);
+                    if(checkExists(trigger.getKey()))
+                        throw new ObjectAlreadyExistsException(trigger);
                 }
             }
         }
-        
+        // do bulk add...
+        for(Entry<JobDetail, Set<? extends Trigger>> e: triggersAndJobs.entrySet()) {
+            storeJob(e.getKey(), true);
+            for(Trigger trigger: e.getValue()) {
+                storeTrigger((OperableTrigger) trigger, true);
+            }
+        }
     }
 
     /**
@@ -424,12 +540,10 @@ public class RAMJobStore implements JobStore {
                         + ") referenced by the trigger does not exist.");
             }
 
-            // add to triggers array
-            triggers.add(tw);
             // add to triggers by group
-            HashMap<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(newTrigger.getKey().getGroup());
+            Map<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(newTrigger.getKey().getGroup());
             if (grpMap == null) {
-                grpMap = new HashMap<TriggerKey, TriggerWrapper>(100);
+                grpMap = new ConcurrentHashMap<TriggerKey, TriggerWrapper>(100);
                 triggersByGroup.put(newTrigger.getKey().getGroup(), grpMap);
             }
             grpMap.put(newTrigger.getKey(), tw);
@@ -438,15 +552,17 @@ public class RAMJobStore implements JobStore {
 
             if (pausedTriggerGroups.contains(newTrigger.getKey().getGroup())
                     || pausedJobGroups.contains(newTrigger.getJobKey().getGroup())) {
-                tw.state = TriggerWrapper.STATE_PAUSED;
+                setState(tw, TriggerWrapper.STATE_PAUSED);
                 if (blockedJobs.contains(tw.jobKey)) {
-                    tw.state = TriggerWrapper.STATE_PAUSED_BLOCKED;
+                    setState(tw, TriggerWrapper.STATE_PAUSED_BLOCKED);
                 }
             } else if (blockedJobs.contains(tw.jobKey)) {
-                tw.state = TriggerWrapper.STATE_BLOCKED;
+                setState(tw, TriggerWrapper.STATE_BLOCKED);
             } else {
                 timeTriggers.add(tw);
             }
+            // add to triggers by job, calendar and state
+            addToIndexes(tw);
         }
     }
 
@@ -469,32 +585,24 @@ public class RAMJobStore implements JobStore {
 
         synchronized (lock) {
             // remove from triggers by FQN map
-            found = (triggersByKey.remove(key) != null);
+            TriggerWrapper tw = triggersByKey.remove(key);
+            found = (tw != null);
             if (found) {
-                TriggerWrapper tw = null;
                 // remove from triggers by group
-                HashMap<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(key.getGroup());
+                Map<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(key.getGroup());
                 if (grpMap != null) {
                     grpMap.remove(key);
                     if (grpMap.size() == 0) {
                         triggersByGroup.remove(key.getGroup());
                     }
                 }
-                // remove from triggers array
-                Iterator<TriggerWrapper> tgs = triggers.iterator();
-                while (tgs.hasNext()) {
-                    tw = tgs.next();
-                    if (key.equals(tw.key)) {
-                        tgs.remove();
-                        break;
-                    }
-                }
+                // remove from triggers by job, calendar and state
+                removeFromIndexes(tw);
                 timeTriggers.remove(tw);
 
                 if (removeOrphanedJob) {
                     JobWrapper jw = jobsByKey.get(tw.jobKey);
-                    List<OperableTrigger> trigs = getTriggersForJob(tw.jobKey);
-                    if ((trigs == null || trigs.size() == 0) && !jw.jobDetail.isDurable()) {
+                    if (!triggersByJob.containsKey(tw.jobKey) && !jw.jobDetail.isDurable()) {
                         if (removeJob(jw.key)) {
                             signaler.notifySchedulerListenersJobDeleted(jw.key);
                         }
@@ -515,8 +623,7 @@ public class RAMJobStore implements JobStore {
         boolean found;
 
         synchronized (lock) {
-            // remove from triggers by FQN map
-            TriggerWrapper tw = triggersByKey.remove(triggerKey);
+            TriggerWrapper tw = triggersByKey.get(triggerKey);
             found = (tw != null);
 
             if (found) {
@@ -525,24 +632,18 @@ public class RAMJobStore implements JobStore {
                     throw new JobPersistenceException("New trigger is not related to the same job as the old trigger.");
                 }
 
-                tw = null;
+                // remove from triggers by FQN map
+                triggersByKey.remove(triggerKey);
                 // remove from triggers by group
-                HashMap<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(triggerKey.getGroup());
+                Map<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(triggerKey.getGroup());
                 if (grpMap != null) {
                     grpMap.remove(triggerKey);
                     if (grpMap.size() == 0) {
                         triggersByGroup.remove(triggerKey.getGroup());
                     }
                 }
-                // remove from triggers array
-                Iterator<TriggerWrapper> tgs = triggers.iterator();
-                while (tgs.hasNext()) {
-                    tw = tgs.next();
-                    if (triggerKey.equals(tw.key)) {
-                        tgs.remove();
-                        break;
-                    }
-                }
+                // remove from triggers by job, calendar and state
+                removeFromIndexes(tw);
                 timeTriggers.remove(tw);
 
                 try {
@@ -566,10 +667,8 @@ public class RAMJobStore implements JobStore {
      * @return The desired <code>Job</code>, or null if there is no match.
      */
     public JobDetail retrieveJob(JobKey jobKey) {
-        synchronized(lock) {
-            JobWrapper jw = jobsByKey.get(jobKey);
-            return (jw != null) ? (JobDetail)jw.jobDetail.clone() : null;
-        }
+        JobWrapper jw = jobsByKey.get(jobKey);
+        return (jw != null) ? (JobDetail)jw.jobDetail.clone() : null;
     }
 
     /**
@@ -581,11 +680,9 @@ public class RAMJobStore implements JobStore {
      *         match.
      */
     public OperableTrigger retrieveTrigger(TriggerKey triggerKey) {
-        synchronized(lock) {
-            TriggerWrapper tw = triggersByKey.get(triggerKey);
-    
-            return (tw != null) ? (OperableTrigger)tw.getTrigger().clone() : null;
-        }
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+
+        return (tw != null) ? tw.cloneTrigger() : null;
     }
     
     /**
@@ -597,10 +694,7 @@ public class RAMJobStore implements JobStore {
      * @throws JobPersistenceException
      */
     public boolean checkExists(JobKey jobKey) throws JobPersistenceException {
-        synchronized(lock) {
-            JobWrapper jw = jobsByKey.get(jobKey);
-            return (jw != null);
-        }
+        return jobsByKey.containsKey(jobKey);
     }
     
     /**
@@ -612,11 +706,7 @@ public class RAMJobStore implements JobStore {
      * @throws JobPersistenceException
      */
     public boolean checkExists(TriggerKey triggerKey) throws JobPersistenceException {
-        synchronized(lock) {
-            TriggerWrapper tw = triggersByKey.get(triggerKey);
-    
-            return (tw != null);
-        }
+        return triggersByKey.containsKey(triggerKey);
     }
  
     /**
@@ -632,35 +722,35 @@ public class RAMJobStore implements JobStore {
      * @see TriggerState#NONE
      */
     public TriggerState getTriggerState(TriggerKey triggerKey) throws JobPersistenceException {
-        synchronized(lock) {
-            TriggerWrapper tw = triggersByKey.get(triggerKey);
-            
-            if (tw == null) {
-                return TriggerState.NONE;
-            }
-    
-            if (tw.state == TriggerWrapper.STATE_COMPLETE) {
-                return TriggerState.COMPLETE;
-            }
-    
-            if (tw.state == TriggerWrapper.STATE_PAUSED) {
-                return TriggerState.PAUSED;
-            }
-    
-            if (tw.state == TriggerWrapper.STATE_PAUSED_BLOCKED) {
-                return TriggerState.PAUSED;
-            }
-    
-            if (tw.state == TriggerWrapper.STATE_BLOCKED) {
-                return TriggerState.BLOCKED;
-            }
-    
-            if (tw.state == TriggerWrapper.STATE_ERROR) {
-                return TriggerState.ERROR;
-            }
-    
-            return TriggerState.NORMAL;
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+
+        if (tw == null) {
+            return TriggerState.NONE;
         }
+
+        int state = tw.getState();
+
+        if (state == TriggerWrapper.STATE_COMPLETE) {
+            return TriggerState.COMPLETE;
+        }
+
+        if (state == TriggerWrapper.STATE_PAUSED) {
+            return TriggerState.PAUSED;
+        }
+
+        if (state == TriggerWrapper.STATE_PAUSED_BLOCKED) {
+            return TriggerState.PAUSED;
+        }
+
+        if (state == TriggerWrapper.STATE_BLOCKED) {
+            return TriggerState.BLOCKED;
+        }
+
+        if (state == TriggerWrapper.STATE_ERROR) {
+            return TriggerState.ERROR;
+        }
+
+        return TriggerState.NORMAL;
     }
 
     /**
@@ -696,8 +786,6 @@ public class RAMJobStore implements JobStore {
             if (obj != null && !replaceExisting) {
                 throw new ObjectAlreadyExistsException(
                     "Calendar with name '" + name + "' already exists.");
-            } else if (obj != null) {
-                calendarsByName.remove(name);
             }
     
             calendarsByName.put(name, calendar);
@@ -707,7 +795,9 @@ public class RAMJobStore implements JobStore {
                     OperableTrigger trig = tw.getTrigger();
                     boolean removed = timeTriggers.remove(tw);
 
-                    trig.updateWithNewCalendar(calendar, getMisfireThreshold());
+                    synchronized (tw) {
+                        trig.updateWithNewCalendar(calendar, getMisfireThreshold());
+                    }
 
                     if (removed) {
                         timeTriggers.add(tw);
@@ -734,24 +824,15 @@ public class RAMJobStore implements JobStore {
      */
     public boolean removeCalendar(String calName)
         throws JobPersistenceException {
-        int numRefs = 0;
-
         synchronized (lock) {
-            for (TriggerWrapper trigger : triggers) {
-                OperableTrigger trigg = trigger.trigger;
-                if (trigg.getCalendarName() != null
-                        && trigg.getCalendarName().equals(calName)) {
-                    numRefs++;
-                }
+            Set<TriggerWrapper> calTriggers = triggersByCalendar.get(calName);
+            if (calTriggers != null && calTriggers.size() > 0) {
+                throw new JobPersistenceException(
+                        "Calender cannot be removed if it referenced by a Trigger!");
             }
-        }
 
-        if (numRefs > 0) {
-            throw new JobPersistenceException(
-                    "Calender cannot be removed if it referenced by a Trigger!");
+            return (calendarsByName.remove(calName) != null);
         }
-
-        return (calendarsByName.remove(calName) != null);
     }
 
     /**
@@ -765,12 +846,10 @@ public class RAMJobStore implements JobStore {
      *         match.
      */
     public Calendar retrieveCalendar(String calName) {
-        synchronized (lock) {
-            Calendar cal = calendarsByName.get(calName);
-            if(cal != null)
-                return (Calendar) cal.clone();
-            return null;
-        }
+        Calendar cal = calendarsByName.get(calName);
+        if(cal != null)
+            return (Calendar) cal.clone();
+        return null;
     }
 
     /**
@@ -780,9 +859,7 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public int getNumberOfJobs() {
-        synchronized (lock) {
-            return jobsByKey.size();
-        }
+        return jobsByKey.size();
     }
 
     /**
@@ -792,8 +869,22 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public int getNumberOfTriggers() {
+        return triggersByKey.size();
+    }
+
+    /**
+     * <p>
+     * Get the earliest next fire time of the triggers waiting to fire, or 0
+     * if there are none.
+     * </p>
+     */
+    public long getEarliestNextFireTime() {
         synchronized (lock) {
-            return triggers.size();
+            if (timeTriggers.isEmpty()) {
+                return 0L;
+            }
+            Date nextFireTime = timeTriggers.first().trigger.getNextFireTime();
+            return nextFireTime == null ? 0L : nextFireTime.getTime();
         }
     }
 
@@ -804,9 +895,7 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public int getNumberOfCalendars() {
-        synchronized (lock) {
-            return calendarsByName.size();
-        }
+        return calendarsByName.size();
     }
 
     /**
@@ -817,40 +906,27 @@ public class RAMJobStore implements JobStore {
      */
     public Set<JobKey> getJobKeys(GroupMatcher<JobKey> matcher) {
         Set<JobKey> outList = null;
-        synchronized (lock) {
-
-            StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
-            String compareToValue = matcher.getCompareToValue();
 
-            switch(operator) {
-                case EQUALS:
-                    HashMap<JobKey, JobWrapper> grpMap = jobsByGroup.get(compareToValue);
-                    if (grpMap != null) {
-                        outList = new HashSet<JobKey>();
+        StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
+        String compareToValue = matcher.getCompareToValue();
 
-                        for (JobWrapper jw : grpMap.values()) {
+        switch(operator) {
+            case EQUALS:
+                Map<JobKey, JobWrapper> grpMap = jobsByGroup.get(compareToValue);
+                if (grpMap != null) {
+                    outList = new HashSet<JobKey>(grpMap.keySet());
+                }
+                break;
 
-                            if (jw != null) {
-                                outList.add(jw.jobDetail.getKey());
-                            }
+            default:
+                for (Map.Entry<String, Map<JobKey, JobWrapper>> entry : jobsByGroup.entrySet()) {
+                    if(operator.evaluate(entry.getKey(), compareToValue)) {
+                        if(outList == null) {
+                            outList = new HashSet<JobKey>();
                         }
+                        outList.addAll(entry.getValue().keySet());
                     }
-                    break;
-
-                default:
-                    for (Map.Entry<String, HashMap<JobKey, JobWrapper>> entry : jobsByGroup.entrySet()) {
-                        if(operator.evaluate(entry.getKey(), compareToValue) && entry.getValue() != null) {
-                            if(outList == null) {
-                                outList = new HashSet<JobKey>();
-                            }
-                            for (JobWrapper jobWrapper : entry.getValue().values()) {
-                                if(jobWrapper != null) {
-                                    outList.add(jobWrapper.jobDetail.getKey());
-                                }
-                            }
-                        }
-                    }
-            }
+                }
         }
 
         return outList == null ? java.util.Collections.<JobKey>emptySet() : outList;
@@ -868,9 +944,7 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public List<String> getCalendarNames() {
-        synchronized(lock) {
-            return new LinkedList<String>(calendarsByName.keySet());
-        }
+        return new LinkedList<String>(calendarsByName.keySet());
     }
 
     /**
@@ -881,40 +955,27 @@ public class RAMJobStore implements JobStore {
      */
     public Set<TriggerKey> getTriggerKeys(GroupMatcher<TriggerKey> matcher) {
         Set<TriggerKey> outList = null;
-        synchronized (lock) {
 
-            StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
-            String compareToValue = matcher.getCompareToValue();
+        StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
+        String compareToValue = matcher.getCompareToValue();
 
-            switch(operator) {
-                case EQUALS:
-                    HashMap<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(compareToValue);
-                    if (grpMap != null) {
-                        outList = new HashSet<TriggerKey>();
-
-                        for (TriggerWrapper tw : grpMap.values()) {
+        switch(operator) {
+            case EQUALS:
+                Map<TriggerKey, TriggerWrapper> grpMap = triggersByGroup.get(compareToValue);
+                if (grpMap != null) {
+                    outList = new HashSet<TriggerKey>(grpMap.keySet());
+                }
+                break;
 
-                            if (tw != null) {
-                                outList.add(tw.trigger.getKey());
-                            }
+            default:
+                for (Map.Entry<String, Map<TriggerKey, TriggerWrapper>> entry : triggersByGroup.entrySet()) {
+                    if(operator.evaluate(entry.getKey(), compareToValue)) {
+                        if(outList == null) {
+                            outList = new HashSet<TriggerKey>();
                         }
+                        outList.addAll(entry.getValue().keySet());
                     }
-                    break;
-
-                default:
-                    for (Map.Entry<String, HashMap<TriggerKey, TriggerWrapper>> entry : triggersByGroup.entrySet()) {
-                        if(operator.evaluate(entry.getKey(), compareToValue) && entry.getValue() != null) {
-                            if(outList == null) {
-                                outList = new HashSet<TriggerKey>();
-                            }
-                            for (TriggerWrapper triggerWrapper : entry.getValue().values()) {
-                                if(triggerWrapper != null) {
-                                    outList.add(triggerWrapper.trigger.getKey());
-                                }
-                            }
-                        }
-                    }
-            }
+                }
         }
 
         return outList == null ? Collections.<TriggerKey>emptySet() : outList;
@@ -927,13 +988,7 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public List<String> getJobGroupNames() {
-        List<String> outList;
-
-        synchronized (lock) {
-            outList = new LinkedList<String>(jobsByGroup.keySet());
-        }
-
-        return outList;
+        return new LinkedList<String>(jobsByGroup.keySet());
     }
 
     /**
@@ -943,13 +998,7 @@ public class RAMJobStore implements JobStore {
      * </p>
      */
     public List<String> getTriggerGroupNames() {
-        LinkedList<String> outList;
-
-        synchronized (lock) {
-            outList = new LinkedList<String>(triggersByGroup.keySet());
-        }
-
-        return outList;
+        return new LinkedList<String>(triggersByGroup.keySet());
     }
 
     /**
@@ -964,11 +1013,10 @@ public class RAMJobStore implements JobStore {
     public List<OperableTrigger> getTriggersForJob(JobKey jobKey) {
         ArrayList<OperableTrigger> trigList = new ArrayList<OperableTrigger>();
 
-        synchronized (lock) {
-            for (TriggerWrapper tw : triggers) {
-                if (tw.jobKey.equals(jobKey)) {
-                    trigList.add((OperableTrigger) tw.trigger.clone());
-                }
+        Set<TriggerWrapper> jobTriggers = triggersByJob.get(jobKey);
+        if (jobTriggers != null) {
+            for (TriggerWrapper tw : jobTriggers) {
+                trigList.add(tw.cloneTrigger());
             }
         }
 
@@ -976,32 +1024,102 @@ public class RAMJobStore implements JobStore {
     }
 
     protected ArrayList<TriggerWrapper> getTriggerWrappersForJob(JobKey jobKey) {
-        ArrayList<TriggerWrapper> trigList = new ArrayList<TriggerWrapper>();
+        return copyOf(triggersByJob.get(jobKey));
+    }
 
-        synchronized (lock) {
-            for (TriggerWrapper trigger : triggers) {
-                if (trigger.jobKey.equals(jobKey)) {
-                    trigList.add(trigger);
-                }
-            }
+    protected ArrayList<TriggerWrapper> getTriggerWrappersForCalendar(String calName) {
+        return copyOf(triggersByCalendar.get(calName));
+    }
+
+    protected ArrayList<TriggerWrapper> getTriggerWrappersInState(int state) {
+        return copyOf(triggersByState.get(state));
+    }
+
+    private static ArrayList<TriggerWrapper> copyOf(Set<TriggerWrapper> tws) {
+        return (tws == null) ? new ArrayList<TriggerWrapper>() : new ArrayList<TriggerWrapper>(tws);
+    }
+
+    /**
+     * <p>
+     * Add the given <code>TriggerWrapper</code> to the job, calendar and
+     * state indexes.  Must be called while holding the <code>lock</code>.
+     * </p>
+     */
+    protected void addToIndexes(TriggerWrapper tw) {
+        addToIndex(triggersByJob, tw.jobKey, tw);
+        String calName = tw.trigger.getCalendarName();
+        if (calName != null) {
+            addToIndex(triggersByCalendar, calName, tw);
         }
+        addToIndex(triggersByState, tw.getState(), tw);
+    }
 
-        return trigList;
+    /**
+     * <p>
+     * Remove the given <code>TriggerWrapper</code> from the job, calendar and
+     * state indexes.  Must be called while holding the <code>lock</code>.
+     * </p>
+     */
+    protected void removeFromIndexes(TriggerWrapper tw) {
+        removeFromIndex(triggersByJob, tw.jobKey, tw);
+        String calName = tw.trigger.getCalendarName();
+        if (calName != null) {
+            removeFromIndex(triggersByCalendar, calName, tw);
+        }
+        removeFromIndex(triggersByState, tw.getState(), tw);
     }
 
-    protected ArrayList<TriggerWrapper> getTriggerWrappersForCalendar(String calName) {
-        ArrayList<TriggerWrapper> trigList = new ArrayList<TriggerWrapper>();
+    /**
+     * <p>
+     * Move the given <code>TriggerWrapper</code> to the given state, keeping
+     * the state index current.  Must be called while holding the
+     * <code>lock</code>.
+     * </p>
+     */
+    protected void setState(TriggerWrapper tw, int state) {
+        if (tw.getState() == state) {
+            return;
+        }
+        if (triggersByKey.get(tw.key) == tw) {
+            removeFromIndex(triggersByState, tw.getState(), tw);
+            addToIndex(triggersByState, state, tw);
+        }
+        tw.setState(state);
+    }
 
-        synchronized (lock) {
-            for (TriggerWrapper tw : triggers) {
-                String tcalName = tw.getTrigger().getCalendarName();
-                if (tcalName != null && tcalName.equals(calName)) {
-                    trigList.add(tw);
-                }
+    private static <K> void addToIndex(Map<K, Set<TriggerWrapper>> index, K key, TriggerWrapper tw) {
+        Set<TriggerWrapper> tws = index.get(key);
+        if (tws == null) {
+            tws = Collections.newSetFromMap(new ConcurrentHashMap<TriggerWrapper, Boolean>());
+            index.put(key, tws);
+        }
+        tws.add(tw);
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<TriggerWrapper>> index, K key, TriggerWrapper tw) {
+        Set<TriggerWrapper> tws = index.get(key);
+        if (tws != null) {
+            tws.remove(tw);
+            if (tws.size() == 0) {
+                index.remove(key);
             }
         }
+    }
 
-        return trigList;
+    /**
+     * <p>
+     * Get the lock that serializes the storage and removal of
+     * <code>Job</code>s in the given group.
+     * </p>
+     */
+    protected Object jobGroupLock(String group) {
+        return jobGroupLocks[jobGroupStripe(group)];
+    }
+
+    private int jobGroupStripe(String group) {
+        int h = group.hashCode();
+        h ^= (h >>> 16);
+        return h & (jobGroupLocks.length - 1);
     }
 
     /**
@@ -1021,14 +1139,14 @@ public class RAMJobStore implements JobStore {
             }
     
             // if the trigger is "complete" pausing it does not make sense...
-            if (tw.state == TriggerWrapper.STATE_COMPLETE) {
+            if (tw.getState() == TriggerWrapper.STATE_COMPLETE) {
                 return;
             }
 
-            if(tw.state == TriggerWrapper.STATE_BLOCKED) {
-                tw.state = TriggerWrapper.STATE_PAUSED_BLOCKED;
+            if(tw.getState() == TriggerWrapper.STATE_BLOCKED) {
+                setState(tw, TriggerWrapper.STATE_PAUSED_BLOCKED);
             } else {
-                tw.state = TriggerWrapper.STATE_PAUSED;
+                setState(tw, TriggerWrapper.STATE_PAUSED);
             }
 
             timeTriggers.remove(tw);
@@ -1170,20 +1288,20 @@ public class RAMJobStore implements JobStore {
             OperableTrigger trig = tw.getTrigger();
     
             // if the trigger is not paused resuming it does not make sense...
-            if (tw.state != TriggerWrapper.STATE_PAUSED &&
-                    tw.state != TriggerWrapper.STATE_PAUSED_BLOCKED) {
+            if (tw.getState() != TriggerWrapper.STATE_PAUSED &&
+                    tw.getState() != TriggerWrapper.STATE_PAUSED_BLOCKED) {
                 return;
             }
 
             if(blockedJobs.contains( trig.getJobKey() )) {
-                tw.state = TriggerWrapper.STATE_BLOCKED;
+                setState(tw, TriggerWrapper.STATE_BLOCKED);
             } else {
-                tw.state = TriggerWrapper.STATE_WAITING;
+                setState(tw, TriggerWrapper.STATE_WAITING);
             }
 
             applyMisfire(tw);
 
-            if (tw.state == TriggerWrapper.STATE_WAITING) {
+            if (tw.getState() == TriggerWrapper.STATE_WAITING) {
                 timeTriggers.add(tw);
             }
         }
@@ -1329,10 +1447,23 @@ public class RAMJobStore implements JobStore {
 
         synchronized (lock) {
             pausedJobGroups.clear();
-            resumeTriggers(GroupMatcher.anyTriggerGroup());
+            // only paused triggers can be resumed, so there is no need to visit the others
+            for (TriggerWrapper tw : getTriggerWrappersInState(TriggerWrapper.STATE_PAUSED)) {
+                resumeTrigger(tw.key);
+            }
+            for (TriggerWrapper tw : getTriggerWrappersInState(TriggerWrapper.STATE_PAUSED_BLOCKED)) {
+                resumeTrigger(tw.key);
+            }
+            pausedTriggerGroups.removeAll(triggersByGroup.keySet());
         }
     }
 
+    /**
+     * <p>
+     * Apply the misfire instruction of the given trigger if its fire time has
+     * passed.  Must be called while holding <code>lock</code>.
+     * </p>
+     */
     protected boolean applyMisfire(TriggerWrapper tw) {
 
         long misfireTime = System.currentTimeMillis();
@@ -1353,14 +1484,14 @@ public class RAMJobStore implements JobStore {
 
         signaler.notifyTriggerListenersMisfired((OperableTrigger)tw.trigger.clone());
 
-        tw.trigger.updateAfterMisfire(cal);
+        synchronized (tw) {
+            tw.trigger.updateAfterMisfire(cal);
+        }
 
         if (tw.trigger.getNextFireTime() == null) {
-            tw.state = TriggerWrapper.STATE_COMPLETE;
+            setState(tw, TriggerWrapper.STATE_COMPLETE);
             signaler.notifySchedulerListenersFinalized(tw.trigger);
-            synchronized (lock) {
-                timeTriggers.remove(tw);
-            }
+            timeTriggers.remove(tw);
         } else if (tnft.equals(tw.trigger.getNextFireTime())) {
             return false;
         }
@@ -1390,24 +1521,19 @@ public class RAMJobStore implements JobStore {
             long firstAcquiredTriggerFireTime = 0;
             
             // return empty list if store has no triggers.
-            if (timeTriggers.size() == 0)
+            if (timeTriggers.isEmpty())
                 return result;
             
+            List<TriggerWrapper> due = Collections.emptyList();
+            int next = 0;
             while (true) {
-                TriggerWrapper tw;
-
-                try {
-                    tw = timeTriggers.first();
-                    if (tw == null)
+                if (next == due.size()) {
+                    due = pollDueTriggers(noLaterThan + timeWindow, maxCount - result.size());
+                    next = 0;
+                    if (due.isEmpty())
                         break;
-                    timeTriggers.remove(tw);
-                } catch (java.util.NoSuchElementException nsee) {
-                    break;
-                }
-
-                if (tw.trigger.getNextFireTime() == null) {
-                    continue;
                 }
+                TriggerWrapper tw = due.get(next++);
 
                 if (applyMisfire(tw)) {
                     if (tw.trigger.getNextFireTime() != null) {
@@ -1415,11 +1541,6 @@ public class RAMJobStore implements JobStore {
                     }
                     continue;
                 }
-
-                if (tw.getTrigger().getNextFireTime().getTime() > noLaterThan + timeWindow) {
-                    timeTriggers.add(tw);
-                    break;
-                }
                 
                 // If trigger's job is set as @DisallowConcurrentExecution, and it has already been added to result, then
                 // put it back into the timeTriggers set and continue to search for next trigger.
@@ -1434,8 +1555,10 @@ public class RAMJobStore implements JobStore {
                     }
                 }
 
-                tw.state = TriggerWrapper.STATE_ACQUIRED;
-                tw.trigger.setFireInstanceId(getFiredTriggerRecordId());
+                setState(tw, TriggerWrapper.STATE_ACQUIRED);
+                synchronized (tw) {
+                    tw.trigger.setFireInstanceId(getFiredTriggerRecordId());
+                }
                 OperableTrigger trig = (OperableTrigger) tw.trigger.clone();
                 result.add(trig);
                 if(firstAcquiredTriggerFireTime == 0)
@@ -1452,6 +1575,28 @@ public class RAMJobStore implements JobStore {
         }
     }
 
+    /**
+     * Removes and returns, in fire time order, up to <code>max</code> of the
+     * waiting triggers due no later than <code>noLaterThan</code>.  Must be
+     * called while holding <code>lock</code>.
+     */
+    private List<TriggerWrapper> pollDueTriggers(long noLaterThan, int max) {
+        if (timeTriggers instanceof TimingWheelTriggerSet) {
+            return ((TimingWheelTriggerSet) timeTriggers).pollDue(noLaterThan, max);
+        }
+        List<TriggerWrapper> due = new ArrayList<TriggerWrapper>();
+        while (due.size() < max && !timeTriggers.isEmpty()) {
+            TriggerWrapper tw = timeTriggers.first();
+            Date nextFireTime = tw.trigger.getNextFireTime();
+            if (nextFireTime == null || nextFireTime.getTime() > noLaterThan) {
+                break;
+            }
+            timeTriggers.remove(tw);
+            due.add(tw);
+        }
+        return due;
+    }
+
     /**
      * <p>
      * Inform the <code>JobStore</code> that the scheduler no longer plans to
@@ -1462,8 +1607,8 @@ public class RAMJobStore implements JobStore {
     public void releaseAcquiredTrigger(OperableTrigger trigger) {
         synchronized (lock) {
             TriggerWrapper tw = triggersByKey.get(trigger.getKey());
-            if (tw != null && tw.state == TriggerWrapper.STATE_ACQUIRED) {
-                tw.state = TriggerWrapper.STATE_WAITING;
+            if (tw != null && tw.getState() == TriggerWrapper.STATE_ACQUIRED) {
+                setState(tw, TriggerWrapper.STATE_WAITING);
                 timeTriggers.add(tw);
             }
         }
@@ -1488,7 +1633,7 @@ public class RAMJobStore implements JobStore {
                     continue;
                 }
                 // was the trigger completed, paused, blocked, etc. since being acquired?
-                if (tw.state != TriggerWrapper.STATE_ACQUIRED) {
+                if (tw.getState() != TriggerWrapper.STATE_ACQUIRED) {
                     continue;
                 }
 
@@ -1502,10 +1647,12 @@ public class RAMJobStore implements JobStore {
                 // in case trigger was replaced between acquiring and firing
                 timeTriggers.remove(tw);
                 // call triggered on our copy, and the scheduler's copy
-                tw.trigger.triggered(cal);
+                synchronized (tw) {
+                    tw.trigger.triggered(cal);
+                }
                 trigger.triggered(cal);
                 //tw.state = TriggerWrapper.STATE_EXECUTING;
-                tw.state = TriggerWrapper.STATE_WAITING;
+                setState(tw, TriggerWrapper.STATE_WAITING);
 
                 TriggerFiredBundle bndle = new TriggerFiredBundle(retrieveJob(
                         tw.jobKey), trigger, cal,
@@ -1517,19 +1664,17 @@ public class RAMJobStore implements JobStore {
                 if (job.isConcurrentExectionDisallowed()) {
                     ArrayList<TriggerWrapper> trigs = getTriggerWrappersForJob(job.getKey());
                     for (TriggerWrapper ttw : trigs) {
-                        if (ttw.state == TriggerWrapper.STATE_WAITING) {
-                            ttw.state = TriggerWrapper.STATE_BLOCKED;
+                        if (ttw.getState() == TriggerWrapper.STATE_WAITING) {
+                            setState(ttw, TriggerWrapper.STATE_BLOCKED);
                         }
-                        if (ttw.state == TriggerWrapper.STATE_PAUSED) {
-                            ttw.state = TriggerWrapper.STATE_PAUSED_BLOCKED;
+                        if (ttw.getState() == TriggerWrapper.STATE_PAUSED) {
+                            setState(ttw, TriggerWrapper.STATE_PAUSED_BLOCKED);
                         }
                         timeTriggers.remove(ttw);
                     }
                     blockedJobs.add(job.getKey());
                 } else if (tw.trigger.getNextFireTime() != null) {
-                    synchronized (lock) {
-                        timeTriggers.add(tw);
-                    }
+                    timeTriggers.add(tw);
                 }
 
                 results.add(new TriggerFiredResult(bndle));
@@ -1575,12 +1720,12 @@ public class RAMJobStore implements JobStore {
                     blockedJobs.remove(jd.getKey());
                     ArrayList<TriggerWrapper> trigs = getTriggerWrappersForJob(jd.getKey());
                     for(TriggerWrapper ttw : trigs) {
-                        if (ttw.state == TriggerWrapper.STATE_BLOCKED) {
-                            ttw.state = TriggerWrapper.STATE_WAITING;
+                        if (ttw.getState() == TriggerWrapper.STATE_BLOCKED) {
+                            setState(ttw, TriggerWrapper.STATE_WAITING);
                             timeTriggers.add(ttw);
                         }
-                        if (ttw.state == TriggerWrapper.STATE_PAUSED_BLOCKED) {
-                            ttw.state = TriggerWrapper.STATE_PAUSED;
+                        if (ttw.getState() == TriggerWrapper.STATE_PAUSED_BLOCKED) {
+                            setState(ttw, TriggerWrapper.STATE_PAUSED);
                         }
                     }
                     signaler.signalSchedulingChange(0L);
@@ -1604,12 +1749,12 @@ public class RAMJobStore implements JobStore {
                         signaler.signalSchedulingChange(0L);
                     }
                 } else if (triggerInstCode == CompletedExecutionInstruction.SET_TRIGGER_COMPLETE) {
-                    tw.state = TriggerWrapper.STATE_COMPLETE;
+                    setState(tw, TriggerWrapper.STATE_COMPLETE);
                     timeTriggers.remove(tw);
                     signaler.signalSchedulingChange(0L);
                 } else if(triggerInstCode == CompletedExecutionInstruction.SET_TRIGGER_ERROR) {
                     getLog().info("Trigger " + trigger.getKey() + " set to ERROR state.");
-                    tw.state = TriggerWrapper.STATE_ERROR;
+                    setState(tw, TriggerWrapper.STATE_ERROR);
                     signaler.signalSchedulingChange(0L);
                 } else if (triggerInstCode == CompletedExecutionInstruction.SET_ALL_JOB_TRIGGERS_ERROR) {
                     getLog().info("All triggers of Job " 
@@ -1627,7 +1772,7 @@ public class RAMJobStore implements JobStore {
     protected void setAllTriggersOfJobToState(JobKey jobKey, int state) {
         ArrayList<TriggerWrapper> tws = getTriggerWrappersForJob(jobKey);
         for (TriggerWrapper tw : tws) {
-            tw.state = state;
+            setState(tw, state);
             if (state != TriggerWrapper.STATE_WAITING) {
                 timeTriggers.remove(tw);
             }
@@ -1720,7 +1865,7 @@ class JobWrapper {
 
     public JobKey key;
 
-    public JobDetail jobDetail;
+    public volatile JobDetail jobDetail;
 
     JobWrapper(JobDetail jobDetail) {
         this.jobDetail = jobDetail;
@@ -1744,61 +1889,3 @@ class JobWrapper {
         return key.hashCode(); 
     }
 }
-
-class TriggerWrapper {
-
-    public final TriggerKey key;
-
-    public final JobKey jobKey;
-
-    public final OperableTrigger trigger;
-
-    public int state = STATE_WAITING;
-
-    public static final int STATE_WAITING = 0;
-
-    public static final int STATE_ACQUIRED = 1;
-
-    @SuppressWarnings("UnusedDeclaration")
-    public static final int STATE_EXECUTING = 2;
-
-    public static final int STATE_COMPLETE = 3;
-
-    public static final int STATE_PAUSED = 4;
-
-    public static final int STATE_BLOCKED = 5;
-
-    public static final int STATE_PAUSED_BLOCKED = 6;
-
-    public static final int STATE_ERROR = 7;
-    
-    TriggerWrapper(OperableTrigger trigger) {
-        if(trigger == null)
-            throw new IllegalArgumentException("Trigger cannot be null!");
-        this.trigger = trigger;
-        key = trigger.getKey();
-        this.jobKey = trigger.getJobKey();
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-        if (obj instanceof TriggerWrapper) {
-            TriggerWrapper tw = (TriggerWrapper) obj;
-            if (tw.key.equals(this.key)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    @Override
-    public int hashCode() {
-        return key.hashCode(); 
-    }
-
-    
-    public OperableTrigger getTrigger() {
-        return this.trigger;
-    }
-}
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.simpl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * A time-ordered set of <code>{@link TriggerWrapper}</code>s, indexed by a
+ * hierarchical timing wheel over their next fire times, that
+ * <code>{@link RAMJobStore}</code> can use for its <code>timeTriggers</code>.
+ * </p>
+ *
+ * <p>
+ * Fire times are divided into ticks of <code>tickMillis</code>.  The wheel has
+ * six levels of 64 slots: level 0 holds the triggers due within the 64 ticks
+ * of the current base tick, level 1 those within 64<sup>2</sup> ticks, and so
+ * on, so with 1 millisecond ticks the wheel spans a little over two years.  Triggers due before the base tick and those beyond the last level (or
+ * with no next fire time) are kept in two ordinary sorted sets.  The slots
+ * of level 0 each hold a single tick and are sorted with the store's
+ * comparator, so ordering within a tick is exact; the coarser slots are
+ * unsorted, so adding and removing a trigger costs a hash operation.  A bitmap
+ * of occupied slots per level makes finding the earliest trigger independent
+ * of the number of triggers.  When the earliest trigger lives in a coarser
+ * level, its slot is cascaded into the finer levels, which happens at most
+ * five times per trigger.  <code>pollDue</code> removes the due triggers a
+ * slot at a time, so <code>RAMJobStore</code> can acquire a batch without
+ * looking up the first trigger again for each one.
+ * </p>
+ *
+ * <p>
+ * The sorted-set views (<code>headSet</code>, <code>tailSet</code> and
+ * <code>subSet</code>) are backed by the set, but walk it in order rather
+ * than use the wheel.  Like the <code>TreeSet</code> it replaces, a
+ * trigger's next fire time must not change while it is in the set, and the set is not thread-safe: <code>RAMJobStore</code> only uses it
+ * while holding its lock.
+ * </p>
+ *
+ * @see RAMJobStore#setUseTimingWheel(boolean)
+ */
+class TimingWheelTriggerSet extends AbstractSet<TriggerWrapper> implements SortedSet<TriggerWrapper> {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int LEVELS = 6;
+
+    private final Comparator<TriggerWrapper> comparator;
+
+    private final long tickMillis;
+
+    private final Slot[][] wheel = new Slot[LEVELS][SLOTS];
+
+    private final long[] occupied = new long[LEVELS];
+
+    private final Slot overdue;
+
+    private final Slot overflow;
+
+    private final HashMap<TriggerWrapper, Slot> slotsByTrigger = new HashMap<TriggerWrapper, Slot>(1000);
+
+    private long baseTick;
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Constructors.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    TimingWheelTriggerSet(Comparator<TriggerWrapper> comparator, long tickMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1 millisecond");
+        }
+        this.comparator = comparator;
+        this.tickMillis = tickMillis;
+        this.overdue = new Slot(-1, -1, true);
+        this.overflow = new Slot(-1, -1, true);
+        this.baseTick = System.currentTimeMillis() / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int index = 0; index < SLOTS; index++) {
+                wheel[level][index] = new Slot(level, index, level == 0);
+            }
+        }
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    @Override
+    public boolean add(TriggerWrapper tw) {
+        if (slotsByTrigger.containsKey(tw)) {
+            return false;
+        }
+        place(tw);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Slot slot = slotsByTrigger.remove(o);
+        if (slot == null) {
+            return false;
+        }
+        if (!slot.triggers.remove(o) && slot.sorted) {
+            // the fire time changed while in the set, find it the slow way
+            Iterator<TriggerWrapper> it = slot.triggers.iterator();
+            while (it.hasNext()) {
+                if (it.next().equals(o)) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+        if (slot.level >= 0 && slot.triggers.isEmpty()) {
+            occupied[slot.level] &= ~(1L << slot.index);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return slotsByTrigger.containsKey(o);
+    }
+
+    @Override
+    public int size() {
+        return slotsByTrigger.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return slotsByTrigger.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int index = 0; index < SLOTS; index++) {
+                wheel[level][index].triggers.clear();
+            }
+            occupied[level] = 0L;
+        }
+        overdue.triggers.clear();
+        overflow.triggers.clear();
+        slotsByTrigger.clear();
+    }
+
+    public Comparator<? super TriggerWrapper> comparator() {
+        return comparator;
+    }
+
+    public TriggerWrapper first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return firstSlot().first();
+    }
+
+    public TriggerWrapper last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        if (!overflow.triggers.isEmpty()) {
+            return overflow.last();
+        }
+        for (int level = LEVELS - 1; level >= 0; level--) {
+            if (occupied[level] != 0L) {
+                int index = SLOTS - 1 - Long.numberOfLeadingZeros(occupied[level]);
+                return wheel[level][index].last();
+            }
+        }
+        return overdue.last();
+    }
+
+    /**
+     * Iterates in fire time order over a snapshot of the set.  The iterator's
+     * <code>remove()</code> removes from the set.
+     */
+    @Override
+    public Iterator<TriggerWrapper> iterator() {
+        final List<TriggerWrapper> snapshot = new ArrayList<TriggerWrapper>(size());
+        snapshot.addAll(overdue.triggers);
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            while (bits != 0L) {
+                int index = Long.numberOfTrailingZeros(bits);
+                Slot slot = wheel[level][index];
+                if (slot.sorted) {
+                    snapshot.addAll(slot.triggers);
+                } else {
+                    List<TriggerWrapper> sorted = new ArrayList<TriggerWrapper>(slot.triggers);
+                    Collections.sort(sorted, comparator);
+                    snapshot.addAll(sorted);
+                }
+                bits &= bits - 1;
+            }
+        }
+        snapshot.addAll(overflow.triggers);
+
+        return new Iterator<TriggerWrapper>() {
+            private final Iterator<TriggerWrapper> it = snapshot.iterator();
+            private TriggerWrapper current;
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public TriggerWrapper next() {
+                current = it.next();
+                return current;
+            }
+
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                TimingWheelTriggerSet.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    /**
+     * Removes and returns, in fire time order, up to <code>max</code> of the
+     * earliest triggers whose next fire time is no later than
+     * <code>noLaterThan</code>.
+     */
+    List<TriggerWrapper> pollDue(long noLaterThan, int max) {
+        List<TriggerWrapper> due = new ArrayList<TriggerWrapper>(Math.min(max, size()));
+        while (due.size() < max && !isEmpty()) {
+            Slot slot = firstSlot();
+            TreeSet<TriggerWrapper> triggers = (TreeSet<TriggerWrapper>) slot.triggers;
+            while (due.size() < max && !triggers.isEmpty()) {
+                TriggerWrapper tw = triggers.first();
+                Date nextFireTime = tw.trigger.getNextFireTime();
+                if (nextFireTime == null || nextFireTime.getTime() > noLaterThan) {
+                    return due;
+                }
+                triggers.pollFirst();
+                slotsByTrigger.remove(tw);
+                due.add(tw);
+            }
+            if (slot.level >= 0 && triggers.isEmpty()) {
+                occupied[slot.level] &= ~(1L << slot.index);
+            }
+        }
+        return due;
+    }
+
+    public SortedSet<TriggerWrapper> subSet(TriggerWrapper fromElement, TriggerWrapper toElement) {
+        return new RangeView(checkBound(fromElement), checkBound(toElement));
+    }
+
+    public SortedSet<TriggerWrapper> headSet(TriggerWrapper toElement) {
+        return new RangeView(null, checkBound(toElement));
+    }
+
+    public SortedSet<TriggerWrapper> tailSet(TriggerWrapper fromElement) {
+        return new RangeView(checkBound(fromElement), null);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Wheel maintenance.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private static TriggerWrapper checkBound(TriggerWrapper bound) {
+        if (bound == null) {
+            throw new NullPointerException();
+        }
+        return bound;
+    }
+
+    private long tickOf(TriggerWrapper tw) {
+        Date nextFireTime = tw.trigger.getNextFireTime();
+        return (nextFireTime == null) ? Long.MAX_VALUE : nextFireTime.getTime() / tickMillis;
+    }
+
+    /**
+     * Returns the sorted slot holding the earliest trigger, cascading the
+     * coarser levels and reclaiming the overflow as needed.  Only valid when
+     * the set is not empty.
+     */
+    private Slot firstSlot() {
+        if (!overdue.triggers.isEmpty()) {
+            return overdue;
+        }
+        while (true) {
+            int level = 0;
+            while (level < LEVELS && occupied[level] == 0L) {
+                level++;
+            }
+            if (level == LEVELS) {
+                if (!reclaimOverflow()) {
+                    return overflow;
+                }
+                continue;
+            }
+            Slot slot = wheel[level][Long.numberOfTrailingZeros(occupied[level])];
+            if (level == 0) {
+                return slot;
+            }
+            cascade(slot);
+        }
+    }
+
+    private void place(TriggerWrapper tw) {
+        long tick = tickOf(tw);
+        Slot slot;
+        if (tick < baseTick) {
+            slot = overdue;
+        } else {
+            long diff = tick ^ baseTick;
+            int level = (diff == 0L) ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS;
+            if (level >= LEVELS) {
+                slot = overflow;
+            } else {
+                int index = (int) (tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+                slot = wheel[level][index];
+                occupied[level] |= 1L << index;
+            }
+        }
+        slot.triggers.add(tw);
+        slotsByTrigger.put(tw, slot);
+    }
+
+    /**
+     * Moves the base tick to the earliest trigger, which is in the given
+     * slot, and redistributes that slot into the finer levels.  Only valid
+     * when the finer levels are empty.
+     */
+    private void cascade(Slot slot) {
+        baseTick = tickOf(slot.first());
+        occupied[slot.level] &= ~(1L << slot.index);
+        List<TriggerWrapper> moving = new ArrayList<TriggerWrapper>(slot.triggers);
+        slot.triggers.clear();
+        for (TriggerWrapper tw : moving) {
+            place(tw);
+        }
+    }
+
+    /**
+     * Moves the base tick to the earliest overflowed trigger and pulls the
+     * overflowed triggers that now fall within the wheel back into it.  Only
+     * valid when the wheel is empty.
+     *
+     * @return whether any trigger was pulled into the wheel
+     */
+    private boolean reclaimOverflow() {
+        if (overflow.triggers.isEmpty()) {
+            return false;
+        }
+        long tick = tickOf(overflow.first());
+        if (tick == Long.MAX_VALUE) {
+            return false;
+        }
+        baseTick = tick;
+        List<TriggerWrapper> moving = new ArrayList<TriggerWrapper>(overflow.triggers);
+        overflow.triggers.clear();
+        for (TriggerWrapper tw : moving) {
+            place(tw);
+        }
+        return true;
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Helper Classes.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * A view of the triggers from <code>from</code> (inclusive, or unbounded
+     * if null) to <code>to</code> (exclusive, or unbounded if null), backed
+     * by the set.  Its operations walk the set in order, so they cost as
+     * much as iterating the set up to the end of the range.
+     */
+    private final class RangeView extends AbstractSet<TriggerWrapper> implements SortedSet<TriggerWrapper> {
+
+        private final TriggerWrapper from;
+
+        private final TriggerWrapper to;
+
+        RangeView(TriggerWrapper from, TriggerWrapper to) {
+            if (from != null && to != null && comparator.compare(from, to) > 0) {
+                throw new IllegalArgumentException("fromElement > toElement");
+            }
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean inRange(TriggerWrapper tw) {
+            return (from == null || comparator.compare(tw, from) >= 0)
+                    && (to == null || comparator.compare(tw, to) < 0);
+        }
+
+        private boolean inClosedRange(TriggerWrapper tw) {
+            return (from == null || comparator.compare(tw, from) >= 0)
+                    && (to == null || comparator.compare(tw, to) <= 0);
+        }
+
+        @Override
+        public Iterator<TriggerWrapper> iterator() {
+            final Iterator<TriggerWrapper> it = TimingWheelTriggerSet.this.iterator();
+
+            return new Iterator<TriggerWrapper>() {
+                private TriggerWrapper next = advance();
+                private TriggerWrapper current;
+
+                private TriggerWrapper advance() {
+                    while (it.hasNext()) {
+                        TriggerWrapper tw = it.next();
+                        if (to != null && comparator.compare(tw, to) >= 0) {
+                            return null;
+                        }
+                        if (from == null || comparator.compare(tw, from) >= 0) {
+                            return tw;
+                        }
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                public TriggerWrapper next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    current = next;
+                    next = advance();
+                    return current;
+                }
+
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    TimingWheelTriggerSet.this.remove(current);
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Iterator<TriggerWrapper> it = iterator(); it.hasNext(); it.next()) {
+                size++;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof TriggerWrapper && inRange((TriggerWrapper) o)
+                    && TimingWheelTriggerSet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(TriggerWrapper tw) {
+            if (!inRange(tw)) {
+                throw new IllegalArgumentException("Trigger out of range");
+            }
+            return TimingWheelTriggerSet.this.add(tw);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return contains(o) && TimingWheelTriggerSet.this.remove(o);
+        }
+
+        @Override
+        public void clear() {
+            List<TriggerWrapper> inView = new ArrayList<TriggerWrapper>(this);
+            for (TriggerWrapper tw : inView) {
+                TimingWheelTriggerSet.this.remove(tw);
+            }
+        }
+
+        public Comparator<? super TriggerWrapper> comparator() {
+            return comparator;
+        }
+
+        public TriggerWrapper first() {
+            Iterator<TriggerWrapper> it = iterator();
+            if (!it.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return it.next();
+        }
+
+        public TriggerWrapper last() {
+            Iterator<TriggerWrapper> it = iterator();
+            if (!it.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TriggerWrapper last = it.next();
+            while (it.hasNext()) {
+                last = it.next();
+            }
+            return last;
+        }
+
+        public SortedSet<TriggerWrapper> subSet(TriggerWrapper fromElement, TriggerWrapper toElement) {
+            return new RangeView(checkInRange(fromElement), checkInRange(toElement));
+        }
+
+        public SortedSet<TriggerWrapper> headSet(TriggerWrapper toElement) {
+            return new RangeView(from, checkInRange(toElement));
+        }
+
+        public SortedSet<TriggerWrapper> tailSet(TriggerWrapper fromElement) {
+            return new RangeView(checkInRange(fromElement), to);
+        }
+
+        private TriggerWrapper checkInRange(TriggerWrapper bound) {
+            if (!inClosedRange(checkBound(bound))) {
+                throw new IllegalArgumentException("Bound out of range");
+            }
+            return bound;
+        }
+    }
+
+    private final class Slot {
+
+        final int level;
+
+        final int index;
+
+        final boolean sorted;
+
+        final Set<TriggerWrapper> triggers;
+
+        Slot(int level, int index, boolean sorted) {
+            this.level = level;
+            this.index = index;
+            this.sorted = sorted;
+            this.triggers = sorted ? new TreeSet<TriggerWrapper>(comparator) : new HashSet<TriggerWrapper>();
+        }
+
+        TriggerWrapper first() {
+            return sorted ? ((TreeSet<TriggerWrapper>) triggers).first() : Collections.min(triggers, comparator);
+        }
+
+        TriggerWrapper last() {
+            return sorted ? ((TreeSet<TriggerWrapper>) triggers).last() : Collections.max(triggers, comparator);
+        }
+    }
+}
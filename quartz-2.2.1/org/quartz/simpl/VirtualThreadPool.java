@@ -0,0 +1,153 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.simpl;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.quartz.SchedulerConfigException;
+
+/**
+ * <p>
+ * A <code>{@link org.quartz.spi.ThreadPool}</code> that runs each job on a
+ * new virtual thread, for jobs that spend most of their time blocked on
+ * I/O.
+ * </p>
+ *
+ * <p>
+ * Virtual threads are cheap to create and to block, so the thread count,
+ * which limits the number of jobs run at once, may be set much higher than
+ * with a pool of platform threads.  They require Java 21 or later: on
+ * earlier JVMs <code>initialize()</code> fails.  They are looked up
+ * reflectively, so that Quartz itself does not require Java 21.
+ * </p>
+ *
+ * @see ExecutorThreadPoolSupport
+ */
+public class VirtualThreadPool extends ExecutorThreadPoolSupport {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private ThreadFactory threadFactory;
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Constructors.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Create a new (unconfigured) <code>VirtualThreadPool</code>.
+     * </p>
+     *
+     * @see #setThreadCount(int)
+     */
+    public VirtualThreadPool() {
+    }
+
+    /**
+     * <p>
+     * Create a new <code>VirtualThreadPool</code> that runs up to the given
+     * number of jobs at once.
+     * </p>
+     */
+    public VirtualThreadPool(int threadCount) {
+        setThreadCount(threadCount);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * @return whether this JVM supports virtual threads.
+     */
+    public static boolean isSupported() {
+        try {
+            createThreadFactory("probe");
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Extension points.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    @Override
+    protected void startExecutor() throws SchedulerConfigException {
+        try {
+            threadFactory = createThreadFactory(getThreadNamePrefix() + "-");
+        } catch (Exception e) {
+            throw new SchedulerConfigException(
+                    "Virtual threads are not supported by this JVM (Java 21 or later is required).", e);
+        }
+    }
+
+    @Override
+    protected void execute(Runnable job) {
+        Thread thread = threadFactory.newThread(job);
+        if (thread == null) {
+            throw new RejectedExecutionException("Unable to create a virtual thread.");
+        }
+        thread.start();
+    }
+
+    @Override
+    protected void shutdownExecutor() {
+        // threads are not reused, so there is nothing to stop
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Helpers.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Get the factory of <code>Thread.ofVirtual().name(prefix, 1).factory()</code>.
+     * </p>
+     */
+    private static ThreadFactory createThreadFactory(String namePrefix) throws Exception {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.simpl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.quartz.SchedulerConfigException;
+
+/**
+ * <p>
+ * A <code>{@link org.quartz.spi.ThreadPool}</code> that runs jobs on a
+ * work-stealing <code>{@link ForkJoinPool}</code>.
+ * </p>
+ *
+ * <p>
+ * The fork/join pool keeps as many threads busy as its parallelism, which
+ * defaults to the number of processors.  Unless
+ * <code>blockingJobs</code> is set to false, jobs are run as blocking
+ * operations of the fork/join pool, which then starts extra threads while
+ * jobs block on I/O, and lets them expire once they have been idle for a
+ * while - so the number of threads grows and shrinks with the number of
+ * jobs running, up to the thread count, which limits the number of jobs run
+ * at once.
+ * </p>
+ *
+ * <p>
+ * The pool's threads are daemon threads.
+ * </p>
+ *
+ * @see ExecutorThreadPoolSupport
+ */
+public class WorkStealingThreadPool extends ExecutorThreadPoolSupport {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Data members.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    private int parallelism = -1;
+
+    private boolean blockingJobs = true;
+
+    private ForkJoinPool forkJoinPool;
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Constructors.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Create a new (unconfigured) <code>WorkStealingThreadPool</code>.
+     * </p>
+     *
+     * @see #setThreadCount(int)
+     */
+    public WorkStealingThreadPool() {
+    }
+
+    /**
+     * <p>
+     * Create a new <code>WorkStealingThreadPool</code> that runs up to the
+     * given number of jobs at once.
+     * </p>
+     */
+    public WorkStealingThreadPool(int threadCount) {
+        setThreadCount(threadCount);
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * <p>
+     * Set the number of threads the fork/join pool keeps busy, not counting
+     * the threads it starts while jobs block.  Defaults to the number of
+     * processors.
+     * </p>
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isBlockingJobs() {
+        return blockingJobs;
+    }
+
+    /**
+     * <p>
+     * Set whether jobs are run as blocking operations of the fork/join pool,
+     * so that it starts extra threads while jobs block.  Defaults to true;
+     * set to false if jobs are CPU-bound.
+     * </p>
+     */
+    public void setBlockingJobs(boolean blockingJobs) {
+        this.blockingJobs = blockingJobs;
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Extension points.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    @Override
+    protected void startExecutor() throws SchedulerConfigException {
+        int threads = (parallelism > 0) ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (threads > getThreadCount()) {
+            threads = getThreadCount();
+        }
+
+        final String threadPrefix = getThreadNamePrefix();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                };
+                thread.setName(threadPrefix + "-" + threadNumber.incrementAndGet());
+                return thread;
+            }
+        };
+
+        // asynchronous (FIFO) mode suits tasks that are never joined
+        forkJoinPool = new ForkJoinPool(threads, threadFactory, null, true);
+    }
+
+    @Override
+    protected void execute(Runnable job) {
+        forkJoinPool.execute(job);
+    }
+
+    @Override
+    protected void shutdownExecutor() {
+        forkJoinPool.shutdown();
+    }
+
+    @Override
+    protected void runJob(Runnable runnable) {
+        if (!blockingJobs) {
+            runnable.run();
+            return;
+        }
+
+        try {
+            ForkJoinPool.managedBlock(new JobBlocker(runnable));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Helpers.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Runs a job as a blocking operation, so that the fork/join pool may
+     * start another thread to stand in for the one running the job.
+     * </p>
+     */
+    private static class JobBlocker implements ForkJoinPool.ManagedBlocker {
+
+        private final Runnable runnable;
+
+        private boolean done = false;
+
+        JobBlocker(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        public boolean block() {
+            try {
+                runnable.run();
+            } finally {
+                done = true;
+            }
+            return true;
+        }
+
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
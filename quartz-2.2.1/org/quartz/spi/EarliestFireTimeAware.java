@@ -0,0 +1,58 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.spi;
+
+import org.quartz.JobPersistenceException;
+
+/**
+ * <p>
+ * The interface to be implemented by <code>{@link JobStore}</code>s that can
+ * tell when the earliest of their waiting triggers fires, so that an idle
+ * scheduler thread can park until shortly before then, rather than waking
+ * up every idle wait time to look for triggers.
+ * </p>
+ *
+ * <p>
+ * The scheduler thread only relies on it when every change to the schedule
+ * is signaled to it: when the store is not clustered, or when a
+ * <code>{@link SchedulingChangeChannel}</code> reports the changes made by
+ * the other instances of the cluster.
+ * </p>
+ *
+ * @see org.quartz.simpl.RAMJobStore
+ * @see org.quartz.impl.jdbcjobstore.JobStoreSupport
+ */
+public interface EarliestFireTimeAware {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Get the earliest next fire time of the triggers waiting to fire.
+     * </p>
+     *
+     * @return the time in milliseconds, or 0 if no trigger is waiting to fire
+     */
+    long getEarliestNextFireTime() throws JobPersistenceException;
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2001-2009 Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.quartz.spi;
+
+import org.quartz.SchedulerConfigException;
+import org.quartz.SchedulerException;
+
+/**
+ * <p>
+ * The interface to be implemented by classes that carry changes to the
+ * schedule between the scheduler instances sharing a
+ * <code>{@link JobStore}</code>, so that each instance's scheduler thread is
+ * woken up as soon as another instance schedules a trigger that fires before
+ * the one it is waiting for, rather than when it next looks for triggers by
+ * itself.
+ * </p>
+ *
+ * <p>
+ * A channel is configured with the <code>org.quartz.schedulingChangeChannel</code>
+ * properties, and is optional.
+ * </p>
+ *
+ * @see org.quartz.impl.jdbcjobstore.JdbcSchedulingChangeChannel
+ */
+public interface SchedulingChangeChannel {
+
+    /*
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     *
+     * Interface.
+     *
+     * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+     */
+
+    /**
+     * <p>
+     * Called by the <code>SchedulerFactory</code> once the
+     * <code>JobStore</code> has been initialized.
+     * </p>
+     *
+     * @param signaler
+     *          the signaler to report the changes made by other scheduler
+     *          instances to, with
+     *          <code>{@link SchedulerSignaler#signalSchedulingChange(long)}</code>
+     */
+    void initialize(JobStore jobStore, SchedulerSignaler signaler)
+        throws SchedulerConfigException;
+
+    /**
+     * <p>
+     * Called by the <code>QuartzScheduler</code> when it is first started,
+     * from when on changes should be reported.
+     * </p>
+     */
+    void start() throws SchedulerException;
+
+    /**
+     * <p>
+     * Called by the <code>QuartzScheduler</code> after it changed the
+     * schedule, for the channel to tell the other scheduler instances.
+     * </p>
+     *
+     * @param candidateNewNextFireTime
+     *          the time (in millis) when the newly scheduled trigger will
+     *          fire, or 0 if the change was not the scheduling of a trigger.
+     */
+    void schedulingChanged(long candidateNewNextFireTime);
+
+    /**
+     * <p>
+     * Called by the <code>QuartzScheduler</code> when it is shutting down.
+     * </p>
+     */
+    void shutdown();
+}